@@ -0,0 +1,103 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * AdmissionLimits class stores the rate limits and the load shedding threshold of the API.
+ *
+ * There is only one set of limits. Admins change it at runtime, and every instance reloads it
+ * shortly after; until it is first saved, the defaults apply.
+ */
+@Entity
+public class AdmissionLimits {
+
+    private static final String ID = "current";
+
+    @Id
+    private String id = ID;
+
+    /**
+     * The sustained number of reads per second a user may make.
+     */
+    private double readsPerSecond = 5;
+
+    /**
+     * The number of reads a user may make at once after being idle.
+     */
+    private int readBurst = 20;
+
+    /**
+     * The sustained number of transactional writes per second a user may make.
+     */
+    private double writesPerSecond = 0.5;
+
+    /**
+     * The number of transactional writes a user may make at once after being idle.
+     */
+    private int writeBurst = 5;
+
+    /**
+     * How many times the limits of a user apply to an IP address, which may be shared by the
+     * users behind a proxy.
+     */
+    private int ipMultiplier = 10;
+
+    /**
+     * The number of requests in flight on an instance above which reads are rejected.
+     */
+    private int maxInFlight = 40;
+
+    public AdmissionLimits() {}
+
+    public AdmissionLimits(final double readsPerSecond, final int readBurst,
+                           final double writesPerSecond, final int writeBurst,
+                           final int ipMultiplier, final int maxInFlight) {
+        if (readsPerSecond <= 0 || writesPerSecond <= 0 || readBurst < 1 || writeBurst < 1
+                || ipMultiplier < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("The limits have to be positive.");
+        }
+        this.readsPerSecond = readsPerSecond;
+        this.readBurst = readBurst;
+        this.writesPerSecond = writesPerSecond;
+        this.writeBurst = writeBurst;
+        this.ipMultiplier = ipMultiplier;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public static Key<AdmissionLimits> key() {
+        return Key.create(AdmissionLimits.class, ID);
+    }
+
+    public double getReadsPerSecond() {
+        return readsPerSecond;
+    }
+
+    public int getReadBurst() {
+        return readBurst;
+    }
+
+    public double getWritesPerSecond() {
+        return writesPerSecond;
+    }
+
+    public int getWriteBurst() {
+        return writeBurst;
+    }
+
+    public int getIpMultiplier() {
+        return ipMultiplier;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("readsPerSecond=%s readBurst=%d writesPerSecond=%s writeBurst=%d "
+                + "ipMultiplier=%d maxInFlight=%d", readsPerSecond, readBurst, writesPerSecond,
+                writeBurst, ipMultiplier, maxInFlight);
+    }
+}
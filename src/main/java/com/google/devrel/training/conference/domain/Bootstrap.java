@@ -0,0 +1,56 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Everything a client needs for rendering its first page, returned by a single call.
+ */
+public class Bootstrap {
+
+    /**
+     * The Profile of the user, null when the user is not signed in or has no Profile.
+     */
+    private final Profile profile;
+
+    /**
+     * The current announcement, null when there is none.
+     */
+    private final Announcement announcement;
+
+    /**
+     * The Conferences that the user is going to attend.
+     */
+    private final List<Conference> conferencesToAttend;
+
+    /**
+     * The Conference the page shows, null when the client asked for none.
+     */
+    private final Conference conference;
+
+    public Bootstrap(Profile profile, Announcement announcement,
+                     Collection<Conference> conferencesToAttend, Conference conference) {
+        this.profile = profile;
+        this.announcement = announcement;
+        this.conferencesToAttend = ImmutableList.copyOf(conferencesToAttend);
+        this.conference = conference;
+    }
+
+    public Profile getProfile() {
+        return profile;
+    }
+
+    public Announcement getAnnouncement() {
+        return announcement;
+    }
+
+    public List<Conference> getConferencesToAttend() {
+        return conferencesToAttend;
+    }
+
+    public Conference getConference() {
+        return conference;
+    }
+}
@@ -0,0 +1,49 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * CatalogSnapshotChunk class stores a part of the bytes of a catalog snapshot, since a snapshot
+ * may be larger than an entity can be.
+ */
+@Entity
+public class CatalogSnapshotChunk {
+
+    /**
+     * The generation of the snapshot and the position of the chunk, as "generation/index".
+     */
+    @Id
+    private String id;
+
+    /**
+     * The bytes of the chunk, which are stored unindexed.
+     */
+    private byte[] data;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private CatalogSnapshotChunk() {}
+
+    public CatalogSnapshotChunk(final long generation, final int index, final byte[] data) {
+        this.id = generation + "/" + index;
+        this.data = data;
+    }
+
+    /**
+     * Returns the key of a chunk.
+     *
+     * @param generation The generation of the snapshot.
+     * @param index The position of the chunk.
+     * @return the key of the chunk.
+     */
+    public static Key<CatalogSnapshotChunk> key(final long generation, final int index) {
+        return Key.create(CatalogSnapshotChunk.class, generation + "/" + index);
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
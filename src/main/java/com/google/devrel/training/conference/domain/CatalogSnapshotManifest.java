@@ -0,0 +1,62 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * CatalogSnapshotManifest class stores which generation of the catalog snapshot is current.
+ *
+ * There is only one manifest. It is switched to a new generation once all of its chunks are
+ * stored, so a reader never sees a partial snapshot.
+ */
+@Entity
+public class CatalogSnapshotManifest {
+
+    private static final String ID = "current";
+
+    @Id
+    private String id = ID;
+
+    /**
+     * The generation of the current snapshot, the time it was built at.
+     */
+    private long generation;
+
+    /**
+     * The number of chunks of the current snapshot.
+     */
+    private int chunkCount;
+
+    /**
+     * The size of the current snapshot in bytes.
+     */
+    private int size;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private CatalogSnapshotManifest() {}
+
+    public CatalogSnapshotManifest(final long generation, final int chunkCount, final int size) {
+        this.generation = generation;
+        this.chunkCount = chunkCount;
+        this.size = size;
+    }
+
+    public static Key<CatalogSnapshotManifest> key() {
+        return Key.create(CatalogSnapshotManifest.class, ID);
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public int getSize() {
+        return size;
+    }
+}
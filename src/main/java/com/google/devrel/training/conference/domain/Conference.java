@@ -1,26 +1,34 @@
 package com.google.devrel.training.conference.domain;
 
-import static com.google.devrel.training.conference.service.OfyService.ofy;
-
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.Repositories;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnLoad;
+import com.googlecode.objectify.annotation.OnSave;
 import com.googlecode.objectify.annotation.Parent;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
 /**
  * Conference class stores conference information.
+ *
+ * Conferences are read far more often than written, so they are kept in the global cache.
  */
 @Entity
+@Cache
 public class Conference {
 
     private static final String DEFAULT_CITY = "Default City";
@@ -101,6 +109,37 @@ public class Conference {
     @Index
     private int seatsAvailable;
 
+    /**
+     * Whether registrations are taken as seat holds of a flash sale.
+     */
+    private boolean flashSale;
+
+    /**
+     * The number of users on the waitlist, changed in the same transactions as the waitlist, so
+     * that newcomers queue behind them even while the waitlist query lags.
+     */
+    private int waitlisted;
+
+    /**
+     * The free seats kept for the waitlist during a flash sale, out of the counter of the sale,
+     * so that the waiting users get the seats freed during the sale before newcomers do.
+     */
+    private int waitlistSeats;
+
+    /**
+     * When the Conference was last saved, for syncing clients with the changes only.
+     */
+    @Index
+    private Date lastModified;
+
+    /**
+     * The organizer's display name when it is known without loading the Profile, as for a
+     * Conference read from a catalog snapshot.
+     */
+    @Ignore
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private String organizerDisplayName;
+
     /**
      * Just making the default constructor private.
      */
@@ -115,6 +154,34 @@ public class Conference {
         updateWithConferenceForm(conferenceForm);
     }
 
+    /**
+     * Returns a copy of the Conference, for handing a shared instance to a caller that may
+     * change it.
+     *
+     * @return the copy, which shares only the unmodifiable topics.
+     */
+    public Conference copy() {
+        Conference copy = new Conference();
+        copy.id = id;
+        copy.name = name;
+        copy.description = description;
+        copy.profileKey = profileKey;
+        copy.organizerUserId = organizerUserId;
+        copy.topics = topics;
+        copy.city = city;
+        copy.startDate = startDate == null ? null : new Date(startDate.getTime());
+        copy.endDate = endDate == null ? null : new Date(endDate.getTime());
+        copy.month = month;
+        copy.maxAttendees = maxAttendees;
+        copy.seatsAvailable = seatsAvailable;
+        copy.flashSale = flashSale;
+        copy.waitlisted = waitlisted;
+        copy.waitlistSeats = waitlistSeats;
+        copy.lastModified = lastModified == null ? null : new Date(lastModified.getTime());
+        copy.organizerDisplayName = organizerDisplayName;
+        return copy;
+    }
+
     public long getId() {
         return id;
     }
@@ -147,7 +214,11 @@ public class Conference {
      * @return organizer's display name. If there is no Profile, return his/her gplusId.
      */
     public String getOrganizerDisplayName() {
-        Profile organizer = ofy().load().key(Key.create(Profile.class, organizerUserId)).now();
+        if (organizerDisplayName != null) {
+            return organizerDisplayName;
+        }
+        Profile organizer =
+                Repositories.profiles().get(Key.create(Profile.class, organizerUserId));
         if (organizer == null) {
             return organizerUserId;
         } else {
@@ -156,11 +227,21 @@ public class Conference {
     }
 
     /**
-     * Returns a defensive copy of topics if not null.
-     * @return a defensive copy of topics if not null.
+     * Sets the organizer's display name, so that it is not looked up.
+     *
+     * @param organizerDisplayName The display name of the organizer.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public void setOrganizerDisplayName(String organizerDisplayName) {
+        this.organizerDisplayName = organizerDisplayName;
+    }
+
+    /**
+     * Returns the topics, which are kept unmodifiable, so they are not copied for every read.
+     * @return the unmodifiable topics, or null.
      */
     public List<String> getTopics() {
-        return topics == null ? null : ImmutableList.copyOf(topics);
+        return topics;
     }
 
     public String getCity() {
@@ -195,6 +276,71 @@ public class Conference {
         return seatsAvailable;
     }
 
+    public boolean isFlashSale() {
+        return flashSale;
+    }
+
+    public void setFlashSale(final boolean flashSale) {
+        this.flashSale = flashSale;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getWaitlisted() {
+        return waitlisted;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getWaitlistSeats() {
+        return waitlistSeats;
+    }
+
+    /**
+     * Returns a defensive copy of lastModified if not null.
+     * @return a defensive copy of lastModified if not null.
+     */
+    public Date getLastModified() {
+        return lastModified == null ? null : new Date(lastModified.getTime());
+    }
+
+    /**
+     * Sets the seats of a copy of a Conference to those tracked apart from it, such as by the
+     * SeatAvailabilityCache.
+     *
+     * @param seatsAvailable The number of available seats.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public void setSeatsAvailable(final int seatsAvailable) {
+        this.seatsAvailable = seatsAvailable;
+    }
+
+    /**
+     * Restores lastModified of a Conference decoded from a copy, such as a catalog snapshot.
+     *
+     * @param lastModified When the Conference was last saved, or null.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public void setLastModified(final Date lastModified) {
+        this.lastModified = lastModified == null ? null : new Date(lastModified.getTime());
+    }
+
+    /**
+     * Stamps every save, so that creations, updates and registrations all show up as changes.
+     */
+    @OnSave
+    void updateLastModified() {
+        lastModified = new Date();
+    }
+
+    /**
+     * Makes the loaded topics unmodifiable, once per load rather than once per read.
+     */
+    @OnLoad
+    void wrapTopics() {
+        if (topics != null) {
+            topics = Collections.unmodifiableList(topics);
+        }
+    }
+
     /**
      * Updates the Conference with ConferenceForm.
      * This method is used upon object creation as well as updating existing Conferences.
@@ -205,7 +351,8 @@ public class Conference {
         this.name = conferenceForm.getName();
         this.description = conferenceForm.getDescription();
         List<String> topics = conferenceForm.getTopics();
-        this.topics = topics == null || topics.isEmpty() ? DEFAULT_TOPICS : topics;
+        this.topics = topics == null || topics.isEmpty()
+                ? DEFAULT_TOPICS : Collections.unmodifiableList(new ArrayList<>(topics));
         this.city = conferenceForm.getCity() == null ? DEFAULT_CITY : conferenceForm.getCity();
 
         Date startDate = conferenceForm.getStartDate();
@@ -217,7 +364,7 @@ public class Conference {
             Calendar calendar = Calendar.getInstance();
             calendar.setTime(this.startDate);
             // Calendar.MONTH is zero based, so adding 1.
-            this.month = calendar.get(calendar.MONTH) + 1;
+            this.month = calendar.get(Calendar.MONTH) + 1;
         }
         // Check maxAttendees value against the number of already allocated seats.
         int seatsAllocated = maxAttendees - seatsAvailable;
@@ -245,6 +392,22 @@ public class Conference {
         seatsAvailable = seatsAvailable + number;
     }
 
+    public void addToWaitlist(final int number) {
+        waitlisted = waitlisted + number;
+    }
+
+    public void removeFromWaitlist(final int number) {
+        waitlisted = Math.max(0, waitlisted - number);
+    }
+
+    public void addWaitlistSeats(final int number) {
+        waitlistSeats = waitlistSeats + number;
+    }
+
+    public void removeWaitlistSeats(final int number) {
+        waitlistSeats = Math.max(0, waitlistSeats - number);
+    }
+
     @Override
     public String toString() {
         StringBuilder stringBuilder = new StringBuilder("Id: " + id + "\n")
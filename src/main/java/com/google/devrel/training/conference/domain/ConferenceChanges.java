@@ -0,0 +1,44 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * The Conferences changed since a sync token, with the token for the next sync.
+ */
+public class ConferenceChanges {
+
+    /**
+     * The changed Conferences, in the order of their changes.
+     */
+    private final List<Conference> conferences;
+
+    /**
+     * The token to pass to the next sync.
+     */
+    private final String syncToken;
+
+    /**
+     * Whether more changes can be fetched right away with the new token.
+     */
+    private final boolean more;
+
+    public ConferenceChanges(List<Conference> conferences, String syncToken, boolean more) {
+        this.conferences = ImmutableList.copyOf(conferences);
+        this.syncToken = syncToken;
+        this.more = more;
+    }
+
+    public List<Conference> getConferences() {
+        return conferences;
+    }
+
+    public String getSyncToken() {
+        return syncToken;
+    }
+
+    public boolean isMore() {
+        return more;
+    }
+}
@@ -0,0 +1,19 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * The number of Conferences matching a query.
+ */
+public class ConferenceCount {
+
+    private int count;
+
+    public ConferenceCount() {}
+
+    public ConferenceCount(int count) {
+        this.count = count;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,210 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * ConferenceListing class stores one page of the Conferences in a city, with a topic or in a
+ * month, sorted by name and ready to serve.
+ *
+ * A listing is split into pages of at most PAGE_SIZE summaries, each its own entity, so a large
+ * listing neither outgrows an entity nor has to be read whole. Browsing a page is a single get.
+ *
+ * The first page is the head of the listing, and names the generation of its other pages. A
+ * rebuild writes the other pages of a new generation before the head, so readers see either the
+ * old listing or the new one, never a mix of both. The pages of a replaced generation are kept
+ * until the next rebuild, for the readers still holding the old head.
+ */
+@Entity
+@Cache
+public class ConferenceListing {
+
+    /**
+     * The maximum number of summaries per page.
+     */
+    public static final int PAGE_SIZE = 100;
+
+    /**
+     * Enum representing the Conference field a listing is for.
+     */
+    public static enum Facet {
+        CITY, TOPIC, MONTH
+    }
+
+    /**
+     * The facet, the value and the page, as "facet/value/page", followed by "@generation" for the
+     * pages after the first one.
+     */
+    @Id
+    private String id;
+
+    private Facet facet;
+
+    private String value;
+
+    private int page;
+
+    /**
+     * The generation of the pages of the listing, which is 0 for listings built before the
+     * pages had generations.
+     */
+    private long generation;
+
+    /**
+     * The generation the head replaced, whose pages are deleted by the next rebuild.
+     */
+    private long previousGeneration;
+
+    /**
+     * The number of pages of the generation the head replaced.
+     */
+    private int previousPageCount;
+
+    /**
+     * The number of pages of the listing.
+     */
+    private int pageCount;
+
+    /**
+     * The number of Conferences in the listing.
+     */
+    private int totalCount;
+
+    private List<ConferenceSummary> conferences;
+
+    /**
+     * When the listing was built.
+     */
+    private Date builtAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ConferenceListing() {}
+
+    public ConferenceListing(final Facet facet, final String value, final long generation,
+                             final int page, final int pageCount, final int totalCount,
+                             final List<ConferenceSummary> conferences) {
+        this.id = id(facet, value, generation, page);
+        this.facet = facet;
+        this.value = value;
+        this.generation = generation;
+        this.page = page;
+        this.pageCount = pageCount;
+        this.totalCount = totalCount;
+        this.conferences = new ArrayList<>(conferences);
+        this.builtAt = new Date();
+    }
+
+    /**
+     * Returns an empty listing, for a facet value no Conference has.
+     *
+     * @param facet The facet of the listing.
+     * @param value The value of the facet.
+     * @return the first and only page of an empty listing.
+     */
+    public static ConferenceListing empty(final Facet facet, final String value) {
+        return new ConferenceListing(facet, value, 0, 0, 0, 0,
+                Collections.<ConferenceSummary>emptyList());
+    }
+
+    private static String id(final Facet facet, final String value, final long generation,
+                             final int page) {
+        String id = facet + "/" + value + "/" + page;
+        return page == 0 || generation == 0 ? id : id + "@" + generation;
+    }
+
+    /**
+     * Returns the key of the head of a listing, its first page.
+     *
+     * @param facet The facet of the listing.
+     * @param value The value of the facet.
+     * @return the key of the head.
+     */
+    public static Key<ConferenceListing> key(final Facet facet, final String value) {
+        return key(facet, value, 0, 0);
+    }
+
+    /**
+     * Returns the key of a page of a listing.
+     *
+     * @param facet The facet of the listing.
+     * @param value The value of the facet.
+     * @param generation The generation of the pages, from the head.
+     * @param page The page, starting at 0.
+     * @return the key of the page.
+     */
+    public static Key<ConferenceListing> key(final Facet facet, final String value,
+                                             final long generation, final int page) {
+        return Key.create(ConferenceListing.class, id(facet, value, generation, page));
+    }
+
+    /**
+     * Records the head this head replaces, so the next rebuild can delete the pages it named.
+     *
+     * @param previous The head of the listing so far.
+     */
+    public void replace(final ConferenceListing previous) {
+        this.previousGeneration = previous.generation;
+        this.previousPageCount = previous.pageCount;
+    }
+
+    public Facet getFacet() {
+        return facet;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public long getGeneration() {
+        return generation;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public long getPreviousGeneration() {
+        return previousGeneration;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getPreviousPageCount() {
+        return previousPageCount;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public List<ConferenceSummary> getConferences() {
+        return conferences == null
+                ? Collections.<ConferenceSummary>emptyList()
+                : Collections.unmodifiableList(conferences);
+    }
+
+    /**
+     * Returns a defensive copy of builtAt.
+     *
+     * @return a defensive copy of builtAt.
+     */
+    public Date getBuiltAt() {
+        return builtAt == null ? null : new Date(builtAt.getTime());
+    }
+}
@@ -0,0 +1,48 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * The result of looking up a single key in a batch of Conference keys.
+ */
+public class ConferenceLookup {
+
+    /**
+     * Enum representing the outcome of a lookup.
+     */
+    public static enum Status {
+        FOUND,
+        NOT_FOUND,
+        INVALID_KEY
+    }
+
+    /**
+     * The String representation of the Conference key, as requested.
+     */
+    private String websafeConferenceKey;
+
+    private Status status;
+
+    /**
+     * The Conference, or null unless the status is FOUND.
+     */
+    private Conference conference;
+
+    public ConferenceLookup() {}
+
+    public ConferenceLookup(String websafeConferenceKey, Status status, Conference conference) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.status = status;
+        this.conference = conference;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Conference getConference() {
+        return conference;
+    }
+}
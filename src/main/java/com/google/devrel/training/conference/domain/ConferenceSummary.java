@@ -0,0 +1,77 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The fields of a Conference shown in a browse listing.
+ *
+ * The summary leaves out the available seats, which change with every registration, so that
+ * registrations do not rebuild the listings. Clients read the seats with getSeatAvailability.
+ */
+public class ConferenceSummary {
+
+    private String websafeConferenceKey;
+
+    private String name;
+
+    private String organizerDisplayName;
+
+    private List<String> topics;
+
+    private String city;
+
+    private Date startDate;
+
+    private Date endDate;
+
+    private int maxAttendees;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ConferenceSummary() {}
+
+    public ConferenceSummary(Conference conference, String organizerDisplayName) {
+        this.websafeConferenceKey = conference.getWebsafeKey();
+        this.name = conference.getName();
+        this.organizerDisplayName = organizerDisplayName;
+        this.topics = conference.getTopics();
+        this.city = conference.getCity();
+        this.startDate = conference.getStartDate();
+        this.endDate = conference.getEndDate();
+        this.maxAttendees = conference.getMaxAttendees();
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getOrganizerDisplayName() {
+        return organizerDisplayName;
+    }
+
+    public List<String> getTopics() {
+        return topics;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public Date getEndDate() {
+        return endDate;
+    }
+
+    public int getMaxAttendees() {
+        return maxAttendees;
+    }
+}
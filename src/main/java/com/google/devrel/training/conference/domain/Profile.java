@@ -1,11 +1,12 @@
 package com.google.devrel.training.conference.domain;
 
-import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -40,6 +41,12 @@ public class Profile {
      */
     private List<String> conferenceKeysToAttend = new ArrayList<>(0);
 
+    /**
+     * An unmodifiable view of conferenceKeysToAttend, created once for all the reads.
+     */
+    @Ignore
+    private List<String> conferenceKeysToAttendView;
+
     /**
      * Just making the default constructor private.
      */
@@ -93,10 +100,14 @@ public class Profile {
 
     /**
      * Getter for conferenceIdsToAttend.
-     * @return an immutable copy of conferenceIdsToAttend.
+     * @return an unmodifiable view of conferenceIdsToAttend, which reflects later registrations.
      */
     public List<String> getConferenceKeysToAttend() {
-        return ImmutableList.copyOf(conferenceKeysToAttend);
+        // Objectify sets the list after construction, so the view is created on first use.
+        if (conferenceKeysToAttendView == null) {
+            conferenceKeysToAttendView = Collections.unmodifiableList(conferenceKeysToAttend);
+        }
+        return conferenceKeysToAttendView;
     }
 
     /**
@@ -0,0 +1,40 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * The number of available seats of a conference, looked up by its key.
+ */
+public class SeatAvailability {
+
+    /**
+     * The String representation of the Conference key, as requested.
+     */
+    private String websafeConferenceKey;
+
+    private ConferenceLookup.Status status;
+
+    /**
+     * The number of available seats, or null unless the status is FOUND.
+     */
+    private Integer seatsAvailable;
+
+    public SeatAvailability() {}
+
+    public SeatAvailability(String websafeConferenceKey, ConferenceLookup.Status status,
+                            Integer seatsAvailable) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.status = status;
+        this.seatsAvailable = seatsAvailable;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public ConferenceLookup.Status getStatus() {
+        return status;
+    }
+
+    public Integer getSeatsAvailable() {
+        return seatsAvailable;
+    }
+}
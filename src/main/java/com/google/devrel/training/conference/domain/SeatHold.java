@@ -0,0 +1,115 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * SeatHold class stores a seat granted to a user during a flash sale, until the registration is
+ * confirmed in the datastore.
+ *
+ * Like WaitlistEntry, the hold lives in the entity group of the user's Profile, so that granting
+ * a hold never contends on the Conference entity group.
+ */
+@Entity
+public class SeatHold {
+
+    /**
+     * Use the websafe Conference key as the id, so a user holds at most one seat per conference.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    /**
+     * Holds Profile key of the user holding the seat as the parent.
+     */
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * The conference the seat is held for.
+     */
+    @Index
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The time the hold was granted, which decides the confirmation order.
+     */
+    @Index
+    private Date createdAt;
+
+    /**
+     * The time by which the confirmation should have run, after which it is scheduled again.
+     * Holds never expire, since the user was told the registration succeeded.
+     */
+    @Index
+    private Date dueAt;
+
+    /**
+     * Whether the hold is for a place on the waitlist rather than for a seat, as taken when the
+     * flash sale was sold out.
+     */
+    private boolean waitlist;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private SeatHold() {}
+
+    public SeatHold(final String userId, final String websafeConferenceKey,
+                    final long confirmationDelayMillis) {
+        this(userId, websafeConferenceKey, confirmationDelayMillis, false);
+    }
+
+    public SeatHold(final String userId, final String websafeConferenceKey,
+                    final long confirmationDelayMillis, final boolean waitlist) {
+        this.waitlist = waitlist;
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.profileKey = Key.create(Profile.class, userId);
+        this.conferenceKey = Key.create(websafeConferenceKey);
+        this.createdAt = new Date();
+        this.dueAt = new Date(createdAt.getTime() + confirmationDelayMillis);
+    }
+
+    /**
+     * Returns the key of the SeatHold for the given user and conference.
+     *
+     * @param userId The userId of the user holding the seat.
+     * @param websafeConferenceKey The String representation of the Conference key.
+     * @return the key of the SeatHold.
+     */
+    public static Key<SeatHold> key(final String userId, final String websafeConferenceKey) {
+        return Key.create(Key.create(Profile.class, userId), SeatHold.class,
+                websafeConferenceKey);
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public Key<Profile> getProfileKey() {
+        return profileKey;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public boolean isWaitlist() {
+        return waitlist;
+    }
+
+    /**
+     * Returns whether the confirmation of the hold is overdue at the given time.
+     *
+     * @param now The current time in milliseconds.
+     * @return true when the confirmation is overdue.
+     */
+    public boolean isOverdue(final long now) {
+        return dueAt.getTime() <= now;
+    }
+}
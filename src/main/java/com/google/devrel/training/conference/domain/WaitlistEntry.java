@@ -0,0 +1,88 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * WaitlistEntry class stores a user's place in the waitlist of a full conference.
+ *
+ * The entry lives in the entity group of the waiting user's Profile, so that enqueueing a user
+ * never contends on the Conference entity group.
+ */
+@Entity
+public class WaitlistEntry {
+
+    /**
+     * Use the websafe Conference key as the id, so a user is waitlisted at most once per
+     * conference.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    /**
+     * Holds Profile key of the waiting user as the parent.
+     */
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * The conference this entry is waiting for.
+     */
+    @Index
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The time the user was put on the waitlist, which decides the promotion order.
+     */
+    @Index
+    private Date enqueuedAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private WaitlistEntry() {}
+
+    public WaitlistEntry(final String userId, final String websafeConferenceKey) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.profileKey = Key.create(Profile.class, userId);
+        this.conferenceKey = Key.create(websafeConferenceKey);
+        this.enqueuedAt = new Date();
+    }
+
+    /**
+     * Returns the key of the WaitlistEntry for the given user and conference.
+     *
+     * @param userId The userId of the waiting user.
+     * @param websafeConferenceKey The String representation of the Conference key.
+     * @return the key of the WaitlistEntry.
+     */
+    public static Key<WaitlistEntry> key(final String userId, final String websafeConferenceKey) {
+        return Key.create(Key.create(Profile.class, userId), WaitlistEntry.class,
+                websafeConferenceKey);
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public Key<Profile> getProfileKey() {
+        return profileKey;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    /**
+     * Returns a defensive copy of enqueuedAt.
+     * @return a defensive copy of enqueuedAt.
+     */
+    public Date getEnqueuedAt() {
+        return new Date(enqueuedAt.getTime());
+    }
+}
@@ -0,0 +1,31 @@
+package com.google.devrel.training.conference.form;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pojo representing a list of websafe Conference keys on the client side.
+ */
+public class ConferenceKeysForm {
+    /**
+     * The String representations of the Conference keys, in the order of the results.
+     */
+    private List<String> websafeConferenceKeys = new ArrayList<>(0);
+
+    private ConferenceKeysForm() {}
+
+    /**
+     * Constructor for ConferenceKeysForm, solely for unit test.
+     * @param websafeConferenceKeys The String representations of the Conference keys.
+     */
+    public ConferenceKeysForm(List<String> websafeConferenceKeys) {
+        this.websafeConferenceKeys = websafeConferenceKeys;
+    }
+
+    public List<String> getWebsafeConferenceKeys() {
+        return websafeConferenceKeys == null ? ImmutableList.<String>of()
+                : ImmutableList.copyOf(websafeConferenceKeys);
+    }
+}
@@ -1,15 +1,16 @@
 package com.google.devrel.training.conference.form;
 
-import static com.google.devrel.training.conference.service.OfyService.ofy;
-
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
 import com.google.devrel.training.conference.domain.Conference;
 
 import com.googlecode.objectify.cmd.Query;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -20,6 +21,16 @@ public class ConferenceQueryForm {
 
     private static final Logger LOG = Logger.getLogger(ConferenceQueryForm.class.getName());
 
+    /**
+     * The suffix of a descending order in getOrderProperties.
+     */
+    private static final String DESCENDING = " desc";
+
+    /**
+     * The maximum number of sub-queries of a disjunction, as for IN filters of the datastore.
+     */
+    public static final int MAX_SUB_QUERIES = 30;
+
     /**
      * Enum representing a field type.
      */
@@ -48,6 +59,93 @@ public class ConferenceQueryForm {
         private String getFieldName() {
             return this.fieldName;
         }
+
+        /**
+         * Returns the values of the field of the Conference, several for a multi-valued field.
+         */
+        private List<?> getValues(Conference conference) {
+            switch (this) {
+                case CITY:
+                    return conference.getCity() == null
+                            ? Collections.emptyList()
+                            : Collections.singletonList(conference.getCity());
+                case TOPIC:
+                    return conference.getTopics() == null
+                            ? Collections.emptyList() : conference.getTopics();
+                case MONTH:
+                    return Collections.singletonList(conference.getMonth());
+                default:
+                    return Collections.singletonList(conference.getMaxAttendees());
+            }
+        }
+    }
+
+    /**
+     * Enum representing a sort order of the results, ties broken by the key.
+     */
+    public static enum Sort {
+        NAME("name", false, true, null),
+        START_DATE("startDate", false, false, null),
+        SEATS_AVAILABLE("seatsAvailable", true, true, null),
+        MAX_ATTENDEES("maxAttendees", true, true, Field.MAX_ATTENDEES);
+
+        private String propertyName;
+
+        private boolean descending;
+
+        private boolean indexed;
+
+        private Field field;
+
+        private Sort(String propertyName, boolean descending, boolean indexed, Field field) {
+            this.propertyName = propertyName;
+            this.descending = descending;
+            this.indexed = indexed;
+            this.field = field;
+        }
+
+        /**
+         * Returns whether the sort property has a single-property index to sort by.
+         */
+        public boolean isIndexed() {
+            return indexed;
+        }
+
+        /**
+         * Returns the field filtering on the sort property, or null when it cannot be filtered.
+         */
+        public Field getField() {
+            return field;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private int compare(Conference left, Conference right) {
+            Comparable leftValue;
+            Comparable rightValue;
+            switch (this) {
+                case NAME:
+                    leftValue = left.getName();
+                    rightValue = right.getName();
+                    break;
+                case START_DATE:
+                    leftValue = left.getStartDate();
+                    rightValue = right.getStartDate();
+                    break;
+                case SEATS_AVAILABLE:
+                    leftValue = left.getSeatsAvailable();
+                    rightValue = right.getSeatsAvailable();
+                    break;
+                default:
+                    leftValue = left.getMaxAttendees();
+                    rightValue = right.getMaxAttendees();
+            }
+            // Conferences without a start date come last, as the soonest are wanted first.
+            Ordering<Comparable> ordering = this == START_DATE
+                    ? Ordering.natural().nullsLast() : Ordering.natural().nullsFirst();
+            return descending
+                    ? ordering.compare(rightValue, leftValue)
+                    : ordering.compare(leftValue, rightValue);
+        }
     }
 
     /**
@@ -59,7 +157,8 @@ public class ConferenceQueryForm {
         GT(">"),
         LTEQ("<="),
         GTEQ(">="),
-        NE("!=");
+        NE("!="),
+        IN("in");
 
         private String queryOperator;
 
@@ -75,6 +174,26 @@ public class ConferenceQueryForm {
             return this.queryOperator.contains("<") || this.queryOperator.contains(">") ||
                     this.queryOperator.contains("!");
         }
+
+        /**
+         * Returns whether a value comparing to the filter value as given passes this operator.
+         */
+        private boolean accepts(int comparison) {
+            switch (this) {
+                case EQ:
+                    return comparison == 0;
+                case LT:
+                    return comparison < 0;
+                case GT:
+                    return comparison > 0;
+                case LTEQ:
+                    return comparison <= 0;
+                case GTEQ:
+                    return comparison >= 0;
+                default:
+                    return comparison != 0;
+            }
+        }
     }
 
     /**
@@ -85,6 +204,11 @@ public class ConferenceQueryForm {
         private Operator operator;
         private String value;
 
+        /**
+         * The values of an IN filter.
+         */
+        private List<String> values;
+
         public Filter () {}
 
         public Filter(Field field, Operator operator, String value) {
@@ -93,6 +217,15 @@ public class ConferenceQueryForm {
             this.value = value;
         }
 
+        /**
+         * Creates an IN filter, passing the Conferences whose field equals any of the values.
+         */
+        public Filter(Field field, List<String> values) {
+            this.field = field;
+            this.operator = Operator.IN;
+            this.values = values;
+        }
+
         public Field getField() {
             return field;
         }
@@ -104,6 +237,52 @@ public class ConferenceQueryForm {
         public String getValue() {
             return value;
         }
+
+        public List<String> getValues() {
+            return values == null ? null : ImmutableList.copyOf(values);
+        }
+
+        /**
+         * Returns the equality filters this filter is a disjunction of: one per value for IN,
+         * this filter itself otherwise.
+         */
+        private List<Filter> getAlternatives() {
+            if (operator != Operator.IN) {
+                return Collections.singletonList(this);
+            }
+            if (values == null || values.isEmpty()) {
+                throw new IllegalArgumentException("An IN filter needs at least one value.");
+            }
+            List<Filter> alternatives = new ArrayList<>(values.size());
+            for (String alternative : values) {
+                alternatives.add(new Filter(field, Operator.EQ, alternative));
+            }
+            return alternatives;
+        }
+
+        /**
+         * Returns whether the Conference passes this filter. Like the datastore does, a
+         * multi-valued field passes when any of its values does.
+         */
+        private boolean matches(Conference conference) {
+            if (operator == Operator.IN) {
+                for (Filter alternative : getAlternatives()) {
+                    if (alternative.matches(conference)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            for (Object fieldValue : field.getValues(conference)) {
+                int comparison = field.fieldType == FieldType.STRING
+                        ? ((String) fieldValue).compareTo(value)
+                        : Integer.compare((Integer) fieldValue, Integer.parseInt(value));
+                if (operator.accepts(comparison)) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 
     /**
@@ -111,6 +290,22 @@ public class ConferenceQueryForm {
      */
     private List<Filter> filters = new ArrayList<>(0);
 
+    /**
+     * Equality or IN filters of which a Conference has to pass at least one, besides all of the
+     * filters above.
+     */
+    private List<Filter> anyOf = new ArrayList<>(0);
+
+    /**
+     * The maximum number of results, or null for all of them.
+     */
+    private Integer limit;
+
+    /**
+     * The sort order of the results, or null for NAME.
+     */
+    private Sort sort;
+
     /**
      * Holds the first inequalityFilter for checking the feasibility of the whole query.
      */
@@ -133,6 +328,12 @@ public class ConferenceQueryForm {
                 inequalityFilter = filter;
             }
         }
+        for (Filter filter : this.anyOf) {
+            if (filter.operator != Operator.EQ && filter.operator != Operator.IN) {
+                throw new IllegalArgumentException(
+                        "Only equality and IN filters can be alternatives.");
+            }
+        }
     }
 
     /**
@@ -164,22 +365,191 @@ public class ConferenceQueryForm {
     }
 
     /**
-     * Returns an Objectify Query object for the specified filters.
+     * Getter for the alternative filters.
+     *
+     * @return The List of filters of which a Conference has to pass at least one.
+     */
+    public List<Filter> getAnyOf() {
+        return ImmutableList.copyOf(anyOf);
+    }
+
+    /**
+     * Adds an alternative filter: the query matches the Conferences passing all the filters and
+     * at least one of the alternatives.
      *
-     * @return an Objectify Query.
+     * @param filter An equality or IN Filter.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm anyOf(Filter filter) {
+        anyOf.add(filter);
+        return this;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    /**
+     * Limits the number of results.
+     *
+     * @param limit The maximum number of results, or null for all of them.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm limit(Integer limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public Sort getSort() {
+        return sort == null ? Sort.NAME : sort;
+    }
+
+    /**
+     * Sets the sort order of the results.
+     *
+     * @param sort The sort order, or null for NAME.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm sort(Sort sort) {
+        this.sort = sort;
+        return this;
+    }
+
+    /**
+     * Returns a String identifying the query, equal for forms with the same filters.
+     *
+     * @return the signature of the query.
      */
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
-    public Query<Conference> getQuery() {
-        // First check the feasibility of inequality filters.
+    public String getSignature() {
+        StringBuilder signature = new StringBuilder(getFilterSignature());
+        if (limit != null) {
+            signature.append("LIMIT ").append(limit).append('\n');
+        }
+        if (getSort() != Sort.NAME) {
+            signature.append("SORT ").append(getSort()).append('\n');
+        }
+        return signature.toString();
+    }
+
+    /**
+     * Returns a String identifying the matches of the query, equal for forms with the same
+     * filters whatever their limit and sort order.
+     *
+     * @return the signature of the filters.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getFilterSignature() {
+        StringBuilder signature = new StringBuilder();
+        appendSignature(signature, this.filters);
+        if (!this.anyOf.isEmpty()) {
+            signature.append("ANY\n");
+            appendSignature(signature, this.anyOf);
+        }
+        return signature.toString();
+    }
+
+    private static void appendSignature(StringBuilder signature, List<Filter> filters) {
+        for (Filter filter : filters) {
+            signature.append(filter.field).append(' ').append(filter.operator).append(' ')
+                    .append(filter.operator == Operator.IN ? filter.values : filter.value)
+                    .append('\n');
+        }
+    }
+
+    /**
+     * Returns whether the query is a disjunction, having IN filters or alternatives, which a
+     * single datastore query cannot answer.
+     *
+     * @return true when the query has to be expanded into sub-queries.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public boolean isDisjunction() {
+        if (!anyOf.isEmpty()) {
+            return true;
+        }
+        for (Filter filter : filters) {
+            if (filter.operator == Operator.IN) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Expands the query into sub-queries of equality and inequality filters only, one per
+     * combination of the values of the IN filters and of the alternatives. The union of their
+     * results is the result of this query, in the same ordering, since the inequality filter
+     * is the same in all of them.
+     *
+     * @return the sub-queries, with the limit and sort of this query; just this query when it
+     *     is not a disjunction.
+     * @throws IllegalArgumentException when the query expands into more than MAX_SUB_QUERIES.
+     */
+    public List<ConferenceQueryForm> expand() {
         checkFilters();
-        Query<Conference> query = ofy().load().type(Conference.class);
-        if (inequalityFilter == null) {
-            // Order by name.
-            query = query.order("name");
-        } else {
-            // If we have any inequality filters, order by the field first.
-            query = query.order(inequalityFilter.field.getFieldName());
-            query = query.order("name");
+        if (!isDisjunction()) {
+            return Collections.singletonList(this);
+        }
+        List<List<Filter>> choices = new ArrayList<>();
+        for (Filter filter : filters) {
+            choices.add(filter.getAlternatives());
+        }
+        if (!anyOf.isEmpty()) {
+            List<Filter> alternatives = new ArrayList<>();
+            for (Filter filter : anyOf) {
+                alternatives.addAll(filter.getAlternatives());
+            }
+            choices.add(alternatives);
+        }
+        int count = 1;
+        for (List<Filter> alternatives : choices) {
+            count *= alternatives.size();
+            if (count > MAX_SUB_QUERIES) {
+                throw new IllegalArgumentException(
+                        "A query can expand into at most " + MAX_SUB_QUERIES + " sub-queries.");
+            }
+        }
+        List<ConferenceQueryForm> subQueries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ConferenceQueryForm subQuery = new ConferenceQueryForm();
+            // Picks the alternatives of the i-th combination, like the digits of a number.
+            int remainder = i;
+            for (List<Filter> alternatives : choices) {
+                subQuery.filter(alternatives.get(remainder % alternatives.size()));
+                remainder /= alternatives.size();
+            }
+            subQueries.add(subQuery.limit(limit).sort(sort));
+        }
+        return subQueries;
+    }
+
+    /**
+     * Applies the filters and the ordering to an Objectify Query.
+     *
+     * @param query A query of all the Conferences.
+     * @return the Query for the specified filters.
+     */
+    public Query<Conference> applyTo(Query<Conference> query) {
+        return applyTo(query, getSort());
+    }
+
+    /**
+     * Applies the filters to an Objectify Query, ordered by another sort than that of the
+     * results, such as the one the indexes of the filters are built for.
+     *
+     * @param query A query of all the Conferences.
+     * @param order The sort order of the Query.
+     * @return the Query for the specified filters.
+     */
+    public Query<Conference> applyTo(Query<Conference> query, Sort order) {
+        if (isDisjunction()) {
+            throw new IllegalStateException("A disjunction has to be expanded first.");
+        }
+        for (String property : getOrderProperties(order)) {
+            query = query.order(property.endsWith(DESCENDING)
+                    ? "-" + property.substring(0, property.length() - DESCENDING.length())
+                    : property);
         }
         for (Filter filter : this.filters) {
             // Applies filters in order.
@@ -194,4 +564,121 @@ public class ConferenceQueryForm {
         LOG.info(query.toString());
         return query;
     }
+
+    /**
+     * Returns the properties of the equality filters, for finding the index the query needs.
+     *
+     * @return the property names, in the order of the filters.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public List<String> getEqualityProperties() {
+        List<String> properties = new ArrayList<>();
+        for (Filter filter : this.filters) {
+            if (filter.operator == Operator.EQ) {
+                properties.add(filter.field.getFieldName());
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Returns the property of the inequality filters, for finding the index the query needs.
+     *
+     * @return the property name, or null when there is no inequality filter.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getInequalityProperty() {
+        checkFilters();
+        return inequalityFilter == null ? null : inequalityFilter.field.getFieldName();
+    }
+
+    /**
+     * Returns the sort orders applyTo gives the Query, as in an index definition.
+     *
+     * @param order The sort order of the Query.
+     * @return the property names, followed by " desc" for a descending order.
+     */
+    public List<String> getOrderProperties(Sort order) {
+        // First check the feasibility of inequality filters.
+        checkFilters();
+        if (order != Sort.NAME) {
+            // Only valid without inequality filters on other properties.
+            return ImmutableList.of(order.propertyName + (order.descending ? DESCENDING : ""));
+        } else if (inequalityFilter == null) {
+            // Order by name.
+            return ImmutableList.of("name");
+        }
+        // If we have any inequality filters, order by the field first.
+        return ImmutableList.of(inequalityFilter.field.getFieldName(), "name");
+    }
+
+    /**
+     * Returns whether the Conference passes all the filters, for evaluating the query without
+     * the datastore.
+     *
+     * @param conference The Conference to test.
+     * @return true when the Conference matches the query.
+     */
+    public boolean matches(Conference conference) {
+        checkFilters();
+        for (Filter filter : this.filters) {
+            if (!filter.matches(conference)) {
+                return false;
+            }
+        }
+        for (Filter filter : this.anyOf) {
+            if (filter.matches(conference)) {
+                return true;
+            }
+        }
+        return this.anyOf.isEmpty();
+    }
+
+    /**
+     * Returns the ordering of the query results, the same as of the Query from applyTo.
+     *
+     * @return a Comparator of matching Conferences.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Comparator<Conference> getOrdering() {
+        checkFilters();
+        final Sort order = getSort();
+        if (order != Sort.NAME) {
+            return new Comparator<Conference>() {
+                @Override
+                public int compare(Conference left, Conference right) {
+                    int comparison = order.compare(left, right);
+                    if (comparison != 0) {
+                        return comparison;
+                    }
+                    // The key order of the datastore, by the parent Profile and then the id.
+                    comparison = Ordering.natural().nullsFirst().compare(
+                            left.getOrganizerUserId(), right.getOrganizerUserId());
+                    return comparison != 0
+                            ? comparison : Long.compare(left.getId(), right.getId());
+                }
+            };
+        }
+        final Field sortField = inequalityFilter == null ? null : inequalityFilter.field;
+        return new Comparator<Conference>() {
+            @Override
+            public int compare(Conference left, Conference right) {
+                if (sortField != null) {
+                    // An ascending sort on a multi-valued field uses the smallest value.
+                    int comparison = Ordering.natural().nullsFirst().compare(
+                            smallestValue(sortField, left), smallestValue(sortField, right));
+                    if (comparison != 0) {
+                        return comparison;
+                    }
+                }
+                return Ordering.natural().nullsFirst().compare(left.getName(), right.getName());
+            }
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Comparable smallestValue(Field field, Conference conference) {
+        List<?> values = field.getValues(conference);
+        return values.isEmpty() ? null : Ordering.natural().min((List) values);
+    }
 }
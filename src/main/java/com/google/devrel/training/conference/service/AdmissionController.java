@@ -0,0 +1,259 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.devrel.training.conference.domain.AdmissionLimits;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides whether this instance takes an API request, so that a few clients polling in tight
+ * loops cannot saturate it.
+ *
+ * Every user and every IP address has a token bucket for reads and one for the transactional
+ * writes, which cost more and get lower limits. The limits of an IP address are those of a user
+ * times a multiplier, since an address may be shared. Independently of the buckets, reads are
+ * shed while the requests in flight on this instance are above a threshold, so that writes keep
+ * getting through an overload. The limits are the stored AdmissionLimits, reloaded every few
+ * seconds.
+ */
+public class AdmissionController {
+
+    private static final Logger LOG = Logger.getLogger(AdmissionController.class.getName());
+
+    private static final AdmissionController INSTANCE = new AdmissionController(true);
+
+    /**
+     * The API methods that are transactional writes; all the others are reads.
+     */
+    private static final Set<String> WRITES = ImmutableSet.of("saveProfile",
+            "createConference", "updateConference", "setFlashSale", "registerForConference",
+            "unregisterFromConference");
+
+    /**
+     * How often the limits are reloaded.
+     */
+    static final long RELOAD_MILLIS = 10 * 1000;
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Enum representing the outcome of an admission.
+     */
+    public static enum Decision {
+        ADMITTED, THROTTLED, SHED
+    }
+
+    /**
+     * A token bucket in the form of its theoretical arrival time, the time at which the bucket
+     * would be full again. Taking a token moves it forward by one interval, and a request is
+     * admitted as long as that stays within the burst from now. The single long is updated with
+     * compare-and-set, so no request waits for a lock.
+     */
+    static class Bucket {
+
+        private final AtomicLong fullAtNanos = new AtomicLong(Long.MIN_VALUE);
+
+        /**
+         * Takes a token.
+         *
+         * @param nowNanos The current time.
+         * @param perSecond The rate at which tokens are added.
+         * @param burst The capacity of the bucket.
+         * @return true when a token was taken, false when the bucket is empty.
+         */
+        boolean tryAcquire(long nowNanos, double perSecond, int burst) {
+            long interval = (long) (NANOS_PER_SECOND / perSecond);
+            while (true) {
+                long fullAt = fullAtNanos.get();
+                long next = Math.max(fullAt, nowNanos) + interval;
+                if (next - nowNanos > interval * burst) {
+                    return false;
+                }
+                if (fullAtNanos.compareAndSet(fullAt, next)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Gives back a token taken for a request that was rejected after all.
+         *
+         * @param perSecond The rate the token was taken at.
+         */
+        void refund(double perSecond) {
+            fullAtNanos.addAndGet(-(long) (NANOS_PER_SECOND / perSecond));
+        }
+    }
+
+    /**
+     * The buckets by user or address and kind of request. Idle buckets are full again, so
+     * they are dropped.
+     */
+    private final Cache<String, Bucket> buckets = CacheBuilder.newBuilder()
+            .maximumSize(100 * 1000)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicLong admitted = new AtomicLong();
+
+    private final AtomicLong throttled = new AtomicLong();
+
+    private final AtomicLong shed = new AtomicLong();
+
+    private final boolean reload;
+
+    private volatile AdmissionLimits limits = new AdmissionLimits();
+
+    private volatile long loadedMillis;
+
+    /**
+     * @param reload Whether the stored limits are reloaded, rather than kept as set.
+     */
+    AdmissionController(boolean reload) {
+        this.reload = reload;
+    }
+
+    /**
+     * Returns the admission controller of this instance.
+     * @return the admission controller of this instance.
+     */
+    public static AdmissionController get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns whether an API method is a transactional write.
+     *
+     * @param endpoint The name of the API method.
+     * @return true for writes, false for reads.
+     */
+    public static boolean isWrite(String endpoint) {
+        return WRITES.contains(endpoint);
+    }
+
+    /**
+     * Decides whether to take a request. An admitted request is in flight until release() is
+     * called.
+     *
+     * @param endpoint The name of the called API method.
+     * @param user The caller's credentials, or null when anonymous.
+     * @param address The caller's IP address.
+     * @return the decision.
+     */
+    public Decision admit(String endpoint, String user, String address) {
+        AdmissionLimits current = getLimits();
+        boolean write = isWrite(endpoint);
+        int concurrent = inFlight.incrementAndGet();
+        if (!write && concurrent > current.getMaxInFlight()) {
+            inFlight.decrementAndGet();
+            shed.incrementAndGet();
+            return Decision.SHED;
+        }
+        double perSecond = write ? current.getWritesPerSecond() : current.getReadsPerSecond();
+        int burst = write ? current.getWriteBurst() : current.getReadBurst();
+        String kind = write ? "write:" : "read:";
+        long now = System.nanoTime();
+        Bucket userBucket = user == null ? null : bucket(kind + "user:" + user);
+        if (userBucket == null || userBucket.tryAcquire(now, perSecond, burst)) {
+            if (address == null || bucket(kind + "ip:" + address).tryAcquire(now,
+                    perSecond * current.getIpMultiplier(), burst * current.getIpMultiplier())) {
+                admitted.incrementAndGet();
+                return Decision.ADMITTED;
+            }
+            if (userBucket != null) {
+                // A request the address is throttled for does not count against the user.
+                userBucket.refund(perSecond);
+            }
+        }
+        inFlight.decrementAndGet();
+        throttled.incrementAndGet();
+        return Decision.THROTTLED;
+    }
+
+    /**
+     * Marks an admitted request as done.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    private Bucket bucket(String name) {
+        Bucket bucket = buckets.getIfPresent(name);
+        if (bucket != null) {
+            return bucket;
+        }
+        try {
+            return buckets.get(name, new Callable<Bucket>() {
+                @Override
+                public Bucket call() {
+                    return new Bucket();
+                }
+            });
+        } catch (ExecutionException e) {
+            // Not thrown, since creating a bucket does not fail.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the limits in effect, reloading them when they are due.
+     *
+     * @return the limits.
+     */
+    public AdmissionLimits getLimits() {
+        if (reload && System.currentTimeMillis() - loadedMillis >= RELOAD_MILLIS) {
+            // Other requests keep using the previous limits meanwhile, rather than waiting.
+            loadedMillis = System.currentTimeMillis();
+            try {
+                AdmissionLimits stored = ofy().load().key(AdmissionLimits.key()).now();
+                limits = stored == null ? new AdmissionLimits() : stored;
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Failed to reload the admission limits.", e);
+            }
+        }
+        return limits;
+    }
+
+    /**
+     * Stores new limits, which take effect on this instance right away and on the others once
+     * they reload.
+     *
+     * @param admissionLimits The new limits.
+     */
+    public void setLimits(AdmissionLimits admissionLimits) {
+        if (reload) {
+            ofy().save().entity(admissionLimits).now();
+            loadedMillis = System.currentTimeMillis();
+        }
+        limits = admissionLimits;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    public long getShed() {
+        return shed.get();
+    }
+}
@@ -0,0 +1,227 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Version counters in memcache that keep the caches of the instances coherent with the writes
+ * made on any instance.
+ *
+ * Every entity and every kind has a counter, which the writers of the entity bump after commit.
+ * A cache remembers the versions it read before loading a value, and the value is current as
+ * long as they have not moved. The version of a kind is read at most once per coherence window
+ * per instance, and the versions of entities are only read for a kind that moved, in batches, so
+ * checking the cached values costs a memcache call per window in the common case. A value is
+ * served for at most a window after its versions were read, so a cache sees the writes of other
+ * instances within about a window.
+ *
+ * Every instance checks the version of a hot entity, so a hot entity gets a longer window: its
+ * version counter is read once per hot window per instance instead of once per window, which
+ * keeps the hotspot from moving from the entity to its counter.
+ *
+ * A change of a property that few cached values depend on may bump a counter of its own
+ * instead of the version of the kind, so that the values of the kind not depending on the
+ * property stay current. The versions of the changed entities are bumped all the same.
+ *
+ * The counters start at the current time, so a counter lost to eviction starts again at a
+ * value that was never used rather than at one a cache may still hold.
+ */
+public class CacheVersions {
+
+    private static final String NAMESPACE = "cacheVersions";
+
+    /**
+     * A version read at a point in time.
+     */
+    public static class Stamp {
+
+        private final Long version;
+
+        private final long checkedMillis;
+
+        private Stamp(Long version, long checkedMillis) {
+            this.version = version;
+            this.checkedMillis = checkedMillis;
+        }
+
+        /**
+         * Returns the version.
+         *
+         * @return the version, or null when memcache could not be read.
+         */
+        public Long getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns the time before the version was read, as of which it is known to be current.
+         *
+         * @return the time in milliseconds.
+         */
+        public long getCheckedMillis() {
+            return checkedMillis;
+        }
+    }
+
+    /**
+     * How long a version of a kind read by an instance is trusted, which bounds how long the
+     * writes of other instances go unseen.
+     */
+    private static final long WINDOW_MILLIS =
+            Long.getLong("conference.cache.coherenceWindowMillis", 1000);
+
+    /**
+     * How long a version of a hot entity read by an instance is trusted.
+     */
+    private static final long HOT_WINDOW_MILLIS =
+            Long.getLong("conference.cache.hotCoherenceWindowMillis", 5 * 1000);
+
+    private final MemcacheService memcacheService =
+            MemcacheServiceFactory.getMemcacheService(NAMESPACE);
+
+    private final long windowMillis;
+
+    private final long hotWindowMillis;
+
+    /**
+     * The versions of the kinds last read by this instance.
+     */
+    private final ConcurrentMap<String, Stamp> kindStamps = new ConcurrentHashMap<>();
+
+    public CacheVersions() {
+        this(WINDOW_MILLIS, HOT_WINDOW_MILLIS);
+    }
+
+    /**
+     * @param windowMillis How long a version read by this instance is trusted, hot or not.
+     */
+    public CacheVersions(long windowMillis) {
+        this(windowMillis, windowMillis);
+    }
+
+    /**
+     * @param windowMillis How long a version of a kind read by this instance is trusted.
+     * @param hotWindowMillis How long a version of a hot entity read by this instance is trusted.
+     */
+    public CacheVersions(long windowMillis, long hotWindowMillis) {
+        this.windowMillis = windowMillis;
+        this.hotWindowMillis = Math.max(windowMillis, hotWindowMillis);
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public long getHotWindowMillis() {
+        return hotWindowMillis;
+    }
+
+    /**
+     * Bumps the versions of the entities and of their kinds once the current transaction
+     * commits, or right away outside of a transaction.
+     *
+     * @param keys The keys of the changed entities.
+     */
+    public void bumpAfterCommit(Iterable<? extends Key<?>> keys) {
+        final List<Key<?>> changed = ImmutableList.copyOf(keys);
+        TransactionRunner.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                bump(changed);
+            }
+        });
+    }
+
+    /**
+     * Bumps the versions of the entities and the counter of the changed property once the
+     * current transaction commits, or right away outside of a transaction, leaving the versions
+     * of their kinds alone.
+     *
+     * @param keys The keys of the changed entities.
+     * @param counter The name of the counter of the property, read like a kind.
+     */
+    public void bumpAfterCommit(Iterable<? extends Key<?>> keys, final String counter) {
+        final List<Key<?>> changed = ImmutableList.copyOf(keys);
+        TransactionRunner.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                bump(changed, Collections.singleton(counter));
+            }
+        });
+    }
+
+    /**
+     * Bumps the versions of the entities and of their kinds.
+     *
+     * @param keys The keys of the changed entities.
+     */
+    public void bump(Iterable<? extends Key<?>> keys) {
+        Set<String> kinds = new LinkedHashSet<>();
+        for (Key<?> key : keys) {
+            kinds.add(key.getKind());
+        }
+        bump(keys, kinds);
+    }
+
+    /**
+     * Bumps the versions of the entities and the counters of kinds or properties.
+     */
+    private void bump(Iterable<? extends Key<?>> keys, Set<String> counters) {
+        Set<String> names = new LinkedHashSet<>();
+        for (Key<?> key : keys) {
+            names.add(key.getString());
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+        names.addAll(counters);
+        memcacheService.incrementAll(names, 1L, System.currentTimeMillis());
+        for (String counter : counters) {
+            // The values this instance loads next should not be stamped with an older version.
+            kindStamps.remove(counter);
+        }
+    }
+
+    /**
+     * Returns the version of a kind, or of the counter of a property, as read by this instance
+     * within the window.
+     *
+     * @param kind The kind, or the name of the counter.
+     * @return the version of the kind.
+     */
+    public Stamp getKindStamp(String kind) {
+        Stamp stamp = kindStamps.get(kind);
+        if (stamp != null && System.currentTimeMillis() - stamp.checkedMillis < windowMillis) {
+            return stamp;
+        }
+        // Concurrent callers may both read it, which is as cheap as coordinating them.
+        long checkedMillis = System.currentTimeMillis();
+        stamp = new Stamp(getVersions(Collections.singleton(kind)).get(kind), checkedMillis);
+        kindStamps.put(kind, stamp);
+        return stamp;
+    }
+
+    /**
+     * Reads the current versions of entities or kinds in one batch.
+     *
+     * @param names The String representations of the keys of the entities, or the kinds.
+     * @return the versions by name, without those memcache could not read.
+     */
+    public Map<String, Long> getVersions(Collection<String> names) {
+        // Incrementing by 0 creates the missing counters, so they are not left unversioned.
+        Map<String, Long> versions =
+                memcacheService.incrementAll(names, 0L, System.currentTimeMillis());
+        return versions == null ? Collections.<String, Long>emptyMap() : versions;
+    }
+}
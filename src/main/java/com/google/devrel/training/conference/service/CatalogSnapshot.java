@@ -0,0 +1,433 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.primitives.Ints;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceListing.Facet;
+import com.google.devrel.training.conference.form.ConferenceForm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only snapshot of all the Conferences in a compact binary format with a key index.
+ *
+ * A Conference is decoded when it is read, so a large catalog takes little heap, none for the
+ * records when the buffer is a mapped file. Opening a snapshot skims the records once for the
+ * city, the topics and the month of each Conference, and keeps the positions of the Conferences
+ * per value of those facets, so queries on them decode their candidates only. The format is a
+ * header, an index of record offsets sorted by websafe key, and the records:
+ *
+ * <pre>
+ * int magic, long createdMillis, string syncToken, int count, int[count] offsets, records
+ * record: string websafeKey, long id, string organizerUserId, string organizerDisplayName,
+ *         string name, string description, int topicCount, string[topicCount] topics,
+ *         string city, long startDate, long endDate, int maxAttendees, int seatsAvailable,
+ *         byte flashSale, long lastModified
+ * </pre>
+ *
+ * A string is an int byte length, -1 for null, followed by UTF-8 bytes; a date is its time in
+ * milliseconds, Long.MIN_VALUE for null.
+ */
+public class CatalogSnapshot {
+
+    private static final int MAGIC = 0x43415432;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final long NULL_DATE = Long.MIN_VALUE;
+
+    /**
+     * The size of the magic number and the creation time, which start the header.
+     */
+    private static final int FIXED_HEADER_SIZE = 4 + 8;
+
+    private final ByteBuffer buffer;
+
+    private final long createdMillis;
+
+    private final String syncToken;
+
+    private final int count;
+
+    private final int indexOffset;
+
+    /**
+     * The ascending positions of the Conferences per facet value, the months as numbers.
+     */
+    private final Map<Facet, Map<String, int[]>> positions = new EnumMap<>(Facet.class);
+
+    private CatalogSnapshot(ByteBuffer buffer) {
+        this.buffer = buffer.asReadOnlyBuffer();
+        ByteBuffer header = this.buffer.duplicate();
+        if (header.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a catalog snapshot.");
+        }
+        header.position(FIXED_HEADER_SIZE);
+        this.createdMillis = header.getLong(4);
+        this.syncToken = readString(header);
+        this.count = header.getInt();
+        this.indexOffset = header.position();
+        indexFacets();
+    }
+
+    /**
+     * Skims the records for the facet values of every Conference, skipping the other fields.
+     */
+    private void indexFacets() {
+        Map<Facet, Map<String, List<Integer>>> lists = new EnumMap<>(Facet.class);
+        for (Facet facet : Facet.values()) {
+            lists.put(facet, new HashMap<String, List<Integer>>());
+        }
+        ByteBuffer reader = buffer.duplicate();
+        Calendar calendar = Calendar.getInstance();
+        for (int i = 0; i < count; i++) {
+            reader.position(recordOffset(i));
+            // The websafe key, the id, the organizer, the name and the description.
+            skipString(reader);
+            reader.getLong();
+            for (int field = 0; field < 4; field++) {
+                skipString(reader);
+            }
+            int topicCount = reader.getInt();
+            for (int topic = 0; topic < topicCount; topic++) {
+                add(lists.get(Facet.TOPIC), readString(reader), i);
+            }
+            add(lists.get(Facet.CITY), readString(reader), i);
+            long startDate = reader.getLong();
+            int month = 0;
+            if (startDate != NULL_DATE) {
+                // The month as Conference derives it.
+                calendar.setTimeInMillis(startDate);
+                month = calendar.get(Calendar.MONTH) + 1;
+            }
+            add(lists.get(Facet.MONTH), Integer.toString(month), i);
+        }
+        for (Map.Entry<Facet, Map<String, List<Integer>>> facet : lists.entrySet()) {
+            Map<String, int[]> values = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> value : facet.getValue().entrySet()) {
+                values.put(value.getKey(), Ints.toArray(value.getValue()));
+            }
+            positions.put(facet.getKey(), values);
+        }
+    }
+
+    private static void add(Map<String, List<Integer>> values, String value, int position) {
+        if (value == null) {
+            return;
+        }
+        List<Integer> list = values.get(value);
+        if (list == null) {
+            list = new ArrayList<>();
+            values.put(value, list);
+        }
+        // A Conference listing a topic twice is kept once.
+        if (list.isEmpty() || list.get(list.size() - 1) != position) {
+            list.add(position);
+        }
+    }
+
+    /**
+     * Wraps a buffer holding a snapshot, without decoding any Conference.
+     *
+     * @param buffer The bytes of the snapshot.
+     * @return the snapshot.
+     * @throws IllegalArgumentException when the buffer does not hold a snapshot.
+     */
+    public static CatalogSnapshot open(ByteBuffer buffer) {
+        return new CatalogSnapshot(buffer);
+    }
+
+    /**
+     * Maps a snapshot file into memory read-only.
+     *
+     * @param file The snapshot file.
+     * @return the snapshot.
+     * @throws IOException when the file cannot be mapped.
+     */
+    public static CatalogSnapshot map(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            // The mapping stays valid after the channel is closed.
+            FileChannel channel = randomAccessFile.getChannel();
+            return open(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Encodes the Conferences into a snapshot.
+     *
+     * @param conferences All the Conferences, with their organizer display names set.
+     * @param createdMillis The time the Conferences were read at.
+     * @param syncToken The sync token to catch up from with the changes after the snapshot.
+     * @return the bytes of the snapshot.
+     */
+    public static byte[] encode(List<Conference> conferences, long createdMillis,
+                                String syncToken) {
+        List<Conference> sorted = new ArrayList<>(conferences);
+        Collections.sort(sorted, new Comparator<Conference>() {
+            @Override
+            public int compare(Conference left, Conference right) {
+                return left.getWebsafeKey().compareTo(right.getWebsafeKey());
+            }
+        });
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int[] offsets = new int[sorted.size()];
+        try {
+            DataOutputStream out = new DataOutputStream(records);
+            for (int i = 0; i < sorted.size(); i++) {
+                offsets[i] = out.size();
+                writeConference(out, sorted.get(i));
+            }
+            ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+            out = new DataOutputStream(snapshot);
+            out.writeInt(MAGIC);
+            out.writeLong(createdMillis);
+            writeString(out, syncToken);
+            out.writeInt(sorted.size());
+            int recordsOffset = out.size() + 4 * sorted.size();
+            for (int offset : offsets) {
+                out.writeInt(recordsOffset + offset);
+            }
+            records.writeTo(out);
+            out.flush();
+            return snapshot.toByteArray();
+        } catch (IOException e) {
+            // Not thrown by in-memory streams.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeConference(DataOutputStream out, Conference conference)
+            throws IOException {
+        writeString(out, conference.getWebsafeKey());
+        out.writeLong(conference.getId());
+        writeString(out, conference.getOrganizerUserId());
+        writeString(out, conference.getOrganizerDisplayName());
+        writeString(out, conference.getName());
+        writeString(out, conference.getDescription());
+        List<String> topics = conference.getTopics();
+        out.writeInt(topics == null ? 0 : topics.size());
+        if (topics != null) {
+            for (String topic : topics) {
+                writeString(out, topic);
+            }
+        }
+        writeString(out, conference.getCity());
+        writeDate(out, conference.getStartDate());
+        writeDate(out, conference.getEndDate());
+        out.writeInt(conference.getMaxAttendees());
+        out.writeInt(conference.getSeatsAvailable());
+        out.writeBoolean(conference.isFlashSale());
+        writeDate(out, conference.getLastModified());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeDate(DataOutputStream out, Date value) throws IOException {
+        out.writeLong(value == null ? NULL_DATE : value.getTime());
+    }
+
+    /**
+     * Returns the time the Conferences were read at.
+     *
+     * @return the creation time in milliseconds.
+     */
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * Returns the sync token for the ConferenceSyncService changes made after the snapshot.
+     *
+     * @return the sync token.
+     */
+    public String getSyncToken() {
+        return syncToken;
+    }
+
+    /**
+     * Returns the number of Conferences in the snapshot.
+     *
+     * @return the number of Conferences.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the positions of the Conferences having any of the values of a facet.
+     *
+     * @param facet The facet.
+     * @param values The values, the months as numbers.
+     * @return the positions in ascending order, which must not be modified, or null when a
+     *     month is not a number.
+     */
+    public int[] find(Facet facet, List<String> values) {
+        Map<String, int[]> facetPositions = positions.get(facet);
+        int[] single = null;
+        BitSet union = null;
+        for (String value : values) {
+            if (facet == Facet.MONTH) {
+                try {
+                    value = Integer.toString(Integer.parseInt(value));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            int[] valuePositions = facetPositions.get(value);
+            if (valuePositions == null) {
+                continue;
+            }
+            if (single == null && union == null) {
+                single = valuePositions;
+                continue;
+            }
+            if (union == null) {
+                union = new BitSet(count);
+                setAll(union, single);
+            }
+            setAll(union, valuePositions);
+        }
+        if (union == null) {
+            return single == null ? new int[0] : single;
+        }
+        int[] result = new int[union.cardinality()];
+        for (int i = union.nextSetBit(0), j = 0; i >= 0; i = union.nextSetBit(i + 1)) {
+            result[j++] = i;
+        }
+        return result;
+    }
+
+    private static void setAll(BitSet bits, int[] positions) {
+        for (int position : positions) {
+            bits.set(position);
+        }
+    }
+
+    /**
+     * Finds a Conference by binary search on the key index.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     * @return the decoded Conference, or null when the snapshot does not hold it.
+     */
+    public Conference get(String websafeConferenceKey) {
+        ByteBuffer reader = buffer.duplicate();
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            reader.position(recordOffset(middle));
+            int comparison = readString(reader).compareTo(websafeConferenceKey);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return readConference(reader);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes the Conference at a position of the index.
+     *
+     * @param index The position, from 0 to size() - 1, in the order of the websafe keys.
+     * @return the decoded Conference.
+     */
+    public Conference get(int index) {
+        ByteBuffer reader = buffer.duplicate();
+        reader.position(recordOffset(index));
+        // Skips the key.
+        readString(reader);
+        return readConference(reader);
+    }
+
+    /**
+     * Reads the websafe key at a position of the index, without decoding the Conference.
+     *
+     * @param index The position, from 0 to size() - 1, in the order of the websafe keys.
+     * @return the String representation of the Conference key.
+     */
+    public String getKey(int index) {
+        ByteBuffer reader = buffer.duplicate();
+        reader.position(recordOffset(index));
+        return readString(reader);
+    }
+
+    private int recordOffset(int index) {
+        return buffer.getInt(indexOffset + 4 * index);
+    }
+
+    private static Conference readConference(ByteBuffer reader) {
+        long id = reader.getLong();
+        String organizerUserId = readString(reader);
+        String organizerDisplayName = readString(reader);
+        String name = readString(reader);
+        String description = readString(reader);
+        int topicCount = reader.getInt();
+        List<String> topics = new ArrayList<>(topicCount);
+        for (int i = 0; i < topicCount; i++) {
+            topics.add(readString(reader));
+        }
+        String city = readString(reader);
+        Date startDate = readDate(reader);
+        Date endDate = readDate(reader);
+        int maxAttendees = reader.getInt();
+        int seatsAvailable = reader.getInt();
+        boolean flashSale = reader.get() != 0;
+        Date lastModified = readDate(reader);
+        Conference conference = new Conference(id, organizerUserId, new ConferenceForm(
+                name, description, topics, city, startDate, endDate, maxAttendees));
+        conference.bookSeats(maxAttendees - seatsAvailable);
+        conference.setFlashSale(flashSale);
+        conference.setOrganizerDisplayName(organizerDisplayName);
+        conference.setLastModified(lastModified);
+        return conference;
+    }
+
+    private static String readString(ByteBuffer reader) {
+        int length = reader.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        reader.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void skipString(ByteBuffer reader) {
+        int length = reader.getInt();
+        if (length > 0) {
+            reader.position(reader.position() + length);
+        }
+    }
+
+    private static Date readDate(ByteBuffer reader) {
+        long time = reader.getLong();
+        return time == NULL_DATE ? null : new Date(time);
+    }
+}
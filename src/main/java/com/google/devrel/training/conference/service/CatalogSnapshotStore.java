@@ -0,0 +1,147 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.CatalogSnapshotChunk;
+import com.google.devrel.training.conference.domain.CatalogSnapshotManifest;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Builds catalog snapshots and stores them in the datastore, in chunks.
+ *
+ * App Engine instances have no writable file system to share a snapshot file through, so the
+ * snapshot is stored as a few large entities instead and loaded in one batch get into a direct
+ * buffer, outside of the heap. The stored bytes are the same as of a snapshot file, which
+ * CatalogSnapshot.map can open where there is a file system.
+ */
+public class CatalogSnapshotStore {
+
+    private static final Logger LOG = Logger.getLogger(CatalogSnapshotStore.class.getName());
+
+    /**
+     * The number of bytes per chunk, leaving room below the size limit of an entity.
+     */
+    static final int CHUNK_SIZE = 900 * 1024;
+
+    /**
+     * The number of Conferences read per query page while building.
+     */
+    private static final int PAGE_SIZE = 500;
+
+    private final ConferenceSyncService conferenceSyncService;
+
+    public CatalogSnapshotStore() {
+        this(new ConferenceSyncService());
+    }
+
+    /**
+     * @param conferenceSyncService The service deciding the sync token of the snapshots.
+     */
+    public CatalogSnapshotStore(ConferenceSyncService conferenceSyncService) {
+        this.conferenceSyncService = conferenceSyncService;
+    }
+
+    /**
+     * Builds a snapshot of all the Conferences, makes it the current one and deletes the
+     * previous one.
+     *
+     * @return the manifest of the new snapshot.
+     */
+    public CatalogSnapshotManifest build() {
+        long createdMillis = System.currentTimeMillis();
+        List<Conference> conferences = new ArrayList<>();
+        String cursor = null;
+        while (true) {
+            ConferencePage page = Repositories.conferences().listAll(cursor, PAGE_SIZE);
+            List<Key<Profile>> organizerKeys = new ArrayList<>(PAGE_SIZE);
+            for (Conference conference : page.getConferences()) {
+                organizerKeys.add(conference.getProfileKey());
+            }
+            // One batch get for the display names of the page.
+            Map<Key<Profile>, Profile> organizers =
+                    Repositories.profiles().getAll(organizerKeys);
+            for (Conference conference : page.getConferences()) {
+                Profile organizer = organizers.get(conference.getProfileKey());
+                conference.setOrganizerDisplayName(organizer == null
+                        ? conference.getOrganizerUserId() : organizer.getDisplayName());
+            }
+            conferences.addAll(page.getConferences());
+            // Nothing read so far is needed from the session cache any more.
+            ofy().clear();
+            cursor = page.getCursor();
+            if (cursor == null) {
+                break;
+            }
+        }
+        byte[] bytes = CatalogSnapshot.encode(conferences, createdMillis,
+                conferenceSyncService.getTokenAt(createdMillis));
+
+        long generation = createdMillis;
+        int chunkCount = (bytes.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        for (int i = 0; i < chunkCount; i++) {
+            byte[] data = Arrays.copyOfRange(bytes, i * CHUNK_SIZE,
+                    Math.min(bytes.length, (i + 1) * CHUNK_SIZE));
+            // One at a time, since a batch of large chunks may exceed the size limit of a call.
+            ofy().save().entity(new CatalogSnapshotChunk(generation, i, data)).now();
+        }
+        CatalogSnapshotManifest previous = ofy().load().key(CatalogSnapshotManifest.key()).now();
+        CatalogSnapshotManifest manifest =
+                new CatalogSnapshotManifest(generation, chunkCount, bytes.length);
+        ofy().save().entity(manifest).now();
+        if (previous != null) {
+            // Replicas that loaded the previous snapshot keep it in their own memory.
+            ofy().delete().keys(chunkKeys(previous)).now();
+        }
+        LOG.info("Built the catalog snapshot " + generation + " of " + conferences.size()
+                + " Conferences in " + bytes.length + " bytes.");
+        return manifest;
+    }
+
+    /**
+     * Returns the manifest of the current snapshot.
+     *
+     * @return the manifest, or null when no snapshot was built yet.
+     */
+    public CatalogSnapshotManifest getManifest() {
+        return ofy().load().key(CatalogSnapshotManifest.key()).now();
+    }
+
+    /**
+     * Loads the snapshot of a manifest into a direct buffer.
+     *
+     * @param manifest The manifest of the snapshot.
+     * @return the snapshot, or null when it was deleted for a newer one meanwhile.
+     */
+    public CatalogSnapshot load(CatalogSnapshotManifest manifest) {
+        List<Key<CatalogSnapshotChunk>> keys = chunkKeys(manifest);
+        Map<Key<CatalogSnapshotChunk>, CatalogSnapshotChunk> chunks = ofy().load().keys(keys);
+        if (chunks.size() < keys.size()) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(manifest.getSize());
+        for (Key<CatalogSnapshotChunk> key : keys) {
+            buffer.put(chunks.get(key).getData());
+        }
+        buffer.flip();
+        // The chunks are not needed once copied into the buffer.
+        ofy().clear();
+        return CatalogSnapshot.open(buffer);
+    }
+
+    private static List<Key<CatalogSnapshotChunk>> chunkKeys(CatalogSnapshotManifest manifest) {
+        List<Key<CatalogSnapshotChunk>> keys = new ArrayList<>(manifest.getChunkCount());
+        for (int i = 0; i < manifest.getChunkCount(); i++) {
+            keys.add(CatalogSnapshotChunk.key(manifest.getGeneration(), i));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,152 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.domain.ConferenceListing;
+import com.google.devrel.training.conference.domain.ConferenceListing.Facet;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+import com.googlecode.objectify.Key;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts the Conferences matching a query without loading any Conference.
+ *
+ * A query on a single city, topic or month is answered by the total count of its browse
+ * listing; other queries by keys-only queries. The counts are cached in memcache under a
+ * generation that every change of a Conference and every rebuild of a listing advances, which
+ * invalidates all of them at once. Since keys-only queries may lag the latest commit like any
+ * global query, the counts also expire after a while.
+ */
+public class ConferenceCountService {
+
+    private static final String NAMESPACE = "conferenceCounts";
+
+    private static final String GENERATION_KEY = "generation";
+
+    private static final int EXPIRATION_SECONDS = 5 * 60;
+
+    private final MemcacheService memcacheService =
+            MemcacheServiceFactory.getMemcacheService(NAMESPACE);
+
+    /**
+     * Returns the number of Conferences matching the query.
+     *
+     * @param conferenceQueryForm The query, whose limit and sort order are ignored.
+     * @return the number of matching Conferences.
+     * @throws IllegalArgumentException when the form has inequality filters on several fields,
+     *     or a month that is not a number.
+     */
+    public int count(ConferenceQueryForm conferenceQueryForm) {
+        String cacheKey = getGeneration() + "\n" + conferenceQueryForm.getFilterSignature();
+        Integer count = (Integer) memcacheService.get(cacheKey);
+        if (count != null) {
+            return count;
+        }
+        count = countFromListings(conferenceQueryForm);
+        if (count == null) {
+            count = Repositories.conferences().count(conferenceQueryForm);
+        }
+        memcacheService.put(cacheKey, count, Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+        return count;
+    }
+
+    /**
+     * Invalidates the cached counts once the current transaction commits, or right away
+     * outside of a transaction.
+     */
+    public void invalidateAfterCommit() {
+        TransactionRunner.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                invalidate();
+            }
+        });
+    }
+
+    /**
+     * Invalidates the cached counts.
+     */
+    public void invalidate() {
+        memcacheService.increment(GENERATION_KEY, 1L, System.currentTimeMillis());
+    }
+
+    private long getGeneration() {
+        // A generation lost to eviction starts again at a value that was never used.
+        Long generation =
+                memcacheService.increment(GENERATION_KEY, 0L, System.currentTimeMillis());
+        return generation == null ? 0L : generation;
+    }
+
+    /**
+     * Sums the total counts of the listings of the values of a single facet filter.
+     *
+     * @return the count, or null when the query is not on a single facet or a listing has not
+     *     been built.
+     */
+    private static Integer countFromListings(ConferenceQueryForm conferenceQueryForm) {
+        if (!conferenceQueryForm.getAnyOf().isEmpty()
+                || conferenceQueryForm.getFilters().size() != 1) {
+            return null;
+        }
+        Filter filter = conferenceQueryForm.getFilters().get(0);
+        Facet facet = getFacet(filter.getField());
+        Collection<String> values;
+        if (facet == null) {
+            return null;
+        } else if (filter.getOperator() == Operator.EQ) {
+            values = Collections.singletonList(filter.getValue());
+        } else if (filter.getOperator() == Operator.IN && facet != Facet.TOPIC) {
+            // A Conference has a single city and month, so the listings do not overlap.
+            values = filter.getValues();
+        } else {
+            return null;
+        }
+        // A value given twice is still counted once, like the query matches it once.
+        Set<Key<ConferenceListing>> keys = new LinkedHashSet<>(values.size());
+        for (String value : values) {
+            keys.add(ConferenceListing.key(facet,
+                    facet == Facet.MONTH ? Integer.toString(parseMonth(value)) : value));
+        }
+        Map<Key<ConferenceListing>, ConferenceListing> listings = ofy().load().keys(keys);
+        int count = 0;
+        for (Key<ConferenceListing> key : keys) {
+            ConferenceListing listing = listings.get(key);
+            if (listing == null) {
+                return null;
+            }
+            count += listing.getTotalCount();
+        }
+        return count;
+    }
+
+    private static int parseMonth(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid month: " + value);
+        }
+    }
+
+    private static Facet getFacet(ConferenceQueryForm.Field field) {
+        switch (field) {
+            case CITY:
+                return Facet.CITY;
+            case TOPIC:
+                return Facet.TOPIC;
+            case MONTH:
+                return Facet.MONTH;
+            default:
+                return null;
+        }
+    }
+}
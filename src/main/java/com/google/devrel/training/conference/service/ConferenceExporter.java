@@ -0,0 +1,210 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Exports all Conferences and then all Profiles, with their registrations, as newline-delimited
+ * JSON.
+ *
+ * The entities are read in pages of cursor queries and written as they are read, so memory use
+ * does not grow with the size of the export. After every page a checkpoint line is written,
+ * holding only a _resume property with the token to pass to a new export in order to continue
+ * after that page. The export ends with a line holding only "_complete": true.
+ *
+ * An export stops after the page that reaches its size budget, so a response that is only sent
+ * once complete stays under the response size limit, and a stopped export ends with the
+ * checkpoint line to resume from.
+ */
+public class ConferenceExporter {
+
+    /**
+     * The number of entities read per query page.
+     */
+    static final int PAGE_SIZE = 200;
+
+    /**
+     * A writer counting the characters written through it.
+     */
+    private static class CountingWriter extends FilterWriter {
+
+        private long count;
+
+        private CountingWriter(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            super.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            super.write(chars, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void write(String string, int offset, int length) throws IOException {
+            super.write(string, offset, length);
+            count += length;
+        }
+    }
+
+    /**
+     * Enum representing the exported kinds, in the order of the export.
+     */
+    public static enum Kind {
+        CONFERENCE,
+        PROFILE
+    }
+
+    private final SimpleDateFormat dateFormat;
+
+    public ConferenceExporter() {
+        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Writes the export, starting at the resume token, until it is complete, the size budget is
+     * used up or the deadline passes.
+     *
+     * @param writer The writer of the export.
+     * @param resumeToken A token of a checkpoint line of an earlier export, or null to start over.
+     * @param maxChars The number of characters after which no new page is started.
+     * @param deadlineMillis The time after which no new page is started.
+     * @return the token for resuming the export, or null when the export is complete.
+     * @throws IOException when the export cannot be written.
+     * @throws IllegalArgumentException when the resume token is not valid.
+     */
+    public String export(Writer writer, String resumeToken, long maxChars, long deadlineMillis)
+            throws IOException {
+        Kind kind = Kind.values()[0];
+        String cursor = null;
+        if (resumeToken != null) {
+            int separator = resumeToken.indexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid resume token: " + resumeToken);
+            }
+            kind = Kind.valueOf(resumeToken.substring(0, separator));
+            cursor = resumeToken.substring(separator + 1);
+            if (cursor.isEmpty()) {
+                cursor = null;
+            }
+        }
+        CountingWriter countingWriter = new CountingWriter(writer);
+        writer = countingWriter;
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        // Lenient, in order to write a sequence of top-level objects.
+        jsonWriter.setLenient(true);
+        while (true) {
+            if (kind == Kind.CONFERENCE) {
+                ConferencePage page = Repositories.conferences().listAll(cursor, PAGE_SIZE);
+                for (Conference conference : page.getConferences()) {
+                    writeConference(jsonWriter, conference);
+                    writer.write('\n');
+                }
+                cursor = page.getCursor();
+            } else {
+                cursor = writeProfiles(writer, jsonWriter, cursor);
+            }
+            if (cursor == null) {
+                if (kind.ordinal() == Kind.values().length - 1) {
+                    jsonWriter.beginObject().name("_complete").value(true).endObject();
+                    writer.write('\n');
+                    writer.flush();
+                    return null;
+                }
+                kind = Kind.values()[kind.ordinal() + 1];
+            }
+            // Nothing read so far is needed any more.
+            ofy().clear();
+            String token = kind.name() + ":" + (cursor == null ? "" : cursor);
+            jsonWriter.beginObject().name("_resume").value(token).endObject();
+            writer.write('\n');
+            writer.flush();
+            if (countingWriter.count >= maxChars || System.currentTimeMillis() > deadlineMillis) {
+                return token;
+            }
+        }
+    }
+
+    /**
+     * Writes a page of Profiles.
+     *
+     * @return the cursor of the next page, or null when this was the last one.
+     */
+    private String writeProfiles(Writer writer, JsonWriter jsonWriter, String cursor)
+            throws IOException {
+        ProfilePage page = Repositories.profiles().listAll(cursor, PAGE_SIZE);
+        for (Profile profile : page.getProfiles()) {
+            writeProfile(jsonWriter, profile);
+            writer.write('\n');
+        }
+        return page.getCursor();
+    }
+
+    private void writeConference(JsonWriter jsonWriter, Conference conference)
+            throws IOException {
+        jsonWriter.beginObject()
+                .name("kind").value("Conference")
+                .name("websafeKey").value(conference.getWebsafeKey())
+                .name("id").value(conference.getId())
+                .name("organizerUserId").value(conference.getOrganizerUserId())
+                .name("name").value(conference.getName())
+                .name("description").value(conference.getDescription());
+        writeStrings(jsonWriter, "topics", conference.getTopics());
+        jsonWriter.name("city").value(conference.getCity());
+        writeDate(jsonWriter, "startDate", conference.getStartDate());
+        writeDate(jsonWriter, "endDate", conference.getEndDate());
+        jsonWriter.name("month").value(conference.getMonth())
+                .name("maxAttendees").value(conference.getMaxAttendees())
+                .name("seatsAvailable").value(conference.getSeatsAvailable())
+                .name("flashSale").value(conference.isFlashSale())
+                .endObject();
+    }
+
+    private void writeProfile(JsonWriter jsonWriter, Profile profile) throws IOException {
+        jsonWriter.beginObject()
+                .name("kind").value("Profile")
+                .name("userId").value(profile.getUserId())
+                .name("displayName").value(profile.getDisplayName())
+                .name("mainEmail").value(profile.getMainEmail())
+                .name("teeShirtSize").value(profile.getTeeShirtSize() == null
+                        ? null : profile.getTeeShirtSize().name());
+        writeStrings(jsonWriter, "conferenceKeysToAttend", profile.getConferenceKeysToAttend());
+        jsonWriter.endObject();
+    }
+
+    private static void writeStrings(JsonWriter jsonWriter, String name, List<String> values)
+            throws IOException {
+        jsonWriter.name(name);
+        if (values == null) {
+            jsonWriter.nullValue();
+            return;
+        }
+        jsonWriter.beginArray();
+        for (String value : values) {
+            jsonWriter.value(value);
+        }
+        jsonWriter.endArray();
+    }
+
+    private void writeDate(JsonWriter jsonWriter, String name, Date date) throws IOException {
+        jsonWriter.name(name).value(date == null ? null : dateFormat.format(date));
+    }
+}
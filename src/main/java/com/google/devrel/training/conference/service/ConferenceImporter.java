@@ -0,0 +1,521 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.factory;
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.KeyRange;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.logging.Logger;
+
+/**
+ * Imports conferences of one organizer from a CSV or JSON-lines upload.
+ *
+ * The upload is parsed row by row and the conferences are saved in batches, with one Id range
+ * allocated per batch, so memory use does not grow with the size of the upload. Invalid rows
+ * are skipped and reported in the summary, and a single summary email is sent at the end.
+ *
+ * A CSV upload starts with a header row naming the columns, which are the properties of
+ * {@link ConferenceForm}. Topics are separated by semicolons and dates are formatted as
+ * yyyy-MM-dd, in both formats. A row with a field longer than MAX_FIELD_CHARS or longer than
+ * MAX_RECORD_CHARS in all is skipped without being held in memory, in both formats as well.
+ */
+public class ConferenceImporter {
+
+    private static final Logger LOG = Logger.getLogger(ConferenceImporter.class.getName());
+
+    /**
+     * The number of conferences saved in one batch.
+     */
+    static final int BATCH_SIZE = 100;
+
+    /**
+     * The number of row errors kept for the summary. The others are only counted.
+     */
+    static final int MAX_REPORTED_ERRORS = 50;
+
+    /**
+     * The maximum length of a field, in characters.
+     */
+    static final int MAX_FIELD_CHARS = 16 * 1024;
+
+    /**
+     * The maximum length of a CSV record or of a JSON line, in characters.
+     */
+    static final int MAX_RECORD_CHARS = 64 * 1024;
+
+    private static final String DATE_FORMAT = "yyyy-MM-dd";
+
+    private final ConferenceListingService conferenceListingService =
+            new ConferenceListingService();
+
+    private final ConferenceCountService conferenceCountService = new ConferenceCountService();
+
+    /**
+     * Enum representing the format of an upload.
+     */
+    public static enum Format {
+        CSV, JSON_LINES
+    }
+
+    /**
+     * The outcome of an import.
+     */
+    public static class Summary {
+
+        private int imported;
+
+        private int rejected;
+
+        private final List<String> errors = new ArrayList<>();
+
+        public int getImported() {
+            return imported;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return the first errors, each naming the row it was found in.
+         */
+        public List<String> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+
+        private void reject(int row, String message) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add("Row " + row + ": " + message);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder stringBuilder = new StringBuilder("Imported conferences: ")
+                    .append(imported).append('\n')
+                    .append("Rejected rows: ").append(rejected).append('\n');
+            for (String error : errors) {
+                stringBuilder.append(error).append('\n');
+            }
+            if (rejected > errors.size()) {
+                stringBuilder.append("... and ").append(rejected - errors.size())
+                        .append(" more errors.\n");
+            }
+            return stringBuilder.toString();
+        }
+    }
+
+    /**
+     * A row that cannot be turned into a valid ConferenceForm.
+     */
+    private static class InvalidRowException extends Exception {
+
+        private InvalidRowException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Reads the rows of an upload one at a time.
+     */
+    private interface RowReader {
+
+        /**
+         * @return the properties of the next row by name, or null at the end of the upload.
+         * @throws InvalidRowException when the row cannot be parsed, after skipping it.
+         */
+        Map<String, String> next() throws IOException, InvalidRowException;
+    }
+
+    /**
+     * Imports the conferences in the upload for the organizer.
+     *
+     * @param profile The Profile of the organizer, saved before the conferences.
+     * @param reader The upload.
+     * @param format The format of the upload.
+     * @return the summary of the import.
+     * @throws IOException when the upload cannot be read or a CSV upload has no header. The
+     *                     batches saved until then are kept.
+     */
+    public Summary importConferences(Profile profile, Reader reader, Format format)
+            throws IOException {
+        RowReader rowReader = format == Format.CSV
+                ? new CsvRowReader(reader) : new JsonLinesRowReader(reader);
+        Summary summary = new Summary();
+        List<ConferenceForm> batch = new ArrayList<>(BATCH_SIZE);
+        Repositories.profiles().save(profile);
+        int row = 0;
+        while (true) {
+            Map<String, String> values;
+            row++;
+            try {
+                values = rowReader.next();
+                if (values == null) {
+                    break;
+                }
+                batch.add(toConferenceForm(values));
+            } catch (InvalidRowException e) {
+                summary.reject(row, e.getMessage());
+                continue;
+            }
+            if (batch.size() == BATCH_SIZE) {
+                saveBatch(profile, batch);
+                summary.imported += batch.size();
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            saveBatch(profile, batch);
+            summary.imported += batch.size();
+        }
+        LOG.info("Imported " + summary.imported + " conferences for " + profile.getUserId()
+                + ", rejected " + summary.rejected + " rows.");
+        QueueFactory.getDefaultQueue().add(
+                TaskOptions.Builder.withUrl("/tasks/send_confirmation_email")
+                        .param("email", profile.getMainEmail())
+                        .param("importSummary", summary.toString()));
+        return summary;
+    }
+
+    /**
+     * Saves a batch of conferences with Ids from a single allocated range.
+     */
+    private void saveBatch(Profile profile, List<ConferenceForm> batch) {
+        Key<Profile> profileKey = Key.create(Profile.class, profile.getUserId());
+        KeyRange<Conference> keyRange =
+                factory().allocateIds(profileKey, Conference.class, batch.size());
+        Iterator<Key<Conference>> keys = keyRange.iterator();
+        List<Conference> conferences = new ArrayList<>(batch.size());
+        for (ConferenceForm conferenceForm : batch) {
+            conferences.add(new Conference(keys.next().getId(), profile.getUserId(),
+                    conferenceForm));
+        }
+        Repositories.conferences().saveAll(conferences);
+        // The rebuilds of a listing coalesce across the batches of the upload.
+        conferenceListingService.rebuildAfterCommit(conferences);
+        conferenceCountService.invalidateAfterCommit();
+        // Keep the session cache from growing with the upload.
+        ofy().clear();
+    }
+
+    /**
+     * Validates the properties of a row and turns them into a ConferenceForm.
+     */
+    private static ConferenceForm toConferenceForm(Map<String, String> values)
+            throws InvalidRowException {
+        String name = emptyToNull(values.get("name"));
+        if (name == null) {
+            throw new InvalidRowException("The name is required.");
+        }
+        String topics = emptyToNull(values.get("topics"));
+        List<String> topicList = topics == null ? null
+                : ImmutableList.copyOf(Splitter.on(';').trimResults().omitEmptyStrings()
+                        .split(topics));
+        Date startDate = parseDate(values.get("startDate"));
+        Date endDate = parseDate(values.get("endDate"));
+        if (startDate != null && endDate != null && endDate.before(startDate)) {
+            throw new InvalidRowException("The endDate is before the startDate.");
+        }
+        int maxAttendees = 0;
+        String maxAttendeesValue = emptyToNull(values.get("maxAttendees"));
+        if (maxAttendeesValue != null) {
+            try {
+                maxAttendees = Integer.parseInt(maxAttendeesValue);
+            } catch (NumberFormatException e) {
+                throw new InvalidRowException("The maxAttendees is not a number.");
+            }
+            if (maxAttendees < 0) {
+                throw new InvalidRowException("The maxAttendees is negative.");
+            }
+        }
+        return new ConferenceForm(name, emptyToNull(values.get("description")), topicList,
+                emptyToNull(values.get("city")), startDate, endDate, maxAttendees);
+    }
+
+    private static Date parseDate(String value) throws InvalidRowException {
+        value = emptyToNull(value);
+        if (value == null) {
+            return null;
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        dateFormat.setLenient(false);
+        try {
+            return dateFormat.parse(value);
+        } catch (ParseException e) {
+            throw new InvalidRowException("The date " + value + " is not formatted as "
+                    + DATE_FORMAT + ".");
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        if (value == null) {
+            return null;
+        }
+        value = value.trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Reads CSV records, where quoted fields may contain commas, quotes and line breaks.
+     */
+    private static class CsvRowReader implements RowReader {
+
+        private final Reader reader;
+
+        private final List<String> header;
+
+        private boolean endOfInput;
+
+        private CsvRowReader(Reader reader) throws IOException {
+            // Buffered, for looking ahead at escaped quotes.
+            this.reader = new BufferedReader(reader);
+            try {
+                this.header = readRecord();
+            } catch (InvalidRowException e) {
+                throw new IOException("Invalid CSV header row: " + e.getMessage());
+            }
+            if (header == null) {
+                throw new IOException("The CSV upload has no header row.");
+            }
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException, InvalidRowException {
+            List<String> record = readRecord();
+            // Skip blank lines.
+            while (record != null && record.size() == 1 && record.get(0).trim().isEmpty()) {
+                record = readRecord();
+            }
+            if (record == null) {
+                return null;
+            }
+            if (record.size() != header.size()) {
+                throw new InvalidRowException("Expected " + header.size() + " columns but found "
+                        + record.size() + ".");
+            }
+            Map<String, String> values = new HashMap<>();
+            for (int i = 0; i < header.size(); i++) {
+                values.put(header.get(i).trim(), record.get(i));
+            }
+            return values;
+        }
+
+        /**
+         * @return the fields of the next record, or null at the end of the input.
+         * @throws InvalidRowException when the record is too long, after skipping it.
+         */
+        private List<String> readRecord() throws IOException, InvalidRowException {
+            if (endOfInput) {
+                return null;
+            }
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean empty = true;
+            // The characters of the record so far; past a limit, the rest is read but not kept.
+            int length = 0;
+            String tooLong = null;
+            while (true) {
+                int c = reader.read();
+                if (c == -1) {
+                    endOfInput = true;
+                    if (empty && fields.isEmpty()) {
+                        return null;
+                    }
+                    break;
+                }
+                empty = false;
+                if (tooLong == null) {
+                    if (++length > MAX_RECORD_CHARS) {
+                        tooLong = "The row is longer than " + MAX_RECORD_CHARS + " characters.";
+                    } else if (field.length() > MAX_FIELD_CHARS) {
+                        tooLong = "Field " + (fields.size() + 1) + " is longer than "
+                                + MAX_FIELD_CHARS + " characters.";
+                    }
+                    if (tooLong != null) {
+                        fields = null;
+                        field = null;
+                    }
+                }
+                if (tooLong != null) {
+                    // Skips the rest of the record, keeping track of the quotes only.
+                    if (c == '"') {
+                        quoted = !quoted;
+                    } else if (c == '\n' && !quoted) {
+                        break;
+                    }
+                } else if (quoted) {
+                    if (c == '"') {
+                        reader.mark(1);
+                        if (reader.read() == '"') {
+                            field.append('"');
+                        } else {
+                            reader.reset();
+                            quoted = false;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n') {
+                    break;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+            }
+            if (tooLong == null && field.length() > MAX_FIELD_CHARS) {
+                tooLong = "Field " + (fields.size() + 1) + " is longer than " + MAX_FIELD_CHARS
+                        + " characters.";
+            }
+            if (tooLong != null) {
+                throw new InvalidRowException(tooLong);
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+
+    /**
+     * Reads one JSON object per line. A line is parsed on its own, so a malformed one is
+     * skipped like any other invalid row.
+     */
+    private static class JsonLinesRowReader implements RowReader {
+
+        private final Reader reader;
+
+        private final StringBuilder line = new StringBuilder();
+
+        private boolean endOfInput;
+
+        private JsonLinesRowReader(Reader reader) {
+            this.reader = new BufferedReader(reader);
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException, InvalidRowException {
+            String text = readLine();
+            // Skip blank lines.
+            while (text != null && text.trim().isEmpty()) {
+                text = readLine();
+            }
+            if (text == null) {
+                return null;
+            }
+            JsonReader jsonReader = new JsonReader(new StringReader(text));
+            // Lenient, in order to tell a line of several values from a malformed one.
+            jsonReader.setLenient(true);
+            try {
+                if (jsonReader.peek() != JsonToken.BEGIN_OBJECT) {
+                    throw new InvalidRowException("The row is not a JSON object.");
+                }
+                Map<String, String> values = new HashMap<>();
+                jsonReader.beginObject();
+                while (jsonReader.hasNext()) {
+                    String name = jsonReader.nextName();
+                    JsonToken token = jsonReader.peek();
+                    if (token == JsonToken.NULL) {
+                        jsonReader.nextNull();
+                    } else if (token == JsonToken.BEGIN_ARRAY) {
+                        // Only the topics are an array, joined like in CSV.
+                        StringBuilder joined = new StringBuilder();
+                        jsonReader.beginArray();
+                        while (jsonReader.hasNext()) {
+                            if (jsonReader.peek() == JsonToken.NULL) {
+                                throw new InvalidRowException("The " + name
+                                        + " contain a null.");
+                            }
+                            joined.append(jsonReader.nextString()).append(';');
+                        }
+                        jsonReader.endArray();
+                        values.put(name, checkLength(name, joined.toString()));
+                    } else if (token == JsonToken.BEGIN_OBJECT) {
+                        jsonReader.skipValue();
+                    } else {
+                        values.put(name, checkLength(name, jsonReader.nextString()));
+                    }
+                }
+                jsonReader.endObject();
+                if (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+                    throw new InvalidRowException("The row is not a single JSON object.");
+                }
+                return values;
+            } catch (IOException | IllegalStateException | JsonParseException e) {
+                // Only the line is read here, so the error is in the line.
+                throw new InvalidRowException("Malformed JSON: " + e.getMessage());
+            }
+        }
+
+        private static String checkLength(String name, String value)
+                throws InvalidRowException {
+            if (value.length() > MAX_FIELD_CHARS) {
+                throw new InvalidRowException("The " + name + " is longer than "
+                        + MAX_FIELD_CHARS + " characters.");
+            }
+            return value;
+        }
+
+        /**
+         * @return the next line, without the line break, or null at the end of the input.
+         * @throws InvalidRowException when the line is too long, after skipping it.
+         */
+        private String readLine() throws IOException, InvalidRowException {
+            if (endOfInput) {
+                return null;
+            }
+            line.setLength(0);
+            boolean tooLong = false;
+            int c;
+            while ((c = reader.read()) != '\n') {
+                if (c == -1) {
+                    endOfInput = true;
+                    if (line.length() == 0 && !tooLong) {
+                        return null;
+                    }
+                    break;
+                }
+                if (line.length() < MAX_RECORD_CHARS) {
+                    line.append((char) c);
+                } else {
+                    // Only the end of the line is looked for from here.
+                    tooLong = true;
+                }
+            }
+            if (tooLong) {
+                throw new InvalidRowException("The row is longer than " + MAX_RECORD_CHARS
+                        + " characters.");
+            }
+            return line.toString();
+        }
+    }
+}
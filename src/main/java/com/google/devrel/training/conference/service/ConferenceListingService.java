@@ -0,0 +1,310 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.base.Charsets;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.hash.Hashing;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceListing;
+import com.google.devrel.training.conference.domain.ConferenceListing.Facet;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Sort;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+/**
+ * Maintains the materialized browse listings of the Conferences per city, topic and month.
+ *
+ * A change of a Conference enqueues a rebuild task for each listing it leaves or enters. The
+ * tasks are named after the listing and a short time window, so a burst of changes to the same
+ * listing, such as an import, rebuilds it once. A rebuild reads the listing with the composite
+ * index query that browsing used to run, and checks that the index has caught up with the
+ * first and the newest Conference changed in the window; if not, the task fails and is retried.
+ */
+public class ConferenceListingService {
+
+    private static final Logger LOG = Logger.getLogger(ConferenceListingService.class.getName());
+
+    /**
+     * The time window in which the rebuild tasks of the same listing are coalesced.
+     */
+    static final long COALESCE_MILLIS = 5 * 1000;
+
+    private static final String NAMESPACE = "listingChanges";
+
+    /**
+     * How long the newest change of a window is kept, which covers the retries of its rebuild.
+     */
+    private static final int EXPIRATION_SECONDS = 60 * 60;
+
+    private final MemcacheService memcacheService =
+            MemcacheServiceFactory.getMemcacheService(NAMESPACE);
+
+    private final ConferenceCountService conferenceCountService = new ConferenceCountService();
+
+    /**
+     * Returns the listings the Conference belongs to.
+     *
+     * @param conference The Conference.
+     * @return the facet values of the Conference.
+     */
+    public static SetMultimap<Facet, String> getFacetValues(Conference conference) {
+        SetMultimap<Facet, String> facetValues = LinkedHashMultimap.create();
+        if (conference.getCity() != null) {
+            facetValues.put(Facet.CITY, conference.getCity());
+        }
+        if (conference.getTopics() != null) {
+            facetValues.putAll(Facet.TOPIC, conference.getTopics());
+        }
+        if (conference.getStartDate() != null) {
+            facetValues.put(Facet.MONTH, Integer.toString(conference.getMonth()));
+        }
+        return facetValues;
+    }
+
+    /**
+     * Enqueues the rebuilds of the listings once the current transaction commits, or right away
+     * outside of a transaction.
+     *
+     * The tasks are named, which transactional tasks cannot be, so they are not enqueued with the
+     * transaction itself.
+     *
+     * @param facetValues The listings to rebuild, those the Conference was in and is in now.
+     * @param websafeConferenceKey The changed Conference, or null for several Conferences.
+     */
+    public void rebuildAfterCommit(Multimap<Facet, String> facetValues,
+                                   String websafeConferenceKey) {
+        Map<Map.Entry<Facet, String>, String> changedKeys = new LinkedHashMap<>();
+        for (Map.Entry<Facet, String> facetValue : facetValues.entries()) {
+            changedKeys.put(facetValue, websafeConferenceKey);
+        }
+        rebuildAfterCommit(changedKeys);
+    }
+
+    /**
+     * Enqueues the rebuilds of the listings of several changed Conferences once the current
+     * transaction commits, or right away outside of a transaction.
+     *
+     * Each rebuild checks the index against the last of the Conferences in its listing.
+     *
+     * @param conferences The changed Conferences, which are only entering their listings.
+     */
+    public void rebuildAfterCommit(List<Conference> conferences) {
+        Map<Map.Entry<Facet, String>, String> changedKeys = new LinkedHashMap<>();
+        for (Conference conference : conferences) {
+            for (Map.Entry<Facet, String> facetValue : getFacetValues(conference).entries()) {
+                changedKeys.put(facetValue, conference.getWebsafeKey());
+            }
+        }
+        rebuildAfterCommit(changedKeys);
+    }
+
+    /**
+     * @param changedKeys The Conference to check each listing against, by listing.
+     */
+    private void rebuildAfterCommit(final Map<Map.Entry<Facet, String>, String> changedKeys) {
+        TransactionRunner.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                enqueueRebuilds(changedKeys);
+            }
+        });
+    }
+
+    private void enqueueRebuilds(Map<Map.Entry<Facet, String>, String> changedKeys) {
+        Queue queue = QueueFactory.getDefaultQueue();
+        long window = System.currentTimeMillis() / COALESCE_MILLIS;
+        for (Map.Entry<Map.Entry<Facet, String>, String> changedKey : changedKeys.entrySet()) {
+            Map.Entry<Facet, String> facetValue = changedKey.getKey();
+            String websafeConferenceKey = changedKey.getValue();
+            String taskName = "listing-" + facetValue.getKey() + "-"
+                    + Hashing.md5().hashString(facetValue.getValue(), Charsets.UTF_8) + "-"
+                    + window;
+            TaskOptions taskOptions = TaskOptions.Builder.withUrl("/tasks/rebuild_listing")
+                    .taskName(taskName)
+                    // Runs after the window, so it sees all the changes coalesced into it.
+                    .countdownMillis(COALESCE_MILLIS)
+                    .param("facet", facetValue.getKey().name())
+                    .param("value", facetValue.getValue());
+            if (websafeConferenceKey != null) {
+                taskOptions.param("websafeConferenceKey", websafeConferenceKey);
+                // The task carries the first change of the window, and reads the newest one.
+                memcacheService.put(taskName, websafeConferenceKey,
+                        Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+            }
+            try {
+                queue.add(taskOptions);
+            } catch (TaskAlreadyExistsException e) {
+                // Coalesced into the rebuild enqueued earlier in the window.
+            }
+        }
+    }
+
+    /**
+     * Rebuilds all the pages of a listing.
+     *
+     * @param facet The facet of the listing.
+     * @param value The value of the facet.
+     * @param websafeConferenceKey The Conference whose change triggered the rebuild, or null.
+     * @return the number of Conferences in the listing.
+     * @throws IllegalStateException when the index has not caught up with the Conference yet.
+     */
+    public int rebuild(Facet facet, String value, String websafeConferenceKey) {
+        return rebuild(facet, value, websafeConferenceKey, null);
+    }
+
+    /**
+     * Rebuilds all the pages of a listing from its rebuild task.
+     *
+     * @param facet The facet of the listing.
+     * @param value The value of the facet.
+     * @param websafeConferenceKey The first Conference changed in the window of the task, or null.
+     * @param taskName The name of the task, under which the newest change of its window is
+     *                 recorded, or null.
+     * @return the number of Conferences in the listing.
+     * @throws IllegalStateException when the index has not caught up with the changes yet.
+     */
+    public int rebuild(Facet facet, String value, String websafeConferenceKey, String taskName) {
+        List<Conference> conferences = new ArrayList<>();
+        for (Conference conference : Repositories.conferences().query(new ConferenceQueryForm()
+                .filter(new Filter(getField(facet), Operator.EQ, value))
+                .sort(Sort.NAME))) {
+            // The entities are fresher than the index, so drop those that left the listing.
+            if (getFacetValues(conference).containsEntry(facet, value)) {
+                conferences.add(conference);
+            }
+        }
+        if (websafeConferenceKey != null) {
+            checkCaughtUp(facet, value, websafeConferenceKey, conferences);
+        }
+        String newestWebsafeConferenceKey =
+                taskName == null ? null : (String) memcacheService.get(taskName);
+        if (newestWebsafeConferenceKey != null
+                && !newestWebsafeConferenceKey.equals(websafeConferenceKey)) {
+            checkCaughtUp(facet, value, newestWebsafeConferenceKey, conferences);
+        }
+        List<Key<Profile>> organizerKeys = new ArrayList<>(conferences.size());
+        for (Conference conference : conferences) {
+            organizerKeys.add(conference.getProfileKey());
+        }
+        Map<Key<Profile>, Profile> organizers = Repositories.profiles().getAll(organizerKeys);
+        List<ConferenceSummary> summaries = new ArrayList<>(conferences.size());
+        for (Conference conference : conferences) {
+            Profile organizer = organizers.get(conference.getProfileKey());
+            summaries.add(new ConferenceSummary(conference, organizer == null
+                    ? conference.getOrganizerUserId() : organizer.getDisplayName()));
+        }
+
+        List<List<ConferenceSummary>> pages = summaries.isEmpty()
+                ? Collections.singletonList(Collections.<ConferenceSummary>emptyList())
+                : Lists.partition(summaries, ConferenceListing.PAGE_SIZE);
+        long generation = newGeneration();
+        List<ConferenceListing> listings = new ArrayList<>(pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            listings.add(new ConferenceListing(facet, value, generation, i,
+                    summaries.isEmpty() ? 0 : pages.size(), summaries.size(), pages.get(i)));
+        }
+        ConferenceListing previous = ofy().load().key(ConferenceListing.key(facet, value)).now();
+        ConferenceListing head = listings.get(0);
+        // The other pages first, so the head never names pages that are not written yet.
+        ofy().save().entities(listings.subList(1, listings.size())).now();
+        if (previous != null) {
+            head.replace(previous);
+        }
+        ofy().save().entity(head).now();
+        if (previous != null && previous.getPreviousPageCount() > 1) {
+            // The generation before the previous one, which no reader is paging through anymore.
+            List<Key<ConferenceListing>> stale = new ArrayList<>();
+            for (int i = 1; i < previous.getPreviousPageCount(); i++) {
+                stale.add(ConferenceListing.key(facet, value, previous.getPreviousGeneration(), i));
+            }
+            ofy().delete().keys(stale).now();
+        }
+        // The counts of single facet queries are read from the listings.
+        conferenceCountService.invalidate();
+        LOG.info("Rebuilt the " + facet + " listing of " + value + " with " + summaries.size()
+                + " Conferences.");
+        return summaries.size();
+    }
+
+    /**
+     * @return a generation for the pages of a rebuild, which is never 0.
+     */
+    private static long newGeneration() {
+        long generation;
+        do {
+            generation = ThreadLocalRandom.current().nextLong();
+        } while (generation == 0);
+        return generation;
+    }
+
+    private static void checkCaughtUp(Facet facet, String value, String websafeConferenceKey,
+                                      List<Conference> conferences) {
+        Conference changed =
+                Repositories.conferences().get(Key.<Conference>create(websafeConferenceKey));
+        boolean expected = changed != null
+                && getFacetValues(changed).containsEntry(facet, value);
+        boolean found = false;
+        for (Conference conference : conferences) {
+            if (conference.getWebsafeKey().equals(websafeConferenceKey)) {
+                found = true;
+                break;
+            }
+        }
+        if (expected != found) {
+            throw new IllegalStateException("The index has not caught up with "
+                    + websafeConferenceKey + " for the " + facet + " listing of " + value);
+        }
+    }
+
+    private static Field getField(Facet facet) {
+        switch (facet) {
+            case CITY:
+                return Field.CITY;
+            case TOPIC:
+                return Field.TOPIC;
+            default:
+                return Field.MONTH;
+        }
+    }
+
+    /**
+     * Returns a page of a listing.
+     *
+     * @param facet The facet of the listing.
+     * @param value The value of the facet.
+     * @param page The page, starting at 0.
+     * @return the page, or null when the listing has no such page.
+     */
+    public ConferenceListing getPage(Facet facet, String value, int page) {
+        ConferenceListing head = ofy().load().key(ConferenceListing.key(facet, value)).now();
+        if (page == 0 || head == null || page >= head.getPageCount()) {
+            return page == 0 ? head : null;
+        }
+        return ofy().load()
+                .key(ConferenceListing.key(facet, value, head.getGeneration(), page)).now();
+    }
+}
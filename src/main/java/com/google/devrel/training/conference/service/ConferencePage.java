@@ -0,0 +1,32 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+
+import java.util.List;
+
+/**
+ * A page of a scan of all the Conferences, with the cursor of the next page.
+ */
+public class ConferencePage {
+
+    private final List<Conference> conferences;
+
+    /**
+     * The cursor to pass for the next page, or null when this is the last page.
+     */
+    private final String cursor;
+
+    public ConferencePage(List<Conference> conferences, String cursor) {
+        this.conferences = ImmutableList.copyOf(conferences);
+        this.cursor = cursor;
+    }
+
+    public List<Conference> getConferences() {
+        return conferences;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+}
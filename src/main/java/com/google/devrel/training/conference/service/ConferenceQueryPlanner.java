@@ -0,0 +1,104 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.collect.Ordering;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Sort;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Decides how the datastore answers a Conference query in the sort order it asks for.
+ *
+ * The name order is served by the composite indexes declared for the filters of the web UI.
+ * The other orders would need a composite index for every combination of filters and sort
+ * order, so an index is only used when the single-property index of the sort property serves
+ * the query on its own: with no filters other than inequalities on that property. Any other
+ * query is read in name order and the first results of its sort order are kept in memory
+ * proportional to the limit, whatever the number of matches.
+ */
+public class ConferenceQueryPlanner {
+
+    /**
+     * Enum representing the ways of answering a query.
+     */
+    public static enum Plan {
+        /**
+         * The datastore returns the results in the sort order.
+         */
+        INDEX,
+        /**
+         * The matches are streamed and the first ones in the sort order kept.
+         */
+        TOP_K
+    }
+
+    /**
+     * The limit of queries sorted by something else than the name that do not set one.
+     */
+    public static final int DEFAULT_LIMIT = 100;
+
+    /**
+     * Returns the plan of a query.
+     *
+     * @param conferenceQueryForm The query.
+     * @return the plan.
+     */
+    public static Plan plan(ConferenceQueryForm conferenceQueryForm) {
+        Sort sort = conferenceQueryForm.getSort();
+        if (sort == Sort.NAME) {
+            return Plan.INDEX;
+        }
+        if (!sort.isIndexed() || conferenceQueryForm.isDisjunction()) {
+            return Plan.TOP_K;
+        }
+        for (Filter filter : conferenceQueryForm.getFilters()) {
+            if (filter.getField() != sort.getField() || filter.getOperator() == Operator.EQ) {
+                return Plan.TOP_K;
+            }
+        }
+        return Plan.INDEX;
+    }
+
+    /**
+     * Returns the number of results of a query.
+     *
+     * @param conferenceQueryForm The query.
+     * @return the limit of the query, DEFAULT_LIMIT for a query sorted by something else than
+     *     the name without one, or null for all the results.
+     */
+    public static Integer getLimit(ConferenceQueryForm conferenceQueryForm) {
+        if (conferenceQueryForm.getLimit() == null
+                && conferenceQueryForm.getSort() != Sort.NAME) {
+            return DEFAULT_LIMIT;
+        }
+        return conferenceQueryForm.getLimit();
+    }
+
+    /**
+     * Returns the first matches in an ordering, keeping no more than twice the limit in memory.
+     *
+     * @param matches The Conferences matching the query, in any order.
+     * @param ordering The ordering of the results.
+     * @param limit The number of results, or null for all of them.
+     * @return the sorted results.
+     */
+    public static List<Conference> top(Iterator<Conference> matches,
+                                       Comparator<Conference> ordering, Integer limit) {
+        if (limit != null) {
+            return Ordering.from(ordering).leastOf(matches, limit);
+        }
+        List<Conference> result = new ArrayList<>();
+        while (matches.hasNext()) {
+            result.add(matches.next());
+        }
+        Collections.sort(result, ordering);
+        return result;
+    }
+}
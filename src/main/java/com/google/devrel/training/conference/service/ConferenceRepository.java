@@ -0,0 +1,78 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.googlecode.objectify.Key;
+
+import java.util.List;
+
+/**
+ * Stores and queries Conferences.
+ */
+public interface ConferenceRepository extends Repository<Conference> {
+
+    /**
+     * Stores a Conference whose only changes are to its available seats and its waitlist,
+     * which the repository may propagate more cheaply than other changes.
+     *
+     * @param conference The Conference with its new seats.
+     */
+    void saveSeats(Conference conference);
+
+    /**
+     * Returns the Conferences matching the query form, ordered as the form specifies.
+     *
+     * @param conferenceQueryForm The query.
+     * @return the matching Conferences.
+     * @throws IllegalArgumentException when the form has inequality filters on several fields.
+     */
+    List<Conference> query(ConferenceQueryForm conferenceQueryForm);
+
+    /**
+     * Counts the Conferences matching the query form, without loading them.
+     *
+     * @param conferenceQueryForm The query, whose limit and sort order are ignored.
+     * @return the number of matching Conferences.
+     * @throws IllegalArgumentException when the form has inequality filters on several fields.
+     */
+    int count(ConferenceQueryForm conferenceQueryForm);
+
+    /**
+     * Returns the Conferences organized by the user, ordered by name.
+     *
+     * @param organizerUserId The userId of the organizer.
+     * @return the Conferences of the organizer.
+     */
+    List<Conference> listByOrganizer(String organizerUserId);
+
+    /**
+     * Returns the Conferences whose available seats lie strictly between the bounds.
+     *
+     * @param above The exclusive lower bound.
+     * @param below The exclusive upper bound.
+     * @return the Conferences in the range, in no particular order.
+     */
+    List<Conference> listBySeatsAvailable(int above, int below);
+
+    /**
+     * Returns a page of all the Conferences, in key order.
+     *
+     * @param cursor The cursor of the page, from the previous page, or null for the first one.
+     * @param limit The maximum number of Conferences of the page.
+     * @return the page, with the cursor of the next page unless fewer than limit were left.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    ConferencePage listAll(String cursor, int limit);
+
+    /**
+     * Returns the Conferences changed since a position in the order of their changes, by
+     * lastModified and then by key.
+     *
+     * @param sinceMillis The lastModified of the position.
+     * @param after The key of the position, so that only the Conferences after it with the same
+     *              lastModified are returned, or null to return all of them.
+     * @param limit The maximum number of Conferences.
+     * @return the changed Conferences, in the order of their changes.
+     */
+    List<Conference> listChangedSince(long sinceMillis, Key<Conference> after, int limit);
+}
@@ -0,0 +1,103 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceChanges;
+import com.googlecode.objectify.Key;
+
+import java.util.List;
+
+/**
+ * Finds the Conferences changed since a sync token, by their lastModified property.
+ *
+ * The timestamps come from the clocks of different instances and a transaction may commit a
+ * while after it stamped its Conference, so a change can show up with a timestamp slightly in
+ * the past. The token therefore never moves past the settle window before the sync: the recent
+ * changes are returned again by the next sync, and clients apply changes as upserts by key.
+ *
+ * The token is a position in the (lastModified, key) order, the last settled Conference
+ * returned, so a page ending within a millisecond resumes at the next key of that millisecond
+ * rather than returning or skipping the rest of it.
+ */
+public class ConferenceSyncService {
+
+    /**
+     * The maximum number of Conferences returned by one sync.
+     */
+    static final int PAGE_SIZE = 100;
+
+    private static final long DEFAULT_SETTLE_MILLIS = 30 * 1000;
+
+    /**
+     * Separates the timestamp from the key of the last Conference in a token.
+     */
+    private static final char KEY_SEPARATOR = '.';
+
+    private final long settleMillis;
+
+    public ConferenceSyncService() {
+        this(DEFAULT_SETTLE_MILLIS);
+    }
+
+    /**
+     * @param settleMillis How long a change may take to show up after its timestamp.
+     */
+    public ConferenceSyncService(long settleMillis) {
+        this.settleMillis = settleMillis;
+    }
+
+    /**
+     * Returns a token for the changes made after the given time, allowing for the settle window.
+     *
+     * @param millis The time in milliseconds, such as when a full copy of the Conferences was
+     *         read.
+     * @return the sync token.
+     */
+    public String getTokenAt(long millis) {
+        return Long.toString(Math.max(0, millis - settleMillis), Character.MAX_RADIX);
+    }
+
+    /**
+     * Returns the Conferences changed since the token.
+     *
+     * @param syncToken The token returned by the previous sync, or null for all Conferences.
+     * @return the changes and the token for the next sync.
+     * @throws IllegalArgumentException when the token is not valid.
+     */
+    public ConferenceChanges getChanges(String syncToken) {
+        long since = 0;
+        Key<Conference> after = null;
+        if (syncToken != null) {
+            int separator = syncToken.indexOf(KEY_SEPARATOR);
+            try {
+                since = Long.parseLong(separator < 0 ? syncToken
+                        : syncToken.substring(0, separator), Character.MAX_RADIX);
+                if (separator >= 0) {
+                    after = Key.create(syncToken.substring(separator + 1));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid sync token: " + syncToken);
+            }
+        }
+        // Everything stamped before this has shown up by the time the queries run.
+        long settled = System.currentTimeMillis() - settleMillis;
+        List<Conference> conferences =
+                Repositories.conferences().listChangedSince(since, after, PAGE_SIZE);
+        // Moves the position to the last settled Conference; the others are returned again.
+        Conference last = null;
+        for (Conference conference : conferences) {
+            if (conference.getLastModified().getTime() >= settled) {
+                break;
+            }
+            last = conference;
+        }
+        String nextToken = syncToken == null ? Long.toString(since, Character.MAX_RADIX)
+                : syncToken;
+        if (last != null) {
+            nextToken = Long.toString(last.getLastModified().getTime(), Character.MAX_RADIX)
+                    + KEY_SEPARATOR + last.getWebsafeKey();
+        }
+        boolean more = conferences.size() == PAGE_SIZE
+                && last == conferences.get(PAGE_SIZE - 1);
+        return new ConferenceChanges(conferences, nextToken, more);
+    }
+}
@@ -0,0 +1,345 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.service.SeatHoldCounter.Acquisition;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Registers users for conferences in a flash sale.
+ *
+ * During a flash sale a registration only acquires a seat from a {@link SeatHoldCounter} and
+ * writes a {@link SeatHold} into the user's own entity group. The holds are confirmed
+ * asynchronously, in batched transactions on the Conference, and the confirmation of holds that
+ * are still pending after a while is scheduled again in the background. The user was told the
+ * registration succeeded, so a hold is never dropped unconfirmed: when its seat turns out to be
+ * gone, the user is put on the waitlist and told so by e-mail. The seats are booked by the
+ * confirmation transaction with {@link Conference#bookSeats}, so a flash sale can never oversell.
+ *
+ * A registration finding the sale sold out stores a hold for a place on the waitlist instead,
+ * which the confirmation turns into a waitlist entry, so the users turned away do not contend on
+ * the Conference either. The seats freed during the sale go to the waiting users first, and only
+ * those they do not need go back to the counter; see {@link WaitlistService#keepForWaitlist}.
+ */
+public class FlashSaleService {
+
+    private static final Logger LOG = Logger.getLogger(FlashSaleService.class.getName());
+
+    /**
+     * How long a hold waits for its confirmation before the confirmation is scheduled again.
+     */
+    static final long CONFIRMATION_DELAY_MILLIS = 60 * 1000;
+
+    /**
+     * The number of holds confirmed in one transaction, bounded by the datastore limit of 25
+     * entity groups per transaction.
+     */
+    static final int BATCH_SIZE = 20;
+
+    /**
+     * The number of overdue holds looked at in one run.
+     */
+    private static final int OVERDUE_LIMIT = 100;
+
+    private static final String CONFIRM_SEAT_HOLDS_URL = "/tasks/confirm_seat_holds";
+
+    private final SeatHoldCounter counter;
+
+    private final TransactionRunner transactionRunner;
+
+    public FlashSaleService() {
+        this(new MemcacheSeatHoldCounter(), new TransactionRunner());
+    }
+
+    public FlashSaleService(SeatHoldCounter counter, TransactionRunner transactionRunner) {
+        this.counter = counter;
+        this.transactionRunner = transactionRunner;
+    }
+
+    /**
+     * Opens the flash sale of the conference with its currently available seats.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     * @param seatsAvailable The number of seats available for the flash sale.
+     */
+    public void open(String websafeConferenceKey, int seatsAvailable) {
+        counter.reset(websafeConferenceKey, seatsAvailable);
+    }
+
+    /**
+     * Closes the flash sale of the conference. Holds already granted are still confirmed.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     */
+    public void close(String websafeConferenceKey) {
+        counter.clear(websafeConferenceKey);
+    }
+
+    /**
+     * Tries to acquire a seat of the conference from the counter.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     * @return the outcome, UNAVAILABLE when the conference is not in a flash sale.
+     */
+    public Acquisition tryAcquire(String websafeConferenceKey) {
+        return counter.tryAcquire(websafeConferenceKey);
+    }
+
+    /**
+     * Gives a seat back to the counter, when the conference is in a flash sale.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     */
+    public void release(String websafeConferenceKey) {
+        counter.release(websafeConferenceKey);
+    }
+
+    /**
+     * Adds seats to the counter, or removes them when negative, when the conference is in a
+     * flash sale.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     * @param seats The change in the seats available.
+     */
+    public void add(String websafeConferenceKey, int seats) {
+        counter.add(websafeConferenceKey, seats);
+    }
+
+    /**
+     * Stores the hold of an acquired seat and schedules its confirmation.
+     *
+     * A new Profile is saved along with the hold, so that the confirmation finds it. A stored
+     * Profile is left alone, since a confirmation may have changed it since it was loaded.
+     *
+     * @param profile The Profile of the user who acquired the seat.
+     * @param websafeConferenceKey The String representation of the Conference key.
+     */
+    public void hold(Profile profile, String websafeConferenceKey) {
+        if (!store(profile, websafeConferenceKey, false)) {
+            // A retry of a granted request, so give the extra seat back.
+            counter.release(websafeConferenceKey);
+            return;
+        }
+        scheduleConfirmation(websafeConferenceKey, true);
+    }
+
+    /**
+     * Stores the hold of a place on the waitlist, for a user who found the sale sold out, and
+     * schedules its confirmation, which puts the user on the waitlist.
+     *
+     * @param profile The Profile of the user.
+     * @param websafeConferenceKey The String representation of the Conference key.
+     */
+    public void holdWaitlistPlace(Profile profile, String websafeConferenceKey) {
+        if (store(profile, websafeConferenceKey, true)) {
+            scheduleConfirmation(websafeConferenceKey, true);
+        }
+    }
+
+    /**
+     * Stores a hold, unless the user holds one for the conference already.
+     *
+     * @return whether the hold was stored.
+     */
+    private boolean store(final Profile profile, final String websafeConferenceKey,
+                          final boolean waitlist) {
+        final Key<SeatHold> holdKey = SeatHold.key(profile.getUserId(), websafeConferenceKey);
+        // A transaction on the user's own entity group, which no other user contends on.
+        return transactionRunner.run("holdSeat", holdKey, new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                if (ofy().load().key(holdKey).now() != null) {
+                    return false;
+                }
+                if (Repositories.profiles().get(Key.create(Profile.class, profile.getUserId()))
+                        == null) {
+                    Repositories.profiles().save(profile);
+                }
+                ofy().save().entity(new SeatHold(profile.getUserId(), websafeConferenceKey,
+                        CONFIRMATION_DELAY_MILLIS, waitlist)).now();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Enqueues a confirmation task for the conference.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     * @param coalesce Whether to coalesce with the other holds granted in the same second, which
+     *                 is done with a task named after the second.
+     */
+    private static void scheduleConfirmation(String websafeConferenceKey, boolean coalesce) {
+        TaskOptions taskOptions = TaskOptions.Builder.withUrl(CONFIRM_SEAT_HOLDS_URL)
+                .param("websafeConferenceKey", websafeConferenceKey);
+        if (coalesce) {
+            long second = System.currentTimeMillis() / 1000;
+            taskOptions = taskOptions.taskName("confirm-" + websafeConferenceKey + "-" + second)
+                    .countdownMillis(1000);
+        }
+        try {
+            QueueFactory.getDefaultQueue().add(taskOptions);
+        } catch (TaskAlreadyExistsException e) {
+            // Another hold of the same second has already scheduled the confirmation.
+        }
+    }
+
+    /**
+     * The outcome of a confirmation batch.
+     */
+    private static class BatchResult {
+
+        private int confirmed;
+
+        private int released;
+
+        private int waitlisted;
+    }
+
+    /**
+     * Confirms the next batch of holds of the conference, and schedules another confirmation
+     * when the batch was full.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     * @return the number of registrations confirmed.
+     */
+    public int confirm(final String websafeConferenceKey) {
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        // The query is eventually consistent, so the holds are re-read in the transaction.
+        final List<Key<SeatHold>> holdKeys = ofy().load().type(SeatHold.class)
+                .filter("conferenceKey", conferenceKey)
+                .order("createdAt")
+                .limit(BATCH_SIZE)
+                .keys().list();
+        if (holdKeys.isEmpty()) {
+            return 0;
+        }
+        BatchResult result = transactionRunner.run("confirmSeatHolds", conferenceKey,
+                new Work<BatchResult>() {
+            @Override
+            public BatchResult run() {
+                BatchResult result = new BatchResult();
+                Conference conference = Repositories.conferences().get(conferenceKey);
+                if (conference == null) {
+                    ofy().delete().keys(holdKeys).now();
+                    return result;
+                }
+                Map<Key<SeatHold>, SeatHold> holds = ofy().load().keys(holdKeys);
+                List<Key<Profile>> profileKeys = new ArrayList<>(holds.size());
+                for (SeatHold hold : holds.values()) {
+                    profileKeys.add(hold.getProfileKey());
+                }
+                Map<Key<Profile>, Profile> profiles = Repositories.profiles().getAll(profileKeys);
+                List<Profile> confirmedProfiles = new ArrayList<>(holds.size());
+                List<Key<SeatHold>> processed = new ArrayList<>(holds.size());
+                for (Key<SeatHold> holdKey : holdKeys) {
+                    SeatHold hold = holds.get(holdKey);
+                    if (hold == null) {
+                        // Given up by the user meanwhile.
+                        continue;
+                    }
+                    processed.add(holdKey);
+                    final Profile profile = profiles.get(hold.getProfileKey());
+                    if (profile == null || profile.getConferenceKeysToAttend()
+                            .contains(websafeConferenceKey)) {
+                        if (!hold.isWaitlist()) {
+                            result.released++;
+                        }
+                    } else if (hold.isWaitlist()) {
+                        // The user was told about the waitlist already.
+                        WaitlistService.enqueue(conference, profile.getUserId());
+                        result.waitlisted++;
+                    } else if (conference.getSeatsAvailable()
+                            <= conference.getWaitlistSeats()) {
+                        // The seat is gone, as when the capacity was lowered during the sale,
+                        // or kept for the waitlist, so it must not go back to the counter. The
+                        // user was told the registration succeeded, so waitlist them and say so.
+                        LOG.warning("No seat left to confirm the hold of "
+                                + profile.getUserId() + " for " + websafeConferenceKey);
+                        WaitlistService.enqueue(conference, profile.getUserId());
+                        final String conferenceInfo = conference.toString();
+                        TransactionRunner.afterCommit(new Runnable() {
+                            @Override
+                            public void run() {
+                                QueueFactory.getDefaultQueue().add(TaskOptions.Builder
+                                        .withUrl("/tasks/send_confirmation_email")
+                                        .param("email", profile.getMainEmail())
+                                        .param("waitlistedConferenceInfo", conferenceInfo));
+                            }
+                        });
+                        result.waitlisted++;
+                    } else {
+                        profile.addToConferenceKeysToAttend(websafeConferenceKey);
+                        conference.bookSeats(1);
+                        confirmedProfiles.add(profile);
+                    }
+                }
+                if (!confirmedProfiles.isEmpty()) {
+                    Repositories.profiles().saveAll(confirmedProfiles);
+                }
+                int released = result.released;
+                if (conference.isFlashSale()) {
+                    // The seats of the duplicates go to the waiting users first.
+                    result.released = WaitlistService.keepForWaitlist(conference, released);
+                } else if (result.waitlisted > 0 && conference.getSeatsAvailable() > 0) {
+                    // The sale is over, so the users waitlisted here may take the free seats.
+                    WaitlistService.schedulePromotion(websafeConferenceKey);
+                }
+                if (!confirmedProfiles.isEmpty() || result.waitlisted > 0
+                        || result.released < released) {
+                    Repositories.conferences().saveSeats(conference);
+                }
+                ofy().delete().keys(processed).now();
+                result.confirmed = confirmedProfiles.size();
+                return result;
+            }
+        });
+        // Give back the seats of duplicates nobody waits for, after the commit.
+        for (int i = 0; i < result.released; i++) {
+            counter.release(websafeConferenceKey);
+        }
+        if (holdKeys.size() == BATCH_SIZE) {
+            scheduleConfirmation(websafeConferenceKey, false);
+        }
+        LOG.info("Confirmed " + result.confirmed + " seat holds for " + websafeConferenceKey
+                + ", waitlisted " + result.waitlisted + ".");
+        return result.confirmed;
+    }
+
+    /**
+     * Schedules the confirmation of the conferences with overdue holds again, as when a
+     * confirmation task was lost or keeps failing.
+     *
+     * @return the number of conferences whose confirmation was scheduled.
+     */
+    public int confirmOverdue() {
+        List<Key<SeatHold>> overdueKeys = ofy().load().type(SeatHold.class)
+                .filter("dueAt <", new Date())
+                .limit(OVERDUE_LIMIT)
+                .keys().list();
+        Set<String> websafeConferenceKeys = new LinkedHashSet<>();
+        for (Key<SeatHold> holdKey : overdueKeys) {
+            // The id of a hold is the websafe key of its conference.
+            websafeConferenceKeys.add(holdKey.getName());
+        }
+        for (String websafeConferenceKey : websafeConferenceKeys) {
+            scheduleConfirmation(websafeConferenceKey, true);
+        }
+        return websafeConferenceKeys.size();
+    }
+}
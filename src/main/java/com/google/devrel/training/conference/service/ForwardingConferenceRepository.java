@@ -0,0 +1,63 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.googlecode.objectify.Key;
+
+import java.util.List;
+
+/**
+ * A ConferenceRepository forwarding every call to another one, the base of the decorators of
+ * ConferenceRepositories.
+ */
+public abstract class ForwardingConferenceRepository extends ForwardingRepository<Conference>
+        implements ConferenceRepository {
+
+    private final ConferenceRepository delegate;
+
+    protected ForwardingConferenceRepository(ConferenceRepository delegate) {
+        super(delegate);
+        this.delegate = delegate;
+    }
+
+    @Override
+    protected ConferenceRepository delegate() {
+        return delegate;
+    }
+
+    @Override
+    public void saveSeats(Conference conference) {
+        delegate.saveSeats(conference);
+    }
+
+    @Override
+    public List<Conference> query(ConferenceQueryForm conferenceQueryForm) {
+        return delegate.query(conferenceQueryForm);
+    }
+
+    @Override
+    public int count(ConferenceQueryForm conferenceQueryForm) {
+        return delegate.count(conferenceQueryForm);
+    }
+
+    @Override
+    public List<Conference> listByOrganizer(String organizerUserId) {
+        return delegate.listByOrganizer(organizerUserId);
+    }
+
+    @Override
+    public List<Conference> listBySeatsAvailable(int above, int below) {
+        return delegate.listBySeatsAvailable(above, below);
+    }
+
+    @Override
+    public ConferencePage listAll(String cursor, int limit) {
+        return delegate.listAll(cursor, limit);
+    }
+
+    @Override
+    public List<Conference> listChangedSince(long sinceMillis, Key<Conference> after,
+                                             int limit) {
+        return delegate.listChangedSince(sinceMillis, after, limit);
+    }
+}
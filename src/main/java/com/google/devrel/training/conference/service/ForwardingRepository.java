@@ -0,0 +1,64 @@
+package com.google.devrel.training.conference.service;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+
+import java.util.Map;
+
+/**
+ * A repository forwarding every call to another one, the base of the decorators, which
+ * override the calls they add behavior to.
+ *
+ * @param <T> The entity class.
+ */
+public abstract class ForwardingRepository<T> implements Repository<T> {
+
+    private final Repository<T> delegate;
+
+    protected ForwardingRepository(Repository<T> delegate) {
+        this.delegate = delegate;
+    }
+
+    protected Repository<T> delegate() {
+        return delegate;
+    }
+
+    @Override
+    public T get(Key<T> key) {
+        return delegate.get(key);
+    }
+
+    /**
+     * Loads the entity through get once the result is needed, so decorators overriding get
+     * serve it too.
+     */
+    @Override
+    public Result<T> getAsync(final Key<T> key) {
+        return new Result<T>() {
+            @Override
+            public T now() {
+                return get(key);
+            }
+        };
+    }
+
+    @Override
+    public Map<Key<T>, T> getAll(Iterable<Key<T>> keys) {
+        return delegate.getAll(keys);
+    }
+
+    @Override
+    public void save(T entity) {
+        delegate.save(entity);
+    }
+
+    @Override
+    public void saveAll(Iterable<T> entities) {
+        delegate.saveAll(entities);
+    }
+
+    @Override
+    public void delete(Key<T> key) {
+        delegate.delete(key);
+    }
+}
@@ -0,0 +1,100 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.domain.Conference;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Copies of hot Conferences under several memcache keys, so that the reads of a trending
+ * Conference spread over several memcache servers instead of all hitting the one holding its
+ * key.
+ *
+ * A copy is written to every replica key, with the version of the Conference it was read at,
+ * and a read picks a replica at random. A copy is only used when its version is the current
+ * version from CacheVersions, so writers do not need to delete the copies.
+ */
+public class HotConferenceReplicas {
+
+    private static final String NAMESPACE = "hotConferences";
+
+    /**
+     * The number of replica keys per Conference.
+     */
+    static final int REPLICAS = 8;
+
+    private static final int EXPIRATION_SECONDS = 60;
+
+    /**
+     * A copy of a Conference and the version it was read at.
+     */
+    private static class Replica implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long version;
+
+        private final Entity entity;
+
+        private Replica(long version, Entity entity) {
+            this.version = version;
+            this.entity = entity;
+        }
+    }
+
+    private final MemcacheService memcacheService =
+            MemcacheServiceFactory.getMemcacheService(NAMESPACE);
+
+    private static String replicaKey(String websafeConferenceKey, int replica) {
+        return websafeConferenceKey + "#" + replica;
+    }
+
+    /**
+     * Reads a copy of a Conference from a random replica.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     * @param version The current version of the Conference, or null when it is unknown.
+     * @return the Conference, or null when the replica holds no copy of the current version.
+     */
+    public Conference get(String websafeConferenceKey, Long version) {
+        if (version == null) {
+            return null;
+        }
+        Replica replica = (Replica) memcacheService.get(replicaKey(websafeConferenceKey,
+                ThreadLocalRandom.current().nextInt(REPLICAS)));
+        if (replica == null || replica.version != version) {
+            return null;
+        }
+        return ofy().load().fromEntity(replica.entity);
+    }
+
+    /**
+     * Writes a copy of a Conference to all the replicas.
+     *
+     * @param conference The Conference.
+     * @param version The version of the Conference, read before the Conference.
+     */
+    public void put(Conference conference, Long version) {
+        if (version == null) {
+            return;
+        }
+        // Saving a copy leaves the Conference alone, which other requests may be reading, but
+        // stamps lastModified, so the copy gets back the one it was read with.
+        Entity entity = ofy().save().toEntity(conference.copy());
+        entity.setProperty("lastModified", conference.getLastModified());
+        Replica replica = new Replica(version, entity);
+        Map<String, Replica> replicas = new HashMap<>(REPLICAS);
+        for (int i = 0; i < REPLICAS; i++) {
+            replicas.put(replicaKey(conference.getWebsafeKey(), i), replica);
+        }
+        memcacheService.putAll(replicas, Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+    }
+}
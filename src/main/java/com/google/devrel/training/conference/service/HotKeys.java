@@ -0,0 +1,201 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Finds the keys that take a large share of the accesses on this instance, such as a trending
+ * Conference.
+ *
+ * The accesses are sampled into a space-saving sketch of a fixed number of counters: a key
+ * without a counter takes over the smallest one, so the count of a key may be overestimated by
+ * at most that smallest count, but a key with a large share of the accesses always holds a
+ * counter. The counts are halved every decay interval, so a key that stops being popular drops
+ * out. A key is hot while its count is a minimum share of all the sampled accesses, and the hot
+ * keys are recomputed at most every second, so checking a key takes no lock.
+ */
+public class HotKeys {
+
+    /**
+     * All the instances by name, for the metrics page. Declared first, since the instances
+     * below register in it.
+     */
+    private static final ConcurrentMap<String, HotKeys> INSTANCES = new ConcurrentHashMap<>();
+
+    /**
+     * The accesses to Conferences by websafe key, from getConference and registerForConference.
+     */
+    public static final HotKeys CONFERENCES = new HotKeys("conferences", 4);
+
+    /**
+     * The accesses to query results by query signature, from queryConferences.
+     */
+    public static final HotKeys QUERIES = new HotKeys("queries", 4);
+
+    /**
+     * The number of counters, which bounds the number of hot keys.
+     */
+    static final int CAPACITY = 64;
+
+    /**
+     * The share of the sampled accesses a key needs to be hot.
+     */
+    private static final double HOT_SHARE = 0.05;
+
+    /**
+     * The count a key needs to be hot, so that a quiet instance has no hot keys.
+     */
+    private static final long MIN_HOT_COUNT = 20;
+
+    private static final long DECAY_MILLIS = 60 * 1000;
+
+    private static final long REFRESH_MILLIS = 1000;
+
+    private final String name;
+
+    private final int sampleRate;
+
+    private final Map<String, Long> counts = new HashMap<>();
+
+    private long total;
+
+    private long decayedMillis = System.currentTimeMillis();
+
+    private long refreshedMillis;
+
+    private volatile Set<String> hot = Collections.emptySet();
+
+    /**
+     * @param name The name of the keys, shown on the metrics page.
+     * @param sampleRate One in how many accesses is counted.
+     */
+    public HotKeys(String name, int sampleRate) {
+        this.name = name;
+        this.sampleRate = sampleRate;
+        INSTANCES.put(name, this);
+    }
+
+    /**
+     * Returns all the instances created so far.
+     *
+     * @return the instances by name.
+     */
+    public static SortedMap<String, HotKeys> getAll() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(INSTANCES));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records an access to a key.
+     *
+     * @param key The accessed key.
+     */
+    public void record(String key) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (now - decayedMillis >= DECAY_MILLIS) {
+                decay();
+                decayedMillis = now;
+            }
+            total++;
+            Long count = counts.get(key);
+            if (count != null) {
+                counts.put(key, count + 1);
+            } else if (counts.size() < CAPACITY) {
+                counts.put(key, 1L);
+            } else {
+                Map.Entry<String, Long> smallest = null;
+                for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                    if (smallest == null || entry.getValue() < smallest.getValue()) {
+                        smallest = entry;
+                    }
+                }
+                counts.remove(smallest.getKey());
+                counts.put(key, smallest.getValue() + 1);
+            }
+            if (now - refreshedMillis >= REFRESH_MILLIS) {
+                refresh();
+                refreshedMillis = now;
+            }
+        }
+    }
+
+    /**
+     * Recomputes the hot keys from the counts.
+     */
+    synchronized void refresh() {
+        hot = ImmutableSet.copyOf(getHotCounts().keySet());
+    }
+
+    private void decay() {
+        total /= 2;
+        for (Iterator<Map.Entry<String, Long>> i = counts.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<String, Long> entry = i.next();
+            if (entry.getValue() < 2) {
+                i.remove();
+            } else {
+                entry.setValue(entry.getValue() / 2);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a key is hot, as of the last refresh.
+     *
+     * @param key The key.
+     * @return true when the key is hot.
+     */
+    public boolean isHot(String key) {
+        return hot.contains(key);
+    }
+
+    /**
+     * Returns the hot keys with their sampled counts, the most accessed first.
+     *
+     * @return the counts of the hot keys by key.
+     */
+    public synchronized Map<String, Long> getHotCounts() {
+        long minCount = Math.max(MIN_HOT_COUNT, (long) (total * HOT_SHARE));
+        List<Map.Entry<String, Long>> entries = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            if (entry.getValue() >= minCount) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> left, Map.Entry<String, Long> right) {
+                return right.getValue().compareTo(left.getValue());
+            }
+        });
+        Map<String, Long> hotCounts = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : entries) {
+            hotCounts.put(entry.getKey(), entry.getValue());
+        }
+        return hotCounts;
+    }
+
+    public synchronized long getTotal() {
+        return total;
+    }
+}
@@ -0,0 +1,132 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.io.Serializable;
+
+/**
+ * Stores the outcomes of requests carrying a client supplied idempotency key.
+ *
+ * A replayed request with the same key returns the stored outcome instead of running its
+ * transaction again. The outcomes live in memcache with a TTL, so an evicted outcome only costs
+ * one more run of the (idempotent) transaction.
+ */
+public class IdempotencyService {
+
+    private static final String NAMESPACE = "idempotency";
+
+    /**
+     * How long an outcome is kept for replays, in seconds.
+     */
+    private static final int TTL_SECONDS = 60 * 60;
+
+    /**
+     * The outcome of an idempotent request, either a result or a conflict.
+     */
+    public static class Outcome implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Serializable result;
+
+        private final String conflictMessage;
+
+        private Outcome(Serializable result, String conflictMessage) {
+            this.result = result;
+            this.conflictMessage = conflictMessage;
+        }
+
+        public static Outcome ofResult(Serializable result) {
+            return new Outcome(result, null);
+        }
+
+        public static Outcome ofConflict(String conflictMessage) {
+            return new Outcome(null, conflictMessage);
+        }
+
+        public Serializable getResult() {
+            return result;
+        }
+
+        /**
+         * Returns the message of the ConflictException the request ended with.
+         * @return the message of the conflict, null when the request succeeded.
+         */
+        public String getConflictMessage() {
+            return conflictMessage;
+        }
+    }
+
+    private final MemcacheService memcacheService =
+            MemcacheServiceFactory.getMemcacheService(NAMESPACE);
+
+    private static String cacheKey(String operation, String userId, String idempotencyKey) {
+        return operation + ":" + userId + ":" + idempotencyKey;
+    }
+
+    /**
+     * Returns the stored outcome of a request.
+     *
+     * @param operation The name of the API method.
+     * @param userId The userId of the caller, so that keys of different users never collide.
+     * @param idempotencyKey The key sent by the client.
+     * @return the stored outcome, or null when the request has not completed before.
+     */
+    public Outcome getOutcome(String operation, String userId, String idempotencyKey) {
+        return (Outcome) memcacheService.get(cacheKey(operation, userId, idempotencyKey));
+    }
+
+    /**
+     * Stores the outcome of a completed request.
+     *
+     * @param operation The name of the API method.
+     * @param userId The userId of the caller.
+     * @param idempotencyKey The key sent by the client.
+     * @param outcome The outcome to return for replays.
+     */
+    public void putOutcome(String operation, String userId, String idempotencyKey,
+                           Outcome outcome) {
+        memcacheService.put(cacheKey(operation, userId, idempotencyKey), outcome,
+                Expiration.byDeltaSeconds(TTL_SECONDS));
+    }
+
+    /**
+     * Returns the value bound to the idempotency key by {@link #claim}.
+     *
+     * @param operation The name of the API method.
+     * @param userId The userId of the caller.
+     * @param idempotencyKey The key sent by the client.
+     * @return the bound value, or null when the key is not bound.
+     */
+    public String getClaim(String operation, String userId, String idempotencyKey) {
+        return (String) memcacheService.get(
+                cacheKey(operation + ".claim", userId, idempotencyKey));
+    }
+
+    /**
+     * Binds the idempotency key to a value when it is not bound yet, and returns the bound value.
+     *
+     * This is used to pin a pre-allocated entity id to the key, so that every replay of the
+     * request writes the very same entity.
+     *
+     * @param operation The name of the API method.
+     * @param userId The userId of the caller.
+     * @param idempotencyKey The key sent by the client.
+     * @param value The value to bind when the key is not bound yet.
+     * @return the value bound to the key, which is the given value unless a concurrent request
+     *         has bound the key first.
+     */
+    public String claim(String operation, String userId, String idempotencyKey, String value) {
+        String cacheKey = cacheKey(operation + ".claim", userId, idempotencyKey);
+        if (memcacheService.put(cacheKey, value, Expiration.byDeltaSeconds(TTL_SECONDS),
+                SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+            return value;
+        }
+        String claimed = (String) memcacheService.get(cacheKey);
+        // The claim may have been evicted in the meantime.
+        return claimed == null ? value : claimed;
+    }
+}
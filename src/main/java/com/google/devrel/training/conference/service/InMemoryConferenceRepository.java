@@ -0,0 +1,130 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Ordering;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A ConferenceRepository answering the queries by scanning all the Conferences in memory.
+ */
+public class InMemoryConferenceRepository extends InMemoryRepository<Conference>
+        implements ConferenceRepository {
+
+    private static final Comparator<Conference> BY_NAME = new Comparator<Conference>() {
+        @Override
+        public int compare(Conference left, Conference right) {
+            return Ordering.natural().nullsFirst().compare(left.getName(), right.getName());
+        }
+    };
+
+    private static final Comparator<Conference> BY_KEY = new Comparator<Conference>() {
+        @Override
+        public int compare(Conference left, Conference right) {
+            return Key.create(left.getWebsafeKey()).compareTo(Key.create(right.getWebsafeKey()));
+        }
+    };
+
+    private static final Comparator<Conference> BY_LAST_MODIFIED = new Comparator<Conference>() {
+        @Override
+        public int compare(Conference left, Conference right) {
+            int result = left.getLastModified().compareTo(right.getLastModified());
+            return result != 0 ? result : BY_KEY.compare(left, right);
+        }
+    };
+
+    @Override
+    public void saveSeats(Conference conference) {
+        save(conference);
+    }
+
+    @Override
+    public List<Conference> query(final ConferenceQueryForm conferenceQueryForm) {
+        Iterator<Conference> matches = Iterators.filter(values().iterator(),
+                new Predicate<Conference>() {
+                    @Override
+                    public boolean apply(Conference conference) {
+                        return conferenceQueryForm.matches(conference);
+                    }
+                });
+        return ConferenceQueryPlanner.top(matches, conferenceQueryForm.getOrdering(),
+                ConferenceQueryPlanner.getLimit(conferenceQueryForm));
+    }
+
+    @Override
+    public int count(ConferenceQueryForm conferenceQueryForm) {
+        int count = 0;
+        for (Conference conference : values()) {
+            if (conferenceQueryForm.matches(conference)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public List<Conference> listByOrganizer(String organizerUserId) {
+        List<Conference> result = new ArrayList<>();
+        for (Conference conference : values()) {
+            if (organizerUserId.equals(conference.getOrganizerUserId())) {
+                result.add(conference);
+            }
+        }
+        Collections.sort(result, BY_NAME);
+        return result;
+    }
+
+    @Override
+    public List<Conference> listBySeatsAvailable(int above, int below) {
+        List<Conference> result = new ArrayList<>();
+        for (Conference conference : values()) {
+            if (conference.getSeatsAvailable() > above && conference.getSeatsAvailable() < below) {
+                result.add(conference);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The cursor is the websafe key of the last Conference of the previous page.
+     */
+    @Override
+    public ConferencePage listAll(String cursor, int limit) {
+        Key<Conference> after = cursor == null ? null : Key.<Conference>create(cursor);
+        List<Conference> conferences = new ArrayList<>();
+        for (Conference conference : values()) {
+            if (after == null || Key.create(conference.getWebsafeKey()).compareTo(after) > 0) {
+                conferences.add(conference);
+            }
+        }
+        List<Conference> page = Ordering.from(BY_KEY).leastOf(conferences, limit);
+        return new ConferencePage(page, page.size() < limit
+                ? null : page.get(page.size() - 1).getWebsafeKey());
+    }
+
+    @Override
+    public List<Conference> listChangedSince(long sinceMillis, Key<Conference> after,
+                                             int limit) {
+        List<Conference> conferences = new ArrayList<>();
+        for (Conference conference : values()) {
+            if (conference.getLastModified() == null) {
+                // Only the datastore stamps the saves.
+                continue;
+            }
+            long lastModified = conference.getLastModified().getTime();
+            if (lastModified > sinceMillis || lastModified == sinceMillis && (after == null
+                    || Key.create(conference.getWebsafeKey()).compareTo(after) > 0)) {
+                conferences.add(conference);
+            }
+        }
+        return Ordering.from(BY_LAST_MODIFIED).leastOf(conferences, limit);
+    }
+}
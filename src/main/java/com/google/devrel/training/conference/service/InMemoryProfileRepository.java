@@ -0,0 +1,36 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.collect.Ordering;
+import com.google.devrel.training.conference.domain.Profile;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A ProfileRepository keeping Profiles in memory. Its cursors are the userId of the last
+ * Profile of the previous page.
+ */
+public class InMemoryProfileRepository extends InMemoryRepository<Profile>
+        implements ProfileRepository {
+
+    private static final Comparator<Profile> BY_USER_ID = new Comparator<Profile>() {
+        @Override
+        public int compare(Profile left, Profile right) {
+            return left.getUserId().compareTo(right.getUserId());
+        }
+    };
+
+    @Override
+    public ProfilePage listAll(String cursor, int limit) {
+        List<Profile> profiles = new ArrayList<>();
+        for (Profile profile : values()) {
+            if (cursor == null || profile.getUserId().compareTo(cursor) > 0) {
+                profiles.add(profile);
+            }
+        }
+        List<Profile> page = Ordering.from(BY_USER_ID).leastOf(profiles, limit);
+        return new ProfilePage(page, page.size() < limit
+                ? null : page.get(page.size() - 1).getUserId());
+    }
+}
@@ -0,0 +1,75 @@
+package com.google.devrel.training.conference.service;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.util.ResultNow;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A repository keeping entities in a concurrent map, for tests and benchmarks that should not
+ * pay for the datastore stub.
+ *
+ * Like the session cache of Objectify, it hands out the stored instances, so a changed entity
+ * has to be saved again to be visible to other threads consistently. It has no transactions:
+ * every call is atomic on its own.
+ *
+ * @param <T> The entity class.
+ */
+public class InMemoryRepository<T> implements Repository<T> {
+
+    private final ConcurrentMap<Key<T>, T> entities = new ConcurrentHashMap<>();
+
+    @Override
+    public T get(Key<T> key) {
+        return entities.get(key);
+    }
+
+    @Override
+    public Result<T> getAsync(Key<T> key) {
+        return new ResultNow<>(entities.get(key));
+    }
+
+    @Override
+    public Map<Key<T>, T> getAll(Iterable<Key<T>> keys) {
+        Map<Key<T>, T> result = new LinkedHashMap<>();
+        for (Key<T> key : keys) {
+            T entity = entities.get(key);
+            if (entity != null) {
+                result.put(key, entity);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void save(T entity) {
+        entities.put(OfyService.factory().keys().keyOf(entity), entity);
+    }
+
+    @Override
+    public void saveAll(Iterable<T> entities) {
+        for (T entity : entities) {
+            save(entity);
+        }
+    }
+
+    @Override
+    public void delete(Key<T> key) {
+        entities.remove(key);
+    }
+
+    /**
+     * Returns a snapshot of all the stored entities, in no particular order.
+     *
+     * @return the stored entities.
+     */
+    protected List<T> values() {
+        return new ArrayList<>(entities.values());
+    }
+}
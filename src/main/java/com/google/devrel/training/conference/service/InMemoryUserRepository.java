@@ -0,0 +1,17 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.AppEngineUser;
+
+/**
+ * A UserRepository keeping AppEngineUsers in memory. It cannot assign userIds, so the reloaded
+ * user keeps the userId it was saved with.
+ */
+public class InMemoryUserRepository extends InMemoryRepository<AppEngineUser>
+        implements UserRepository {
+
+    @Override
+    public AppEngineUser saveAndReload(AppEngineUser user) {
+        save(user);
+        return get(user.getKey());
+    }
+}
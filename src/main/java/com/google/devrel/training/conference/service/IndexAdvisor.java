@@ -0,0 +1,312 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Index;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the shapes of the Conference queries run on this instance, and recommends the
+ * composite indexes they need, so that the writes stop paying for indexes no query uses.
+ *
+ * A query with equality filters on several properties and no inequality filter is answered by
+ * a merge join of the indexes of each equality property with the sort orders, so the minimal set
+ * holds those rather than one index per combination of filters. The other queries need their
+ * exact index. The counts are per instance and since it started, so the report of a single
+ * instance may miss rare queries.
+ */
+public class IndexAdvisor {
+
+    private static final IndexAdvisor INSTANCE = new IndexAdvisor();
+
+    private static final String CONFERENCE = Key.getKind(Conference.class);
+
+    private final ConcurrentMap<QueryShape, AtomicLong> counts = new ConcurrentHashMap<>();
+
+    IndexAdvisor() {
+    }
+
+    /**
+     * Returns the index advisor of this instance.
+     * @return the index advisor of this instance.
+     */
+    public static IndexAdvisor get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a query of the shape.
+     *
+     * @param queryShape The shape of the query.
+     */
+    public void record(QueryShape queryShape) {
+        AtomicLong count = counts.get(queryShape);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = counts.putIfAbsent(queryShape, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Returns the recorded shapes, the most frequent first.
+     *
+     * @return the number of queries by shape.
+     */
+    public Map<QueryShape, Long> getCounts() {
+        List<Map.Entry<QueryShape, AtomicLong>> entries = new ArrayList<>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<QueryShape, AtomicLong>>() {
+            @Override
+            public int compare(Map.Entry<QueryShape, AtomicLong> left,
+                               Map.Entry<QueryShape, AtomicLong> right) {
+                return Long.compare(right.getValue().get(), left.getValue().get());
+            }
+        });
+        Map<QueryShape, Long> sorted = new LinkedHashMap<>();
+        for (Map.Entry<QueryShape, AtomicLong> entry : entries) {
+            sorted.put(entry.getKey(), entry.getValue().get());
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns the queries a merge join answers instead of a query of the shape, one per
+     * equality property with the same sort orders.
+     *
+     * @param queryShape The shape of the query.
+     * @return the shapes of the merged queries, or an empty list when it needs its own index.
+     */
+    static List<QueryShape> getMergeJoin(QueryShape queryShape) {
+        if (queryShape.getEqualities().size() < 2 || queryShape.getInequality() != null
+                || !queryShape.getProjections().isEmpty()) {
+            return ImmutableList.of();
+        }
+        List<QueryShape> merged = new ArrayList<>();
+        for (String equality : queryShape.getEqualities()) {
+            merged.add(new QueryShape(queryShape.getKind(), queryShape.isAncestor(),
+                    ImmutableList.of(equality), null, queryShape.getOrders(),
+                    ImmutableList.<String>of()));
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the indexes a query of the shape uses among the given ones.
+     *
+     * @param queryShape The shape of the query.
+     * @param indexes The available indexes.
+     * @return the used indexes, empty when the built-in ones are enough, or null when the
+     *         indexes cannot serve the query.
+     */
+    static List<IndexDefinition> getUsedIndexes(QueryShape queryShape,
+                                                Collection<IndexDefinition> indexes) {
+        if (queryShape.getRequiredIndex() == null) {
+            return ImmutableList.of();
+        }
+        for (IndexDefinition index : indexes) {
+            if (index.serves(queryShape)) {
+                return ImmutableList.of(index);
+            }
+        }
+        List<QueryShape> merged = getMergeJoin(queryShape);
+        if (merged.isEmpty()) {
+            return null;
+        }
+        List<IndexDefinition> used = new ArrayList<>();
+        for (QueryShape mergedShape : merged) {
+            List<IndexDefinition> mergedUsed = getUsedIndexes(mergedShape, indexes);
+            if (mergedUsed == null) {
+                return null;
+            }
+            used.addAll(mergedUsed);
+        }
+        return used;
+    }
+
+    /**
+     * Returns the minimal set of composite indexes serving the recorded Conference queries.
+     *
+     * @return the indexes.
+     */
+    public Set<IndexDefinition> getRecommendedIndexes() {
+        Set<IndexDefinition> recommended = new LinkedHashSet<>();
+        for (QueryShape queryShape : getCounts().keySet()) {
+            if (!queryShape.getKind().equals(CONFERENCE)) {
+                continue;
+            }
+            List<QueryShape> merged = getMergeJoin(queryShape);
+            for (QueryShape required : merged.isEmpty() ? ImmutableList.of(queryShape) : merged) {
+                IndexDefinition index = required.getRequiredIndex();
+                if (index != null) {
+                    recommended.add(index);
+                }
+            }
+        }
+        return recommended;
+    }
+
+    /**
+     * Returns the properties of Conference marked with @Index that no recorded query uses.
+     *
+     * @return the property names.
+     */
+    public Set<String> getUnusedIndexedProperties() {
+        Set<String> unused = new TreeSet<>();
+        for (Field field : Conference.class.getDeclaredFields()) {
+            if (field.isAnnotationPresent(Index.class)) {
+                unused.add(field.getName());
+            }
+        }
+        for (QueryShape queryShape : counts.keySet()) {
+            if (queryShape.getKind().equals(CONFERENCE)) {
+                unused.removeAll(queryShape.getPropertyNames());
+            }
+        }
+        return unused;
+    }
+
+    /**
+     * Returns the number of values of each indexed property of a Conference, as stored.
+     *
+     * @param conference The Conference.
+     * @return the number of values by property name.
+     */
+    static Map<String, Integer> getValueCounts(Conference conference) {
+        // Saving a copy, since saving runs the @OnSave hooks, which change the Conference.
+        Entity entity = ofy().save().toEntity(conference.copy());
+        Map<String, Integer> valueCounts = new HashMap<>();
+        for (Map.Entry<String, Object> property : entity.getProperties().entrySet()) {
+            if (entity.isUnindexedProperty(property.getKey())) {
+                continue;
+            }
+            Object value = property.getValue();
+            valueCounts.put(property.getKey(),
+                    value instanceof Collection ? ((Collection<?>) value).size() : 1);
+        }
+        return valueCounts;
+    }
+
+    /**
+     * Returns the number of index rows written for a Conference: an ascending and a descending
+     * row per value of each indexed property, and the rows of the composite indexes.
+     *
+     * @param valueCounts The number of values of each indexed property.
+     * @param indexes The composite indexes.
+     * @return the number of rows.
+     */
+    static long getIndexRows(Map<String, Integer> valueCounts,
+                             Collection<IndexDefinition> indexes) {
+        long rows = 0;
+        for (int valueCount : valueCounts.values()) {
+            rows += 2 * valueCount;
+        }
+        for (IndexDefinition index : indexes) {
+            if (index.getKind().equals(CONFERENCE)) {
+                rows += index.getRows(valueCounts);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Writes the report of the recorded queries against the declared indexes.
+     *
+     * @param declared The indexes of datastore-indexes.xml.
+     * @param sample Conferences to estimate the index rows of a write on.
+     * @return the report, in plain text.
+     */
+    public String getReport(List<IndexDefinition> declared, List<Conference> sample) {
+        List<IndexDefinition> conferenceIndexes = new ArrayList<>();
+        for (IndexDefinition index : declared) {
+            if (index.getKind().equals(CONFERENCE)) {
+                conferenceIndexes.add(index);
+            }
+        }
+        Map<QueryShape, Long> shapes = getCounts();
+        Set<IndexDefinition> recommended = getRecommendedIndexes();
+        Map<IndexDefinition, Long> usage = new LinkedHashMap<>();
+        for (IndexDefinition index : conferenceIndexes) {
+            usage.put(index, 0L);
+        }
+        StringBuilder report = new StringBuilder();
+        report.append("# Observed Conference queries (this instance)\n");
+        List<QueryShape> unserved = new ArrayList<>();
+        for (Map.Entry<QueryShape, Long> entry : shapes.entrySet()) {
+            QueryShape queryShape = entry.getKey();
+            if (!queryShape.getKind().equals(CONFERENCE)) {
+                continue;
+            }
+            List<IndexDefinition> needed = getUsedIndexes(queryShape, recommended);
+            report.append(entry.getValue()).append(' ').append(queryShape).append(" needs ")
+                    .append(needed.isEmpty() ? "built-in indexes"
+                            : Joiner.on(" and ").join(needed))
+                    .append('\n');
+            List<IndexDefinition> used = getUsedIndexes(queryShape, conferenceIndexes);
+            if (used == null) {
+                unserved.add(queryShape);
+                continue;
+            }
+            for (IndexDefinition index : used) {
+                usage.put(index, usage.get(index) + entry.getValue());
+            }
+        }
+        report.append("\n# Declared Conference indexes\n");
+        for (Map.Entry<IndexDefinition, Long> entry : usage.entrySet()) {
+            report.append(entry.getValue() == 0 ? "UNUSED " : "USED " + entry.getValue() + " ")
+                    .append(entry.getKey()).append('\n');
+        }
+        report.append("\n# Missing indexes\n");
+        for (QueryShape queryShape : unserved) {
+            for (IndexDefinition index : getUsedIndexes(queryShape, recommended)) {
+                if (!conferenceIndexes.contains(index)) {
+                    report.append(index).append(" for ").append(queryShape).append('\n');
+                }
+            }
+        }
+        report.append("\n# Recommended Conference indexes\n");
+        for (IndexDefinition index : recommended) {
+            report.append(index).append('\n');
+        }
+        report.append("\n# Index rows per Conference write (sample of ").append(sample.size())
+                .append(")\n");
+        if (!sample.isEmpty()) {
+            long declaredRows = 0;
+            long recommendedRows = 0;
+            for (Conference conference : sample) {
+                Map<String, Integer> valueCounts = getValueCounts(conference);
+                declaredRows += getIndexRows(valueCounts, conferenceIndexes);
+                recommendedRows += getIndexRows(valueCounts, recommended);
+            }
+            report.append("declared ").append(declaredRows / sample.size()).append('\n');
+            report.append("recommended ").append(recommendedRows / sample.size()).append('\n');
+        }
+        report.append("\n# @Index properties of Conference no query used\n");
+        for (String property : getUnusedIndexedProperties()) {
+            report.append(property).append('\n');
+        }
+        return report.toString();
+    }
+}
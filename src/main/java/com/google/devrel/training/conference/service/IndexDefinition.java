@@ -0,0 +1,164 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * A composite index, as declared in datastore-indexes.xml.
+ */
+public class IndexDefinition {
+
+    private static final String DESCENDING = " desc";
+
+    private final String kind;
+
+    private final boolean ancestor;
+
+    /**
+     * The properties, followed by " desc" for a descending one.
+     */
+    private final List<String> properties;
+
+    /**
+     * @param kind The kind of the index.
+     * @param ancestor Whether the index is by ancestor first.
+     * @param properties The properties, followed by " desc" for a descending one.
+     */
+    public IndexDefinition(String kind, boolean ancestor, List<String> properties) {
+        this.kind = kind;
+        this.ancestor = ancestor;
+        this.properties = ImmutableList.copyOf(properties);
+    }
+
+    /**
+     * Reads the indexes declared in a datastore-indexes.xml file.
+     *
+     * @param inputStream The content of the file.
+     * @return the indexes, in the order of the file.
+     * @throws IOException when the file cannot be read or parsed.
+     */
+    public static List<IndexDefinition> parse(InputStream inputStream) throws IOException {
+        Document document;
+        try {
+            document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                    .parse(inputStream);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Failed to parse the index definitions.", e);
+        }
+        List<IndexDefinition> indexes = new ArrayList<>();
+        NodeList indexElements = document.getElementsByTagName("datastore-index");
+        for (int i = 0; i < indexElements.getLength(); i++) {
+            Element indexElement = (Element) indexElements.item(i);
+            List<String> properties = new ArrayList<>();
+            NodeList propertyElements = indexElement.getElementsByTagName("property");
+            for (int j = 0; j < propertyElements.getLength(); j++) {
+                Element propertyElement = (Element) propertyElements.item(j);
+                properties.add(propertyElement.getAttribute("name")
+                        + ("desc".equals(propertyElement.getAttribute("direction"))
+                                ? DESCENDING : ""));
+            }
+            indexes.add(new IndexDefinition(indexElement.getAttribute("kind"),
+                    "true".equals(indexElement.getAttribute("ancestor")), properties));
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns the property name of an index property.
+     *
+     * @param property The property, followed by " desc" for a descending one.
+     * @return the property name.
+     */
+    public static String getPropertyName(String property) {
+        return property.endsWith(DESCENDING)
+                ? property.substring(0, property.length() - DESCENDING.length()) : property;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public boolean isAncestor() {
+        return ancestor;
+    }
+
+    public List<String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Returns whether this is the composite index a query of the shape needs: the equality
+     * properties come first, in any order, followed by the sort orders and the projected
+     * properties, as the datastore picks an index.
+     *
+     * @param queryShape The shape of the query.
+     * @return true when the index serves the query.
+     */
+    public boolean serves(QueryShape queryShape) {
+        IndexDefinition required = queryShape.getRequiredIndex();
+        if (required == null || !kind.equals(required.kind) || ancestor != required.ancestor
+                || properties.size() != required.properties.size()) {
+            return false;
+        }
+        int equalities = queryShape.getEqualities().size();
+        return new HashSet<>(properties.subList(0, equalities))
+                .equals(new HashSet<>(required.properties.subList(0, equalities)))
+                && properties.subList(equalities, properties.size())
+                        .equals(required.properties.subList(equalities, properties.size()));
+    }
+
+    /**
+     * Returns the number of rows an entity has in this index, the product of the number of
+     * values of its properties, since a list property is indexed once per value.
+     *
+     * @param valueCounts The number of values of each property of the entity.
+     * @return the number of rows.
+     */
+    public long getRows(Map<String, Integer> valueCounts) {
+        long rows = 1;
+        for (String property : properties) {
+            Integer valueCount = valueCounts.get(getPropertyName(property));
+            rows *= valueCount == null ? 0 : valueCount;
+        }
+        return rows;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof IndexDefinition)) {
+            return false;
+        }
+        IndexDefinition index = (IndexDefinition) other;
+        return kind.equals(index.kind) && ancestor == index.ancestor
+                && properties.equals(index.properties);
+    }
+
+    @Override
+    public int hashCode() {
+        return (kind.hashCode() * 31 + (ancestor ? 1 : 0)) * 31 + properties.hashCode();
+    }
+
+    /**
+     * Returns the index as shown in the index advisor report.
+     */
+    @Override
+    public String toString() {
+        return kind + (ancestor ? " ancestor" : "") + " (" + Joiner.on(", ").join(properties)
+                + ")";
+    }
+}
@@ -0,0 +1,485 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Sort;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A decorator caching Conferences and query results in the memory of this instance, for the
+ * reads under a CACHED ReadPolicy.
+ *
+ * Cached values are kept coherent with the writes of all instances through CacheVersions: a
+ * value is served while it is younger than the staleness budget of the current policy and than
+ * the coherence window, counted from when its versions were last read. Past that, it is checked
+ * against the versions again, and served again when nothing changed. Cached query results are
+ * current while no Conference changed; cached Conferences while they did not change
+ * themselves. Under the other policies, and in transactions, the cache is bypassed. The
+ * Conferences of cached query results are cached by key as well, for the gets and batch gets.
+ *
+ * Changes of the seats alone, as by registrations, bump a counter of their own rather than the
+ * version of the kind, since they are far more frequent than the other changes and no query but
+ * those sorted by the seats depends on them. The other cached query results stay current, and
+ * get the seats of their Conferences from the SeatAvailabilityCache once the counter moved.
+ *
+ * The values of HotKeys are pinned, outside of the size limit and expiry of the cache, until
+ * they cool down. A hot Conference is checked against its version once per hot window of
+ * CacheVersions rather than once per window, as long as the staleness budget allows, so all the
+ * instances reading it do not simply move the hotspot to its version counter. A hot Conference
+ * that has to be loaded is read from one of its HotConferenceReplicas first, which spreads the
+ * loads of all the instances over several memcache keys.
+ *
+ * The cached Conferences are shared by all the requests of the instance, so every read returns
+ * copies of them, which callers may change without changing the cache.
+ */
+public class LocalCacheConferenceRepository extends ForwardingConferenceRepository {
+
+    private static final String KIND = Key.getKind(Conference.class);
+
+    /**
+     * The name of the counter bumped by the changes of the seats.
+     */
+    private static final String SEATS = KIND + ".seatsAvailable";
+
+    /**
+     * The maximum number of cached Conferences and of cached query results, each.
+     */
+    private static final int MAX_ENTRIES = 1000;
+
+    /**
+     * How long a value is kept at most. Values are checked for changes, so this only bounds
+     * the memory used by values nobody reads.
+     */
+    private static final long MAX_AGE_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * A cached value and the versions it was read at.
+     */
+    private static class Entry<V> {
+
+        private final V value;
+
+        /**
+         * The version of the Conference, or null for query results and for the Conferences
+         * read by queries, which are only current while no Conference changed.
+         */
+        private final Long version;
+
+        private volatile Long kindVersion;
+
+        private volatile Long seatsVersion;
+
+        private volatile long checkedMillis;
+
+        private Entry(V value, Long version, CacheVersions.Stamp kindStamp,
+                      CacheVersions.Stamp seatsStamp) {
+            this.value = value;
+            this.version = version;
+            check(kindStamp, seatsStamp);
+        }
+
+        private void check(CacheVersions.Stamp kindStamp, CacheVersions.Stamp seatsStamp) {
+            check(kindStamp.getVersion(), seatsStamp.getVersion(),
+                    Math.min(kindStamp.getCheckedMillis(), seatsStamp.getCheckedMillis()));
+        }
+
+        private void check(Long kindVersion, Long seatsVersion, long checkedMillis) {
+            this.kindVersion = kindVersion;
+            this.seatsVersion = seatsVersion;
+            this.checkedMillis = checkedMillis;
+        }
+
+        /**
+         * Makes the next read check the value against the versions again.
+         */
+        private void expire() {
+            checkedMillis = 0;
+        }
+    }
+
+    private final Cache<String, Entry<Conference>> conferences = CacheBuilder.newBuilder()
+            .maximumSize(MAX_ENTRIES)
+            .expireAfterWrite(MAX_AGE_MILLIS, TimeUnit.MILLISECONDS)
+            .build();
+
+    private final Cache<String, Entry<List<Conference>>> queries = CacheBuilder.newBuilder()
+            .maximumSize(MAX_ENTRIES)
+            .expireAfterWrite(MAX_AGE_MILLIS, TimeUnit.MILLISECONDS)
+            .build();
+
+    private final ConcurrentMap<String, Entry<Conference>> pinnedConferences =
+            new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Entry<List<Conference>>> pinnedQueries =
+            new ConcurrentHashMap<>();
+
+    private final CacheVersions cacheVersions;
+
+    private final HotKeys hotConferences;
+
+    private final HotKeys hotQueries;
+
+    private final HotConferenceReplicas hotConferenceReplicas;
+
+    private final SeatAvailabilityCache seatAvailabilityCache = new SeatAvailabilityCache();
+
+    /**
+     * @param delegate The repository to read from on a miss and to write to.
+     * @param cacheVersions The version counters keeping the cache coherent.
+     */
+    public LocalCacheConferenceRepository(ConferenceRepository delegate,
+                                          CacheVersions cacheVersions) {
+        this(delegate, cacheVersions, HotKeys.CONFERENCES, HotKeys.QUERIES,
+                new HotConferenceReplicas());
+    }
+
+    /**
+     * @param delegate The repository to read from on a miss and to write to.
+     * @param cacheVersions The version counters keeping the cache coherent.
+     * @param hotConferences The accesses to Conferences, by websafe key.
+     * @param hotQueries The accesses to query results, by query signature.
+     * @param hotConferenceReplicas The memcache copies of the hot Conferences.
+     */
+    public LocalCacheConferenceRepository(ConferenceRepository delegate,
+                                          CacheVersions cacheVersions,
+                                          HotKeys hotConferences, HotKeys hotQueries,
+                                          HotConferenceReplicas hotConferenceReplicas) {
+        super(delegate);
+        this.cacheVersions = cacheVersions;
+        this.hotConferences = hotConferences;
+        this.hotQueries = hotQueries;
+        this.hotConferenceReplicas = hotConferenceReplicas;
+    }
+
+    /**
+     * Returns the cached value of a key, pinned or not.
+     */
+    private static <V> Entry<V> getEntry(Cache<String, Entry<V>> cache,
+                                         ConcurrentMap<String, Entry<V>> pinned, String key) {
+        Entry<V> entry = cache.getIfPresent(key);
+        return entry != null ? entry : pinned.get(key);
+    }
+
+    /**
+     * Caches a value, and pins it while its key is hot.
+     */
+    private static <V> void putEntry(Cache<String, Entry<V>> cache,
+                                     ConcurrentMap<String, Entry<V>> pinned, HotKeys hotKeys,
+                                     String key, Entry<V> entry) {
+        cache.put(key, entry);
+        if (hotKeys.isHot(key)) {
+            pinned.put(key, entry);
+            if (pinned.size() > HotKeys.CAPACITY) {
+                // Unpins the keys that cooled down.
+                for (String pinnedKey : pinned.keySet()) {
+                    if (!hotKeys.isHot(pinnedKey)) {
+                        pinned.remove(pinnedKey);
+                    }
+                }
+            }
+        } else {
+            pinned.remove(key);
+        }
+    }
+
+    /**
+     * Returns whether the cache may serve the reads of the current request.
+     */
+    private static boolean isCacheable() {
+        return ReadPolicy.current().getTier() == ReadPolicy.Tier.CACHED
+                && ofy().getTransaction() == null;
+    }
+
+    /**
+     * Returns whether a value may be served without checking its versions again.
+     *
+     * @param entry The cached value.
+     * @param hot Whether the key of the value is hot, which gives it the hot window.
+     */
+    private boolean isFresh(Entry<?> entry, boolean hot) {
+        return ReadPolicy.current().allowsCachedAt(entry.checkedMillis)
+                && System.currentTimeMillis() - entry.checkedMillis < (hot
+                        ? cacheVersions.getHotWindowMillis() : cacheVersions.getWindowMillis());
+    }
+
+    /**
+     * Returns whether a version read now is the one a value was read at.
+     */
+    private static boolean matches(CacheVersions.Stamp stamp, Long version) {
+        return stamp.getVersion() != null && stamp.getVersion().equals(version);
+    }
+
+    /**
+     * Checks the cached Conferences that are not fresh against the versions.
+     *
+     * @param entries The cached Conferences by websafe key.
+     * @param versions Receives the versions read for the check, for loading the misses.
+     * @return the websafe keys of the Conferences that may be served.
+     */
+    private Set<String> check(Map<String, Entry<Conference>> entries,
+                              Map<String, Long> versions) {
+        Set<String> current = new HashSet<>();
+        List<String> unchecked = new ArrayList<>();
+        CacheVersions.Stamp kindStamp = null;
+        CacheVersions.Stamp seatsStamp = null;
+        for (Map.Entry<String, Entry<Conference>> entry : entries.entrySet()) {
+            Entry<Conference> cached = entry.getValue();
+            if (isFresh(cached, hotConferences.isHot(entry.getKey()))) {
+                current.add(entry.getKey());
+                continue;
+            }
+            if (kindStamp == null) {
+                kindStamp = cacheVersions.getKindStamp(KIND);
+                seatsStamp = cacheVersions.getKindStamp(SEATS);
+            }
+            if (matches(kindStamp, cached.kindVersion)
+                    && matches(seatsStamp, cached.seatsVersion)) {
+                // No Conference changed since the value was checked, not even its seats.
+                cached.check(kindStamp, seatsStamp);
+                current.add(entry.getKey());
+            } else if (cached.version != null) {
+                unchecked.add(entry.getKey());
+            }
+        }
+        if (!unchecked.isEmpty()) {
+            long checkedMillis = System.currentTimeMillis();
+            versions.putAll(cacheVersions.getVersions(unchecked));
+            for (String websafeKey : unchecked) {
+                Entry<Conference> cached = entries.get(websafeKey);
+                Long version = versions.get(websafeKey);
+                if (version != null && version.equals(cached.version)) {
+                    // The versions read before are older, so a later change still moves them.
+                    cached.check(kindStamp.getVersion(), seatsStamp.getVersion(), checkedMillis);
+                    current.add(websafeKey);
+                }
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public Conference get(Key<Conference> key) {
+        if (!isCacheable()) {
+            return delegate().get(key);
+        }
+        return getAll(Collections.singletonList(key)).get(key);
+    }
+
+    @Override
+    public Map<Key<Conference>, Conference> getAll(Iterable<Key<Conference>> keys) {
+        if (!isCacheable()) {
+            return delegate().getAll(keys);
+        }
+        Map<String, Entry<Conference>> cached = new LinkedHashMap<>();
+        for (Key<Conference> key : keys) {
+            Entry<Conference> entry =
+                    getEntry(conferences, pinnedConferences, key.getString());
+            if (entry != null) {
+                cached.put(key.getString(), entry);
+            }
+        }
+        Map<String, Long> versions = new HashMap<>();
+        Set<String> current = check(cached, versions);
+        Map<Key<Conference>, Conference> result = new LinkedHashMap<>();
+        List<Key<Conference>> misses = new ArrayList<>();
+        List<String> missNames = new ArrayList<>();
+        for (Key<Conference> key : keys) {
+            if (current.contains(key.getString())) {
+                result.put(key, cached.get(key.getString()).value.copy());
+            } else {
+                misses.add(key);
+                missNames.add(key.getString());
+                // Keeps the order of the keys; a miss is removed again when it does not exist.
+                result.put(key, null);
+            }
+        }
+        if (!misses.isEmpty()) {
+            // The versions are read before the Conferences, so a change after the read is seen.
+            // Those the check just read are not read again.
+            CacheVersions.Stamp kindStamp = cacheVersions.getKindStamp(KIND);
+            CacheVersions.Stamp seatsStamp = cacheVersions.getKindStamp(SEATS);
+            missNames.removeAll(versions.keySet());
+            if (!missNames.isEmpty()) {
+                versions.putAll(cacheVersions.getVersions(missNames));
+            }
+            for (Iterator<Key<Conference>> i = misses.iterator(); i.hasNext(); ) {
+                Key<Conference> key = i.next();
+                if (hotConferences.isHot(key.getString())) {
+                    Conference conference = hotConferenceReplicas.get(key.getString(),
+                            versions.get(key.getString()));
+                    if (conference != null) {
+                        i.remove();
+                        result.put(key, conference.copy());
+                        putEntry(conferences, pinnedConferences, hotConferences,
+                                key.getString(), new Entry<>(conference,
+                                        versions.get(key.getString()), kindStamp, seatsStamp));
+                    }
+                }
+            }
+            Map<Key<Conference>, Conference> loaded = misses.isEmpty()
+                    ? Collections.<Key<Conference>, Conference>emptyMap()
+                    : delegate().getAll(misses);
+            for (Key<Conference> key : misses) {
+                Conference conference = loaded.get(key);
+                if (conference == null) {
+                    result.remove(key);
+                } else {
+                    result.put(key, conference.copy());
+                    Long version = versions.get(key.getString());
+                    putEntry(conferences, pinnedConferences, hotConferences, key.getString(),
+                            new Entry<>(conference, version, kindStamp, seatsStamp));
+                    if (hotConferences.isHot(key.getString())) {
+                        hotConferenceReplicas.put(conference, version);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Conference> query(ConferenceQueryForm conferenceQueryForm) {
+        if (!isCacheable()) {
+            return delegate().query(conferenceQueryForm);
+        }
+        String signature = conferenceQueryForm.getSignature();
+        Entry<List<Conference>> entry = getEntry(queries, pinnedQueries, signature);
+        if (entry != null) {
+            if (isFresh(entry, false)) {
+                return copies(entry.value);
+            }
+            CacheVersions.Stamp kindStamp = cacheVersions.getKindStamp(KIND);
+            CacheVersions.Stamp seatsStamp = cacheVersions.getKindStamp(SEATS);
+            if (matches(kindStamp, entry.kindVersion)) {
+                if (matches(seatsStamp, entry.seatsVersion)) {
+                    entry.check(kindStamp, seatsStamp);
+                    return copies(entry.value);
+                }
+                if (conferenceQueryForm.getSort() != Sort.SEATS_AVAILABLE) {
+                    // Only seats changed, which do not change what the query matches.
+                    Entry<List<Conference>> patched = new Entry<>(
+                            withCurrentSeats(entry.value), null, kindStamp, seatsStamp);
+                    putEntry(queries, pinnedQueries, hotQueries, signature, patched);
+                    return copies(patched.value);
+                }
+            }
+        }
+        CacheVersions.Stamp kindStamp = cacheVersions.getKindStamp(KIND);
+        CacheVersions.Stamp seatsStamp = cacheVersions.getKindStamp(SEATS);
+        List<Conference> result =
+                Collections.unmodifiableList(delegate().query(conferenceQueryForm));
+        putEntry(queries, pinnedQueries, hotQueries, signature,
+                new Entry<>(result, null, kindStamp, seatsStamp));
+        for (Conference conference : result) {
+            putEntry(conferences, pinnedConferences, hotConferences, conference.getWebsafeKey(),
+                    new Entry<>(conference, null, kindStamp, seatsStamp));
+        }
+        return copies(result);
+    }
+
+    /**
+     * Returns the Conferences with the seats the SeatAvailabilityCache has for them, copying
+     * those whose seats changed.
+     */
+    private List<Conference> withCurrentSeats(List<Conference> conferences) {
+        List<Key<Conference>> keys = new ArrayList<>(conferences.size());
+        for (Conference conference : conferences) {
+            keys.add(Key.<Conference>create(conference.getWebsafeKey()));
+        }
+        Map<String, Integer> seats = seatAvailabilityCache.getAll(keys);
+        List<Conference> result = new ArrayList<>(conferences.size());
+        for (Conference conference : conferences) {
+            Integer seatsAvailable = seats.get(conference.getWebsafeKey());
+            if (seatsAvailable == null || seatsAvailable == conference.getSeatsAvailable()) {
+                result.add(conference);
+            } else {
+                Conference copy = conference.copy();
+                copy.setSeatsAvailable(seatsAvailable);
+                result.add(copy);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private static List<Conference> copies(List<Conference> conferences) {
+        List<Conference> copies = new ArrayList<>(conferences.size());
+        for (Conference conference : conferences) {
+            copies.add(conference.copy());
+        }
+        return copies;
+    }
+
+    @Override
+    public void save(Conference conference) {
+        super.save(conference);
+        evict(Collections.singletonList(Key.<Conference>create(conference.getWebsafeKey())));
+    }
+
+    @Override
+    public void saveAll(Iterable<Conference> conferences) {
+        super.saveAll(conferences);
+        List<Key<Conference>> keys = new ArrayList<>();
+        for (Conference conference : conferences) {
+            keys.add(Key.<Conference>create(conference.getWebsafeKey()));
+        }
+        evict(keys);
+    }
+
+    /**
+     * Stores the seats, leaving the cached query results to pick them up from the
+     * SeatAvailabilityCache, which the delegate writes first.
+     */
+    @Override
+    public void saveSeats(Conference conference) {
+        delegate().saveSeats(conference);
+        Key<Conference> key = Key.create(conference.getWebsafeKey());
+        conferences.invalidate(key.getString());
+        pinnedConferences.remove(key.getString());
+        // The query results are checked again, so this instance sees its own change right away.
+        for (Entry<List<Conference>> entry : queries.asMap().values()) {
+            entry.expire();
+        }
+        for (Entry<List<Conference>> entry : pinnedQueries.values()) {
+            entry.expire();
+        }
+        cacheVersions.bumpAfterCommit(Collections.singletonList(key), SEATS);
+    }
+
+    @Override
+    public void delete(Key<Conference> key) {
+        super.delete(key);
+        evict(Collections.singletonList(key));
+    }
+
+    /**
+     * Drops the cached values of the changed Conferences here, and bumps their versions for the
+     * other instances once the current transaction commits.
+     */
+    private void evict(List<Key<Conference>> keys) {
+        for (Key<Conference> key : keys) {
+            conferences.invalidate(key.getString());
+            pinnedConferences.remove(key.getString());
+        }
+        // Any query may have matched the Conferences before or after the change.
+        queries.invalidateAll();
+        pinnedQueries.clear();
+        cacheVersions.bumpAfterCommit(keys);
+    }
+}
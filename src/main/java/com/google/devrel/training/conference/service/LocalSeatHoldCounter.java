@@ -0,0 +1,56 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SeatHoldCounter kept in the memory of this instance, for tests and single-instance setups.
+ */
+public class LocalSeatHoldCounter implements SeatHoldCounter {
+
+    private final ConcurrentMap<String, AtomicLong> remainingSeats = new ConcurrentHashMap<>();
+
+    @Override
+    public void reset(String websafeConferenceKey, long seats) {
+        remainingSeats.put(websafeConferenceKey, new AtomicLong(seats));
+    }
+
+    @Override
+    public void clear(String websafeConferenceKey) {
+        remainingSeats.remove(websafeConferenceKey);
+    }
+
+    @Override
+    public Acquisition tryAcquire(String websafeConferenceKey) {
+        AtomicLong remaining = remainingSeats.get(websafeConferenceKey);
+        if (remaining == null) {
+            return Acquisition.UNAVAILABLE;
+        }
+        while (true) {
+            long current = remaining.get();
+            if (current <= 0) {
+                return Acquisition.SOLD_OUT;
+            }
+            if (remaining.compareAndSet(current, current - 1)) {
+                return Acquisition.GRANTED;
+            }
+        }
+    }
+
+    @Override
+    public void release(String websafeConferenceKey) {
+        AtomicLong remaining = remainingSeats.get(websafeConferenceKey);
+        if (remaining != null) {
+            remaining.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void add(String websafeConferenceKey, long seats) {
+        AtomicLong remaining = remainingSeats.get(websafeConferenceKey);
+        if (remaining != null) {
+            remaining.addAndGet(seats);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * SeatHoldCounter backed by memcache increments, shared by all instances.
+ *
+ * Memcache clamps decrements at zero, so the remaining seats are stored with an offset. A
+ * decrement that ends up below the offset means the counter was already exhausted, and it is
+ * undone. This keeps acquiring a seat at a single memcache call.
+ */
+public class MemcacheSeatHoldCounter implements SeatHoldCounter {
+
+    private static final String NAMESPACE = "seatHolds";
+
+    private static final long OFFSET = 1L << 32;
+
+    private final MemcacheService memcacheService =
+            MemcacheServiceFactory.getMemcacheService(NAMESPACE);
+
+    @Override
+    public void reset(String websafeConferenceKey, long seats) {
+        memcacheService.put(websafeConferenceKey, OFFSET + seats);
+    }
+
+    @Override
+    public void clear(String websafeConferenceKey) {
+        memcacheService.delete(websafeConferenceKey);
+    }
+
+    @Override
+    public Acquisition tryAcquire(String websafeConferenceKey) {
+        Long remaining = memcacheService.increment(websafeConferenceKey, -1);
+        if (remaining == null) {
+            return Acquisition.UNAVAILABLE;
+        }
+        if (remaining < OFFSET) {
+            memcacheService.increment(websafeConferenceKey, 1);
+            return Acquisition.SOLD_OUT;
+        }
+        return Acquisition.GRANTED;
+    }
+
+    @Override
+    public void release(String websafeConferenceKey) {
+        // Without an initial value, this does nothing when the counter does not exist.
+        memcacheService.increment(websafeConferenceKey, 1);
+    }
+
+    @Override
+    public void add(String websafeConferenceKey, long seats) {
+        memcacheService.increment(websafeConferenceKey, seats);
+    }
+}
@@ -0,0 +1,287 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A ConferenceRepository answering the queries with datastore queries.
+ *
+ * The writes also keep the SeatAvailabilityCache current once they commit, so the callers
+ * changing the seats of a Conference do not have to.
+ */
+public class ObjectifyConferenceRepository extends ObjectifyRepository<Conference>
+        implements ConferenceRepository {
+
+    /**
+     * The batch size of the queries whose matches are all read.
+     */
+    private static final int TOP_K_CHUNK_SIZE = 500;
+
+    /**
+     * The batch size of the keys-only queries.
+     */
+    private static final int KEYS_CHUNK_SIZE = 1000;
+
+    private final SeatAvailabilityCache seatAvailabilityCache = new SeatAvailabilityCache();
+
+    @Override
+    public void save(Conference conference) {
+        super.save(conference);
+        seatAvailabilityCache.putAfterCommit(conference);
+    }
+
+    @Override
+    public void saveAll(Iterable<Conference> conferences) {
+        super.saveAll(conferences);
+        seatAvailabilityCache.putAllAfterCommit(conferences);
+    }
+
+    @Override
+    public void saveSeats(Conference conference) {
+        save(conference);
+    }
+
+    /**
+     * Loads the Conferences of a stream of keys in batches, as the merge of the sub-queries asks
+     * for them, so that a sub-query is only read as far as its results make it into the page.
+     * The first batch is the share of the page of one sub-query, and each next one twice as
+     * large. A Conference matching several sub-queries is loaded once.
+     */
+    private class LoadingIterator extends AbstractIterator<Conference> {
+
+        private final Iterator<Key<Conference>> keys;
+
+        /**
+         * The Conferences loaded by all the sub-queries, by key.
+         */
+        private final Map<Key<Conference>, Conference> loaded;
+
+        private int batchSize;
+
+        private Iterator<Conference> batch = Iterators.emptyIterator();
+
+        private LoadingIterator(Iterator<Key<Conference>> keys,
+                                Map<Key<Conference>, Conference> loaded, int batchSize) {
+            this.keys = keys;
+            this.loaded = loaded;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        protected Conference computeNext() {
+            while (!batch.hasNext()) {
+                if (!keys.hasNext()) {
+                    return endOfData();
+                }
+                List<Key<Conference>> batchKeys = new ArrayList<>(batchSize);
+                List<Key<Conference>> missing = new ArrayList<>(batchSize);
+                while (keys.hasNext() && batchKeys.size() < batchSize) {
+                    Key<Conference> key = keys.next();
+                    batchKeys.add(key);
+                    if (!loaded.containsKey(key)) {
+                        missing.add(key);
+                    }
+                }
+                if (!missing.isEmpty()) {
+                    loaded.putAll(getAll(missing));
+                }
+                List<Conference> conferences = new ArrayList<>(batchKeys.size());
+                for (Key<Conference> key : batchKeys) {
+                    Conference conference = loaded.get(key);
+                    if (conference != null) {
+                        conferences.add(conference);
+                    }
+                }
+                batch = conferences.iterator();
+                batchSize = Math.min(2 * batchSize, KEYS_CHUNK_SIZE);
+            }
+            return batch.next();
+        }
+    }
+
+    /**
+     * Answers index plans with keys-only queries and batch gets of the keys, which go through
+     * the session and memcache caches of Objectify, so only the Conferences missing from both
+     * are read from the datastore. The sub-queries of a disjunction are merged in their common
+     * order as they stream, and read no further than the limit.
+     * Top-K plans need the sort values of all the matches, so they read the entities.
+     */
+    @Override
+    public List<Conference> query(ConferenceQueryForm conferenceQueryForm) {
+        List<ConferenceQueryForm> subQueries = conferenceQueryForm.expand();
+        ConferenceQueryPlanner.Plan plan = ConferenceQueryPlanner.plan(conferenceQueryForm);
+        Integer limit = ConferenceQueryPlanner.getLimit(conferenceQueryForm);
+        Comparator<Conference> ordering = conferenceQueryForm.getOrdering();
+        if (plan == ConferenceQueryPlanner.Plan.INDEX) {
+            // Starts all the sub-queries before reading any of them, so their first batches are
+            // fetched concurrently.
+            List<Iterator<Key<Conference>>> keyIterators = new ArrayList<>(subQueries.size());
+            for (ConferenceQueryForm subQuery : subQueries) {
+                Query<Conference> query = applyTo(subQuery, subQuery.getSort());
+                query = limit == null ? query.chunk(KEYS_CHUNK_SIZE)
+                        : query.limit(limit).chunk(Math.min(limit, KEYS_CHUNK_SIZE));
+                keyIterators.add(query.keys().iterator());
+            }
+            if (subQueries.size() == 1) {
+                List<Key<Conference>> keys = Lists.newArrayList(keyIterators.get(0));
+                // Keeps the order of the keys, which is the result order of the query.
+                return new ArrayList<>(getAll(keys).values());
+            }
+            int batchSize = limit == null ? KEYS_CHUNK_SIZE
+                    : Math.max(1, Math.min(KEYS_CHUNK_SIZE,
+                            (limit + subQueries.size() - 1) / subQueries.size()));
+            Map<Key<Conference>, Conference> loaded = new HashMap<>();
+            List<Iterator<Conference>> iterators = new ArrayList<>(keyIterators.size());
+            for (Iterator<Key<Conference>> keyIterator : keyIterators) {
+                iterators.add(new LoadingIterator(keyIterator, loaded, batchSize));
+            }
+            return merge(iterators, ordering, limit);
+        }
+        List<Iterator<Conference>> iterators = new ArrayList<>(subQueries.size());
+        for (ConferenceQueryForm subQuery : subQueries) {
+            // In the order of the declared indexes, to be sorted in memory.
+            iterators.add(applyTo(subQuery, ConferenceQueryForm.Sort.NAME)
+                    .chunk(TOP_K_CHUNK_SIZE).iterator());
+        }
+        // The first results of the union are among the first results of each sub-query.
+        for (int i = 0; i < iterators.size(); i++) {
+            iterators.set(i, ConferenceQueryPlanner.top(iterators.get(i), ordering, limit)
+                    .iterator());
+        }
+        if (iterators.size() == 1) {
+            return Lists.newArrayList(iterators.get(0));
+        }
+        return merge(iterators, ordering, limit);
+    }
+
+    /**
+     * Merges the results of the sub-queries, which share the ordering, so the union streams in
+     * order and is read no further than the limit.
+     */
+    private static List<Conference> merge(List<Iterator<Conference>> iterators,
+                                          Comparator<Conference> ordering, Integer limit) {
+        Iterator<Conference> merged = Iterators.filter(
+                Iterators.mergeSorted(iterators, ordering),
+                new Predicate<Conference>() {
+                    private final Set<String> seen = new HashSet<>();
+
+                    @Override
+                    public boolean apply(Conference conference) {
+                        // A Conference matching several sub-queries is returned once.
+                        return seen.add(conference.getWebsafeKey());
+                    }
+                });
+        if (limit != null) {
+            merged = Iterators.limit(merged, limit);
+        }
+        return Lists.newArrayList(merged);
+    }
+
+    /**
+     * Counts with keys-only queries, which read the index but not the entities.
+     */
+    @Override
+    public int count(ConferenceQueryForm conferenceQueryForm) {
+        List<ConferenceQueryForm> subQueries = conferenceQueryForm.expand();
+        if (subQueries.size() == 1) {
+            return applyTo(subQueries.get(0), ConferenceQueryForm.Sort.NAME).count();
+        }
+        // A Conference matching several sub-queries is counted once.
+        Set<Key<Conference>> keys = new HashSet<>();
+        for (ConferenceQueryForm subQuery : subQueries) {
+            for (Key<Conference> key : applyTo(subQuery, ConferenceQueryForm.Sort.NAME)
+                    .chunk(KEYS_CHUNK_SIZE).keys().iterable()) {
+                keys.add(key);
+            }
+        }
+        return keys.size();
+    }
+
+    @Override
+    public List<Conference> listByOrganizer(String organizerUserId) {
+        IndexAdvisor.get().record(QueryShape.ofConference(true, ImmutableList.<String>of(), null,
+                ImmutableList.of("name")));
+        return reader().load().type(Conference.class)
+                .ancestor(Key.create(Profile.class, organizerUserId))
+                .order("name").list();
+    }
+
+    @Override
+    public List<Conference> listBySeatsAvailable(int above, int below) {
+        IndexAdvisor.get().record(QueryShape.ofConference(false, ImmutableList.<String>of(),
+                "seatsAvailable", ImmutableList.<String>of()));
+        return reader().load().type(Conference.class)
+                .filter("seatsAvailable <", below)
+                .filter("seatsAvailable >", above).list();
+    }
+
+    @Override
+    public ConferencePage listAll(String cursor, int limit) {
+        Query<Conference> query = reader().load().type(Conference.class).limit(limit);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Conference> iterator = query.iterator();
+        List<Conference> conferences = Lists.newArrayList(iterator);
+        return new ConferencePage(conferences, conferences.size() < limit
+                ? null : iterator.getCursor().toWebSafeString());
+    }
+
+    @Override
+    public List<Conference> listChangedSince(long sinceMillis, Key<Conference> after,
+                                             int limit) {
+        List<Conference> conferences = new ArrayList<>();
+        if (after != null) {
+            // The rest of the millisecond of the position, in key order.
+            IndexAdvisor.get().record(QueryShape.ofConference(false,
+                    ImmutableList.of("lastModified"), null, ImmutableList.<String>of()));
+            conferences.addAll(reader().load().type(Conference.class)
+                    .filter("lastModified", new Date(sinceMillis))
+                    .filterKey(">", after)
+                    .limit(limit)
+                    .list());
+        }
+        if (conferences.size() < limit) {
+            IndexAdvisor.get().record(QueryShape.ofConference(false, ImmutableList.<String>of(),
+                    "lastModified", ImmutableList.of("lastModified")));
+            // Ties on lastModified come in key order.
+            conferences.addAll(reader().load().type(Conference.class)
+                    .filter(after != null ? "lastModified >" : "lastModified >=",
+                            new Date(sinceMillis))
+                    .order("lastModified")
+                    .limit(limit - conferences.size())
+                    .list());
+        }
+        return conferences;
+    }
+
+    /**
+     * Starts the datastore query of a query without alternatives, recording its shape for the
+     * index advisor.
+     */
+    private Query<Conference> applyTo(ConferenceQueryForm subQuery,
+                                      ConferenceQueryForm.Sort order) {
+        IndexAdvisor.get().record(QueryShape.of(subQuery, order));
+        return subQuery.applyTo(reader().load().type(Conference.class), order);
+    }
+}
@@ -0,0 +1,28 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.common.collect.Lists;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.List;
+
+/**
+ * A ProfileRepository storing Profiles in the datastore with Objectify.
+ */
+public class ObjectifyProfileRepository extends ObjectifyRepository<Profile>
+        implements ProfileRepository {
+
+    @Override
+    public ProfilePage listAll(String cursor, int limit) {
+        Query<Profile> query = reader().load().type(Profile.class).limit(limit);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Profile> iterator = query.iterator();
+        List<Profile> profiles = Lists.newArrayList(iterator);
+        return new ProfilePage(profiles, profiles.size() < limit
+                ? null : iterator.getCursor().toWebSafeString());
+    }
+}
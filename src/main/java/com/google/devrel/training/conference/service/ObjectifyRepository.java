@@ -0,0 +1,56 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.Result;
+
+import java.util.Map;
+
+/**
+ * A repository storing entities in the datastore with Objectify.
+ *
+ * @param <T> The entity class.
+ */
+public class ObjectifyRepository<T> implements Repository<T> {
+
+    /**
+     * Returns the Objectify to read with, with the consistency of the current ReadPolicy.
+     *
+     * @return the Objectify for reads.
+     */
+    protected static Objectify reader() {
+        return ReadPolicy.current().apply(ofy());
+    }
+
+    @Override
+    public T get(Key<T> key) {
+        return reader().load().key(key).now();
+    }
+
+    @Override
+    public Result<T> getAsync(Key<T> key) {
+        return reader().load().key(key);
+    }
+
+    @Override
+    public Map<Key<T>, T> getAll(Iterable<Key<T>> keys) {
+        return reader().load().keys(keys);
+    }
+
+    @Override
+    public void save(T entity) {
+        ofy().save().entity(entity).now();
+    }
+
+    @Override
+    public void saveAll(Iterable<T> entities) {
+        ofy().save().entities(entities).now();
+    }
+
+    @Override
+    public void delete(Key<T> key) {
+        ofy().delete().key(key).now();
+    }
+}
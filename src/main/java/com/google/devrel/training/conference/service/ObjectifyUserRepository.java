@@ -0,0 +1,19 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.AppEngineUser;
+
+/**
+ * A UserRepository storing AppEngineUsers in the datastore with Objectify.
+ */
+public class ObjectifyUserRepository extends ObjectifyRepository<AppEngineUser>
+        implements UserRepository {
+
+    @Override
+    public AppEngineUser saveAndReload(AppEngineUser user) {
+        save(user);
+        // Begin new session for not using session cache.
+        return ofy().factory().begin().load().key(user.getKey()).now();
+    }
+}
@@ -1,8 +1,14 @@
 package com.google.devrel.training.conference.service;
 
+import com.google.devrel.training.conference.domain.AdmissionLimits;
 import com.google.devrel.training.conference.domain.AppEngineUser;
+import com.google.devrel.training.conference.domain.CatalogSnapshotChunk;
+import com.google.devrel.training.conference.domain.CatalogSnapshotManifest;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceListing;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
@@ -18,6 +24,12 @@ public class OfyService {
         factory().register(AppEngineUser.class);
         factory().register(Conference.class);
         factory().register(Profile.class);
+        factory().register(WaitlistEntry.class);
+        factory().register(SeatHold.class);
+        factory().register(CatalogSnapshotManifest.class);
+        factory().register(CatalogSnapshotChunk.class);
+        factory().register(ConferenceListing.class);
+        factory().register(AdmissionLimits.class);
     }
 
     /**
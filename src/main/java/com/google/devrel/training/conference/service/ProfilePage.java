@@ -0,0 +1,32 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Profile;
+
+import java.util.List;
+
+/**
+ * A page of a scan of all the Profiles, with the cursor of the next page.
+ */
+public class ProfilePage {
+
+    private final List<Profile> profiles;
+
+    /**
+     * The cursor to pass for the next page, or null when this is the last page.
+     */
+    private final String cursor;
+
+    public ProfilePage(List<Profile> profiles, String cursor) {
+        this.profiles = ImmutableList.copyOf(profiles);
+        this.cursor = cursor;
+    }
+
+    public List<Profile> getProfiles() {
+        return profiles;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+}
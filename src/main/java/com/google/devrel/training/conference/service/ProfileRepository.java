@@ -0,0 +1,19 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.Profile;
+
+/**
+ * Stores Profiles and scans them for the export.
+ */
+public interface ProfileRepository extends Repository<Profile> {
+
+    /**
+     * Returns a page of all the Profiles, in key order.
+     *
+     * @param cursor The cursor of the page, from the previous page, or null for the first one.
+     * @param limit The maximum number of Profiles of the page.
+     * @return the page, with the cursor of the next page unless fewer than limit were left.
+     * @throws IllegalArgumentException when the cursor is not valid.
+     */
+    ProfilePage listAll(String cursor, int limit);
+}
@@ -0,0 +1,208 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Sort;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The shape of a datastore query, the properties it filters, sorts and projects on without the
+ * values, which decides the index it needs.
+ */
+public class QueryShape {
+
+    private static final String CONFERENCE = Key.getKind(Conference.class);
+
+    private final String kind;
+
+    private final boolean ancestor;
+
+    /**
+     * The properties of the equality filters, sorted, since their order in an index does not
+     * matter.
+     */
+    private final List<String> equalities;
+
+    private final String inequality;
+
+    private final List<String> orders;
+
+    private final List<String> projections;
+
+    /**
+     * @param kind The kind of the query.
+     * @param ancestor Whether the query has an ancestor filter.
+     * @param equalities The properties of the equality filters.
+     * @param inequality The property of the inequality filters, or null.
+     * @param orders The sort orders, as in an index definition.
+     * @param projections The projected properties.
+     */
+    public QueryShape(String kind, boolean ancestor, List<String> equalities,
+                      String inequality, List<String> orders, List<String> projections) {
+        this.kind = kind;
+        this.ancestor = ancestor;
+        List<String> sorted = new ArrayList<>(new LinkedHashSet<>(equalities));
+        Collections.sort(sorted);
+        this.equalities = ImmutableList.copyOf(sorted);
+        this.inequality = inequality;
+        this.orders = ImmutableList.copyOf(orders);
+        this.projections = ImmutableList.copyOf(projections);
+    }
+
+    /**
+     * Returns the shape of a Conference query from applyTo.
+     *
+     * @param conferenceQueryForm A query without alternatives.
+     * @param order The sort order passed to applyTo.
+     * @return the shape of the query.
+     */
+    public static QueryShape of(ConferenceQueryForm conferenceQueryForm, Sort order) {
+        return new QueryShape(CONFERENCE, false, conferenceQueryForm.getEqualityProperties(),
+                conferenceQueryForm.getInequalityProperty(),
+                conferenceQueryForm.getOrderProperties(order), ImmutableList.<String>of());
+    }
+
+    /**
+     * Returns the shape of a Conference query built by hand.
+     *
+     * @param ancestor Whether the query has an ancestor filter.
+     * @param equalities The properties of the equality filters.
+     * @param inequality The property of the inequality filters, or null.
+     * @param orders The sort orders, as in an index definition.
+     * @return the shape of the query.
+     */
+    public static QueryShape ofConference(boolean ancestor, List<String> equalities,
+                                          String inequality, List<String> orders) {
+        return new QueryShape(CONFERENCE, ancestor, equalities, inequality, orders,
+                ImmutableList.<String>of());
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public boolean isAncestor() {
+        return ancestor;
+    }
+
+    public List<String> getEqualities() {
+        return equalities;
+    }
+
+    public String getInequality() {
+        return inequality;
+    }
+
+    /**
+     * Returns the sort orders, starting with the inequality property as the datastore sorts a
+     * query with an inequality filter by it first.
+     *
+     * @return the sort orders, as in an index definition.
+     */
+    public List<String> getOrders() {
+        if (inequality != null && (orders.isEmpty()
+                || !IndexDefinition.getPropertyName(orders.get(0)).equals(inequality))) {
+            return ImmutableList.<String>builder().add(inequality).addAll(orders).build();
+        }
+        return orders;
+    }
+
+    public List<String> getProjections() {
+        return projections;
+    }
+
+    /**
+     * Returns all the properties the query uses an index of.
+     *
+     * @return the property names.
+     */
+    public Set<String> getPropertyNames() {
+        Set<String> propertyNames = new LinkedHashSet<>(equalities);
+        for (String order : getOrders()) {
+            propertyNames.add(IndexDefinition.getPropertyName(order));
+        }
+        propertyNames.addAll(projections);
+        return propertyNames;
+    }
+
+    /**
+     * Returns the composite index the query needs.
+     *
+     * Queries with equality filters only are answered by merging the built-in single-property
+     * indexes, as are queries on a single property without an ancestor.
+     *
+     * @return the index, or null when the built-in indexes are enough.
+     */
+    public IndexDefinition getRequiredIndex() {
+        List<String> orders = getOrders();
+        if (orders.isEmpty() && projections.isEmpty()) {
+            return null;
+        }
+        if (!ancestor && getPropertyNames().size() <= 1) {
+            return null;
+        }
+        List<String> properties = new ArrayList<>(equalities);
+        properties.addAll(orders);
+        Set<String> indexed = new LinkedHashSet<>(equalities);
+        for (String order : orders) {
+            indexed.add(IndexDefinition.getPropertyName(order));
+        }
+        for (String projection : projections) {
+            if (indexed.add(projection)) {
+                properties.add(projection);
+            }
+        }
+        return new IndexDefinition(kind, ancestor, properties);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof QueryShape)) {
+            return false;
+        }
+        QueryShape shape = (QueryShape) other;
+        return kind.equals(shape.kind) && ancestor == shape.ancestor
+                && equalities.equals(shape.equalities)
+                && (inequality == null ? shape.inequality == null
+                        : inequality.equals(shape.inequality))
+                && orders.equals(shape.orders) && projections.equals(shape.projections);
+    }
+
+    @Override
+    public int hashCode() {
+        return (((kind.hashCode() * 31 + (ancestor ? 1 : 0)) * 31 + equalities.hashCode()) * 31
+                + orders.hashCode()) * 31 + projections.hashCode()
+                + (inequality == null ? 0 : inequality.hashCode());
+    }
+
+    /**
+     * Returns the shape as shown in the index advisor report.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(kind);
+        if (ancestor) {
+            builder.append(" ancestor");
+        }
+        if (!equalities.isEmpty()) {
+            builder.append(" eq=").append(equalities);
+        }
+        if (inequality != null) {
+            builder.append(" ineq=").append(inequality);
+        }
+        if (!orders.isEmpty()) {
+            builder.append(" order=").append(orders);
+        }
+        if (!projections.isEmpty()) {
+            builder.append(" project=").append(projections);
+        }
+        return builder.toString();
+    }
+}
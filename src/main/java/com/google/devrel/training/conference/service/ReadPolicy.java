@@ -0,0 +1,183 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.ReadPolicy.Consistency;
+import com.google.common.collect.ImmutableMap;
+import com.googlecode.objectify.Objectify;
+
+import java.util.Map;
+
+/**
+ * How fresh the reads of an API method have to be.
+ *
+ * <ul>
+ * <li>STRONG reads are the datastore default: gets and ancestor queries see every committed
+ * write. The global cache of Objectify is used, since it is kept coherent with the writes.</li>
+ * <li>EVENTUAL reads ask the datastore for eventual consistency, which is faster and does not
+ * wait for pending writes to apply.</li>
+ * <li>CACHED reads are eventual reads that may also be served from the caches of this instance,
+ * as long as the cached value is not older than the staleness budget.</li>
+ * </ul>
+ *
+ * The policy of the current request is held per thread, set by the ReadPolicyFilter from the
+ * called API method, and respected by the repositories. Reads in transactions are always strong.
+ */
+public class ReadPolicy {
+
+    /**
+     * Enum representing the consistency tiers, from the freshest to the cheapest.
+     */
+    public static enum Tier {
+        STRONG, EVENTUAL, CACHED
+    }
+
+    public static final ReadPolicy STRONG = new ReadPolicy(Tier.STRONG, 0);
+
+    public static final ReadPolicy EVENTUAL = new ReadPolicy(Tier.EVENTUAL, 0);
+
+    /**
+     * The prefix of the system properties overriding the policy of an API method, as in
+     * conference.readPolicy.queryConferences=CACHED:5000.
+     */
+    private static final String PROPERTY_PREFIX = "conference.readPolicy.";
+
+    /**
+     * The policies of the API methods that tolerate staleness. The others read strongly: those
+     * showing the user's own data right after a change, and all the writes.
+     */
+    private static final Map<String, ReadPolicy> DEFAULTS = ImmutableMap.of(
+            "getConference", cached(5 * 1000),
+            "queryConferences", cached(10 * 1000),
+            "getConferences", EVENTUAL,
+            "countConferences", EVENTUAL);
+
+    private static final ThreadLocal<ReadPolicy> CURRENT = new ThreadLocal<>();
+
+    private final Tier tier;
+
+    private final long maxStalenessMillis;
+
+    private ReadPolicy(Tier tier, long maxStalenessMillis) {
+        this.tier = tier;
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    /**
+     * Returns the policy of cached reads.
+     *
+     * @param maxStalenessMillis How old a cached value may be.
+     * @return the policy.
+     */
+    public static ReadPolicy cached(long maxStalenessMillis) {
+        return new ReadPolicy(Tier.CACHED, maxStalenessMillis);
+    }
+
+    /**
+     * Parses a policy, such as "EVENTUAL" or "CACHED:5000" with the staleness budget in
+     * milliseconds.
+     *
+     * @param policy The policy as a String.
+     * @return the policy.
+     * @throws IllegalArgumentException when the policy is not valid.
+     */
+    public static ReadPolicy parse(String policy) {
+        int separator = policy.indexOf(':');
+        Tier tier = Tier.valueOf(separator < 0 ? policy : policy.substring(0, separator));
+        if (tier == Tier.CACHED) {
+            if (separator < 0) {
+                throw new IllegalArgumentException("A staleness budget is required: " + policy);
+            }
+            return cached(Long.parseLong(policy.substring(separator + 1)));
+        }
+        return tier == Tier.STRONG ? STRONG : EVENTUAL;
+    }
+
+    /**
+     * Returns the policy of an API method, from its system property or the defaults.
+     *
+     * @param endpoint The name of the API method.
+     * @return the policy of the method.
+     */
+    public static ReadPolicy forEndpoint(String endpoint) {
+        String property = System.getProperty(PROPERTY_PREFIX + endpoint);
+        if (property != null) {
+            return parse(property);
+        }
+        ReadPolicy policy = DEFAULTS.get(endpoint);
+        return policy == null ? STRONG : policy;
+    }
+
+    /**
+     * Returns the policy of the current request.
+     *
+     * @return the current policy, STRONG unless another one was entered.
+     */
+    public static ReadPolicy current() {
+        ReadPolicy policy = CURRENT.get();
+        return policy == null ? STRONG : policy;
+    }
+
+    /**
+     * Makes the policy the current one of this thread.
+     *
+     * @param policy The policy to enter.
+     * @return the policy to restore with exit().
+     */
+    public static ReadPolicy enter(ReadPolicy policy) {
+        ReadPolicy previous = CURRENT.get();
+        CURRENT.set(policy);
+        return previous;
+    }
+
+    /**
+     * Restores the policy that was current before enter().
+     *
+     * @param previous The policy returned by enter().
+     */
+    public static void exit(ReadPolicy previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    public Tier getTier() {
+        return tier;
+    }
+
+    public long getMaxStalenessMillis() {
+        return maxStalenessMillis;
+    }
+
+    /**
+     * Returns whether a value cached at the given time may be served.
+     *
+     * @param cachedMillis When the value was read from the datastore.
+     * @return true when the policy allows serving the value.
+     */
+    public boolean allowsCachedAt(long cachedMillis) {
+        return tier == Tier.CACHED
+                && System.currentTimeMillis() - cachedMillis <= maxStalenessMillis;
+    }
+
+    /**
+     * Returns the Objectify to read with under this policy.
+     *
+     * @param objectify The Objectify of the current session.
+     * @return the Objectify with the consistency of the policy.
+     */
+    public Objectify apply(Objectify objectify) {
+        if (tier == Tier.STRONG || objectify.getTransaction() != null) {
+            return objectify;
+        }
+        return objectify.consistency(Consistency.EVENTUAL);
+    }
+
+    /**
+     * Returns the policy as reported in the response metadata.
+     */
+    @Override
+    public String toString() {
+        return tier == Tier.CACHED ? tier + "; max-staleness=" + maxStalenessMillis : tier.name();
+    }
+}
@@ -0,0 +1,86 @@
+package com.google.devrel.training.conference.service;
+
+/**
+ * Holds the repositories the application uses, the Objectify ones unless others are installed.
+ *
+ * Install decorated or in-memory repositories before serving requests, for instance from a test
+ * setup or a benchmark, and call {@link #reset()} afterwards.
+ */
+public class Repositories {
+
+    /**
+     * Whether this instance serves Conference reads from the catalog snapshot, which is set for
+     * read-only versions in appengine-web.xml.
+     */
+    private static final boolean CATALOG_REPLICA = Boolean.getBoolean("conference.catalogReplica");
+
+    /**
+     * How often a catalog replica fetches the changes since the snapshot.
+     */
+    private static final long CATALOG_REFRESH_MILLIS =
+            Long.getLong("conference.catalogReplica.refreshMillis", 10 * 1000);
+
+    private static volatile ConferenceRepository conferences;
+
+    private static volatile ProfileRepository profiles;
+
+    private static volatile UserRepository users;
+
+    static {
+        reset();
+    }
+
+    private Repositories() {}
+
+    /**
+     * Installs the repositories.
+     *
+     * @param conferenceRepository The repository of Conferences.
+     * @param profileRepository The repository of Profiles.
+     * @param userRepository The repository of AppEngineUsers.
+     */
+    public static void install(ConferenceRepository conferenceRepository,
+                               ProfileRepository profileRepository,
+                               UserRepository userRepository) {
+        conferences = conferenceRepository;
+        profiles = profileRepository;
+        users = userRepository;
+    }
+
+    /**
+     * Installs the in-memory repositories.
+     */
+    public static void installInMemory() {
+        install(new InMemoryConferenceRepository(), new InMemoryProfileRepository(),
+                new InMemoryUserRepository());
+    }
+
+    /**
+     * Installs the Objectify repositories again, with the coherent local cache of the CACHED
+     * reads and, on a catalog replica, the catalog snapshot in front of the Conferences.
+     */
+    public static void reset() {
+        ConferenceRepository conferenceRepository = new ObjectifyConferenceRepository();
+        if (CATALOG_REPLICA) {
+            conferenceRepository = new SnapshotConferenceRepository(conferenceRepository,
+                    new CatalogSnapshotStore(), new ConferenceSyncService(),
+                    CATALOG_REFRESH_MILLIS);
+        }
+        conferenceRepository = new LocalCacheConferenceRepository(conferenceRepository,
+                new CacheVersions());
+        install(conferenceRepository, new ObjectifyProfileRepository(),
+                new ObjectifyUserRepository());
+    }
+
+    public static ConferenceRepository conferences() {
+        return conferences;
+    }
+
+    public static ProfileRepository profiles() {
+        return profiles;
+    }
+
+    public static UserRepository users() {
+        return users;
+    }
+}
@@ -0,0 +1,65 @@
+package com.google.devrel.training.conference.service;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+
+import java.util.Map;
+
+/**
+ * Stores and loads the entities of one kind.
+ *
+ * The API and the servlets go through repositories rather than through Objectify, so that a
+ * decorator can add caching, batching or metrics in one place, and so that the in-memory
+ * implementations can stand in for the datastore. Inside a {@link TransactionRunner} work, the
+ * Objectify implementations take part in the transaction.
+ *
+ * @param <T> The entity class.
+ */
+public interface Repository<T> {
+
+    /**
+     * Loads an entity.
+     *
+     * @param key The key of the entity.
+     * @return the entity, or null when it does not exist.
+     */
+    T get(Key<T> key);
+
+    /**
+     * Starts loading an entity, so the load overlaps with the work done before its result is
+     * needed.
+     *
+     * @param key The key of the entity.
+     * @return the pending entity, which is null when it does not exist.
+     */
+    Result<T> getAsync(Key<T> key);
+
+    /**
+     * Loads entities in one batch.
+     *
+     * @param keys The keys of the entities.
+     * @return the entities that exist by their keys, in the order of the keys.
+     */
+    Map<Key<T>, T> getAll(Iterable<Key<T>> keys);
+
+    /**
+     * Stores an entity, replacing the entity with the same key.
+     *
+     * @param entity The entity, with its id set.
+     */
+    void save(T entity);
+
+    /**
+     * Stores entities in one batch, replacing the entities with the same keys.
+     *
+     * @param entities The entities, with their ids set.
+     */
+    void saveAll(Iterable<T> entities);
+
+    /**
+     * Deletes an entity. Does nothing when it does not exist.
+     *
+     * @param key The key of the entity.
+     */
+    void delete(Key<T> key);
+}
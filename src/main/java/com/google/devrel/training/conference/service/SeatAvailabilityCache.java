@@ -0,0 +1,140 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.devrel.training.conference.domain.Conference;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the number of available seats of conferences in memcache.
+ *
+ * The counters are written through after every committed change of the seats, so polling the
+ * availability does not load Conference entities. A counter that is missing is read with a
+ * projection query on the seatsAvailable index, which does not load the entity either but may
+ * lag the latest commit like any global query. The counters expire after a short while, which
+ * bounds the staleness left by a lagging index or by two changes whose write-throughs land in the
+ * reverse order.
+ */
+public class SeatAvailabilityCache {
+
+    private static final String NAMESPACE = "seatsAvailable";
+
+    private static final int EXPIRATION_SECONDS = 60;
+
+    /**
+     * The maximum number of values of an IN filter.
+     */
+    private static final int MAX_IN_VALUES = 30;
+
+    private final MemcacheService memcacheService =
+            MemcacheServiceFactory.getMemcacheService(NAMESPACE);
+
+    /**
+     * Writes the seats of the Conference to the cache once the current transaction commits.
+     *
+     * Call this from the work of a {@link TransactionRunner}, after changing the seats.
+     *
+     * @param conference The changed Conference.
+     */
+    public void putAfterCommit(Conference conference) {
+        final String websafeConferenceKey = conference.getWebsafeKey();
+        final int seatsAvailable = conference.getSeatsAvailable();
+        TransactionRunner.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                memcacheService.put(websafeConferenceKey, seatsAvailable,
+                        Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+            }
+        });
+    }
+
+    /**
+     * Writes the seats of the Conferences to the cache in one batch once the current transaction
+     * commits.
+     *
+     * @param conferences The changed Conferences.
+     */
+    public void putAllAfterCommit(Iterable<Conference> conferences) {
+        final Map<String, Integer> seats = new HashMap<>();
+        for (Conference conference : conferences) {
+            seats.put(conference.getWebsafeKey(), conference.getSeatsAvailable());
+        }
+        TransactionRunner.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                memcacheService.putAll(seats, Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+            }
+        });
+    }
+
+    /**
+     * Returns the available seats of the conferences.
+     *
+     * @param conferenceKeys The keys of the conferences.
+     * @return the available seats by the websafe key, without the conferences that don't exist.
+     */
+    public Map<String, Integer> getAll(Collection<Key<Conference>> conferenceKeys) {
+        List<String> websafeConferenceKeys = new ArrayList<>(conferenceKeys.size());
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            websafeConferenceKeys.add(conferenceKey.getString());
+        }
+        Map<String, Object> cached = memcacheService.getAll(websafeConferenceKeys);
+        Map<String, Integer> result = new HashMap<>(conferenceKeys.size());
+        List<com.google.appengine.api.datastore.Key> misses = new ArrayList<>();
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            Object seatsAvailable = cached.get(conferenceKey.getString());
+            if (seatsAvailable == null) {
+                misses.add(conferenceKey.getRaw());
+            } else {
+                result.put(conferenceKey.getString(), (Integer) seatsAvailable);
+            }
+        }
+        if (!misses.isEmpty()) {
+            Map<String, Integer> loaded = load(misses);
+            memcacheService.putAll(new HashMap<Object, Object>(loaded),
+                    Expiration.byDeltaSeconds(EXPIRATION_SECONDS),
+                    MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+            result.putAll(loaded);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the seats with projection queries, which are served from the index alone.
+     */
+    private static Map<String, Integer> load(List<com.google.appengine.api.datastore.Key> keys) {
+        DatastoreService datastoreService = DatastoreServiceFactory.getDatastoreService();
+        Map<String, Integer> loaded = new HashMap<>(keys.size());
+        for (List<com.google.appengine.api.datastore.Key> partition
+                : Lists.partition(keys, MAX_IN_VALUES)) {
+            IndexAdvisor.get().record(new QueryShape(Key.getKind(Conference.class), false,
+                    ImmutableList.<String>of(), null, ImmutableList.<String>of(),
+                    ImmutableList.of("seatsAvailable")));
+            Query query = new Query(Key.getKind(Conference.class))
+                    .setFilter(new FilterPredicate(Entity.KEY_RESERVED_PROPERTY,
+                            FilterOperator.IN, partition))
+                    .addProjection(new PropertyProjection("seatsAvailable", Long.class));
+            for (Entity entity : datastoreService.prepare(query).asIterable()) {
+                loaded.put(Key.create(entity.getKey()).getString(),
+                        ((Long) entity.getProperty("seatsAvailable")).intValue());
+            }
+        }
+        return loaded;
+    }
+}
@@ -0,0 +1,69 @@
+package com.google.devrel.training.conference.service;
+
+/**
+ * A fast atomic counter of the seats that can still be held during a flash sale.
+ *
+ * The counter only gates the granting of holds. The seats are finally booked in a datastore
+ * transaction, so a counter that loses or misreports its value can never cause an oversell.
+ */
+public interface SeatHoldCounter {
+
+    /**
+     * The outcome of trying to acquire a seat.
+     */
+    public static enum Acquisition {
+        /**
+         * A seat was acquired.
+         */
+        GRANTED,
+        /**
+         * The counter is exhausted.
+         */
+        SOLD_OUT,
+        /**
+         * There is no counter for the conference, so it is not in a flash sale or the counter
+         * was evicted. The caller falls back to the regular registration.
+         */
+        UNAVAILABLE
+    }
+
+    /**
+     * Starts counting the given number of seats for the conference.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     * @param seats The number of seats that can be held.
+     */
+    void reset(String websafeConferenceKey, long seats);
+
+    /**
+     * Stops counting for the conference.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     */
+    void clear(String websafeConferenceKey);
+
+    /**
+     * Atomically acquires one seat.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     * @return the outcome of the acquisition.
+     */
+    Acquisition tryAcquire(String websafeConferenceKey);
+
+    /**
+     * Atomically gives one seat back. Does nothing when there is no counter for the conference.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     */
+    void release(String websafeConferenceKey);
+
+    /**
+     * Atomically adds seats, or removes them when negative, as when the capacity of the
+     * conference changes during the sale. Does nothing when there is no counter for the
+     * conference.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     * @param seats The number of seats to add.
+     */
+    void add(String websafeConferenceKey, long seats);
+}
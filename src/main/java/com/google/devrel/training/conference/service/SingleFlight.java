@@ -0,0 +1,215 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces identical concurrent loads on this instance into a single in-flight load.
+ *
+ * The first caller for a key runs the load, and the callers that arrive while it is in flight
+ * wait for its result instead of issuing their own datastore RPCs. The result is not cached: as
+ * soon as the load completes, the next caller starts a new one. Waiting is bounded, and a
+ * caller that waits longer than the limit runs its own load. An exception thrown by the load is
+ * rethrown to every caller that shared it.
+ *
+ * The shared result is handed to several requests. With a copier, the leader keeps the loaded
+ * value and every waiting caller gets its own copy, made from a copy taken before the leader
+ * returned, so the callers may modify their results. Without one, they must not.
+ *
+ * @param <K> The type of the keys identifying the loads.
+ * @param <V> The type of the loaded values.
+ */
+public class SingleFlight<K, V> {
+
+    private static final Logger LOG = Logger.getLogger(SingleFlight.class.getName());
+
+    /**
+     * A load that can be shared between callers.
+     *
+     * @param <V> The type of the loaded value.
+     * @param <X> The type of the checked exception thrown by the load.
+     */
+    public interface Loader<V, X extends Exception> {
+
+        V load() throws X;
+    }
+
+    /**
+     * A load in flight, completed by the caller that started it.
+     */
+    private static class Flight<V> {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private V value;
+
+        private Throwable failure;
+
+        private void complete(V value, Throwable failure) {
+            this.value = value;
+            this.failure = failure;
+            done.countDown();
+        }
+
+        private V await(long timeoutMillis)
+                throws ExecutionException, TimeoutException, InterruptedException {
+            if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException();
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * All the instances by name, for the metrics page.
+     */
+    private static final ConcurrentMap<String, SingleFlight<?, ?>> INSTANCES =
+            new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final String name;
+
+    private final long maxWaitMillis;
+
+    private final Function<? super V, ? extends V> copier;
+
+    private final AtomicLong loads = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * @param name The name of the loads, shown on the metrics page.
+     * @param maxWaitMillis How long a caller waits for a shared load before running its own.
+     */
+    public SingleFlight(String name, long maxWaitMillis) {
+        this(name, maxWaitMillis, Functions.<V>identity());
+    }
+
+    /**
+     * @param name The name of the loads, shown on the metrics page.
+     * @param maxWaitMillis How long a caller waits for a shared load before running its own.
+     * @param copier Copies a loaded value, for each caller sharing it.
+     */
+    public SingleFlight(String name, long maxWaitMillis,
+                        Function<? super V, ? extends V> copier) {
+        this.name = name;
+        this.maxWaitMillis = maxWaitMillis;
+        this.copier = copier;
+        INSTANCES.put(name, this);
+    }
+
+    /**
+     * Returns all the instances created so far.
+     *
+     * @return the instances by name.
+     */
+    public static SortedMap<String, SingleFlight<?, ?>> getAll() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(INSTANCES));
+    }
+
+    /**
+     * Returns the value for the key, sharing the load with the identical calls in flight.
+     *
+     * @param key The key identifying the load.
+     * @param loader The load to run when no identical load is in flight.
+     * @return the loaded value.
+     * @throws X when the load fails.
+     */
+    public <X extends Exception> V execute(K key, Loader<V, X> loader) throws X {
+        Flight<V> flight = new Flight<>();
+        Flight<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing == null) {
+            return lead(key, flight, loader);
+        }
+        coalesced.incrementAndGet();
+        try {
+            return copier.apply(existing.await(maxWaitMillis));
+        } catch (ExecutionException e) {
+            return SingleFlight.<V, X>rethrow(e.getCause());
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            LOG.warning("Gave up waiting for the shared load of " + key + " after "
+                    + maxWaitMillis + " ms.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        loads.incrementAndGet();
+        return loader.load();
+    }
+
+    private <X extends Exception> V lead(K key, Flight<V> flight, Loader<V, X> loader) throws X {
+        loads.incrementAndGet();
+        V value = null;
+        Throwable failure = null;
+        try {
+            value = loader.load();
+            return value;
+        } catch (Exception | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            // Remove before completing, so that late callers start a fresh load.
+            inFlight.remove(key, flight);
+            // The waiting callers copy a copy, which the leader cannot modify meanwhile.
+            flight.complete(value == null ? null : copier.apply(value), failure);
+        }
+    }
+
+    /**
+     * Rethrows the failure of a shared load in the caller.
+     */
+    @SuppressWarnings("unchecked")
+    private static <V, X extends Exception> V rethrow(Throwable failure) throws X {
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        // Only the Loader's own checked exception type can get here.
+        throw (X) failure;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of loads run.
+     */
+    public long getLoads() {
+        return loads.get();
+    }
+
+    /**
+     * @return the number of calls that waited for a load of another caller.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the number of calls that gave up waiting and ran their own load.
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+}
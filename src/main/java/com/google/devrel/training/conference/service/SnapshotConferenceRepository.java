@@ -0,0 +1,288 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.devrel.training.conference.domain.CatalogSnapshotManifest;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceChanges;
+import com.google.devrel.training.conference.domain.ConferenceListing.Facet;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A decorator serving Conference reads of read-only instances from the catalog snapshot.
+ *
+ * The changes since the snapshot are fetched from the ConferenceSyncService at most every
+ * refresh interval and take precedence over the snapshot, so reads lag the datastore by about
+ * that interval and make no datastore calls in between. Only EVENTUAL and CACHED reads are
+ * served this way: STRONG reads, reads inside a transaction, writes, and reads of a Conference
+ * the snapshot does not know yet go to the decorated repository.
+ */
+public class SnapshotConferenceRepository extends ForwardingConferenceRepository {
+
+    private static final Logger LOG =
+            Logger.getLogger(SnapshotConferenceRepository.class.getName());
+
+    /**
+     * The maximum number of change pages applied by one refresh.
+     */
+    private static final int MAX_CHANGE_PAGES = 10;
+
+    /**
+     * An immutable view of the snapshot with the changes applied.
+     */
+    private static class Replica {
+
+        private final long generation;
+
+        /**
+         * The snapshot, or null when none was built yet.
+         */
+        private final CatalogSnapshot snapshot;
+
+        /**
+         * The Conferences changed since the snapshot, by websafe key.
+         */
+        private final Map<String, Conference> changes;
+
+        private final String syncToken;
+
+        private final long refreshedMillis;
+
+        private Replica(long generation, CatalogSnapshot snapshot,
+                        Map<String, Conference> changes, String syncToken) {
+            this.generation = generation;
+            this.snapshot = snapshot;
+            this.changes = changes;
+            this.syncToken = syncToken;
+            this.refreshedMillis = System.currentTimeMillis();
+        }
+    }
+
+    private final CatalogSnapshotStore catalogSnapshotStore;
+
+    private final ConferenceSyncService conferenceSyncService;
+
+    private final long refreshMillis;
+
+    private volatile Replica replica;
+
+    /**
+     * @param delegate The repository for writes and for the reads the snapshot cannot serve.
+     * @param catalogSnapshotStore The store of the snapshots.
+     * @param conferenceSyncService The service finding the changes since the snapshot.
+     * @param refreshMillis How often the changes are fetched.
+     */
+    public SnapshotConferenceRepository(ConferenceRepository delegate,
+                                        CatalogSnapshotStore catalogSnapshotStore,
+                                        ConferenceSyncService conferenceSyncService,
+                                        long refreshMillis) {
+        super(delegate);
+        this.catalogSnapshotStore = catalogSnapshotStore;
+        this.conferenceSyncService = conferenceSyncService;
+        this.refreshMillis = refreshMillis;
+    }
+
+    /**
+     * Returns the current replica, refreshing it when it is due.
+     *
+     * @return the replica, or null when reads have to go to the decorated repository.
+     */
+    private Replica getReplica() {
+        if (ofy().getTransaction() != null) {
+            // Transactions need the entity group to be read, not a copy.
+            return null;
+        }
+        if (ReadPolicy.current().getTier() == ReadPolicy.Tier.STRONG) {
+            // Strong reads have to see every committed write, which the replica may lag.
+            return null;
+        }
+        Replica current = replica;
+        if (current != null
+                && System.currentTimeMillis() - current.refreshedMillis < refreshMillis) {
+            return current.snapshot == null ? null : current;
+        }
+        synchronized (this) {
+            current = replica;
+            if (current == null
+                    || System.currentTimeMillis() - current.refreshedMillis >= refreshMillis) {
+                try {
+                    current = refresh(current);
+                } catch (RuntimeException e) {
+                    // Keep serving the stale replica rather than failing the reads.
+                    LOG.log(Level.WARNING, "Failed to refresh the catalog replica.", e);
+                }
+                replica = current;
+            }
+        }
+        return current == null || current.snapshot == null ? null : current;
+    }
+
+    private Replica refresh(Replica current) {
+        CatalogSnapshotManifest manifest = catalogSnapshotStore.getManifest();
+        if (manifest == null) {
+            return new Replica(0, null, Collections.<String, Conference>emptyMap(), null);
+        }
+        if (current == null || current.snapshot == null
+                || current.generation != manifest.getGeneration()) {
+            CatalogSnapshot snapshot = catalogSnapshotStore.load(manifest);
+            if (snapshot == null) {
+                // Replaced by a newer snapshot meanwhile, which the next refresh loads.
+                return current;
+            }
+            current = new Replica(manifest.getGeneration(), snapshot,
+                    Collections.<String, Conference>emptyMap(), snapshot.getSyncToken());
+        }
+        Map<String, Conference> changes = new HashMap<>(current.changes);
+        String syncToken = current.syncToken;
+        for (int page = 0; page < MAX_CHANGE_PAGES; page++) {
+            ConferenceChanges conferenceChanges = conferenceSyncService.getChanges(syncToken);
+            for (Conference conference : conferenceChanges.getConferences()) {
+                changes.put(conference.getWebsafeKey(), conference);
+            }
+            syncToken = conferenceChanges.getSyncToken();
+            if (!conferenceChanges.isMore()) {
+                break;
+            }
+        }
+        return new Replica(current.generation, current.snapshot, changes, syncToken);
+    }
+
+    private static Conference get(Replica replica, String websafeConferenceKey) {
+        Conference conference = replica.changes.get(websafeConferenceKey);
+        return conference != null ? conference : replica.snapshot.get(websafeConferenceKey);
+    }
+
+    @Override
+    public Conference get(Key<Conference> key) {
+        Replica current = getReplica();
+        Conference conference = current == null ? null : get(current, key.getString());
+        return conference != null ? conference : delegate().get(key);
+    }
+
+    @Override
+    public Map<Key<Conference>, Conference> getAll(Iterable<Key<Conference>> keys) {
+        Replica current = getReplica();
+        if (current == null) {
+            return delegate().getAll(keys);
+        }
+        Map<Key<Conference>, Conference> result = new LinkedHashMap<>();
+        List<Key<Conference>> misses = new ArrayList<>();
+        for (Key<Conference> key : keys) {
+            Conference conference = get(current, key.getString());
+            if (conference == null) {
+                misses.add(key);
+            }
+            // Keeps the order of the keys; a miss is removed again when it does not exist.
+            result.put(key, conference);
+        }
+        if (!misses.isEmpty()) {
+            Map<Key<Conference>, Conference> loaded = delegate().getAll(misses);
+            for (Key<Conference> key : misses) {
+                if (loaded.containsKey(key)) {
+                    result.put(key, loaded.get(key));
+                } else {
+                    result.remove(key);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Conference> query(final ConferenceQueryForm conferenceQueryForm) {
+        final Replica current = getReplica();
+        if (current == null) {
+            return delegate().query(conferenceQueryForm);
+        }
+        // Decodes the candidates one at a time, so only the results are kept.
+        final int[] candidates = findCandidates(current.snapshot, conferenceQueryForm);
+        Iterator<Conference> matches = new AbstractIterator<Conference>() {
+            private int index;
+
+            private final Iterator<Conference> changes = current.changes.values().iterator();
+
+            @Override
+            protected Conference computeNext() {
+                CatalogSnapshot snapshot = current.snapshot;
+                int end = candidates == null ? snapshot.size() : candidates.length;
+                while (index < end) {
+                    int i = candidates == null ? index : candidates[index];
+                    index++;
+                    if (current.changes.containsKey(snapshot.getKey(i))) {
+                        continue;
+                    }
+                    Conference conference = snapshot.get(i);
+                    if (conferenceQueryForm.matches(conference)) {
+                        return conference;
+                    }
+                }
+                while (changes.hasNext()) {
+                    Conference conference = changes.next();
+                    if (conferenceQueryForm.matches(conference)) {
+                        return conference;
+                    }
+                }
+                return endOfData();
+            }
+        };
+        return ConferenceQueryPlanner.top(matches, conferenceQueryForm.getOrdering(),
+                ConferenceQueryPlanner.getLimit(conferenceQueryForm));
+    }
+
+    /**
+     * Narrows a query down to the Conferences of the snapshot having the values of its most
+     * selective equality or IN filter on a city, a topic or a month.
+     *
+     * @return the positions of the candidates, or null when every Conference is one.
+     */
+    private static int[] findCandidates(CatalogSnapshot snapshot,
+                                        ConferenceQueryForm conferenceQueryForm) {
+        int[] candidates = null;
+        for (Filter filter : conferenceQueryForm.getFilters()) {
+            Facet facet = getFacet(filter.getField());
+            if (facet == null) {
+                continue;
+            }
+            int[] positions;
+            if (filter.getOperator() == Operator.EQ) {
+                positions = snapshot.find(facet, Collections.singletonList(filter.getValue()));
+            } else if (filter.getOperator() == Operator.IN) {
+                positions = snapshot.find(facet, filter.getValues());
+            } else {
+                continue;
+            }
+            if (positions != null && (candidates == null || positions.length < candidates.length)) {
+                candidates = positions;
+            }
+        }
+        return candidates;
+    }
+
+    private static Facet getFacet(Field field) {
+        switch (field) {
+            case CITY:
+                return Facet.CITY;
+            case TOPIC:
+                return Facet.TOPIC;
+            case MONTH:
+                return Facet.MONTH;
+            default:
+                return null;
+        }
+    }
+}
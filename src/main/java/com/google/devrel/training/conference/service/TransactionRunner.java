@@ -0,0 +1,245 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.apphosting.api.ApiProxy;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs Objectify transactions with a bounded retry policy.
+ *
+ * Every attempt runs in a new transaction that is tried exactly once by Objectify. Failed
+ * attempts are classified, and contention and timeouts are retried with exponential backoff and
+ * full jitter until the policy runs out of attempts or the deadline of the endpoint passes. All
+ * attempts are recorded in {@link TransactionStats}.
+ */
+public class TransactionRunner {
+
+    private static final Logger LOG = Logger.getLogger(TransactionRunner.class.getName());
+
+    /**
+     * Classification of a failed transaction attempt.
+     */
+    public static enum Failure {
+        /**
+         * Another transaction committed to the same entity group first. Retryable.
+         */
+        CONTENTION,
+        /**
+         * The datastore did not answer in time. Retryable.
+         */
+        TIMEOUT,
+        /**
+         * Anything else, including exceptions thrown by the work itself. Not retryable.
+         */
+        FATAL
+    }
+
+    /**
+     * The retry policy of a transaction.
+     */
+    public static class RetryPolicy {
+
+        private static final String PROPERTY_PREFIX = "conference.tx.";
+
+        private final int maxAttempts;
+
+        private final long initialBackoffMillis;
+
+        private final long maxBackoffMillis;
+
+        private final long deadlineMillis;
+
+        public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis,
+                           long deadlineMillis) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1.");
+            }
+            this.maxAttempts = maxAttempts;
+            this.initialBackoffMillis = initialBackoffMillis;
+            this.maxBackoffMillis = maxBackoffMillis;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        /**
+         * Returns the policy for the given endpoint, configured by system properties in
+         * appengine-web.xml.
+         *
+         * A property named conference.tx.&lt;endpoint&gt;.&lt;setting&gt; overrides
+         * conference.tx.&lt;setting&gt;, where the settings are maxAttempts,
+         * initialBackoffMillis, maxBackoffMillis and deadlineMillis.
+         *
+         * @param endpoint The name of the endpoint.
+         * @return the policy for the endpoint.
+         */
+        public static RetryPolicy forEndpoint(String endpoint) {
+            return new RetryPolicy(
+                    (int) property(endpoint, "maxAttempts", 5),
+                    property(endpoint, "initialBackoffMillis", 20),
+                    property(endpoint, "maxBackoffMillis", 1000),
+                    property(endpoint, "deadlineMillis", 10000));
+        }
+
+        private static long property(String endpoint, String name, long defaultValue) {
+            String value = System.getProperty(PROPERTY_PREFIX + endpoint + "." + name);
+            if (value == null) {
+                value = System.getProperty(PROPERTY_PREFIX + name);
+            }
+            return value == null ? defaultValue : Long.parseLong(value);
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public long getInitialBackoffMillis() {
+            return initialBackoffMillis;
+        }
+
+        public long getMaxBackoffMillis() {
+            return maxBackoffMillis;
+        }
+
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+    }
+
+    /**
+     * The actions to run after the commit of the transaction running on this thread.
+     */
+    private static final ThreadLocal<List<Runnable>> AFTER_COMMIT = new ThreadLocal<>();
+
+    private final Random random = new Random();
+
+    private final TransactionStats stats;
+
+    public TransactionRunner() {
+        this(TransactionStats.get());
+    }
+
+    public TransactionRunner(TransactionStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Classifies the exception a transaction attempt failed with.
+     *
+     * @param e The exception thrown by the attempt.
+     * @return the classification of the failure.
+     */
+    public static Failure classify(RuntimeException e) {
+        if (e instanceof ConcurrentModificationException) {
+            return Failure.CONTENTION;
+        }
+        if (e instanceof DatastoreTimeoutException
+                || e instanceof ApiProxy.ApiDeadlineExceededException) {
+            return Failure.TIMEOUT;
+        }
+        return Failure.FATAL;
+    }
+
+    /**
+     * Returns the policy used for the given endpoint.
+     *
+     * Override this to plug in another policy.
+     *
+     * @param endpoint The name of the endpoint.
+     * @return the policy for the endpoint.
+     */
+    protected RetryPolicy getPolicy(String endpoint) {
+        return RetryPolicy.forEndpoint(endpoint);
+    }
+
+    /**
+     * Runs the action once the transaction of the work calling this has committed, or right away
+     * when not called from the work of a runner.
+     *
+     * Use this for updating caches with the committed state. The actions registered by an
+     * attempt that fails are dropped with it, and a failing action is only logged.
+     *
+     * @param action The action to run.
+     */
+    public static void afterCommit(Runnable action) {
+        List<Runnable> actions = AFTER_COMMIT.get();
+        if (actions == null) {
+            runQuietly(action);
+        } else {
+            actions.add(action);
+        }
+    }
+
+    private static void runQuietly(Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "An action after the commit failed.", e);
+        }
+    }
+
+    /**
+     * Runs the work in a transaction, retrying it according to the policy of the endpoint.
+     *
+     * @param endpoint The name of the endpoint, used for the policy and the stats.
+     * @param group The key of the entity the transaction is about, used for the stats.
+     * @param work The work to run in the transaction.
+     * @param <R> The type of the result of the work.
+     * @return the result of the work.
+     */
+    public <R> R run(String endpoint, Key<?> group, Work<R> work) {
+        RetryPolicy policy = getPolicy(endpoint);
+        String kind = group.getKind();
+        String groupName = group.getString();
+        long start = System.currentTimeMillis();
+        long deadline = start + policy.getDeadlineMillis();
+        long backoff = policy.getInitialBackoffMillis();
+        for (int attempt = 1; ; attempt++) {
+            List<Runnable> outerActions = AFTER_COMMIT.get();
+            List<Runnable> actions = new ArrayList<>();
+            AFTER_COMMIT.set(actions);
+            try {
+                // Objectify 5.0 retries limitTries times after the first try, so 0 runs once.
+                R result = ofy().transactNew(0, work);
+                stats.recordAttempt(endpoint, kind, groupName, null, attempt > 1);
+                stats.recordCompletion(endpoint, kind, System.currentTimeMillis() - start, false);
+                AFTER_COMMIT.set(outerActions);
+                for (Runnable action : actions) {
+                    runQuietly(action);
+                }
+                return result;
+            } catch (RuntimeException e) {
+                AFTER_COMMIT.set(outerActions);
+                Failure failure = classify(e);
+                stats.recordAttempt(endpoint, kind, groupName, failure, attempt > 1);
+                // Full jitter keeps the retries of colliding requests apart.
+                long sleep = (long) (random.nextDouble() * backoff);
+                if (failure == Failure.FATAL || attempt >= policy.getMaxAttempts()
+                        || System.currentTimeMillis() + sleep >= deadline) {
+                    stats.recordCompletion(endpoint, kind, System.currentTimeMillis() - start,
+                            true);
+                    if (failure != Failure.FATAL) {
+                        LOG.warning(String.format("Transaction of %s on %s gave up after %d "
+                                + "attempts: %s", endpoint, groupName, attempt, failure));
+                    }
+                    throw e;
+                }
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                backoff = Math.min(backoff * 2, policy.getMaxBackoffMillis());
+            }
+        }
+    }
+}
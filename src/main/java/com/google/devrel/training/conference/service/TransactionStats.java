@@ -0,0 +1,196 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects per-instance telemetry of the transactions run by {@link TransactionRunner}.
+ *
+ * Counters are kept per endpoint and per entity kind of the transaction's root entity group, and
+ * contended attempts are additionally counted per entity group, so that a hot Conference shows up
+ * by its key.
+ */
+public class TransactionStats {
+
+    private static final TransactionStats INSTANCE = new TransactionStats();
+
+    /**
+     * The maximum number of entity groups tracked for contention, to bound the memory use.
+     */
+    private static final int MAX_TRACKED_GROUPS = 1000;
+
+    /**
+     * Counters for a single endpoint or entity kind.
+     */
+    public static class Counters {
+
+        private final AtomicLong transactions = new AtomicLong();
+
+        private final AtomicLong attempts = new AtomicLong();
+
+        private final AtomicLong retries = new AtomicLong();
+
+        private final AtomicLong contentions = new AtomicLong();
+
+        private final AtomicLong timeouts = new AtomicLong();
+
+        private final AtomicLong failures = new AtomicLong();
+
+        private final AtomicLong elapsedMillis = new AtomicLong();
+
+        public long getTransactions() {
+            return transactions.get();
+        }
+
+        public long getAttempts() {
+            return attempts.get();
+        }
+
+        public long getRetries() {
+            return retries.get();
+        }
+
+        public long getContentions() {
+            return contentions.get();
+        }
+
+        public long getTimeouts() {
+            return timeouts.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("transactions=%d attempts=%d retries=%d contentions=%d "
+                    + "timeouts=%d failures=%d elapsedMillis=%d", getTransactions(),
+                    getAttempts(), getRetries(), getContentions(), getTimeouts(), getFailures(),
+                    getElapsedMillis());
+        }
+    }
+
+    private final ConcurrentMap<String, Counters> byEndpoint = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Counters> byKind = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, AtomicLong> contentionsByGroup =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Returns the stats of this instance.
+     * @return the stats of this instance.
+     */
+    public static TransactionStats get() {
+        return INSTANCE;
+    }
+
+    private static Counters counters(ConcurrentMap<String, Counters> map, String name) {
+        Counters counters = map.get(name);
+        if (counters == null) {
+            Counters created = new Counters();
+            counters = map.putIfAbsent(name, created);
+            if (counters == null) {
+                counters = created;
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * Records a single attempt of a transaction.
+     *
+     * @param endpoint The name of the endpoint running the transaction.
+     * @param kind The entity kind of the root entity group of the transaction.
+     * @param group The String representation of the root entity group key.
+     * @param failure The classification of the failure, null when the attempt committed.
+     * @param retry Whether this attempt is a retry of an earlier one.
+     */
+    void recordAttempt(String endpoint, String kind, String group,
+                       TransactionRunner.Failure failure, boolean retry) {
+        for (Counters counters : new Counters[] {
+                counters(byEndpoint, endpoint), counters(byKind, kind)}) {
+            counters.attempts.incrementAndGet();
+            if (retry) {
+                counters.retries.incrementAndGet();
+            }
+            if (failure == TransactionRunner.Failure.CONTENTION) {
+                counters.contentions.incrementAndGet();
+            } else if (failure == TransactionRunner.Failure.TIMEOUT) {
+                counters.timeouts.incrementAndGet();
+            }
+        }
+        if (failure == TransactionRunner.Failure.CONTENTION && group != null) {
+            AtomicLong contentions = contentionsByGroup.get(group);
+            if (contentions == null) {
+                if (contentionsByGroup.size() >= MAX_TRACKED_GROUPS) {
+                    // Start over rather than growing without bounds.
+                    contentionsByGroup.clear();
+                }
+                AtomicLong created = new AtomicLong();
+                contentions = contentionsByGroup.putIfAbsent(group, created);
+                if (contentions == null) {
+                    contentions = created;
+                }
+            }
+            contentions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records the completion of a transaction, after all of its attempts.
+     *
+     * @param endpoint The name of the endpoint running the transaction.
+     * @param kind The entity kind of the root entity group of the transaction.
+     * @param elapsedMillis The time spent in all attempts and backoffs.
+     * @param failed Whether the transaction finally failed.
+     */
+    void recordCompletion(String endpoint, String kind, long elapsedMillis, boolean failed) {
+        for (Counters counters : new Counters[] {
+                counters(byEndpoint, endpoint), counters(byKind, kind)}) {
+            counters.transactions.incrementAndGet();
+            counters.elapsedMillis.addAndGet(elapsedMillis);
+            if (failed) {
+                counters.failures.incrementAndGet();
+            }
+        }
+    }
+
+    public SortedMap<String, Counters> getByEndpoint() {
+        return new TreeMap<>(byEndpoint);
+    }
+
+    public SortedMap<String, Counters> getByKind() {
+        return new TreeMap<>(byKind);
+    }
+
+    /**
+     * Returns the number of contended attempts per entity group.
+     * @return a snapshot of the contention counters keyed by the entity group key.
+     */
+    public SortedMap<String, Long> getContentionsByGroup() {
+        SortedMap<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : contentionsByGroup.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Resets all counters.
+     */
+    public void reset() {
+        byEndpoint.clear();
+        byKind.clear();
+        contentionsByGroup.clear();
+    }
+}
@@ -0,0 +1,17 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.AppEngineUser;
+
+/**
+ * Stores AppEngineUsers, which are only used to obtain the userId the datastore assigns.
+ */
+public interface UserRepository extends Repository<AppEngineUser> {
+
+    /**
+     * Stores the user and reads it back from the store itself, bypassing any cache.
+     *
+     * @param user The user to store.
+     * @return the user as stored, with the userId filled in when the store assigns one.
+     */
+    AppEngineUser saveAndReload(AppEngineUser user);
+}
@@ -0,0 +1,221 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Promotes waitlisted users of a conference into free seats.
+ *
+ * Promotion runs asynchronously on the task queue, one batch per task. A batch is a single
+ * cross-group transaction over the Conference and the Profiles of the promoted users, so the
+ * batch size is bounded by the datastore limit of 25 entity groups per transaction.
+ *
+ * The Conference counts its waiting users, in the transactions that change its waitlist. The
+ * waitlist query may lag behind them, so a promotion that finds fewer users than the count
+ * while seats are free looks again a little later instead of leaving the seats free until the
+ * next change.
+ *
+ * During a flash sale the free seats belong to the counter of the sale, except those kept for
+ * the waitlist, which are the only ones a promotion takes.
+ */
+public class WaitlistService {
+
+    private static final Logger LOG = Logger.getLogger(WaitlistService.class.getName());
+
+    /**
+     * The number of waitlisted users promoted in one transaction.
+     */
+    static final int BATCH_SIZE = 20;
+
+    /**
+     * How long a promotion waits before looking again for users the waitlist query missed.
+     */
+    static final long RETRY_DELAY_MILLIS = 5 * 1000;
+
+    private static final String PROMOTE_WAITLIST_URL = "/tasks/promote_waitlist";
+
+    private final TransactionRunner transactionRunner = new TransactionRunner();
+
+    private final FlashSaleService flashSaleService = new FlashSaleService();
+
+    /**
+     * Enqueues a promotion task for the given conference.
+     *
+     * When called inside a transaction, the task is enqueued transactionally, so it only runs
+     * when the seats freed by the transaction are actually committed.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     */
+    public static void schedulePromotion(final String websafeConferenceKey) {
+        schedulePromotion(websafeConferenceKey, 0);
+    }
+
+    private static void schedulePromotion(String websafeConferenceKey, long countdownMillis) {
+        Queue queue = QueueFactory.getDefaultQueue();
+        queue.add(ofy().getTransaction(),
+                TaskOptions.Builder.withUrl(PROMOTE_WAITLIST_URL)
+                        .param("websafeConferenceKey", websafeConferenceKey)
+                        .countdownMillis(countdownMillis));
+    }
+
+    /**
+     * Puts the user at the end of the waitlist of the conference.
+     *
+     * Call this from a transaction on the Conference, and save the Conference after it, since
+     * the Conference counts its waiting users.
+     *
+     * @param conference The Conference, loaded in the transaction.
+     * @param userId The userId of the waiting user.
+     * @return false when the user was on the waitlist already.
+     */
+    public static boolean enqueue(Conference conference, String userId) {
+        Key<WaitlistEntry> entryKey = WaitlistEntry.key(userId, conference.getWebsafeKey());
+        if (ofy().load().key(entryKey).now() != null) {
+            return false;
+        }
+        ofy().save().entity(new WaitlistEntry(userId, conference.getWebsafeKey())).now();
+        conference.addToWaitlist(1);
+        return true;
+    }
+
+    /**
+     * Keeps seats freed during a flash sale for the waiting users, as many as they need, and
+     * schedules their promotion.
+     *
+     * Call this from a transaction on the Conference, and save the Conference after it.
+     *
+     * @param conference The Conference in a flash sale, loaded in the transaction.
+     * @param seats The number of freed seats.
+     * @return the number of seats the waiting users do not need, which go back to the counter
+     *         of the sale.
+     */
+    public static int keepForWaitlist(Conference conference, int seats) {
+        int kept = Math.min(seats,
+                Math.max(0, conference.getWaitlisted() - conference.getWaitlistSeats()));
+        if (kept > 0) {
+            conference.addWaitlistSeats(kept);
+            schedulePromotion(conference.getWebsafeKey());
+        }
+        return seats - kept;
+    }
+
+    /**
+     * Returns the number of seats the waiting users may take: those kept for them during a flash
+     * sale, all the free ones otherwise.
+     */
+    private static int getFreeSeats(Conference conference) {
+        return conference.isFlashSale()
+                ? Math.min(conference.getSeatsAvailable(), conference.getWaitlistSeats())
+                : conference.getSeatsAvailable();
+    }
+
+    /**
+     * Promotes the next batch of waitlisted users into the free seats of the conference, and
+     * schedules another promotion when there are still free seats and waiting users.
+     *
+     * @param websafeConferenceKey The String representation of the Conference key.
+     * @return the number of users promoted.
+     */
+    public int promote(final String websafeConferenceKey) {
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        // The query is eventually consistent, so the entries are re-read in the transaction.
+        final List<Key<WaitlistEntry>> entryKeys = ofy().load().type(WaitlistEntry.class)
+                .filter("conferenceKey", conferenceKey)
+                .order("enqueuedAt")
+                .limit(BATCH_SIZE)
+                .keys().list();
+        if (entryKeys.isEmpty()) {
+            Conference conference = Repositories.conferences().get(conferenceKey);
+            if (conference != null && getFreeSeats(conference) > 0
+                    && conference.getWaitlisted() > 0) {
+                // The users are waiting, but the query does not see them yet.
+                schedulePromotion(websafeConferenceKey, RETRY_DELAY_MILLIS);
+            }
+            return 0;
+        }
+        // The seats kept for the waitlist during a flash sale that nobody waits for anymore.
+        final int[] surplus = new int[1];
+        int promoted = transactionRunner.run("promoteWaitlist", conferenceKey,
+                new Work<Integer>() {
+            @Override
+            public Integer run() {
+                surplus[0] = 0;
+                Conference conference = Repositories.conferences().get(conferenceKey);
+                if (conference == null) {
+                    // The conference is gone, nobody can be promoted.
+                    ofy().delete().keys(entryKeys).now();
+                    return 0;
+                }
+                Map<Key<WaitlistEntry>, WaitlistEntry> entries = ofy().load().keys(entryKeys);
+                List<Key<Profile>> profileKeys = new ArrayList<>(entries.size());
+                for (WaitlistEntry entry : entries.values()) {
+                    profileKeys.add(entry.getProfileKey());
+                }
+                Map<Key<Profile>, Profile> profiles = Repositories.profiles().getAll(profileKeys);
+                List<Profile> promotedProfiles = new ArrayList<>(entries.size());
+                List<Key<WaitlistEntry>> processed = new ArrayList<>(entries.size());
+                // Promote in the order of the query, which is the waitlist order.
+                for (Key<WaitlistEntry> entryKey : entryKeys) {
+                    WaitlistEntry entry = entries.get(entryKey);
+                    if (entry == null) {
+                        continue;
+                    }
+                    Profile profile = profiles.get(entry.getProfileKey());
+                    if (profile != null
+                            && profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+                        // Already attending, just drop the stale entry.
+                        processed.add(entryKey);
+                        continue;
+                    }
+                    if (getFreeSeats(conference) <= 0) {
+                        break;
+                    }
+                    if (profile != null) {
+                        profile.addToConferenceKeysToAttend(websafeConferenceKey);
+                        conference.bookSeats(1);
+                        conference.removeWaitlistSeats(1);
+                        promotedProfiles.add(profile);
+                    }
+                    processed.add(entryKey);
+                }
+                if (!promotedProfiles.isEmpty()) {
+                    Repositories.profiles().saveAll(promotedProfiles);
+                }
+                if (!processed.isEmpty()) {
+                    conference.removeFromWaitlist(processed.size());
+                    if (conference.isFlashSale()) {
+                        surplus[0] = Math.max(0,
+                                conference.getWaitlistSeats() - conference.getWaitlisted());
+                        conference.removeWaitlistSeats(surplus[0]);
+                    }
+                    Repositories.conferences().saveSeats(conference);
+                }
+                ofy().delete().keys(processed).now();
+                if (getFreeSeats(conference) > 0 && conference.getWaitlisted() > 0) {
+                    // More users are waiting: in the next batch, or not seen by the query yet.
+                    schedulePromotion(websafeConferenceKey,
+                            entryKeys.size() == BATCH_SIZE ? 0 : RETRY_DELAY_MILLIS);
+                }
+                return promotedProfiles.size();
+            }
+        });
+        if (surplus[0] > 0) {
+            flashSaleService.add(websafeConferenceKey, surplus[0]);
+        }
+        LOG.info("Promoted " + promoted + " waitlisted users for " + websafeConferenceKey);
+        return promoted;
+    }
+}
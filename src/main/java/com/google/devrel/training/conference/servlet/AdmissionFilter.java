@@ -0,0 +1,75 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.devrel.training.conference.service.AdmissionController;
+import com.google.devrel.training.conference.service.AdmissionController.Decision;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A filter rejecting the API requests the AdmissionController does not take, before any work
+ * is done for them.
+ *
+ * Users are told apart by their credentials, the Authorization header, which is only hashed
+ * here; verifying it is left to the API method, since verifying every request before admitting
+ * it would spend on the rejected ones the work the filter is there to save. A client can thus
+ * get a fresh user bucket by sending a different header with each request, whether or not it is
+ * valid. The bucket of its IP address applies to every request all the same, so such a client is
+ * only held to the limits of the address rather than to those of a user.
+ *
+ * Throttled requests get a 429, since the client went over its limits, and shed ones a 503,
+ * since the instance is overloaded; both get a Retry-After header telling when to retry.
+ */
+public class AdmissionFilter implements Filter {
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    /**
+     * Too Many Requests, which the servlet API has no constant for.
+     */
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    @Override
+    public void init(FilterConfig filterConfig) {}
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String authorization = httpRequest.getHeader("Authorization");
+        String user = authorization == null ? null
+                : Hashing.md5().hashString(authorization, Charsets.UTF_8).toString();
+        AdmissionController admissionController = AdmissionController.get();
+        Decision decision = admissionController.admit(ReadPolicyFilter.getEndpoint(httpRequest),
+                user, request.getRemoteAddr());
+        if (decision != Decision.ADMITTED) {
+            HttpServletResponse httpResponse = (HttpServletResponse) response;
+            httpResponse.setStatus(decision == Decision.SHED
+                    ? HttpServletResponse.SC_SERVICE_UNAVAILABLE : SC_TOO_MANY_REQUESTS);
+            httpResponse.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+            httpResponse.setContentType("application/json");
+            httpResponse.getWriter().print(decision == Decision.SHED
+                    ? "{\"error_message\": \"The server is busy, please retry.\"}"
+                    : "{\"error_message\": \"Too many requests, please retry later.\"}");
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            admissionController.release();
+        }
+    }
+
+    @Override
+    public void destroy() {}
+}
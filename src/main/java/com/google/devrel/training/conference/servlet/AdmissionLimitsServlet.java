@@ -0,0 +1,59 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.AdmissionLimits;
+import com.google.devrel.training.conference.service.AdmissionController;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for showing and changing the admission limits of the API to admins.
+ *
+ * A POST sets the limits given as parameters, named as the fields of AdmissionLimits, and keeps
+ * the others.
+ */
+public class AdmissionLimitsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().println(AdmissionController.get().getLimits());
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        AdmissionLimits current = AdmissionController.get().getLimits();
+        AdmissionLimits admissionLimits;
+        try {
+            admissionLimits = new AdmissionLimits(
+                    getDouble(request, "readsPerSecond", current.getReadsPerSecond()),
+                    getInt(request, "readBurst", current.getReadBurst()),
+                    getDouble(request, "writesPerSecond", current.getWritesPerSecond()),
+                    getInt(request, "writeBurst", current.getWriteBurst()),
+                    getInt(request, "ipMultiplier", current.getIpMultiplier()),
+                    getInt(request, "maxInFlight", current.getMaxInFlight()));
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        AdmissionController.get().setLimits(admissionLimits);
+        doGet(request, response);
+    }
+
+    private static double getDouble(HttpServletRequest request, String name, double value) {
+        String parameter = request.getParameter(name);
+        return parameter == null ? value : Double.parseDouble(parameter);
+    }
+
+    private static int getInt(HttpServletRequest request, String name, int value) {
+        String parameter = request.getParameter(name);
+        return parameter == null ? value : Integer.parseInt(parameter);
+    }
+}
@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.FlashSaleService;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for confirming the seat holds of a conference in a flash sale.
+ */
+public class ConfirmSeatHoldsServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String websafeConferenceKey = request.getParameter("websafeConferenceKey");
+        new FlashSaleService().confirm(websafeConferenceKey);
+        response.setStatus(204);
+    }
+}
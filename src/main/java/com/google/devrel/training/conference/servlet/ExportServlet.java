@@ -0,0 +1,61 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.ConferenceExporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for exporting Conferences and Profiles to admins as newline-delimited JSON.
+ *
+ * With gzip=true the export is gzip-compressed. App Engine sends a response only once it is
+ * complete, up to 32 MB, so a request exports a bounded part: it stops starting new pages once
+ * the export passed EXPORT_CHARS characters or EXPORT_MILLIS. The last line of a partial export
+ * is its checkpoint line, whose token is passed as the resume parameter of the next request.
+ */
+public class ExportServlet extends HttpServlet {
+
+    /**
+     * How long a request exports, leaving time to finish the page within the request deadline.
+     */
+    private static final long EXPORT_MILLIS = 45 * 1000;
+
+    /**
+     * How many characters a request exports, at most three bytes each in UTF-8, leaving room
+     * for the page that passes it within the response size limit.
+     */
+    private static final long EXPORT_CHARS = 8 * 1024 * 1024;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        boolean gzip = Boolean.parseBoolean(request.getParameter("gzip"));
+        String resumeToken = request.getParameter("resume");
+        response.setCharacterEncoding("UTF-8");
+        OutputStream outputStream = response.getOutputStream();
+        if (gzip) {
+            response.setContentType("application/gzip");
+            response.setHeader("Content-Disposition", "attachment; filename=export.ndjson.gz");
+            outputStream = new GZIPOutputStream(outputStream);
+        } else {
+            response.setContentType("application/x-ndjson");
+        }
+        Writer writer = new OutputStreamWriter(outputStream, "UTF-8");
+        try {
+            new ConferenceExporter().export(writer, resumeToken, EXPORT_CHARS,
+                    System.currentTimeMillis() + EXPORT_MILLIS);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,96 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.appengine.api.oauth.OAuthRequestException;
+import com.google.appengine.api.oauth.OAuthService;
+import com.google.appengine.api.oauth.OAuthServiceFactory;
+import com.google.appengine.api.users.User;
+import com.google.common.collect.ImmutableSet;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.service.ConferenceImporter;
+import com.google.devrel.training.conference.service.Repositories;
+import com.google.gson.Gson;
+import com.googlecode.objectify.Key;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for importing the conferences of the signed in organizer from a CSV or JSON-lines
+ * upload in the request body.
+ *
+ * The format is taken from the format parameter (csv or jsonl), or else from the content type.
+ * Clients authorize with the same OAuth 2.0 bearer tokens as for the API, and the summary of the
+ * import is returned as JSON.
+ */
+public class ImportConferencesServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(ImportConferencesServlet.class.getName());
+
+    private static final Set<String> CLIENT_IDS = ImmutableSet.of(Constants.WEB_CLIENT_ID,
+            Constants.ANDROID_CLIENT_ID, Constants.IOS_CLIENT_ID,
+            Constants.API_EXPLORER_CLIENT_ID);
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        User user;
+        try {
+            OAuthService oAuthService = OAuthServiceFactory.getOAuthService();
+            user = oAuthService.getCurrentUser(Constants.EMAIL_SCOPE);
+            if (!CLIENT_IDS.contains(oAuthService.getClientId(Constants.EMAIL_SCOPE))) {
+                user = null;
+            }
+        } catch (OAuthRequestException e) {
+            user = null;
+        }
+        if (user == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Authorization required");
+            return;
+        }
+        Profile profile = Repositories.profiles().get(Key.create(Profile.class, user.getUserId()));
+        if (profile == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Profile doesn't exist.");
+            return;
+        }
+        ConferenceImporter.Format format = getFormat(request);
+        if (format == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "The format must be csv or jsonl.");
+            return;
+        }
+        ConferenceImporter.Summary summary;
+        try {
+            summary = new ConferenceImporter().importConferences(
+                    profile, request.getReader(), format);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to import conferences for " + user.getUserId(), e);
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        new Gson().toJson(summary, response.getWriter());
+    }
+
+    private static ConferenceImporter.Format getFormat(HttpServletRequest request) {
+        String format = request.getParameter("format");
+        if (format == null) {
+            String contentType = request.getContentType();
+            format = contentType != null && contentType.startsWith("text/csv") ? "csv" : "jsonl";
+        }
+        if (format.equals("csv")) {
+            return ConferenceImporter.Format.CSV;
+        } else if (format.equals("jsonl")) {
+            return ConferenceImporter.Format.JSON_LINES;
+        }
+        return null;
+    }
+}
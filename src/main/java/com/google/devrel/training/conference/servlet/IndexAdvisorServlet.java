@@ -0,0 +1,46 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.IndexAdvisor;
+import com.google.devrel.training.conference.service.IndexDefinition;
+import com.google.devrel.training.conference.service.Repositories;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for showing admins which of the declared datastore indexes the queries of this
+ * instance use, and the minimal set they need.
+ */
+public class IndexAdvisorServlet extends HttpServlet {
+
+    private static final String INDEXES = "/WEB-INF/datastore-indexes.xml";
+
+    /**
+     * The number of Conferences the index rows of a write are estimated on.
+     */
+    private static final int SAMPLE_SIZE = 100;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        List<IndexDefinition> declared = Collections.emptyList();
+        try (InputStream inputStream = getServletContext().getResourceAsStream(INDEXES)) {
+            if (inputStream != null) {
+                declared = IndexDefinition.parse(inputStream);
+            }
+        }
+        List<Conference> sample =
+                Repositories.conferences().listAll(null, SAMPLE_SIZE).getConferences();
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().print(IndexAdvisor.get().getReport(declared, sample));
+    }
+}
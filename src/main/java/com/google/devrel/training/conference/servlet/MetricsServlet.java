@@ -0,0 +1,76 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.AdmissionController;
+import com.google.devrel.training.conference.service.HotKeys;
+import com.google.devrel.training.conference.service.SingleFlight;
+import com.google.devrel.training.conference.service.TransactionStats;
+import com.google.devrel.training.conference.spi.ConferenceApiWarmup;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for showing the runtime metrics of this instance to admins.
+ */
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter writer = response.getWriter();
+
+        writer.println("# Warmup");
+        writer.println("ready=" + ConferenceApiWarmup.isReady()
+                + " millis=" + ConferenceApiWarmup.getWarmupMillis());
+        writer.println();
+        AdmissionController admissionController = AdmissionController.get();
+        writer.println("# Admission");
+        writer.println("inFlight=" + admissionController.getInFlight()
+                + " admitted=" + admissionController.getAdmitted()
+                + " throttled=" + admissionController.getThrottled()
+                + " shed=" + admissionController.getShed());
+        writer.println();
+        TransactionStats transactionStats = TransactionStats.get();
+        writer.println("# Transactions by endpoint");
+        for (Map.Entry<String, TransactionStats.Counters> entry
+                : transactionStats.getByEndpoint().entrySet()) {
+            writer.println(entry.getKey() + " " + entry.getValue());
+        }
+        writer.println();
+        writer.println("# Transactions by entity kind");
+        for (Map.Entry<String, TransactionStats.Counters> entry
+                : transactionStats.getByKind().entrySet()) {
+            writer.println(entry.getKey() + " " + entry.getValue());
+        }
+        writer.println();
+        writer.println("# Contended attempts by entity group");
+        for (Map.Entry<String, Long> entry
+                : transactionStats.getContentionsByGroup().entrySet()) {
+            writer.println(entry.getKey() + " " + entry.getValue());
+        }
+        writer.println();
+        writer.println("# Hot keys");
+        for (HotKeys hotKeys : HotKeys.getAll().values()) {
+            writer.println(hotKeys.getName() + " sampled=" + hotKeys.getTotal());
+            for (Map.Entry<String, Long> entry : hotKeys.getHotCounts().entrySet()) {
+                writer.println("  " + entry.getKey() + " " + entry.getValue());
+            }
+        }
+        writer.println();
+        writer.println("# Single-flight reads");
+        for (SingleFlight<?, ?> singleFlight : SingleFlight.getAll().values()) {
+            writer.println(singleFlight.getName()
+                    + " loads=" + singleFlight.getLoads()
+                    + " coalesced=" + singleFlight.getCoalesced()
+                    + " timeouts=" + singleFlight.getTimeouts());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.ReadPolicy;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A filter entering the ReadPolicy of the called API method for the request, and reporting it
+ * in the X-Read-Consistency response header.
+ *
+ * The backend paths of the API end with the method name, as in
+ * /_ah/spi/com.google.devrel.training.conference.spi.ConferenceApi.getConference.
+ */
+public class ReadPolicyFilter implements Filter {
+
+    static final String HEADER = "X-Read-Consistency";
+
+    @Override
+    public void init(FilterConfig filterConfig) {}
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        ReadPolicy policy = ReadPolicy.forEndpoint(getEndpoint((HttpServletRequest) request));
+        ((HttpServletResponse) response).setHeader(HEADER, policy.toString());
+        ReadPolicy previous = ReadPolicy.enter(policy);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            ReadPolicy.exit(previous);
+        }
+    }
+
+    static String getEndpoint(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        return uri.substring(uri.lastIndexOf('.') + 1);
+    }
+
+    @Override
+    public void destroy() {}
+}
@@ -0,0 +1,38 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.spi.ConferenceApiWarmup;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet reporting whether this instance is warm, for load balancers and deployment checks.
+ *
+ * App Engine does not send warmup requests in every case, such as to the first instance of a
+ * version, so a check of a cold instance runs the warmup itself and reports ready once it
+ * completes, or unavailable when it fails.
+ */
+public class ReadinessServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(ReadinessServlet.class.getName());
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        try {
+            ConferenceApiWarmup.warmUp();
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "The warmup failed.", e);
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        response.setContentType("text/plain");
+        response.getWriter().println("ready");
+    }
+}
@@ -0,0 +1,30 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.ConferenceListing.Facet;
+import com.google.devrel.training.conference.service.ConferenceListingService;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for rebuilding a browse listing after a change of its Conferences.
+ *
+ * A rebuild that finds the index lagging behind the changes fails, so the task is retried.
+ */
+public class RebuildListingServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Facet facet = Facet.valueOf(request.getParameter("facet"));
+        String value = request.getParameter("value");
+        String websafeConferenceKey = request.getParameter("websafeConferenceKey");
+        new ConferenceListingService().rebuild(facet, value, websafeConferenceKey,
+                request.getHeader("X-AppEngine-TaskName"));
+        response.setStatus(204);
+    }
+}
@@ -19,7 +19,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
- * A servlet for sending a notification e-mail.
+ * A servlet for sending a notification e-mail, either for a created conference, for the summary
+ * of a conference import, or for a flash sale seat that could not be confirmed.
  */
 public class SendConfirmationEmailServlet extends HttpServlet {
 
@@ -31,9 +32,24 @@ public class SendConfirmationEmailServlet extends HttpServlet {
             throws ServletException, IOException {
         String email = request.getParameter("email");
         String conferenceInfo = request.getParameter("conferenceInfo");
+        String importSummary = request.getParameter("importSummary");
+        String waitlistedConferenceInfo = request.getParameter("waitlistedConferenceInfo");
         Properties props = new Properties();
         Session session = Session.getDefaultInstance(props, null);
-        String body = "Hi, you have created a following conference.\n" + conferenceInfo;
+        String subject;
+        String body;
+        if (waitlistedConferenceInfo != null) {
+            subject = "Your registration could not be confirmed";
+            body = "Hi, the seat you got in the flash sale of the following conference was gone "
+                    + "when your registration was confirmed, so you have been added to its "
+                    + "waitlist instead.\n" + waitlistedConferenceInfo;
+        } else if (importSummary != null) {
+            subject = "Your conference import has finished";
+            body = "Hi, your conference import has finished.\n" + importSummary;
+        } else {
+            subject = "You created a new Conference!";
+            body = "Hi, you have created a following conference.\n" + conferenceInfo;
+        }
         try {
             Message message = new MimeMessage(session);
             InternetAddress from = new InternetAddress(
@@ -41,7 +57,7 @@ public class SendConfirmationEmailServlet extends HttpServlet {
                             SystemProperty.applicationId.get()), "Conference Central");
             message.setFrom(from);
             message.addRecipient(Message.RecipientType.TO, new InternetAddress(email, ""));
-            message.setSubject("You created a new Conference!");
+            message.setSubject(subject);
             message.setText(body);
             Transport.send(message);
         } catch (MessagingException e) {
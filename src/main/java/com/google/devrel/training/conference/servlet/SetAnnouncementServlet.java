@@ -1,12 +1,11 @@
 package com.google.devrel.training.conference.servlet;
 
-import static com.google.devrel.training.conference.service.OfyService.ofy;
-
 import com.google.appengine.api.memcache.MemcacheService;
 import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.common.base.Joiner;
 import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.Repositories;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -27,9 +26,7 @@ public class SetAnnouncementServlet extends HttpServlet {
             throws ServletException, IOException {
     	
       	// Query for conferences with less than 5 seats lef
-    	Iterable<Conference> iterable = ofy().load().type(Conference.class)
-    	                .filter("seatsAvailable <", 5)
-    	                .filter("seatsAvailable >", 0);
+    	Iterable<Conference> iterable = Repositories.conferences().listBySeatsAvailable(0, 5);
         List<String> conferenceNames = new ArrayList<>(0);
         for (Conference conference : iterable) {
             conferenceNames.add(conference.getName());
@@ -6,6 +6,8 @@ import static com.google.devrel.training.conference.service.OfyService.ofy;
 import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiMethod;
 import com.google.api.server.spi.config.ApiMethod.HttpMethod;
+import com.google.api.server.spi.config.Nullable;
+import com.google.api.server.spi.response.BadRequestException;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
@@ -16,22 +18,52 @@ import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.users.User;
+import com.google.common.base.Function;
+import com.google.common.collect.SetMultimap;
 import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.domain.Announcement;
 import com.google.devrel.training.conference.domain.AppEngineUser;
+import com.google.devrel.training.conference.domain.Bootstrap;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceChanges;
+import com.google.devrel.training.conference.domain.ConferenceCount;
+import com.google.devrel.training.conference.domain.ConferenceListing;
+import com.google.devrel.training.conference.domain.ConferenceListing.Facet;
+import com.google.devrel.training.conference.domain.ConferenceLookup;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatAvailability;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceKeysForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.ConferenceCountService;
+import com.google.devrel.training.conference.service.ConferenceListingService;
+import com.google.devrel.training.conference.service.ConferenceSyncService;
+import com.google.devrel.training.conference.service.FlashSaleService;
+import com.google.devrel.training.conference.service.HotKeys;
+import com.google.devrel.training.conference.service.IdempotencyService;
+import com.google.devrel.training.conference.service.IdempotencyService.Outcome;
+import com.google.devrel.training.conference.service.Repositories;
+import com.google.devrel.training.conference.service.SeatAvailabilityCache;
+import com.google.devrel.training.conference.service.SeatHoldCounter.Acquisition;
+import com.google.devrel.training.conference.service.SingleFlight;
+import com.google.devrel.training.conference.service.TransactionRunner;
+import com.google.devrel.training.conference.service.WaitlistService;
 import com.googlecode.objectify.Key;
-import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.Result;
 import com.googlecode.objectify.Work;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.inject.Named;
@@ -54,14 +86,84 @@ public class ConferenceApi {
 
     private static final Logger LOG = Logger.getLogger(ConferenceApi.class.getName());
 
+    /**
+     * The maximum number of keys accepted by getConferences.
+     */
+    static final int MAX_BATCH_KEYS = 100;
+
+    /**
+     * How long a read waits for an identical read in flight, before loading on its own.
+     */
+    private static final long SINGLE_FLIGHT_MAX_WAIT_MILLIS =
+            Long.getLong("conference.singleFlight.maxWaitMillis", 2000);
+
+    /**
+     * Coalesces concurrent getConference calls on this instance, each of the coalesced calls
+     * getting its own copy. Static because the API class may be instantiated per request.
+     */
+    private static final SingleFlight<String, Conference> CONFERENCE_LOADS =
+            new SingleFlight<>("getConference", SINGLE_FLIGHT_MAX_WAIT_MILLIS,
+                    new Function<Conference, Conference>() {
+                @Override
+                public Conference apply(Conference conference) {
+                    return conference.copy();
+                }
+            });
+
+    /**
+     * Coalesces concurrent identical queryConferences calls on this instance, each of the
+     * coalesced calls getting its own copies.
+     */
+    private static final SingleFlight<String, List<Conference>> QUERY_LOADS =
+            new SingleFlight<>("queryConferences", SINGLE_FLIGHT_MAX_WAIT_MILLIS,
+                    new Function<List<Conference>, List<Conference>>() {
+                @Override
+                public List<Conference> apply(List<Conference> conferences) {
+                    List<Conference> copies = new ArrayList<>(conferences.size());
+                    for (Conference conference : conferences) {
+                        copies.add(conference.copy());
+                    }
+                    return copies;
+                }
+            });
+
+    private final IdempotencyService idempotencyService = new IdempotencyService();
+
+    private final TransactionRunner transactionRunner;
+
+    private final FlashSaleService flashSaleService;
+
+    private final ConferenceSyncService conferenceSyncService = new ConferenceSyncService();
+
+    private final SeatAvailabilityCache seatAvailabilityCache = new SeatAvailabilityCache();
+
+    private final ConferenceListingService conferenceListingService =
+            new ConferenceListingService();
+
+    private final ConferenceCountService conferenceCountService = new ConferenceCountService();
+
+    public ConferenceApi() {
+        this(new TransactionRunner(), new FlashSaleService());
+    }
+
+    /**
+     * Constructor for plugging in other services.
+     *
+     * @param transactionRunner The runner for the transactions of the API methods.
+     * @param flashSaleService The service taking registrations during flash sales.
+     */
+    ConferenceApi(TransactionRunner transactionRunner, FlashSaleService flashSaleService) {
+        this.transactionRunner = transactionRunner;
+        this.flashSaleService = flashSaleService;
+    }
+
     private static String extractDefaultDisplayNameFromEmail(String email) {
         return email == null ? null : email.substring(0, email.indexOf("@"));
     }
 
     private static Profile getProfileFromUser(User user, String userId) {
         // First fetch it from the datastore.
-        Profile profile = ofy().load().key(
-                Key.create(Profile.class, userId)).now();
+        Profile profile = Repositories.profiles().get(Key.create(Profile.class, userId));
         if (profile == null) {
             // Create a new Profile if not exist.
             String email = user.getEmail();
@@ -81,11 +183,7 @@ public class ConferenceApi {
         String userId = user.getUserId();
         if (userId == null) {
             LOG.info("userId is null, so trying to obtain it from the datastore.");
-            AppEngineUser appEngineUser = new AppEngineUser(user);
-            ofy().save().entity(appEngineUser).now();
-            // Begin new session for not using session cache.
-            Objectify objectify = ofy().factory().begin();
-            AppEngineUser savedUser = objectify.load().key(appEngineUser.getKey()).now();
+            AppEngineUser savedUser = Repositories.users().saveAndReload(new AppEngineUser(user));
             userId = savedUser.getUser().getUserId();
             LOG.info("Obtained the userId: " + userId);
         }
@@ -115,7 +213,8 @@ public class ConferenceApi {
      * <pre>
      * {@code
      * // The transaction that returns Conference object.
-     * TxResult<Conference> result = ofy().transact(new Work<TxResult<Conference>>() {
+     * TxResult<Conference> result = transactionRunner.run("endpoint", key,
+     *         new Work<TxResult<Conference>>() {
      *     public TxResult<Conference> run() {
      *         // Code here.
      *         // To throw 404
@@ -178,7 +277,7 @@ public class ConferenceApi {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-        return ofy().load().key(Key.create(Profile.class, getUserId(user))).now();
+        return Repositories.profiles().get(Key.create(Profile.class, getUserId(user)));
     }
 
     /**
@@ -198,7 +297,7 @@ public class ConferenceApi {
         String displayName = profileForm.getDisplayName();
         TeeShirtSize teeShirtSize = profileForm.getTeeShirtSize();
 
-        Profile profile = ofy().load().key(Key.create(Profile.class, getUserId(user))).now();
+        Profile profile = Repositories.profiles().get(Key.create(Profile.class, getUserId(user)));
         if (profile == null) {
             // Populate displayName and teeShirtSize with the default values if null.
             if (displayName == null) {
@@ -211,7 +310,7 @@ public class ConferenceApi {
         } else {
             profile.update(displayName, teeShirtSize);
         }
-        ofy().save().entity(profile).now();
+        Repositories.profiles().save(profile);
         return profile;
     }
 
@@ -220,30 +319,66 @@ public class ConferenceApi {
      *
      * @param user A user who invokes this method, null when the user is not signed in.
      * @param conferenceForm A ConferenceForm object representing user's inputs.
+     * @param idempotencyKey An optional key identifying the request, so that a retried request
+     *                       returns the same Conference instead of creating another one.
      * @return A newly created Conference Object.
      * @throws UnauthorizedException when the user is not signed in.
      */
     @ApiMethod(name = "createConference", path = "conference", httpMethod = HttpMethod.POST)
-    public Conference createConference(final User user, final ConferenceForm conferenceForm)
+    public Conference createConference(final User user, final ConferenceForm conferenceForm,
+                                       @Nullable @Named("idempotencyKey")
+                                       final String idempotencyKey)
         throws UnauthorizedException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-        // Allocate Id first, in order to make the transaction idempotent.
-        Key<Profile> profileKey = Key.create(Profile.class, getUserId(user));
-        final Key<Conference> conferenceKey = factory().allocateId(profileKey, Conference.class);
+        final String userId = getUserId(user);
+        Key<Conference> conferenceKey = null;
+        if (idempotencyKey != null) {
+            // A replayed request returns the Conference created by the first request.
+            String claimedKey = idempotencyService.getClaim(
+                    "createConference", userId, idempotencyKey);
+            if (claimedKey != null) {
+                conferenceKey = Key.create(claimedKey);
+                Conference created = Repositories.conferences().get(conferenceKey);
+                if (created != null) {
+                    return created;
+                }
+            }
+        }
+        if (conferenceKey == null) {
+            // Allocate Id first, in order to make the transaction idempotent.
+            Key<Profile> profileKey = Key.create(Profile.class, userId);
+            conferenceKey = factory().allocateId(profileKey, Conference.class);
+            if (idempotencyKey != null) {
+                // Pin the Id to the idempotency key, so that every replay uses the same Id.
+                conferenceKey = Key.create(idempotencyService.claim(
+                        "createConference", userId, idempotencyKey, conferenceKey.getString()));
+            }
+        }
+        final Key<Conference> allocatedKey = conferenceKey;
         final long conferenceId = conferenceKey.getId();
         final Queue queue = QueueFactory.getDefaultQueue();
-        final String userId = getUserId(user);
         // Start a transaction.
-        Conference conference = ofy().transact(new Work<Conference>() {
+        Conference conference = transactionRunner.run("createConference", allocatedKey,
+                new Work<Conference>() {
             @Override
             public Conference run() {
+                // A concurrent replay may have created the Conference already.
+                Conference existing = Repositories.conferences().get(allocatedKey);
+                if (existing != null) {
+                    return existing;
+                }
                 // Fetch user's Profile.
                 Profile profile = getProfileFromUser(user, userId);
                 Conference conference = new Conference(conferenceId, userId, conferenceForm);
                 // Save Conference and Profile.
-                ofy().save().entities(conference, profile).now();
+                Repositories.conferences().save(conference);
+                Repositories.profiles().save(profile);
+                conferenceListingService.rebuildAfterCommit(
+                        ConferenceListingService.getFacetValues(conference),
+                        conference.getWebsafeKey());
+                conferenceCountService.invalidateAfterCommit();
                 queue.add(ofy().getTransaction(),
                         TaskOptions.Builder.withUrl("/tasks/send_confirmation_email")
                         .param("email", profile.getMainEmail())
@@ -279,33 +414,59 @@ public class ConferenceApi {
             throw new UnauthorizedException("Authorization required");
         }
         final String userId = getUserId(user);
+        // The change in the seats available, which a flash sale counter has to follow.
+        final int[] seatsAdded = new int[1];
         // Update the conference with the conferenceForm sent from the client.
         // Need a transaction because we need to safely preserve the number of allocated seats.
-        TxResult<Conference> result = ofy().transact(new Work<TxResult<Conference>>() {
+        TxResult<Conference> result = transactionRunner.run("updateConference",
+                Key.create(websafeConferenceKey), new Work<TxResult<Conference>>() {
             @Override
             public TxResult<Conference> run() {
+                seatsAdded[0] = 0;
                 // If there is no Conference with the id, throw a 404 error.
                 Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-                Conference conference = ofy().load().key(conferenceKey).now();
+                Conference conference = Repositories.conferences().get(conferenceKey);
                 if (conference == null) {
                     return new TxResult<>(
                             new NotFoundException("No Conference found with the key: "
                                     + websafeConferenceKey));
                 }
                 // If the user is not the owner, throw a 403 error.
-                Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
+                Profile profile = Repositories.profiles().get(Key.create(Profile.class, userId));
                 if (profile == null ||
                         !conference.getOrganizerUserId().equals(userId)) {
                     return new TxResult<>(
                             new ForbiddenException("Only the owner can update the conference."));
                 }
+                int seatsAvailable = conference.getSeatsAvailable();
+                // The listings the Conference leaves as well as those it enters.
+                SetMultimap<Facet, String> facetValues =
+                        ConferenceListingService.getFacetValues(conference);
                 conference.updateWithConferenceForm(conferenceForm);
-                ofy().save().entity(conference).now();
+                seatsAdded[0] = conference.getSeatsAvailable() - seatsAvailable;
+                if (seatsAdded[0] > 0 && conference.isFlashSale()) {
+                    // The waiting users get the new seats first, the sale the rest.
+                    seatsAdded[0] = WaitlistService.keepForWaitlist(conference, seatsAdded[0]);
+                }
+                facetValues.putAll(ConferenceListingService.getFacetValues(conference));
+                Repositories.conferences().save(conference);
+                conferenceListingService.rebuildAfterCommit(facetValues, websafeConferenceKey);
+                conferenceCountService.invalidateAfterCommit();
+                if (seatsAdded[0] > 0 && !conference.isFlashSale()) {
+                    // The capacity was raised, so let waitlisted users in.
+                    WaitlistService.schedulePromotion(websafeConferenceKey);
+                }
                 return new TxResult<>(conference);
             }
         });
         // NotFoundException or ForbiddenException is actually thrown here.
-        return result.getResult();
+        Conference conference = result.getResult();
+        if (seatsAdded[0] != 0 && conference.isFlashSale()) {
+            // During a flash sale the seats are granted from the counter, so it follows the
+            // new capacity.
+            flashSaleService.add(websafeConferenceKey, seatsAdded[0]);
+        }
+        return conference;
     }
 
     @ApiMethod(
@@ -322,6 +483,79 @@ public class ConferenceApi {
         return null;
     }
 
+    /**
+     * Returns the Profile, the announcement, the Conferences to attend and optionally the
+     * Conference of the page in one call.
+     *
+     * The Profile, the Conference of the page and the announcement are loaded concurrently, and
+     * waited for only once all three have started. The Conferences to attend depend on the keys
+     * of the Profile, so they are loaded after it, as one batch get.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The Conference the page shows, or null.
+     * @return a Bootstrap holding only the announcement and the Conference when the user is not
+     *     signed in.
+     * @throws BadRequestException when the websafeConferenceKey is not valid.
+     * @throws NotFoundException when there is no Conference with the websafeConferenceKey.
+     */
+    @ApiMethod(
+            name = "getBootstrap",
+            path = "bootstrap",
+            httpMethod = HttpMethod.GET
+    )
+    public Bootstrap getBootstrap(final User user,
+                                  @Nullable @Named("websafeConferenceKey")
+                                  final String websafeConferenceKey)
+            throws BadRequestException, NotFoundException {
+        Future<Object> message = MemcacheServiceFactory.getAsyncMemcacheService()
+                .get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+        Result<Profile> pendingProfile = null;
+        if (user != null) {
+            pendingProfile = Repositories.profiles()
+                    .getAsync(Key.create(Profile.class, getUserId(user)));
+        }
+        Result<Conference> pendingConference = null;
+        if (websafeConferenceKey != null) {
+            Key<Conference> conferenceKey;
+            try {
+                conferenceKey = Key.create(websafeConferenceKey);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException("Invalid websafeConferenceKey: "
+                        + websafeConferenceKey);
+            }
+            HotKeys.CONFERENCES.record(websafeConferenceKey);
+            pendingConference = Repositories.conferences().getAsync(conferenceKey);
+        }
+
+        Conference conference = null;
+        if (pendingConference != null) {
+            conference = pendingConference.now();
+            if (conference == null) {
+                throw new NotFoundException(
+                        "No Conference found with key: " + websafeConferenceKey);
+            }
+        }
+        Profile profile = pendingProfile == null ? null : pendingProfile.now();
+        Collection<Conference> conferencesToAttend = Collections.emptyList();
+        if (profile != null) {
+            List<Key<Conference>> keysToAttend = new ArrayList<>();
+            for (String keyString : profile.getConferenceKeysToAttend()) {
+                keysToAttend.add(Key.<Conference>create(keyString));
+            }
+            conferencesToAttend = Repositories.conferences().getAll(keysToAttend).values();
+        }
+        Announcement announcement = null;
+        try {
+            if (message.get() != null) {
+                announcement = new Announcement(message.get().toString());
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            // The announcement is optional, so render the page without it.
+            LOG.log(Level.WARNING, "Failed to read the announcement.", e);
+        }
+        return new Bootstrap(profile, announcement, conferencesToAttend, conference);
+    }
+
     /**
      * Returns a Conference object with the given conferenceId.
      *
@@ -337,12 +571,165 @@ public class ConferenceApi {
     public Conference getConference(
             @Named("websafeConferenceKey") final String websafeConferenceKey)
             throws NotFoundException {
-        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-        Conference conference = ofy().load().key(conferenceKey).now();
-        if (conference == null) {
-            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        HotKeys.CONFERENCES.record(websafeConferenceKey);
+        // Concurrent gets of the same Conference share one datastore load.
+        return CONFERENCE_LOADS.execute(websafeConferenceKey,
+                new SingleFlight.Loader<Conference, NotFoundException>() {
+            @Override
+            public Conference load() throws NotFoundException {
+                Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                Conference conference = Repositories.conferences().get(conferenceKey);
+                if (conference == null) {
+                    throw new NotFoundException(
+                            "No Conference found with key: " + websafeConferenceKey);
+                }
+                return conference;
+            }
+        });
+    }
+
+    /**
+     * Parses the websafe keys of a batch request.
+     *
+     * @param websafeConferenceKeys The String representations of the Conference keys.
+     * @return the keys in the same order, with null for the keys that are not Conference keys.
+     * @throws BadRequestException when no key or more than MAX_BATCH_KEYS keys are given.
+     */
+    private static List<Key<Conference>> parseConferenceKeys(List<String> websafeConferenceKeys)
+            throws BadRequestException {
+        if (websafeConferenceKeys.isEmpty()) {
+            throw new BadRequestException("At least one websafeConferenceKey is required.");
+        }
+        if (websafeConferenceKeys.size() > MAX_BATCH_KEYS) {
+            throw new BadRequestException(
+                    "At most " + MAX_BATCH_KEYS + " websafeConferenceKeys are allowed.");
+        }
+        String conferenceKind = Key.getKind(Conference.class);
+        List<Key<Conference>> conferenceKeys = new ArrayList<>(websafeConferenceKeys.size());
+        for (String websafeConferenceKey : websafeConferenceKeys) {
+            Key<Conference> conferenceKey = null;
+            try {
+                conferenceKey = Key.create(websafeConferenceKey);
+            } catch (IllegalArgumentException e) {
+                // An invalid key.
+            }
+            if (conferenceKey != null && !conferenceKey.getKind().equals(conferenceKind)) {
+                conferenceKey = null;
+            }
+            conferenceKeys.add(conferenceKey);
+        }
+        return conferenceKeys;
+    }
+
+    /**
+     * Returns the Conferences with the given keys, in the order of the keys.
+     *
+     * All the Conferences are loaded with a single batch get. Each key gets a lookup in the
+     * result, which tells whether the key was invalid or no Conference was found with it.
+     * Uses a POST method in order to receive the keys via the POST body.
+     *
+     * @param conferenceKeysForm A form object holding the String representations of the keys.
+     * @return a list of lookups, one for each requested key.
+     * @throws BadRequestException when no key or more than MAX_BATCH_KEYS keys are given.
+     */
+    @ApiMethod(
+            name = "getConferences",
+            path = "getConferences",
+            httpMethod = HttpMethod.POST
+    )
+    public List<ConferenceLookup> getConferences(ConferenceKeysForm conferenceKeysForm)
+            throws BadRequestException {
+        List<String> websafeConferenceKeys = conferenceKeysForm.getWebsafeConferenceKeys();
+        List<Key<Conference>> conferenceKeys = parseConferenceKeys(websafeConferenceKeys);
+        List<Key<Conference>> validKeys = new ArrayList<>(conferenceKeys);
+        validKeys.removeAll(Collections.singleton(null));
+        Map<Key<Conference>, Conference> conferences =
+                Repositories.conferences().getAll(validKeys);
+        List<ConferenceLookup> result = new ArrayList<>(websafeConferenceKeys.size());
+        for (int i = 0; i < websafeConferenceKeys.size(); i++) {
+            String websafeConferenceKey = websafeConferenceKeys.get(i);
+            Key<Conference> conferenceKey = conferenceKeys.get(i);
+            if (conferenceKey == null) {
+                result.add(new ConferenceLookup(websafeConferenceKey,
+                        ConferenceLookup.Status.INVALID_KEY, null));
+                continue;
+            }
+            Conference conference = conferences.get(conferenceKey);
+            if (conference == null) {
+                result.add(new ConferenceLookup(websafeConferenceKey,
+                        ConferenceLookup.Status.NOT_FOUND, null));
+            } else {
+                result.add(new ConferenceLookup(websafeConferenceKey,
+                        ConferenceLookup.Status.FOUND, conference));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the available seats of the Conferences with the given keys, in the order of the
+     * keys.
+     *
+     * The seats are read from a cache of counters, which is written through by every change of
+     * the seats, so polling this does not load the Conferences. Uses a POST method in order to
+     * receive the keys via the POST body.
+     *
+     * @param conferenceKeysForm A form object holding the String representations of the keys.
+     * @return a list of availabilities, one for each requested key.
+     * @throws BadRequestException when no key or more than MAX_BATCH_KEYS keys are given.
+     */
+    @ApiMethod(
+            name = "getSeatAvailability",
+            path = "getSeatAvailability",
+            httpMethod = HttpMethod.POST
+    )
+    public List<SeatAvailability> getSeatAvailability(ConferenceKeysForm conferenceKeysForm)
+            throws BadRequestException {
+        List<String> websafeConferenceKeys = conferenceKeysForm.getWebsafeConferenceKeys();
+        List<Key<Conference>> conferenceKeys = parseConferenceKeys(websafeConferenceKeys);
+        List<Key<Conference>> validKeys = new ArrayList<>(conferenceKeys);
+        validKeys.removeAll(Collections.singleton(null));
+        Map<String, Integer> seats = seatAvailabilityCache.getAll(validKeys);
+        List<SeatAvailability> result = new ArrayList<>(websafeConferenceKeys.size());
+        for (int i = 0; i < websafeConferenceKeys.size(); i++) {
+            String websafeConferenceKey = websafeConferenceKeys.get(i);
+            Key<Conference> conferenceKey = conferenceKeys.get(i);
+            if (conferenceKey == null) {
+                result.add(new SeatAvailability(websafeConferenceKey,
+                        ConferenceLookup.Status.INVALID_KEY, null));
+                continue;
+            }
+            Integer seatsAvailable = seats.get(conferenceKey.getString());
+            result.add(new SeatAvailability(websafeConferenceKey, seatsAvailable == null
+                    ? ConferenceLookup.Status.NOT_FOUND : ConferenceLookup.Status.FOUND,
+                    seatsAvailable));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the Conferences changed since the given sync token.
+     *
+     * Clients keep the returned token and pass it to the next sync, in order to download only
+     * the Conferences created, updated or registered for in the meantime. Conferences may be
+     * returned again by the next sync, so clients replace them by their websafeKey.
+     *
+     * @param syncToken The token returned by the previous sync, null for the first sync.
+     * @return the changed Conferences and the token for the next sync.
+     * @throws BadRequestException when the token is not valid.
+     */
+    @ApiMethod(
+            name = "syncConferences",
+            path = "syncConferences",
+            httpMethod = HttpMethod.GET
+    )
+    public ConferenceChanges syncConferences(@Nullable @Named("syncToken") final String syncToken)
+            throws BadRequestException {
+        try {
+            return conferenceSyncService.getChanges(syncToken);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
         }
-        return conference;
     }
 
     /**
@@ -363,7 +750,7 @@ public class ConferenceApi {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-        Profile profile = ofy().load().key(Key.create(Profile.class, getUserId(user))).now();
+        Profile profile = Repositories.profiles().get(Key.create(Profile.class, getUserId(user)));
         if (profile == null) {
             throw new NotFoundException("Profile doesn't exist.");
         }
@@ -372,7 +759,7 @@ public class ConferenceApi {
         for (String keyString : keyStringsToAttend) {
             keysToAttend.add(Key.<Conference>create(keyString));
         }
-        return ofy().load().keys(keysToAttend).values();
+        return Repositories.conferences().getAll(keysToAttend).values();
     }
 
     /**
@@ -389,17 +776,51 @@ public class ConferenceApi {
             path = "queryConferences",
             httpMethod = HttpMethod.POST
     )
-    public List<Conference> queryConferences(ConferenceQueryForm conferenceQueryForm) {
-        Iterable<Conference> conferenceIterable = conferenceQueryForm.getQuery();
-        List<Conference> result = new ArrayList<>(0);
-        List<Key<Profile>> organizersKeyList = new ArrayList<>(0);
-        for (Conference conference : conferenceIterable) {
-            organizersKeyList.add(Key.create(Profile.class, conference.getOrganizerUserId()));
-            result.add(conference);
-        }
-        // To avoid separate datastore gets for each Conference, pre-fetch the Profiles.
-        ofy().load().keys(organizersKeyList);
-        return result;
+    public List<Conference> queryConferences(final ConferenceQueryForm conferenceQueryForm) {
+        String signature = conferenceQueryForm.getSignature();
+        HotKeys.QUERIES.record(signature);
+        // Concurrent identical queries share one datastore query.
+        return QUERY_LOADS.execute(signature,
+                new SingleFlight.Loader<List<Conference>, RuntimeException>() {
+            @Override
+            public List<Conference> load() {
+                Iterable<Conference> conferenceIterable =
+                        Repositories.conferences().query(conferenceQueryForm);
+                List<Conference> result = new ArrayList<>(0);
+                List<Key<Profile>> organizersKeyList = new ArrayList<>(0);
+                for (Conference conference : conferenceIterable) {
+                    organizersKeyList.add(
+                            Key.create(Profile.class, conference.getOrganizerUserId()));
+                    result.add(conference);
+                }
+                // To avoid separate datastore gets for each Conference, pre-fetch the Profiles.
+                Repositories.profiles().getAll(organizersKeyList);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Counts the Conferences matching the given filters, for showing the total next to a page
+     * of queryConferences results. No Conference is loaded to count them.
+     *
+     * @param conferenceQueryForm A form object representing the query, whose limit and sort
+     *     order are ignored.
+     * @return the number of Conferences that match the query.
+     * @throws BadRequestException when the filters are not valid.
+     */
+    @ApiMethod(
+            name = "countConferences",
+            path = "countConferences",
+            httpMethod = HttpMethod.POST
+    )
+    public ConferenceCount countConferences(ConferenceQueryForm conferenceQueryForm)
+            throws BadRequestException {
+        try {
+            return new ConferenceCount(conferenceCountService.count(conferenceQueryForm));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
     }
 
     /**
@@ -421,19 +842,170 @@ public class ConferenceApi {
             throw new UnauthorizedException("Authorization required");
         }
         String userId = getUserId(user);
-        return ofy().load().type(Conference.class)
-                .ancestor(Key.create(Profile.class, userId))
-                .order("name").list();
+        return Repositories.conferences().listByOrganizer(userId);
+    }
+
+    /**
+     * Returns a page of the Conferences in a city, with a topic or in a month, sorted by name.
+     *
+     * The page is read from a listing maintained after every change of a Conference, so
+     * browsing costs a single get. The listing may lag the changes by a few seconds.
+     *
+     * @param facet The field to browse by, one of CITY, TOPIC and MONTH.
+     * @param value The city, the topic or the month from 1 to 12.
+     * @param page The page, starting at 0, or null for the first page.
+     * @return the page of the listing.
+     * @throws BadRequestException when the facet or the page is invalid.
+     * @throws NotFoundException when the listing has no such page.
+     */
+    @ApiMethod(
+            name = "getConferenceListing",
+            path = "conferenceListing",
+            httpMethod = HttpMethod.GET
+    )
+    public ConferenceListing getConferenceListing(@Named("facet") final String facet,
+                                                  @Named("value") final String value,
+                                                  @Nullable @Named("page") final Integer page)
+            throws BadRequestException, NotFoundException {
+        Facet listingFacet;
+        try {
+            listingFacet = Facet.valueOf(facet);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid facet: " + facet);
+        }
+        int listingPage = page == null ? 0 : page;
+        if (listingPage < 0) {
+            throw new BadRequestException("Invalid page: " + page);
+        }
+        ConferenceListing listing =
+                conferenceListingService.getPage(listingFacet, value, listingPage);
+        if (listing != null) {
+            return listing;
+        }
+        if (listingPage == 0) {
+            // No Conference has the value.
+            return ConferenceListing.empty(listingFacet, value);
+        }
+        throw new NotFoundException("No page " + listingPage + " in the listing.");
+    }
+
+    /**
+     * Grants a seat hold when the Conference is in a flash sale.
+     *
+     * @param user The user who registers.
+     * @param userId The userId of the user.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the result of the registration, or null when the Conference is not in a flash sale.
+     */
+    private TxResult<Boolean> holdFlashSaleSeat(final User user, final String userId,
+                                                final String websafeConferenceKey) {
+        Acquisition acquisition = flashSaleService.tryAcquire(websafeConferenceKey);
+        if (acquisition == Acquisition.UNAVAILABLE) {
+            return null;
+        }
+        Profile profile = getProfileFromUser(user, userId);
+        if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+            if (acquisition == Acquisition.GRANTED) {
+                flashSaleService.release(websafeConferenceKey);
+            }
+            return new TxResult<>(
+                    new ConflictException("You have already registered for this conference"));
+        }
+        if (acquisition == Acquisition.SOLD_OUT) {
+            // Waitlisted like when the Conference is full, but without a transaction on it.
+            flashSaleService.holdWaitlistPlace(profile, websafeConferenceKey);
+            return new TxResult<>(new ConflictException(
+                    "There are no seats available. You have been added to the waitlist."));
+        }
+        flashSaleService.hold(profile, websafeConferenceKey);
+        return new TxResult<>(true);
+    }
+
+    /**
+     * Turns the flash sale mode of the specified Conference on or off.
+     *
+     * In a flash sale, registrations are granted as seat holds from a fast counter and confirmed
+     * asynchronously in batches, instead of each running a transaction on the Conference.
+     *
+     * @param user A user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param enabled Whether to turn the flash sale on.
+     * @return the updated Conference object.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws ForbiddenException when the user is not the owner of the Conference.
+     */
+    @ApiMethod(
+            name = "setFlashSale",
+            path = "conference/{websafeConferenceKey}/flashSale",
+            httpMethod = HttpMethod.POST
+    )
+    public Conference setFlashSale(final User user,
+                                   @Named("websafeConferenceKey")
+                                   final String websafeConferenceKey,
+                                   @Named("enabled") final boolean enabled)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        final String userId = getUserId(user);
+        // The seats the sale opens with, those the waiting users do not need.
+        final int[] saleSeats = new int[1];
+        TxResult<Conference> result = transactionRunner.run("setFlashSale",
+                Key.create(websafeConferenceKey), new Work<TxResult<Conference>>() {
+            @Override
+            public TxResult<Conference> run() {
+                Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                Conference conference = Repositories.conferences().get(conferenceKey);
+                if (conference == null) {
+                    return new TxResult<>(
+                            new NotFoundException("No Conference found with the key: "
+                                    + websafeConferenceKey));
+                }
+                if (!conference.getOrganizerUserId().equals(userId)) {
+                    return new TxResult<>(
+                            new ForbiddenException("Only the owner can update the conference."));
+                }
+                conference.setFlashSale(enabled);
+                // The seats kept for the waitlist are free seats like the others again.
+                conference.removeWaitlistSeats(conference.getWaitlistSeats());
+                if (enabled) {
+                    saleSeats[0] = WaitlistService.keepForWaitlist(conference,
+                            conference.getSeatsAvailable());
+                } else if (conference.getSeatsAvailable() > 0
+                        && conference.getWaitlisted() > 0) {
+                    WaitlistService.schedulePromotion(websafeConferenceKey);
+                }
+                Repositories.conferences().save(conference);
+                return new TxResult<>(conference);
+            }
+        });
+        // NotFoundException or ForbiddenException is actually thrown here.
+        Conference conference = result.getResult();
+        if (enabled) {
+            flashSaleService.open(websafeConferenceKey, saleSeats[0]);
+        } else {
+            flashSaleService.close(websafeConferenceKey);
+        }
+        return conference;
     }
 
     /**
      * Registers to the specified Conference.
      *
+     * When the Conference is full, the user is put on its waitlist and gets registered
+     * automatically once a seat becomes available.
+     *
      * @param user An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param idempotencyKey An optional key identifying the request, so that a retried request
+     *                       returns the outcome of the first one without a transaction.
      * @return Boolean true when success, otherwise false
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws ConflictException when the user is already registered or waitlisted, or when the
+     *                           user has just been waitlisted.
      */
     @ApiMethod(
             name = "registerForConference",
@@ -442,43 +1014,92 @@ public class ConferenceApi {
     )
     public WrappedBoolean registerForConference(final User user,
                                          @Named("websafeConferenceKey")
-                                         final String websafeConferenceKey)
+                                         final String websafeConferenceKey,
+                                         @Nullable @Named("idempotencyKey")
+                                         final String idempotencyKey)
         throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
         // If not signed in, throw a 401 error.
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
         final String userId = getUserId(user);
-        TxResult<Boolean> result = ofy().transact(new Work<TxResult<Boolean>>() {
-            @Override
-            public TxResult<Boolean> run() {
-                Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-                Conference conference = ofy().load().key(conferenceKey).now();
-                // 404 when there is no Conference with the given conferenceId.
-                if (conference == null) {
-                    return new TxResult<>(new NotFoundException(
-                            "No Conference found with key: " + websafeConferenceKey));
+        HotKeys.CONFERENCES.record(websafeConferenceKey);
+        final String operation = "registerForConference:" + websafeConferenceKey;
+        if (idempotencyKey != null) {
+            Outcome outcome = idempotencyService.getOutcome(operation, userId, idempotencyKey);
+            if (outcome != null) {
+                if (outcome.getConflictMessage() != null) {
+                    throw new ConflictException(outcome.getConflictMessage());
                 }
-                // Registration happens here.
-                Profile profile = getProfileFromUser(user, userId);
-                if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
-                    return new TxResult<>(new ConflictException("You have already registered for this conference"));
-                } else if (conference.getSeatsAvailable() <= 0) {
-                    return new TxResult<>(new ConflictException("There are no seats available."));
-                } else {
-                    profile.addToConferenceKeysToAttend(websafeConferenceKey);
-                    conference.bookSeats(1);
-                    ofy().save().entities(profile, conference).now();
-                    return new TxResult<>(true);
+                return new WrappedBoolean((Boolean) outcome.getResult());
+            }
+        }
+        // A waitlisted user gets promoted asynchronously, so answer a retry without a transaction.
+        if (ofy().load().key(WaitlistEntry.key(userId, websafeConferenceKey)).now() != null) {
+            throw new ConflictException("You are already on the waitlist for this conference.");
+        }
+        // During a flash sale, only a seat hold is granted here and confirmed asynchronously.
+        TxResult<Boolean> result = holdFlashSaleSeat(user, userId, websafeConferenceKey);
+        if (result == null) {
+            result = transactionRunner.run("registerForConference",
+                    Key.create(websafeConferenceKey), new Work<TxResult<Boolean>>() {
+                @Override
+                public TxResult<Boolean> run() {
+                    Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                    Conference conference = Repositories.conferences().get(conferenceKey);
+                    // 404 when there is no Conference with the given conferenceId.
+                    if (conference == null) {
+                        return new TxResult<>(new NotFoundException(
+                                "No Conference found with key: " + websafeConferenceKey));
+                    }
+                    // Registration happens here.
+                    Profile profile = getProfileFromUser(user, userId);
+                    if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+                        return new TxResult<>(new ConflictException("You have already registered for this conference"));
+                    } else if (conference.getSeatsAvailable() <= 0
+                            || conference.getWaitlisted() > 0) {
+                        // Put the user on the waitlist, in the Profile's entity group, behind
+                        // the users already waiting for the free seats.
+                        Repositories.profiles().save(profile);
+                        if (WaitlistService.enqueue(conference, userId)) {
+                            Repositories.conferences().saveSeats(conference);
+                        }
+                        if (conference.getSeatsAvailable() > 0) {
+                            return new TxResult<>(new ConflictException("Other users are waiting "
+                                    + "for the seats. You have been added to the waitlist."));
+                        }
+                        return new TxResult<>(new ConflictException(
+                                "There are no seats available. You have been added to the waitlist."));
+                    } else {
+                        profile.addToConferenceKeysToAttend(websafeConferenceKey);
+                        conference.bookSeats(1);
+                        Repositories.profiles().save(profile);
+                        Repositories.conferences().saveSeats(conference);
+                        return new TxResult<>(true);
+                    }
                 }
+            });
+        }
+        Boolean registered;
+        try {
+            // NotFoundException is actually thrown here.
+            registered = result.getResult();
+        } catch (ConflictException e) {
+            if (idempotencyKey != null) {
+                idempotencyService.putOutcome(operation, userId, idempotencyKey,
+                        Outcome.ofConflict(e.getMessage()));
             }
-        });
-        // NotFoundException is actually thrown here.
-        return new WrappedBoolean(result.getResult());
+            throw e;
+        }
+        if (idempotencyKey != null) {
+            idempotencyService.putOutcome(operation, userId, idempotencyKey,
+                    Outcome.ofResult(registered));
+        }
+        return new WrappedBoolean(registered);
     }
 
     /**
-     * Unregister from the specified Conference.
+     * Unregister from the specified Conference, or leave its waitlist.
      *
      * @param user An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key to unregister
@@ -501,11 +1122,15 @@ public class ConferenceApi {
             throw new UnauthorizedException("Authorization required");
         }
         final String userId = getUserId(user);
-        TxResult<Boolean> result = ofy().transact(new Work<TxResult<Boolean>>() {
+        // Whether the transaction freed a seat that goes back to a flash sale.
+        final boolean[] flashSaleSeatFreed = new boolean[1];
+        TxResult<Boolean> result = transactionRunner.run("unregisterFromConference",
+                Key.create(websafeConferenceKey), new Work<TxResult<Boolean>>() {
             @Override
             public TxResult<Boolean> run() {
+                flashSaleSeatFreed[0] = false;
                 Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-                Conference conference = ofy().load().key(conferenceKey).now();
+                Conference conference = Repositories.conferences().get(conferenceKey);
                 // 404 when there is no Conference with the given conferenceId.
                 if (conference == null) {
                     return new TxResult<>(new NotFoundException(
@@ -516,13 +1141,53 @@ public class ConferenceApi {
                 if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
                     profile.unregisterFromConference(websafeConferenceKey);
                     conference.giveBackSeats(1);
-                    ofy().save().entities(profile, conference).now();
+                    if (conference.isFlashSale()) {
+                        // The waiting users get the seat first, the sale otherwise.
+                        flashSaleSeatFreed[0] =
+                                WaitlistService.keepForWaitlist(conference, 1) > 0;
+                    } else {
+                        // Hand the freed seat over to the waitlist.
+                        WaitlistService.schedulePromotion(websafeConferenceKey);
+                    }
+                    Repositories.profiles().save(profile);
+                    Repositories.conferences().saveSeats(conference);
+                    return new TxResult<>(true);
+                }
+                // Giving up an unconfirmed flash sale seat also counts as un-registering.
+                Key<SeatHold> seatHoldKey = SeatHold.key(userId, websafeConferenceKey);
+                SeatHold seatHold = ofy().load().key(seatHoldKey).now();
+                if (seatHold != null) {
+                    ofy().delete().key(seatHoldKey).now();
+                    if (!seatHold.isWaitlist() && conference.isFlashSale()) {
+                        // The waiting users get the seat first, the sale otherwise.
+                        flashSaleSeatFreed[0] =
+                                WaitlistService.keepForWaitlist(conference, 1) > 0;
+                        if (!flashSaleSeatFreed[0]) {
+                            Repositories.conferences().saveSeats(conference);
+                        }
+                    }
                     return new TxResult<>(true);
-                } else {
-                    return new TxResult<>(false);
                 }
+                // Leaving the waitlist also counts as un-registering.
+                Key<WaitlistEntry> waitlistEntryKey =
+                        WaitlistEntry.key(userId, websafeConferenceKey);
+                if (ofy().load().key(waitlistEntryKey).now() != null) {
+                    ofy().delete().key(waitlistEntryKey).now();
+                    conference.removeFromWaitlist(1);
+                    if (conference.getWaitlistSeats() > conference.getWaitlisted()) {
+                        // The seat kept for the user goes back to the sale.
+                        conference.removeWaitlistSeats(1);
+                        flashSaleSeatFreed[0] = true;
+                    }
+                    Repositories.conferences().saveSeats(conference);
+                    return new TxResult<>(true);
+                }
+                return new TxResult<>(false);
             }
         });
+        if (flashSaleSeatFreed[0]) {
+            flashSaleService.release(websafeConferenceKey);
+        }
         // NotFoundException is actually thrown here.
         return new WrappedBoolean(result.getResult());
     }
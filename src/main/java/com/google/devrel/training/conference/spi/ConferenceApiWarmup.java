@@ -0,0 +1,122 @@
+package com.google.devrel.training.conference.spi;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceListing;
+import com.google.devrel.training.conference.domain.ConferenceListing.Facet;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.service.ConferenceListingService;
+import com.google.devrel.training.conference.service.ConferenceQueryPlanner;
+import com.google.devrel.training.conference.service.OfyService;
+import com.google.devrel.training.conference.service.ReadPolicy;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Warms up a new instance before it takes traffic.
+ *
+ * The warmup registers the entities, runs the API methods that every page load calls, so their
+ * code is loaded and the caches of the instance hold what they read, and loads the month
+ * listings into memcache. It then runs the in-memory query code over the loaded Conferences a
+ * number of times, for the JIT to compile it. The instance reports ready once this is done.
+ */
+public class ConferenceApiWarmup {
+
+    private static final Logger LOG = Logger.getLogger(ConferenceApiWarmup.class.getName());
+
+    /**
+     * How many times the in-memory query code runs over the loaded Conferences.
+     */
+    private static final int COMPILE_ROUNDS = 50;
+
+    /**
+     * The number of results of the sorted queries run for the JIT.
+     */
+    private static final int SORTED_LIMIT = 20;
+
+    private static volatile boolean ready;
+
+    private static volatile long warmupMillis;
+
+    /**
+     * Warms up the instance, unless it is warm already.
+     *
+     * Concurrent calls wait for the running warmup.
+     */
+    public static synchronized void warmUp() {
+        if (ready) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        // Runs the entity registration.
+        OfyService.factory();
+        ConferenceApi conferenceApi = new ConferenceApi();
+        conferenceApi.getAnnouncement();
+
+        // The landing page query, read as the API would, so it fills the instance caches.
+        ConferenceQueryForm landingQuery = new ConferenceQueryForm();
+        List<Conference> conferences;
+        ReadPolicy previous =
+                ReadPolicy.enter(ReadPolicy.forEndpoint("queryConferences"));
+        try {
+            conferences = conferenceApi.queryConferences(landingQuery);
+        } finally {
+            ReadPolicy.exit(previous);
+        }
+
+        List<Key<ConferenceListing>> listingKeys = new ArrayList<>(12);
+        for (int month = 1; month <= 12; month++) {
+            listingKeys.add(ConferenceListing.key(Facet.MONTH, Integer.toString(month)));
+        }
+        ofy().load().keys(listingKeys);
+
+        for (int i = 0; i < COMPILE_ROUNDS; i++) {
+            for (ConferenceQueryForm.Sort sort : ConferenceQueryForm.Sort.values()) {
+                ConferenceQueryForm sortedQuery = new ConferenceQueryForm().sort(sort);
+                ConferenceQueryPlanner.top(conferences.iterator(), sortedQuery.getOrdering(),
+                        SORTED_LIMIT);
+            }
+            for (Conference conference : conferences) {
+                landingQuery.matches(conference);
+                ConferenceListingService.getFacetValues(conference);
+                conference.getWebsafeKey();
+            }
+        }
+        // The session cache of this request is not needed by the next one.
+        ofy().clear();
+        warmupMillis = System.currentTimeMillis() - start;
+        ready = true;
+        LOG.info("Warmed up with " + conferences.size() + " Conferences in " + warmupMillis
+                + " ms.");
+    }
+
+    /**
+     * Returns whether the instance is warm.
+     *
+     * @return true once a warmup completed.
+     */
+    public static boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Returns how long the warmup took.
+     *
+     * @return the duration in milliseconds, or 0 before the warmup completed.
+     */
+    public static long getWarmupMillis() {
+        return warmupMillis;
+    }
+
+    /**
+     * Makes the instance cold again, for tests.
+     */
+    static synchronized void reset() {
+        ready = false;
+        warmupMillis = 0;
+    }
+}
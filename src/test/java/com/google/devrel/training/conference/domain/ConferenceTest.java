@@ -92,6 +92,45 @@ public class ConferenceTest {
         assertNotSame(endDate, conference.getEndDate());
     }
 
+    @Test
+    public void testTopicReadsDoNotCopy() throws Exception {
+        Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
+        assertSame(conference.getTopics(), conference.getTopics());
+        // Changing the form's list afterwards does not change the Conference.
+        topics.add("Changed");
+        assertEquals(3, conference.getTopics().size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testTopicsAreUnmodifiable() throws Exception {
+        new Conference(ID, ORGANIZER_USER_ID, conferenceForm).getTopics().add("Changed");
+    }
+
+    @Test
+    public void testLoadedTopicsAreUnmodifiable() throws Exception {
+        Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
+        ofy().save().entity(conference).now();
+        ofy().clear();
+        Conference loaded = ofy().load().entity(conference).now();
+        assertEquals(topics, loaded.getTopics());
+        try {
+            loaded.getTopics().add("Changed");
+            fail("The loaded topics can be modified.");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testDatesAreCopies() throws Exception {
+        Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
+        conference.getStartDate().setTime(0L);
+        conference.getEndDate().setTime(0L);
+        assertEquals(startDate, conference.getStartDate());
+        assertEquals(endDate, conference.getEndDate());
+        assertNotSame(conference.getStartDate(), conference.getStartDate());
+    }
+
     @Test
     public void testGetOrganizerDisplayName() throws Exception {
         String displayName = "Takashi Matsuo";
@@ -0,0 +1,87 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.devrel.training.conference.domain.AdmissionLimits;
+import com.google.devrel.training.conference.service.AdmissionController.Decision;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for AdmissionController.
+ */
+public class AdmissionControllerTest {
+
+    private AdmissionController admissionController;
+
+    @Before
+    public void setUp() throws Exception {
+        admissionController = new AdmissionController(false);
+    }
+
+    @Test
+    public void testBucketRefills() throws Exception {
+        AdmissionController.Bucket bucket = new AdmissionController.Bucket();
+        long now = 0;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bucket.tryAcquire(now, 2, 3));
+        }
+        assertFalse(bucket.tryAcquire(now, 2, 3));
+        // One token is added every half second.
+        assertFalse(bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(400), 2, 3));
+        assertTrue(bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(500), 2, 3));
+        assertFalse(bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(500), 2, 3));
+    }
+
+    @Test
+    public void testThrottlesUsersSeparately() throws Exception {
+        admissionController.setLimits(new AdmissionLimits(0.001, 2, 0.001, 1, 100, 100));
+        assertEquals(Decision.ADMITTED, admit("queryConferences", "alice", "10.0.0.1"));
+        assertEquals(Decision.ADMITTED, admit("getConference", "alice", "10.0.0.1"));
+        assertEquals(Decision.THROTTLED, admit("getConference", "alice", "10.0.0.1"));
+        assertEquals(Decision.ADMITTED, admit("getConference", "bob", "10.0.0.1"));
+        // Writes have buckets of their own, with lower limits.
+        assertEquals(Decision.ADMITTED, admit("registerForConference", "alice", "10.0.0.1"));
+        assertEquals(Decision.THROTTLED, admit("createConference", "alice", "10.0.0.1"));
+        assertEquals(2, admissionController.getThrottled());
+    }
+
+    @Test
+    public void testThrottlesAddresses() throws Exception {
+        admissionController.setLimits(new AdmissionLimits(0.001, 1, 0.001, 1, 2, 100));
+        assertEquals(Decision.ADMITTED, admit("getConference", null, "10.0.0.1"));
+        assertEquals(Decision.ADMITTED, admit("getConference", "alice", "10.0.0.1"));
+        assertEquals(Decision.THROTTLED, admit("getConference", "bob", "10.0.0.1"));
+        assertEquals(Decision.ADMITTED, admit("getConference", "bob", "10.0.0.2"));
+    }
+
+    @Test
+    public void testShedsReadsAboveMaxInFlight() throws Exception {
+        admissionController.setLimits(new AdmissionLimits(100, 100, 100, 100, 1, 1));
+        assertEquals(Decision.ADMITTED, admissionController.admit("getConference", null, "a"));
+        assertEquals(Decision.SHED, admissionController.admit("getConference", null, "b"));
+        assertEquals(Decision.ADMITTED,
+                admissionController.admit("registerForConference", null, "c"));
+        assertEquals(2, admissionController.getInFlight());
+        admissionController.release();
+        admissionController.release();
+        assertEquals(Decision.ADMITTED, admissionController.admit("getConference", null, "b"));
+        assertEquals(1, admissionController.getShed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidLimits() throws Exception {
+        new AdmissionLimits(0, 1, 1, 1, 1, 1);
+    }
+
+    private Decision admit(String endpoint, String user, String address) {
+        Decision decision = admissionController.admit(endpoint, user, address);
+        if (decision == Decision.ADMITTED) {
+            admissionController.release();
+        }
+        return decision;
+    }
+}
@@ -0,0 +1,161 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.CatalogSnapshotManifest;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceListing.Facet;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests for CatalogSnapshot and CatalogSnapshotStore.
+ */
+public class CatalogSnapshotTest {
+
+    /**
+     * The helper here intentionally applies all jobs, since the snapshot is built by a global
+     * query.
+     */
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    private Conference first;
+
+    private Conference second;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        first = new Conference(1L, "alice", new ConferenceForm("First", "Description",
+                ImmutableList.of("Java", "Web"), "London", new Date(), new Date(), 100));
+        first.bookSeats(3);
+        first.setFlashSale(true);
+        first.setOrganizerDisplayName("Alice");
+        first.setLastModified(new Date(1234L));
+        second = new Conference(2L, "bob",
+                new ConferenceForm("Second", null, null, null, null, null, 10));
+        second.setOrganizerDisplayName("Bob");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static void assertSameConference(Conference expected, Conference actual) {
+        assertEquals(expected.getWebsafeKey(), actual.getWebsafeKey());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getDescription(), actual.getDescription());
+        assertEquals(expected.getTopics(), actual.getTopics());
+        assertEquals(expected.getCity(), actual.getCity());
+        assertEquals(expected.getStartDate(), actual.getStartDate());
+        assertEquals(expected.getMonth(), actual.getMonth());
+        assertEquals(expected.getMaxAttendees(), actual.getMaxAttendees());
+        assertEquals(expected.getSeatsAvailable(), actual.getSeatsAvailable());
+        assertEquals(expected.isFlashSale(), actual.isFlashSale());
+        assertEquals(expected.getOrganizerDisplayName(), actual.getOrganizerDisplayName());
+        assertEquals(expected.getLastModified(), actual.getLastModified());
+    }
+
+    @Test
+    public void testEncodeAndRead() throws Exception {
+        CatalogSnapshot snapshot = CatalogSnapshot.open(ByteBuffer.wrap(
+                CatalogSnapshot.encode(ImmutableList.of(second, first), 42L, "token")));
+        assertEquals(2, snapshot.size());
+        assertEquals(42L, snapshot.getCreatedMillis());
+        assertEquals("token", snapshot.getSyncToken());
+        assertSameConference(first, snapshot.get(first.getWebsafeKey()));
+        assertSameConference(second, snapshot.get(second.getWebsafeKey()));
+        assertNull(snapshot.get(
+                new Conference(3L, "bob", new ConferenceForm("Third", null, null, null, null,
+                        null, 10)).getWebsafeKey()));
+        // The index is sorted by key.
+        assertTrue(snapshot.getKey(0).compareTo(snapshot.getKey(1)) < 0);
+    }
+
+    /**
+     * Returns the names at the positions, which have to be ascending, sorted.
+     */
+    private static List<String> names(CatalogSnapshot snapshot, int[] positions) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < positions.length; i++) {
+            assertTrue(i == 0 || positions[i - 1] < positions[i]);
+            names.add(snapshot.get(positions[i]).getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    @Test
+    public void testFindByFacet() throws Exception {
+        Conference third = new Conference(3L, "carol", new ConferenceForm("Third", null,
+                ImmutableList.of("Java"), "London", null, null, 10));
+        CatalogSnapshot snapshot = CatalogSnapshot.open(ByteBuffer.wrap(
+                CatalogSnapshot.encode(ImmutableList.of(first, second, third), 42L, "token")));
+        assertEquals(ImmutableList.of("First", "Third"),
+                names(snapshot, snapshot.find(Facet.CITY, ImmutableList.of("London"))));
+        assertEquals(ImmutableList.of("First", "Third"), names(snapshot,
+                snapshot.find(Facet.TOPIC, ImmutableList.of("Web", "Java", "Go"))));
+        assertEquals(ImmutableList.of("Second"),
+                names(snapshot, snapshot.find(Facet.TOPIC, ImmutableList.of("Default"))));
+        assertEquals(ImmutableList.of("First"), names(snapshot,
+                snapshot.find(Facet.MONTH, ImmutableList.of("0" + first.getMonth()))));
+        assertEquals(0, snapshot.find(Facet.CITY, ImmutableList.of("Paris")).length);
+        assertNull(snapshot.find(Facet.MONTH, ImmutableList.of("March")));
+    }
+
+    @Test
+    public void testMapFile() throws Exception {
+        File file = File.createTempFile("catalog", ".snapshot");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(CatalogSnapshot.encode(ImmutableList.of(first, second), 42L, "token"));
+        }
+        CatalogSnapshot snapshot = CatalogSnapshot.map(file);
+        assertSameConference(first, snapshot.get(first.getWebsafeKey()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOpenRejectsOtherBytes() throws Exception {
+        CatalogSnapshot.open(ByteBuffer.wrap(new byte[16]));
+    }
+
+    @Test
+    public void testBuildAndLoad() throws Exception {
+        CatalogSnapshotStore store = new CatalogSnapshotStore();
+        assertNull(store.getManifest());
+        ofy().save().entities(first, second,
+                new Profile("alice", "Alice", "alice@example.com", null)).now();
+        CatalogSnapshotManifest manifest = store.build();
+        CatalogSnapshot snapshot = store.load(store.getManifest());
+        assertEquals(2, snapshot.size());
+        assertSameConference(first, snapshot.get(first.getWebsafeKey()));
+        // Without a Profile, the display name is the userId.
+        assertEquals("bob", snapshot.get(second.getWebsafeKey()).getOrganizerDisplayName());
+
+        // A new build replaces the previous snapshot.
+        Thread.sleep(5);
+        store.build();
+        assertNull(store.load(manifest));
+        assertEquals(2, store.load(store.getManifest()).size());
+    }
+}
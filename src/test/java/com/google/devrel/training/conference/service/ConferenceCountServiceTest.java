@@ -0,0 +1,108 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceListing.Facet;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Tests for ConferenceCountService.
+ */
+public class ConferenceCountServiceTest {
+
+    private ConferenceCountService conferenceCountService;
+
+    /**
+     * The helper here intentionally applies all jobs, since the counts come from global queries.
+     */
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceCountService = new ConferenceCountService();
+        saveConference(1L, "London", ImmutableList.of("Java", "Go"));
+        saveConference(2L, "London", ImmutableList.of("Go"));
+        saveConference(3L, "Tokyo", ImmutableList.of("Java"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static Conference saveConference(long id, String city, List<String> topics) {
+        Conference conference = new Conference(id, "organizer", new ConferenceForm(
+                "Conference " + id, null, topics, city, null, null, 10));
+        ofy().save().entity(conference).now();
+        return conference;
+    }
+
+    @Test
+    public void testCountsWithKeysOnlyQueries() throws Exception {
+        assertEquals(3, conferenceCountService.count(new ConferenceQueryForm()));
+        // The first Conference has both topics and is counted once.
+        assertEquals(3, conferenceCountService.count(new ConferenceQueryForm()
+                .filter(new Filter(Field.TOPIC, ImmutableList.of("Java", "Go")))));
+        assertEquals(1, conferenceCountService.count(new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, Operator.EQ, "London"))
+                .filter(new Filter(Field.TOPIC, Operator.EQ, "Java"))));
+    }
+
+    @Test
+    public void testCachesCountsUntilInvalidated() throws Exception {
+        ConferenceQueryForm all = new ConferenceQueryForm();
+        assertEquals(3, conferenceCountService.count(all));
+        saveConference(4L, "Paris", null);
+        assertEquals(3, conferenceCountService.count(all));
+        // The limit and sort order do not change the count.
+        assertEquals(3, conferenceCountService.count(new ConferenceQueryForm().limit(1)
+                .sort(ConferenceQueryForm.Sort.MAX_ATTENDEES)));
+        conferenceCountService.invalidateAfterCommit();
+        assertEquals(4, conferenceCountService.count(all));
+    }
+
+    @Test
+    public void testCountsFromListings() throws Exception {
+        ConferenceListingService conferenceListingService = new ConferenceListingService();
+        conferenceListingService.rebuild(Facet.CITY, "London", null);
+        conferenceListingService.rebuild(Facet.CITY, "Tokyo", null);
+        // Deleted behind the listing's back, so only the listing still counts it.
+        ofy().delete().key(ofy().load().type(Conference.class).filter("city", "Tokyo").keys()
+                .first().now()).now();
+        assertEquals(1, conferenceCountService.count(new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, Operator.EQ, "Tokyo"))));
+        assertEquals(3, conferenceCountService.count(new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, ImmutableList.of("London", "Tokyo")))));
+        // A value given twice is counted once.
+        assertEquals(3, conferenceCountService.count(new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, ImmutableList.of("London", "Tokyo", "London")))));
+        // Without a listing, the count comes from the query.
+        assertEquals(0, conferenceCountService.count(new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, ImmutableList.of("Tokyo", "Paris")))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMonth() throws Exception {
+        conferenceCountService.count(new ConferenceQueryForm()
+                .filter(new Filter(Field.MONTH, Operator.EQ, "March")));
+    }
+}
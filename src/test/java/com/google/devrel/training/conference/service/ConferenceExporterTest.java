@@ -0,0 +1,117 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for ConferenceExporter.
+ */
+public class ConferenceExporterTest {
+
+    private Conference conference;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        Profile organizer = new Profile("organizer", "Organizer", "organizer@example.com",
+                TeeShirtSize.M);
+        Profile attendee = new Profile("attendee", "Attendee", "attendee@example.com", null);
+        conference = new Conference(1L, "organizer", new ConferenceForm("GCP Live", null,
+                ImmutableList.of("Cloud"), "London", null, null, 10));
+        attendee.addToConferenceKeysToAttend(conference.getWebsafeKey());
+        ofy().save().entities(organizer, attendee, conference).now();
+        ofy().clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static List<JsonObject> parseLines(String export) {
+        List<JsonObject> lines = new ArrayList<>();
+        for (String line : export.split("\n")) {
+            lines.add(new JsonParser().parse(line).getAsJsonObject());
+        }
+        return lines;
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        StringWriter writer = new StringWriter();
+        String resumeToken = new ConferenceExporter().export(writer, null, Long.MAX_VALUE,
+                Long.MAX_VALUE);
+        assertNull(resumeToken);
+
+        List<JsonObject> lines = parseLines(writer.toString());
+        // One Conference, a checkpoint, two Profiles and the end.
+        assertEquals(5, lines.size());
+        assertEquals("Conference", lines.get(0).get("kind").getAsString());
+        assertEquals(conference.getWebsafeKey(), lines.get(0).get("websafeKey").getAsString());
+        assertEquals("Cloud", lines.get(0).get("topics").getAsJsonArray().get(0).getAsString());
+        assertEquals(10, lines.get(0).get("seatsAvailable").getAsInt());
+        assertEquals("PROFILE:", lines.get(1).get("_resume").getAsString());
+        assertEquals("attendee", lines.get(2).get("userId").getAsString());
+        assertEquals(conference.getWebsafeKey(), lines.get(2).get("conferenceKeysToAttend")
+                .getAsJsonArray().get(0).getAsString());
+        assertEquals("organizer", lines.get(3).get("userId").getAsString());
+        assertTrue(lines.get(4).get("_complete").getAsBoolean());
+    }
+
+    @Test
+    public void testResumeExport() throws Exception {
+        StringWriter writer = new StringWriter();
+        // The first page uses up the size budget, so the export stops after it.
+        String resumeToken = new ConferenceExporter().export(writer, null, 1, Long.MAX_VALUE);
+        assertEquals("PROFILE:", resumeToken);
+        List<JsonObject> lines = parseLines(writer.toString());
+        assertEquals(2, lines.size());
+        // The checkpoint line to resume from ends the response.
+        assertEquals(resumeToken, lines.get(1).get("_resume").getAsString());
+
+        writer = new StringWriter();
+        assertNull(new ConferenceExporter().export(writer, resumeToken, Long.MAX_VALUE,
+                Long.MAX_VALUE));
+        lines = parseLines(writer.toString());
+        assertEquals(3, lines.size());
+        assertEquals("Profile", lines.get(0).get("kind").getAsString());
+    }
+
+    @Test
+    public void testExportStopsAtDeadline() throws Exception {
+        StringWriter writer = new StringWriter();
+        // A deadline in the past stops the export after the first page.
+        String resumeToken = new ConferenceExporter().export(writer, null, Long.MAX_VALUE, 0);
+        assertEquals("PROFILE:", resumeToken);
+        assertEquals(2, parseLines(writer.toString()).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidResumeToken() throws Exception {
+        new ConferenceExporter().export(new StringWriter(), "MEETING:", Long.MAX_VALUE,
+                Long.MAX_VALUE);
+    }
+}
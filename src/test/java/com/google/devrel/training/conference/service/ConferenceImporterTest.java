@@ -0,0 +1,172 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.Key;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests for ConferenceImporter.
+ */
+public class ConferenceImporterTest {
+
+    private static final String USER_ID = "123456789";
+
+    private Profile profile;
+
+    private ConferenceImporter conferenceImporter;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        profile = new Profile(USER_ID, "Organizer", "organizer@example.com",
+                TeeShirtSize.NOT_SPECIFIED);
+        conferenceImporter = new ConferenceImporter();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private List<Conference> loadConferences() {
+        ofy().clear();
+        return ofy().load().type(Conference.class)
+                .ancestor(Key.create(Profile.class, USER_ID))
+                .order("name")
+                .list();
+    }
+
+    @Test
+    public void testImportCsv() throws Exception {
+        String csv = "name,description,topics,city,startDate,endDate,maxAttendees\n"
+                + "Alpha,\"First, and \"\"best\"\"\",Cloud;Web,London,2014-03-25,2014-03-26,10\n"
+                + ",Nameless,,,,,\n"
+                + "Beta,,,Tokyo,2014-04-02,2014-04-01,5\n"
+                + "Gamma,\"Multi\nline\",,,not a date,,\n"
+                + "Delta,,,,,,20\r\n";
+        ConferenceImporter.Summary summary = conferenceImporter.importConferences(
+                profile, new StringReader(csv), ConferenceImporter.Format.CSV);
+        assertEquals(2, summary.getImported());
+        assertEquals(3, summary.getRejected());
+        assertEquals(3, summary.getErrors().size());
+        assertTrue(summary.getErrors().get(0).startsWith("Row 2:"));
+
+        List<Conference> conferences = loadConferences();
+        assertEquals(2, conferences.size());
+        Conference alpha = conferences.get(0);
+        assertEquals("Alpha", alpha.getName());
+        assertEquals("First, and \"best\"", alpha.getDescription());
+        assertEquals(ImmutableList.of("Cloud", "Web"), alpha.getTopics());
+        assertEquals("London", alpha.getCity());
+        assertEquals(10, alpha.getSeatsAvailable());
+        assertEquals(3, alpha.getMonth());
+        assertEquals("Delta", conferences.get(1).getName());
+        assertEquals(20, conferences.get(1).getMaxAttendees());
+    }
+
+    @Test
+    public void testImportCsvRejectsLongRows() throws Exception {
+        String longField = "\"" + repeat('x', ConferenceImporter.MAX_FIELD_CHARS + 1) + "\n\"";
+        StringBuilder longRecord = new StringBuilder("Long");
+        for (int i = 0; i * 1024 < ConferenceImporter.MAX_RECORD_CHARS; i++) {
+            longRecord.append(',').append(repeat('y', 1024));
+        }
+        String csv = "name,description,topics,city,startDate,endDate,maxAttendees\n"
+                + "Alpha," + longField + ",,,,,\n"
+                + longRecord + "\n"
+                + "Beta,,,,,,\n"
+                + "Gamma," + longField;
+        ConferenceImporter.Summary summary = conferenceImporter.importConferences(
+                profile, new StringReader(csv), ConferenceImporter.Format.CSV);
+        assertEquals(1, summary.getImported());
+        assertEquals(3, summary.getRejected());
+        assertTrue(summary.getErrors().get(0).startsWith("Row 1:"));
+        assertTrue(summary.getErrors().get(1).startsWith("Row 2:"));
+
+        List<Conference> conferences = loadConferences();
+        assertEquals(1, conferences.size());
+        assertEquals("Beta", conferences.get(0).getName());
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void testImportJsonLinesInBatches() throws Exception {
+        int rows = ConferenceImporter.BATCH_SIZE * 2 + 1;
+        StringBuilder jsonLines = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            jsonLines.append("{\"name\": \"Conference ").append(i)
+                    .append("\", \"topics\": [\"Cloud\"], \"maxAttendees\": 3}\n");
+        }
+        jsonLines.append("[1, 2]\n");
+        ConferenceImporter.Summary summary = conferenceImporter.importConferences(
+                profile, new StringReader(jsonLines.toString()),
+                ConferenceImporter.Format.JSON_LINES);
+        assertEquals(rows, summary.getImported());
+        assertEquals(1, summary.getRejected());
+
+        List<Conference> conferences = loadConferences();
+        assertEquals(rows, conferences.size());
+        Set<Long> ids = new HashSet<>();
+        for (Conference conference : conferences) {
+            ids.add(conference.getId());
+            assertEquals(ImmutableList.of("Cloud"), conference.getTopics());
+            assertEquals(3, conference.getSeatsAvailable());
+        }
+        assertEquals(rows, ids.size());
+    }
+
+    @Test
+    public void testImportJsonLinesRejectsLongAndInvalidRows() throws Exception {
+        String jsonLines = "{\"name\": \"Alpha\"}\n"
+                + "{\"name\": \"" + repeat('x', ConferenceImporter.MAX_FIELD_CHARS + 1) + "\"}\n"
+                + "{\"name\": \"Gamma\", \"description\": \""
+                + repeat('x', ConferenceImporter.MAX_RECORD_CHARS) + "\"}\n"
+                + "{\"name\": \"Delta\", \"topics\": [null]}\n"
+                + "{\"name\": \n"
+                + "\n"
+                + "{\"name\": \"Beta\"}";
+        ConferenceImporter.Summary summary = conferenceImporter.importConferences(
+                profile, new StringReader(jsonLines), ConferenceImporter.Format.JSON_LINES);
+        assertEquals(2, summary.getImported());
+        assertEquals(4, summary.getRejected());
+        assertTrue(summary.getErrors().get(0).startsWith("Row 2:"));
+        assertTrue(summary.getErrors().get(1).startsWith("Row 3:"));
+        assertTrue(summary.getErrors().get(2).startsWith("Row 4:"));
+
+        List<String> names = new ArrayList<>();
+        for (Conference conference : loadConferences()) {
+            names.add(conference.getName());
+        }
+        Collections.sort(names);
+        assertEquals(ImmutableList.of("Alpha", "Beta"), names);
+    }
+}
@@ -0,0 +1,179 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.SetMultimap;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceListing;
+import com.google.devrel.training.conference.domain.ConferenceListing.Facet;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Tests for ConferenceListingService.
+ */
+public class ConferenceListingServiceTest {
+
+    private ConferenceListingService conferenceListingService;
+
+    /**
+     * The helper here intentionally applies all jobs, since the listings are built by global
+     * queries.
+     */
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferenceListingService = new ConferenceListingService();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static Conference saveConference(long id, String name, String city) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2015, Calendar.MARCH, 10);
+        Conference conference = new Conference(id, "organizer", new ConferenceForm(name, null,
+                ImmutableList.of("Java"), city, calendar.getTime(), calendar.getTime(), 10));
+        ofy().save().entity(conference).now();
+        return conference;
+    }
+
+    @Test
+    public void testGetFacetValues() throws Exception {
+        SetMultimap<Facet, String> facetValues =
+                ConferenceListingService.getFacetValues(saveConference(1L, "Name", "London"));
+        assertEquals(ImmutableList.of("London"),
+                ImmutableList.copyOf(facetValues.get(Facet.CITY)));
+        assertEquals(ImmutableList.of("Java"), ImmutableList.copyOf(facetValues.get(Facet.TOPIC)));
+        assertEquals(ImmutableList.of("3"), ImmutableList.copyOf(facetValues.get(Facet.MONTH)));
+    }
+
+    @Test
+    public void testRebuildSplitsIntoPages() throws Exception {
+        ofy().save().entity(new Profile("organizer", "Organizer", "", null)).now();
+        int count = ConferenceListing.PAGE_SIZE + 5;
+        for (int i = 0; i < count; i++) {
+            saveConference(i + 1, String.format("Conference %03d", i), "London");
+        }
+        saveConference(count + 1, "Elsewhere", "Paris");
+        assertEquals(count, conferenceListingService.rebuild(Facet.CITY, "London", null));
+
+        ConferenceListing first = conferenceListingService.getPage(Facet.CITY, "London", 0);
+        assertEquals(2, first.getPageCount());
+        assertEquals(count, first.getTotalCount());
+        assertEquals(ConferenceListing.PAGE_SIZE, first.getConferences().size());
+        assertEquals("Conference 000", first.getConferences().get(0).getName());
+        assertEquals("Organizer", first.getConferences().get(0).getOrganizerDisplayName());
+        ConferenceListing second = conferenceListingService.getPage(Facet.CITY, "London", 1);
+        assertEquals(5, second.getConferences().size());
+        assertEquals("Conference 104", second.getConferences().get(4).getName());
+
+        assertEquals(count + 1, conferenceListingService.rebuild(Facet.MONTH, "3", null));
+        assertEquals(1, conferenceListingService.rebuild(Facet.CITY, "Paris", null));
+    }
+
+    @Test
+    public void testRebuildDeletesStalePages() throws Exception {
+        List<Conference> conferences = new ArrayList<>();
+        int count = ConferenceListing.PAGE_SIZE + 1;
+        for (int i = 0; i < count; i++) {
+            conferences.add(saveConference(i + 1, "Conference " + i, "London"));
+        }
+        conferenceListingService.rebuild(Facet.CITY, "London", null);
+        assertNotNull(conferenceListingService.getPage(Facet.CITY, "London", 1));
+
+        // Moving a Conference out shrinks the listing to one page.
+        Conference moved = conferences.get(0);
+        moved.updateWithConferenceForm(new ConferenceForm(moved.getName(), null,
+                moved.getTopics(), "Paris", moved.getStartDate(), moved.getEndDate(), 10));
+        ofy().save().entity(moved).now();
+        assertEquals(count - 1,
+                conferenceListingService.rebuild(Facet.CITY, "London", moved.getWebsafeKey()));
+        assertEquals(1, conferenceListingService.getPage(Facet.CITY, "London", 0).getPageCount());
+        assertNull(conferenceListingService.getPage(Facet.CITY, "London", 1));
+    }
+
+    @Test
+    public void testRebuildKeepsPagesOfPreviousGeneration() throws Exception {
+        int count = ConferenceListing.PAGE_SIZE + 1;
+        for (int i = 0; i < count; i++) {
+            saveConference(i + 1, "Conference " + i, "London");
+        }
+        conferenceListingService.rebuild(Facet.CITY, "London", null);
+        ConferenceListing old = conferenceListingService.getPage(Facet.CITY, "London", 0);
+
+        // A reader holding the old head still finds its pages after the next rebuild.
+        conferenceListingService.rebuild(Facet.CITY, "London", null);
+        ConferenceListing head = conferenceListingService.getPage(Facet.CITY, "London", 0);
+        assertNotEquals(old.getGeneration(), head.getGeneration());
+        assertNotNull(ofy().load().key(ConferenceListing.key(Facet.CITY, "London",
+                old.getGeneration(), 1)).now());
+        assertEquals(1, conferenceListingService.getPage(Facet.CITY, "London", 1)
+                .getConferences().size());
+
+        // And the rebuild after it deletes them.
+        conferenceListingService.rebuild(Facet.CITY, "London", null);
+        ofy().clear();
+        assertNull(ofy().load().key(ConferenceListing.key(Facet.CITY, "London",
+                old.getGeneration(), 1)).now());
+        assertNotNull(conferenceListingService.getPage(Facet.CITY, "London", 1));
+    }
+
+    @Test
+    public void testRebuildChecksNewestChangeOfWindow() throws Exception {
+        Conference first = saveConference(1L, "First", "London");
+        final Conference newest = saveConference(2L, "Newest", "London");
+        // An index that has caught up with the first change only.
+        ConferenceRepository lagging =
+                new ForwardingConferenceRepository(new ObjectifyConferenceRepository()) {
+            @Override
+            public List<Conference> query(ConferenceQueryForm conferenceQueryForm) {
+                List<Conference> conferences = new ArrayList<>();
+                for (Conference conference : super.query(conferenceQueryForm)) {
+                    if (!conference.getWebsafeKey().equals(newest.getWebsafeKey())) {
+                        conferences.add(conference);
+                    }
+                }
+                return conferences;
+            }
+        };
+        Repositories.install(lagging, new ObjectifyProfileRepository(),
+                new ObjectifyUserRepository());
+        try {
+            assertEquals(1, conferenceListingService.rebuild(Facet.CITY, "London",
+                    first.getWebsafeKey(), "listing-task"));
+            MemcacheServiceFactory.getMemcacheService("listingChanges")
+                    .put("listing-task", newest.getWebsafeKey());
+            try {
+                conferenceListingService.rebuild(Facet.CITY, "London", first.getWebsafeKey(),
+                        "listing-task");
+                fail("The index has not caught up with the newest change.");
+            } catch (IllegalStateException e) {
+                // Expected, so the task is retried.
+            }
+        } finally {
+            Repositories.reset();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceChanges;
+import com.google.devrel.training.conference.form.ConferenceForm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests for ConferenceSyncService.
+ */
+public class ConferenceSyncServiceTest {
+
+    private ConferenceSyncService conferenceSyncService;
+
+    /**
+     * The helper here intentionally applies all jobs, since the sync uses a global query.
+     */
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        // Without a settle window, the token moves up to now.
+        conferenceSyncService = new ConferenceSyncService(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    /**
+     * Saves a Conference as if at a given time, since the save itself stamps the current time.
+     */
+    private Conference saveConference(long id, String name, long lastModifiedMillis) {
+        Conference conference = new Conference(id, "organizer",
+                new ConferenceForm(name, null, null, null, null, null, 10));
+        return saveAt(conference, lastModifiedMillis);
+    }
+
+    private Conference saveAt(Conference conference, long lastModifiedMillis) {
+        Entity entity = ofy().save().toEntity(conference);
+        entity.setProperty("lastModified", new Date(lastModifiedMillis));
+        DatastoreServiceFactory.getDatastoreService().put(entity);
+        // Drops the copies Objectify cached, which the put above bypassed.
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+        ofy().clear();
+        return conference;
+    }
+
+    private static List<String> names(ConferenceChanges changes) {
+        List<String> names = new ArrayList<>();
+        for (Conference conference : changes.getConferences()) {
+            names.add(conference.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testSyncReturnsOnlyChanges() throws Exception {
+        long past = System.currentTimeMillis() - 60 * 1000;
+        Conference first = saveConference(1L, "First", past);
+        saveConference(2L, "Second", past + 1);
+        ConferenceChanges changes = conferenceSyncService.getChanges(null);
+        assertEquals(2, changes.getConferences().size());
+        assertFalse(changes.isMore());
+
+        // A registration saves the Conference, which makes it a change.
+        first.bookSeats(1);
+        saveAt(first, past + 2);
+        changes = conferenceSyncService.getChanges(changes.getSyncToken());
+        assertEquals(1, changes.getConferences().size());
+        assertEquals(9, changes.getConferences().get(0).getSeatsAvailable());
+        changes = conferenceSyncService.getChanges(changes.getSyncToken());
+        assertTrue(changes.getConferences().isEmpty());
+    }
+
+    @Test
+    public void testSyncPagesThroughChanges() throws Exception {
+        long past = System.currentTimeMillis() - 60 * 1000;
+        int count = ConferenceSyncService.PAGE_SIZE + 5;
+        for (int i = 0; i < count; i++) {
+            saveConference(i + 1, "Conference " + i, past + i);
+        }
+        ConferenceChanges changes = conferenceSyncService.getChanges(null);
+        assertEquals(ConferenceSyncService.PAGE_SIZE, changes.getConferences().size());
+        assertTrue(changes.isMore());
+        changes = conferenceSyncService.getChanges(changes.getSyncToken());
+        assertFalse(changes.isMore());
+        assertEquals(5, changes.getConferences().size());
+        assertTrue(names(changes).contains("Conference " + (count - 1)));
+    }
+
+    @Test
+    public void testSyncPagesWithinAMillisecond() throws Exception {
+        long past = System.currentTimeMillis() - 60 * 1000;
+        int count = ConferenceSyncService.PAGE_SIZE + 5;
+        for (int i = 0; i < count; i++) {
+            saveConference(i + 1, "Conference " + i, past);
+        }
+        saveConference(count + 1, "Later", past + 1);
+        Set<String> names = new HashSet<>();
+        ConferenceChanges changes = conferenceSyncService.getChanges(null);
+        assertTrue(changes.isMore());
+        names.addAll(names(changes));
+        changes = conferenceSyncService.getChanges(changes.getSyncToken());
+        assertFalse(changes.isMore());
+        names.addAll(names(changes));
+        // Neither skips nor repeats the rest of the millisecond.
+        assertEquals(6, changes.getConferences().size());
+        assertEquals(count + 1, names.size());
+    }
+
+    @Test
+    public void testUnsettledChangesAreReturnedAgain() throws Exception {
+        ConferenceSyncService settling = new ConferenceSyncService(60 * 1000);
+        saveConference(1L, "Settled", System.currentTimeMillis() - 120 * 1000);
+        saveConference(2L, "Recent", System.currentTimeMillis());
+        ConferenceChanges changes = settling.getChanges(null);
+        assertEquals(2, changes.getConferences().size());
+        changes = settling.getChanges(changes.getSyncToken());
+        assertEquals(Collections.singletonList("Recent"), names(changes));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidToken() throws Exception {
+        conferenceSyncService.getChanges("not a token!");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTokenKey() throws Exception {
+        conferenceSyncService.getChanges("abc.not a key");
+    }
+}
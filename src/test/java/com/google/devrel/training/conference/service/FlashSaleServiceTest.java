@@ -0,0 +1,287 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo.TaskStateInfo;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.SeatHoldCounter.Acquisition;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+import com.googlecode.objectify.Key;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for FlashSaleService.
+ */
+public class FlashSaleServiceTest {
+
+    private static final String NAME = "GCP Live";
+
+    private User organizer;
+
+    private ConferenceApi conferenceApi;
+
+    private FlashSaleService flashSaleService;
+
+    /**
+     * The helper here intentionally applies all jobs, since the confirmation uses a global query.
+     */
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy(), new LocalTaskQueueTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        organizer = new User("organizer@example.com", "gmail.com", "123456789");
+        conferenceApi = new ConferenceApi();
+        flashSaleService = new FlashSaleService(new LocalSeatHoldCounter(),
+                new TransactionRunner());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private Conference createConference(int maxAttendees) throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(NAME, null,
+                ImmutableList.of("Cloud"), null, null, null, maxAttendees);
+        return conferenceApi.createConference(organizer, conferenceForm, null);
+    }
+
+    private Profile createProfile(String userId) {
+        Profile profile = new Profile(userId, userId, userId + "@example.com", null);
+        ofy().save().entity(profile).now();
+        return profile;
+    }
+
+    @Test
+    public void testConfirmRegistersHeldSeats() throws Exception {
+        Conference conference = createConference(2);
+        String websafeKey = conference.getWebsafeKey();
+        flashSaleService.open(websafeKey, conference.getSeatsAvailable());
+
+        Profile first = createProfile("first");
+        Profile second = createProfile("second");
+        assertEquals(Acquisition.GRANTED, flashSaleService.tryAcquire(websafeKey));
+        flashSaleService.hold(first, websafeKey);
+        assertEquals(Acquisition.GRANTED, flashSaleService.tryAcquire(websafeKey));
+        flashSaleService.hold(second, websafeKey);
+
+        assertEquals(2, flashSaleService.confirm(websafeKey));
+        ofy().clear();
+        conference = ofy().load().key(Key.<Conference>create(websafeKey)).now();
+        assertEquals(0, conference.getSeatsAvailable());
+        assertTrue(ofy().load().key(Key.create(Profile.class, "first")).now()
+                .getConferenceKeysToAttend().contains(websafeKey));
+        assertTrue(ofy().load().key(Key.create(Profile.class, "second")).now()
+                .getConferenceKeysToAttend().contains(websafeKey));
+        assertNull(ofy().load().key(SeatHold.key("first", websafeKey)).now());
+    }
+
+    @Test
+    public void testCounterSellsOut() throws Exception {
+        Conference conference = createConference(1);
+        String websafeKey = conference.getWebsafeKey();
+        assertEquals(Acquisition.UNAVAILABLE, flashSaleService.tryAcquire(websafeKey));
+
+        flashSaleService.open(websafeKey, conference.getSeatsAvailable());
+        assertEquals(Acquisition.GRANTED, flashSaleService.tryAcquire(websafeKey));
+        assertEquals(Acquisition.SOLD_OUT, flashSaleService.tryAcquire(websafeKey));
+        flashSaleService.release(websafeKey);
+        assertEquals(Acquisition.GRANTED, flashSaleService.tryAcquire(websafeKey));
+
+        flashSaleService.close(websafeKey);
+        assertEquals(Acquisition.UNAVAILABLE, flashSaleService.tryAcquire(websafeKey));
+    }
+
+    @Test
+    public void testDuplicateHoldReleasesSeat() throws Exception {
+        Conference conference = createConference(2);
+        String websafeKey = conference.getWebsafeKey();
+        flashSaleService.open(websafeKey, conference.getSeatsAvailable());
+
+        Profile profile = createProfile("first");
+        assertEquals(Acquisition.GRANTED, flashSaleService.tryAcquire(websafeKey));
+        flashSaleService.hold(profile, websafeKey);
+        assertEquals(Acquisition.GRANTED, flashSaleService.tryAcquire(websafeKey));
+        flashSaleService.hold(profile, websafeKey);
+
+        // The second hold gave its seat back, so one seat is still left.
+        assertEquals(Acquisition.GRANTED, flashSaleService.tryAcquire(websafeKey));
+        assertEquals(Acquisition.SOLD_OUT, flashSaleService.tryAcquire(websafeKey));
+    }
+
+    @Test
+    public void testOverdueHoldIsConfirmed() throws Exception {
+        Conference conference = createConference(1);
+        String websafeKey = conference.getWebsafeKey();
+        flashSaleService.open(websafeKey, conference.getSeatsAvailable());
+        assertEquals(Acquisition.GRANTED, flashSaleService.tryAcquire(websafeKey));
+        createProfile("first");
+        ofy().save().entity(new SeatHold("first", websafeKey, -1)).now();
+
+        // The user was told the registration succeeded, so the hold does not expire.
+        assertEquals(1, flashSaleService.confirmOverdue());
+        assertEquals(1, flashSaleService.confirm(websafeKey));
+        assertTrue(ofy().load().key(Key.create(Profile.class, "first")).now()
+                .getConferenceKeysToAttend().contains(websafeKey));
+        assertEquals(0, flashSaleService.confirmOverdue());
+    }
+
+    @Test
+    public void testHoldWithoutSeatIsWaitlisted() throws Exception {
+        Conference conference = createConference(1);
+        String websafeKey = conference.getWebsafeKey();
+        // A counter out of step with the Conference, as after lowering the capacity.
+        flashSaleService.open(websafeKey, 2);
+        assertEquals(Acquisition.GRANTED, flashSaleService.tryAcquire(websafeKey));
+        flashSaleService.hold(createProfile("first"), websafeKey);
+        assertEquals(Acquisition.GRANTED, flashSaleService.tryAcquire(websafeKey));
+        flashSaleService.hold(createProfile("second"), websafeKey);
+
+        assertEquals(1, flashSaleService.confirm(websafeKey));
+        ofy().clear();
+        assertNotNull(ofy().load().key(WaitlistEntry.key("second", websafeKey)).now());
+        assertNull(ofy().load().key(SeatHold.key("second", websafeKey)).now());
+        assertFalse(ofy().load().key(Key.create(Profile.class, "second")).now()
+                .getConferenceKeysToAttend().contains(websafeKey));
+    }
+
+    @Test
+    public void testHoldKeepsConcurrentConfirmation() throws Exception {
+        Conference first = createConference(1);
+        Conference second = createConference(1);
+        flashSaleService.open(first.getWebsafeKey(), 1);
+        flashSaleService.open(second.getWebsafeKey(), 1);
+        Profile profile = createProfile("first");
+        flashSaleService.tryAcquire(first.getWebsafeKey());
+        flashSaleService.hold(profile, first.getWebsafeKey());
+        // The copy loaded for the second registration, before the first one is confirmed.
+        Profile stale = ofy().load().key(Key.create(Profile.class, "first")).now();
+        ofy().clear();
+        assertEquals(1, flashSaleService.confirm(first.getWebsafeKey()));
+
+        ofy().clear();
+        flashSaleService.tryAcquire(second.getWebsafeKey());
+        flashSaleService.hold(stale, second.getWebsafeKey());
+        assertEquals(1, flashSaleService.confirm(second.getWebsafeKey()));
+        ofy().clear();
+        assertEquals(ImmutableSet.of(first.getWebsafeKey(), second.getWebsafeKey()),
+                ImmutableSet.copyOf(ofy().load().key(Key.create(Profile.class, "first")).now()
+                        .getConferenceKeysToAttend()));
+    }
+
+    @Test
+    public void testCounterFollowsCapacity() throws Exception {
+        Conference conference = createConference(1);
+        String websafeKey = conference.getWebsafeKey();
+        conferenceApi.setFlashSale(organizer, websafeKey, true);
+        conferenceApi.updateConference(organizer, new ConferenceForm(NAME, null,
+                ImmutableList.of("Cloud"), null, null, null, 3), websafeKey);
+        // The API uses the shared counter.
+        FlashSaleService shared = new FlashSaleService();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Acquisition.GRANTED, shared.tryAcquire(websafeKey));
+        }
+        assertEquals(Acquisition.SOLD_OUT, shared.tryAcquire(websafeKey));
+    }
+
+    private Conference loadConference(String websafeKey) {
+        ofy().clear();
+        return ofy().load().key(Key.<Conference>create(websafeKey)).now();
+    }
+
+    private boolean isAttending(User user, String websafeKey) {
+        ofy().clear();
+        return ofy().load().key(Key.create(Profile.class, user.getUserId())).now()
+                .getConferenceKeysToAttend().contains(websafeKey);
+    }
+
+    private static boolean isPromotionScheduled() {
+        for (TaskStateInfo task : LocalTaskQueueTestConfig.getLocalTaskQueue()
+                .getQueueStateInfo().get("default").getTaskInfo()) {
+            if (task.getUrl().equals("/tasks/promote_waitlist")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fills the only seat of a conference in a flash sale, and waitlists another user who finds
+     * the sale sold out.
+     */
+    private void fillAndWaitlist(String websafeKey, User attending, User waiting,
+                                 FlashSaleService shared) throws Exception {
+        conferenceApi.setFlashSale(organizer, websafeKey, true);
+        conferenceApi.registerForConference(attending, websafeKey, null);
+        assertEquals(1, shared.confirm(websafeKey));
+        try {
+            conferenceApi.registerForConference(waiting, websafeKey, null);
+            fail("Registering for a sold out flash sale should throw a ConflictException.");
+        } catch (ConflictException e) {
+            assertEquals("There are no seats available. You have been added to the waitlist.",
+                    e.getMessage());
+        }
+        shared.confirm(websafeKey);
+        assertNotNull(ofy().load().key(WaitlistEntry.key(waiting.getUserId(), websafeKey)).now());
+        assertEquals(1, loadConference(websafeKey).getWaitlisted());
+    }
+
+    @Test
+    public void testFreedSeatGoesToWaitlistFirst() throws Exception {
+        String websafeKey = createConference(1).getWebsafeKey();
+        User attending = new User("attending@example.com", "gmail.com", "111111111");
+        User waiting = new User("waiting@example.com", "gmail.com", "222222222");
+        // The API uses the shared counter.
+        FlashSaleService shared = new FlashSaleService();
+        fillAndWaitlist(websafeKey, attending, waiting, shared);
+
+        conferenceApi.unregisterFromConference(attending, websafeKey);
+        // The seat is kept for the waiting user rather than sold again.
+        assertEquals(Acquisition.SOLD_OUT, shared.tryAcquire(websafeKey));
+        assertEquals(1, loadConference(websafeKey).getWaitlistSeats());
+        assertEquals(1, new WaitlistService().promote(websafeKey));
+        assertTrue(isAttending(waiting, websafeKey));
+        assertEquals(0, loadConference(websafeKey).getWaitlistSeats());
+    }
+
+    @Test
+    public void testClosingSalePromotesWaitlist() throws Exception {
+        String websafeKey = createConference(1).getWebsafeKey();
+        User attending = new User("attending@example.com", "gmail.com", "111111111");
+        User waiting = new User("waiting@example.com", "gmail.com", "222222222");
+        FlashSaleService shared = new FlashSaleService();
+        fillAndWaitlist(websafeKey, attending, waiting, shared);
+
+        // The new seat is kept for the waiting user rather than added to the counter.
+        conferenceApi.updateConference(organizer, new ConferenceForm(NAME, null,
+                ImmutableList.of("Cloud"), null, null, null, 2), websafeKey);
+        assertEquals(Acquisition.SOLD_OUT, shared.tryAcquire(websafeKey));
+        assertEquals(1, loadConference(websafeKey).getWaitlistSeats());
+
+        LocalTaskQueueTestConfig.getLocalTaskQueue().flushQueue("default");
+        conferenceApi.setFlashSale(organizer, websafeKey, false);
+        assertTrue("Closing the sale should schedule a promotion.", isPromotionScheduled());
+        assertEquals(0, loadConference(websafeKey).getWaitlistSeats());
+        assertEquals(1, new WaitlistService().promote(websafeKey));
+        assertTrue(isAttending(waiting, websafeKey));
+    }
+}
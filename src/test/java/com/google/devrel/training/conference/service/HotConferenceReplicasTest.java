@@ -0,0 +1,90 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+
+/**
+ * Tests for HotConferenceReplicas.
+ */
+public class HotConferenceReplicasTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    private HotConferenceReplicas replicas;
+
+    private Conference conference;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        replicas = new HotConferenceReplicas();
+        conference = new Conference(1L, "organizer", new ConferenceForm("Hot", null,
+                ImmutableList.of("Go"), "London", null, null, 10));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testEveryReplicaHoldsTheCopy() throws Exception {
+        replicas.put(conference, 7L);
+        for (int i = 0; i < HotConferenceReplicas.REPLICAS; i++) {
+            assertNotNull(MemcacheServiceFactory.getMemcacheService("hotConferences")
+                    .get(conference.getWebsafeKey() + "#" + i));
+        }
+        // Whichever replica is picked, the copy reads back as the Conference.
+        for (int i = 0; i < 4 * HotConferenceReplicas.REPLICAS; i++) {
+            Conference copy = replicas.get(conference.getWebsafeKey(), 7L);
+            assertEquals("Hot", copy.getName());
+            assertEquals(ImmutableList.of("Go"), copy.getTopics());
+            assertEquals(conference.getWebsafeKey(), copy.getWebsafeKey());
+            // A copy, so callers changing it do not change the replica.
+            assertNotSame(conference, copy);
+        }
+    }
+
+    @Test
+    public void testCopiesKeepLastModified() throws Exception {
+        conference.setLastModified(new Date(1000));
+        replicas.put(conference, 7L);
+        assertEquals(1000, conference.getLastModified().getTime());
+        assertEquals(1000, replicas.get(conference.getWebsafeKey(), 7L)
+                .getLastModified().getTime());
+    }
+
+    @Test
+    public void testCopiesOfOtherVersionsAreNotUsed() throws Exception {
+        replicas.put(conference, 7L);
+        assertNull(replicas.get(conference.getWebsafeKey(), 8L));
+        assertNull(replicas.get(conference.getWebsafeKey(), null));
+    }
+
+    @Test
+    public void testUnknownVersionsAreNotWritten() throws Exception {
+        replicas.put(conference, null);
+        assertNull(MemcacheServiceFactory.getMemcacheService("hotConferences")
+                .get(conference.getWebsafeKey() + "#0"));
+    }
+
+    @Test
+    public void testMissingConference() throws Exception {
+        assertNull(replicas.get(conference.getWebsafeKey(), 7L));
+    }
+}
@@ -0,0 +1,46 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for HotKeys.
+ */
+public class HotKeysTest {
+
+    @Test
+    public void testFindsHeavyHitters() throws Exception {
+        HotKeys hotKeys = new HotKeys("test", 1);
+        for (int i = 0; i < 1000; i++) {
+            hotKeys.record("trending");
+            // Many more distinct keys than counters, each accessed once.
+            hotKeys.record("key" + i);
+            if (i % 2 == 0) {
+                hotKeys.record("popular");
+            }
+        }
+        hotKeys.refresh();
+        assertTrue(hotKeys.isHot("trending"));
+        assertTrue(hotKeys.isHot("popular"));
+        assertFalse(hotKeys.isHot("key999"));
+        Map<String, Long> hotCounts = hotKeys.getHotCounts();
+        assertEquals("trending", hotCounts.keySet().iterator().next());
+        // Overestimated by at most the smallest count.
+        assertTrue(hotCounts.get("trending") >= 1000);
+        assertEquals(2500, hotKeys.getTotal());
+    }
+
+    @Test
+    public void testQuietKeysAreNotHot() throws Exception {
+        HotKeys hotKeys = new HotKeys("test", 1);
+        for (int i = 0; i < 10; i++) {
+            hotKeys.record("only");
+        }
+        hotKeys.refresh();
+        assertFalse(hotKeys.isHot("only"));
+        assertTrue(hotKeys.getHotCounts().isEmpty());
+    }
+}
@@ -0,0 +1,256 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Sort;
+import com.google.devrel.training.conference.service.ConferenceQueryPlanner.Plan;
+import com.googlecode.objectify.Key;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests for InMemoryConferenceRepository, checking it against the Objectify repository.
+ */
+public class InMemoryConferenceRepositoryTest {
+
+    private ConferenceRepository objectifyRepository;
+
+    private ConferenceRepository inMemoryRepository;
+
+    /**
+     * The helper here intentionally applies all jobs, since the queries are global.
+     */
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        objectifyRepository = new ObjectifyConferenceRepository();
+        inMemoryRepository = new InMemoryConferenceRepository();
+        save(1L, "alice", "Delta", "London", ImmutableList.of("Java", "Web"), 3, 100, 2);
+        save(2L, "alice", "Alpha", "Tokyo", ImmutableList.of("Go"), 6, 10, 10);
+        save(3L, "bob", "Charlie", "London", ImmutableList.of("Go", "Java"), 6, 50, 1);
+        save(4L, "bob", "Bravo", "Paris", null, 11, 20, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private void save(long id, String organizerUserId, String name, String city,
+                      List<String> topics, int month, int maxAttendees, int seatsBooked) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2015, month - 1, 15);
+        Date startDate = calendar.getTime();
+        Conference conference = new Conference(id, organizerUserId, new ConferenceForm(
+                name, null, topics, city, startDate, startDate, maxAttendees));
+        conference.bookSeats(seatsBooked);
+        objectifyRepository.save(conference);
+        inMemoryRepository.save(conference);
+    }
+
+    private void assertSameResults(ConferenceQueryForm conferenceQueryForm) {
+        List<String> expected = names(objectifyRepository.query(conferenceQueryForm));
+        assertEquals(expected, names(inMemoryRepository.query(conferenceQueryForm)));
+    }
+
+    private static List<String> names(List<Conference> conferences) {
+        List<String> names = new ArrayList<>();
+        for (Conference conference : conferences) {
+            names.add(conference.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testQueryMatchesObjectify() throws Exception {
+        assertSameResults(new ConferenceQueryForm());
+        assertSameResults(new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, Operator.EQ, "London")));
+        assertSameResults(new ConferenceQueryForm()
+                .filter(new Filter(Field.TOPIC, Operator.EQ, "Go")));
+        assertSameResults(new ConferenceQueryForm()
+                .filter(new Filter(Field.MONTH, Operator.GTEQ, "6"))
+                .filter(new Filter(Field.MONTH, Operator.LT, "11")));
+        assertSameResults(new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, Operator.EQ, "London"))
+                .filter(new Filter(Field.MAX_ATTENDEES, Operator.GT, "20")));
+        assertSameResults(new ConferenceQueryForm()
+                .filter(new Filter(Field.TOPIC, Operator.LT, "Java")));
+        assertSameResults(new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, Operator.NE, "London")));
+    }
+
+    @Test
+    public void testDisjunctionsMatchObjectify() throws Exception {
+        ConferenceQueryForm cities = new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, ImmutableList.of("Tokyo", "Paris")));
+        assertSameResults(cities);
+        assertEquals(ImmutableList.of("Alpha", "Bravo"), names(objectifyRepository.query(cities)));
+
+        // Charlie has both topics and is returned once.
+        ConferenceQueryForm topics = new ConferenceQueryForm()
+                .filter(new Filter(Field.TOPIC, ImmutableList.of("Go", "Java")));
+        assertSameResults(topics);
+        assertEquals(ImmutableList.of("Alpha", "Charlie", "Delta"),
+                names(objectifyRepository.query(topics)));
+        assertEquals(3, objectifyRepository.count(topics));
+        assertEquals(3, inMemoryRepository.count(topics));
+        assertSameResults(topics.limit(2));
+        assertEquals(ImmutableList.of("Alpha", "Charlie"),
+                names(objectifyRepository.query(topics)));
+
+        ConferenceQueryForm alternatives = new ConferenceQueryForm()
+                .anyOf(new Filter(Field.CITY, Operator.EQ, "Paris"))
+                .anyOf(new Filter(Field.TOPIC, Operator.EQ, "Web"));
+        assertSameResults(alternatives);
+        assertEquals(ImmutableList.of("Bravo", "Delta"),
+                names(objectifyRepository.query(alternatives)));
+
+        assertSameResults(new ConferenceQueryForm()
+                .filter(new Filter(Field.MONTH, Operator.GTEQ, "6"))
+                .filter(new Filter(Field.CITY, ImmutableList.of("London", "Tokyo"))));
+    }
+
+    @Test
+    public void testMergedDisjunctionsMatchObjectify() throws Exception {
+        // Enough matches per sub-query for the merge to load several batches of each.
+        List<String> cities = ImmutableList.of("London", "Tokyo", "Paris");
+        for (int i = 0; i < 30; i++) {
+            save(10L + i, "carol", "Conference " + (char) ('A' + i % 26) + i,
+                    cities.get(i % 3), ImmutableList.of("Go"), 1 + i % 12, 10, 0);
+        }
+        ConferenceQueryForm all = new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, cities));
+        assertEquals(Plan.INDEX, ConferenceQueryPlanner.plan(all));
+        assertSameResults(all);
+        assertEquals(34, objectifyRepository.query(all).size());
+        for (int limit : new int[] {1, 5, 7, 20, 40}) {
+            ConferenceQueryForm page = new ConferenceQueryForm()
+                    .filter(new Filter(Field.CITY, cities)).limit(limit);
+            assertSameResults(page);
+            assertEquals(names(objectifyRepository.query(all)).subList(0, Math.min(limit, 34)),
+                    names(objectifyRepository.query(page)));
+        }
+    }
+
+    @Test
+    public void testSortsMatchObjectify() throws Exception {
+        ConferenceQueryForm largest = new ConferenceQueryForm().sort(Sort.MAX_ATTENDEES);
+        assertEquals(Plan.INDEX, ConferenceQueryPlanner.plan(largest));
+        assertSameResults(largest);
+        assertEquals(ImmutableList.of("Delta", "Charlie", "Bravo", "Alpha"),
+                names(objectifyRepository.query(largest)));
+
+        ConferenceQueryForm largeEnough = new ConferenceQueryForm().sort(Sort.MAX_ATTENDEES)
+                .filter(new Filter(Field.MAX_ATTENDEES, Operator.GT, "15"));
+        assertEquals(Plan.INDEX, ConferenceQueryPlanner.plan(largeEnough));
+        assertSameResults(largeEnough);
+
+        ConferenceQueryForm mostSeats = new ConferenceQueryForm().sort(Sort.SEATS_AVAILABLE)
+                .filter(new Filter(Field.CITY, Operator.EQ, "London"));
+        assertEquals(Plan.TOP_K, ConferenceQueryPlanner.plan(mostSeats));
+        assertSameResults(mostSeats);
+        assertEquals(ImmutableList.of("Delta", "Charlie"),
+                names(objectifyRepository.query(mostSeats)));
+
+        ConferenceQueryForm soonest = new ConferenceQueryForm().sort(Sort.START_DATE).limit(2);
+        assertEquals(Plan.TOP_K, ConferenceQueryPlanner.plan(soonest));
+        assertSameResults(soonest);
+        assertEquals(ImmutableList.of("Delta", "Alpha"),
+                names(objectifyRepository.query(soonest)));
+
+        ConferenceQueryForm topics = new ConferenceQueryForm().sort(Sort.SEATS_AVAILABLE)
+                .filter(new Filter(Field.TOPIC, ImmutableList.of("Go", "Java"))).limit(2);
+        assertSameResults(topics);
+        assertEquals(ImmutableList.of("Delta", "Charlie"),
+                names(objectifyRepository.query(topics)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDisjunctionTooLarge() throws Exception {
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            values.add("value" + i);
+        }
+        new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, values))
+                .filter(new Filter(Field.TOPIC, values))
+                .expand();
+    }
+
+    @Test
+    public void testListsMatchObjectify() throws Exception {
+        assertEquals(names(objectifyRepository.listByOrganizer("bob")),
+                names(inMemoryRepository.listByOrganizer("bob")));
+        assertEquals(ImmutableList.of("Bravo", "Charlie"),
+                names(inMemoryRepository.listByOrganizer("bob")));
+        assertEquals(names(objectifyRepository.listBySeatsAvailable(0, 60)),
+                names(inMemoryRepository.listBySeatsAvailable(0, 60)));
+    }
+
+    private static List<String> scan(ConferenceRepository repository) {
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        do {
+            ConferencePage page = repository.listAll(cursor, 3);
+            names.addAll(names(page.getConferences()));
+            cursor = page.getCursor();
+        } while (cursor != null);
+        return names;
+    }
+
+    @Test
+    public void testScansMatchObjectify() throws Exception {
+        // In key order, which is by organizer and then by id.
+        assertEquals(ImmutableList.of("Delta", "Alpha", "Charlie", "Bravo"),
+                scan(objectifyRepository));
+        assertEquals(scan(objectifyRepository), scan(inMemoryRepository));
+
+        List<Conference> changes = objectifyRepository.listChangedSince(0, null, 10);
+        assertEquals(4, changes.size());
+        assertEquals(names(changes), names(inMemoryRepository.listChangedSince(0, null, 10)));
+        Conference first = changes.get(0);
+        Key<Conference> firstKey = Key.create(first.getWebsafeKey());
+        long firstMillis = first.getLastModified().getTime();
+        assertEquals(names(changes.subList(1, 3)),
+                names(objectifyRepository.listChangedSince(firstMillis, firstKey, 2)));
+        assertEquals(names(changes.subList(1, 3)),
+                names(inMemoryRepository.listChangedSince(firstMillis, firstKey, 2)));
+    }
+
+    @Test
+    public void testGetAllAndDelete() throws Exception {
+        Key<Conference> first =
+                Key.create(Key.create(Profile.class, "alice"), Conference.class, 1L);
+        Key<Conference> missing =
+                Key.create(Key.create(Profile.class, "alice"), Conference.class, 99L);
+        assertEquals(ImmutableList.of(first),
+                ImmutableList.copyOf(inMemoryRepository.getAll(
+                        ImmutableList.of(missing, first)).keySet()));
+        inMemoryRepository.delete(first);
+        assertNull(inMemoryRepository.get(first));
+    }
+}
@@ -0,0 +1,71 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Profile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for InMemoryProfileRepository, checking it against the Objectify repository.
+ */
+public class InMemoryProfileRepositoryTest {
+
+    /**
+     * The helper here intentionally applies all jobs, since the scans are global queries.
+     */
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    private ProfileRepository objectifyRepository;
+
+    private ProfileRepository inMemoryRepository;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        objectifyRepository = new ObjectifyProfileRepository();
+        inMemoryRepository = new InMemoryProfileRepository();
+        for (String userId : ImmutableList.of("dave", "alice", "erin", "carol", "bob")) {
+            Profile profile = new Profile(userId, userId, userId + "@example.com", null);
+            objectifyRepository.save(profile);
+            inMemoryRepository.save(profile);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static List<String> scan(ProfileRepository repository) {
+        List<String> userIds = new ArrayList<>();
+        String cursor = null;
+        do {
+            ProfilePage page = repository.listAll(cursor, 2);
+            for (Profile profile : page.getProfiles()) {
+                userIds.add(profile.getUserId());
+            }
+            cursor = page.getCursor();
+        } while (cursor != null);
+        return userIds;
+    }
+
+    @Test
+    public void testScansMatchObjectify() throws Exception {
+        assertEquals(ImmutableList.of("alice", "bob", "carol", "dave", "erin"),
+                scan(objectifyRepository));
+        assertEquals(scan(objectifyRepository), scan(inMemoryRepository));
+    }
+}
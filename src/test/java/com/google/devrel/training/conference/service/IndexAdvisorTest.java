@@ -0,0 +1,135 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for IndexAdvisor.
+ */
+public class IndexAdvisorTest {
+
+    private static final List<String> NONE = ImmutableList.of();
+
+    private static final List<String> BY_NAME = ImmutableList.of("name");
+
+    private static IndexDefinition conferenceIndex(String... properties) {
+        return new IndexDefinition("Conference", false, ImmutableList.copyOf(properties));
+    }
+
+    @Test
+    public void testRequiredIndexes() throws Exception {
+        assertNull(QueryShape.ofConference(false, ImmutableList.of("city", "month"), null, NONE)
+                .getRequiredIndex());
+        assertNull(QueryShape.ofConference(false, NONE, "seatsAvailable", NONE)
+                .getRequiredIndex());
+        assertNull(QueryShape.ofConference(false, NONE, "lastModified",
+                ImmutableList.of("lastModified")).getRequiredIndex());
+        assertEquals(conferenceIndex("city", "name"),
+                QueryShape.ofConference(false, ImmutableList.of("city"), null, BY_NAME)
+                        .getRequiredIndex());
+        assertEquals(conferenceIndex("city", "maxAttendees", "name"),
+                QueryShape.ofConference(false, ImmutableList.of("city"), "maxAttendees",
+                        ImmutableList.of("maxAttendees", "name")).getRequiredIndex());
+        assertEquals(new IndexDefinition("Conference", true, BY_NAME),
+                QueryShape.ofConference(true, NONE, null, BY_NAME).getRequiredIndex());
+    }
+
+    @Test
+    public void testParsesDeclaredIndexes() throws Exception {
+        List<IndexDefinition> declared;
+        try (InputStream inputStream =
+                     new FileInputStream("src/main/webapp/WEB-INF/datastore-indexes.xml")) {
+            declared = IndexDefinition.parse(inputStream);
+        }
+        assertEquals(17, declared.size());
+        assertEquals(new IndexDefinition("Conference", true, BY_NAME), declared.get(0));
+        assertEquals(conferenceIndex("city", "month", "topics", "maxAttendees", "name"),
+                declared.get(10));
+        // The order of the equality properties does not matter.
+        assertTrue(conferenceIndex("month", "city", "name").serves(QueryShape.ofConference(
+                false, ImmutableList.of("city", "month"), null, BY_NAME)));
+        assertFalse(conferenceIndex("city", "name").serves(QueryShape.ofConference(
+                false, ImmutableList.of("city", "month"), null, BY_NAME)));
+    }
+
+    @Test
+    public void testRecommendsMinimalSet() throws Exception {
+        IndexAdvisor indexAdvisor = new IndexAdvisor();
+        QueryShape cityAndMonth =
+                QueryShape.ofConference(false, ImmutableList.of("city", "month"), null, BY_NAME);
+        indexAdvisor.record(cityAndMonth);
+        indexAdvisor.record(cityAndMonth);
+        indexAdvisor.record(QueryShape.ofConference(false, ImmutableList.of("city"), null,
+                BY_NAME));
+        indexAdvisor.record(QueryShape.ofConference(false, ImmutableList.of("city"),
+                "maxAttendees", ImmutableList.of("maxAttendees", "name")));
+        assertEquals(2L, (long) indexAdvisor.getCounts().get(cityAndMonth));
+        // A merge join of the indexes of each equality replaces the combined index.
+        assertEquals(ImmutableSet.of(conferenceIndex("city", "name"),
+                conferenceIndex("month", "name"),
+                conferenceIndex("city", "maxAttendees", "name")),
+                indexAdvisor.getRecommendedIndexes());
+        assertEquals(ImmutableList.of(conferenceIndex("city", "name"),
+                conferenceIndex("month", "name")), IndexAdvisor.getUsedIndexes(cityAndMonth,
+                ImmutableList.of(conferenceIndex("city", "name"),
+                        conferenceIndex("month", "name"))));
+        assertNull(IndexAdvisor.getUsedIndexes(cityAndMonth,
+                ImmutableList.of(conferenceIndex("city", "name"))));
+        assertTrue(indexAdvisor.getUnusedIndexedProperties().containsAll(
+                ImmutableSet.of("topics", "seatsAvailable", "lastModified")));
+        assertFalse(indexAdvisor.getUnusedIndexedProperties().contains("city"));
+
+        String report = indexAdvisor.getReport(ImmutableList.of(
+                conferenceIndex("city", "name"), conferenceIndex("topics", "name")),
+                ImmutableList.<com.google.devrel.training.conference.domain.Conference>of());
+        assertTrue(report, report.contains("USED 1 Conference (city, name)"));
+        assertTrue(report, report.contains("UNUSED Conference (topics, name)"));
+        // Only the index the merge join lacks is missing.
+        assertTrue(report, report.contains(
+                "Conference (month, name) for Conference eq=[city, month] order=[name]"));
+        assertFalse(report, report.contains("Conference (city, month, name)"));
+        assertTrue(report, report.contains(
+                "Conference eq=[city] ineq=maxAttendees order=[maxAttendees, name] needs "
+                        + "Conference (city, maxAttendees, name)"));
+    }
+
+    @Test
+    public void testCountsIndexRows() throws Exception {
+        // A list property has a row per value in every index it is part of.
+        assertEquals(2 * (1 + 3 + 1) + 3 + 1, IndexAdvisor.getIndexRows(
+                ImmutableMap.of("name", 1, "topics", 3, "city", 1),
+                ImmutableList.of(conferenceIndex("topics", "name"),
+                        conferenceIndex("city", "name"))));
+    }
+
+    @Test
+    public void testValueCountsLeaveConferenceAlone() throws Exception {
+        LocalServiceTestHelper helper =
+                new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+        helper.setUp();
+        try {
+            Conference conference = new Conference(1L, "organizer", new ConferenceForm("Name",
+                    null, ImmutableList.of("Go", "Java"), "London", null, null, 10));
+            conference.setLastModified(new Date(1000));
+            assertEquals(Integer.valueOf(2),
+                    IndexAdvisor.getValueCounts(conference).get("topics"));
+            assertEquals(1000, conference.getLastModified().getTime());
+        } finally {
+            helper.tearDown();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Sort;
+import com.googlecode.objectify.Key;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests for LocalCacheConferenceRepository.
+ */
+public class LocalCacheConferenceRepositoryTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    private ConferenceRepository backend;
+
+    private LocalCacheConferenceRepository repository;
+
+    private ReadPolicy previous;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        backend = new InMemoryConferenceRepository();
+        repository = new LocalCacheConferenceRepository(backend, new CacheVersions(60 * 1000));
+        previous = ReadPolicy.enter(ReadPolicy.cached(60 * 1000));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ReadPolicy.exit(previous);
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static Conference newConference(String name) {
+        return new Conference(1L, "organizer",
+                new ConferenceForm(name, null, null, null, null, null, 10));
+    }
+
+    @Test
+    public void testCachedReadsServeStaleValuesWithinBudget() throws Exception {
+        Conference conference = newConference("First");
+        repository.save(conference);
+        Key<Conference> key = Key.create(conference.getWebsafeKey());
+        assertEquals("First", repository.get(key).getName());
+        assertEquals(1, repository.query(new ConferenceQueryForm()).size());
+
+        // Changed behind the cache's back, as by another instance.
+        backend.save(newConference("Renamed"));
+        assertEquals("First", repository.get(key).getName());
+        backend.delete(key);
+        assertEquals(1, repository.query(new ConferenceQueryForm()).size());
+    }
+
+    @Test
+    public void testQueriesFillCacheForBatchGets() throws Exception {
+        Conference conference = newConference("First");
+        backend.save(conference);
+        Key<Conference> key = Key.create(conference.getWebsafeKey());
+        repository.query(new ConferenceQueryForm());
+
+        backend.save(newConference("Renamed"));
+        assertEquals("First", repository.getAll(ImmutableList.of(key)).get(key).getName());
+    }
+
+    @Test
+    public void testSeesChangesOfOtherInstances() throws Exception {
+        repository = new LocalCacheConferenceRepository(backend, new CacheVersions(0));
+        Conference conference = newConference("First");
+        repository.save(conference);
+        Key<Conference> key = Key.create(conference.getWebsafeKey());
+        assertEquals("First", repository.get(key).getName());
+        assertEquals("First", repository.query(new ConferenceQueryForm()).get(0).getName());
+
+        // Changed without bumping the versions, so the cached values are still served.
+        backend.save(newConference("Renamed"));
+        assertEquals("First", repository.get(key).getName());
+        assertEquals("First", repository.query(new ConferenceQueryForm()).get(0).getName());
+
+        // Changed by another instance, which bumps the versions.
+        new CacheVersions().bump(ImmutableList.of(key));
+        assertEquals("Renamed", repository.get(key).getName());
+        assertEquals("Renamed", repository.query(new ConferenceQueryForm()).get(0).getName());
+    }
+
+    @Test
+    public void testUnchangedConferencesSurviveOtherChanges() throws Exception {
+        repository = new LocalCacheConferenceRepository(backend, new CacheVersions(0));
+        Conference conference = newConference("First");
+        repository.save(conference);
+        Key<Conference> key = Key.create(conference.getWebsafeKey());
+        repository.get(key);
+
+        backend.save(newConference("Renamed"));
+        // Another Conference changed, which moves the version of the kind only.
+        new CacheVersions().bump(ImmutableList.of(Key.create(Conference.class, 2L)));
+        assertEquals("First", repository.get(key).getName());
+    }
+
+    @Test
+    public void testSeatChangesKeepQueryResults() throws Exception {
+        repository = new LocalCacheConferenceRepository(backend, new CacheVersions(0));
+        Conference conference = newConference("First");
+        repository.save(conference);
+        Key<Conference> key = Key.create(conference.getWebsafeKey());
+        ConferenceQueryForm byName = new ConferenceQueryForm();
+        ConferenceQueryForm bySeats = new ConferenceQueryForm().sort(Sort.SEATS_AVAILABLE);
+        repository.query(byName);
+        repository.query(bySeats);
+
+        // Saved without bumping the versions, so only queries run again find it.
+        backend.save(new Conference(2L, "organizer",
+                new ConferenceForm("Second", null, null, null, null, null, 10)));
+        // Registrations on another instance, which write the seats through.
+        Conference registered = conference.copy();
+        registered.bookSeats(3);
+        new SeatAvailabilityCache().putAfterCommit(registered);
+        new LocalCacheConferenceRepository(backend, new CacheVersions(0)).saveSeats(registered);
+
+        List<Conference> results = repository.query(byName);
+        assertEquals(1, results.size());
+        assertEquals(7, results.get(0).getSeatsAvailable());
+        assertEquals(7, repository.get(key).getSeatsAvailable());
+        // The order of a query by the seats may change, so it runs again.
+        assertEquals(2, repository.query(bySeats).size());
+    }
+
+    @Test
+    public void testOwnSeatChangesAreSeenRightAway() throws Exception {
+        Conference conference = newConference("First");
+        repository.save(conference);
+        Key<Conference> key = Key.create(conference.getWebsafeKey());
+        repository.query(new ConferenceQueryForm());
+
+        Conference registered = repository.get(key);
+        registered.bookSeats(3);
+        new SeatAvailabilityCache().putAfterCommit(registered);
+        repository.saveSeats(registered);
+        assertEquals(7, repository.query(new ConferenceQueryForm()).get(0).getSeatsAvailable());
+        assertEquals(7, repository.get(key).getSeatsAvailable());
+    }
+
+    @Test
+    public void testHotConferencesAreReadFromReplicas() throws Exception {
+        HotKeys hotConferences = new HotKeys("testConferences", 1);
+        HotKeys hotQueries = new HotKeys("testQueries", 1);
+        repository = new LocalCacheConferenceRepository(backend, new CacheVersions(0),
+                hotConferences, hotQueries, new HotConferenceReplicas());
+        Conference conference = newConference("First");
+        conference.setLastModified(new Date(1000));
+        backend.save(conference);
+        Key<Conference> key = Key.create(conference.getWebsafeKey());
+        for (int i = 0; i < 100; i++) {
+            hotConferences.record(key.getString());
+        }
+        hotConferences.refresh();
+        repository.get(key);
+        // Writing the copies does not touch the Conference the cache holds.
+        assertEquals(1000, conference.getLastModified().getTime());
+        assertEquals(1000, repository.get(key).getLastModified().getTime());
+
+        // Another instance finds the copies, without loading the Conference.
+        backend.delete(key);
+        LocalCacheConferenceRepository other = new LocalCacheConferenceRepository(backend,
+                new CacheVersions(0), hotConferences, hotQueries, new HotConferenceReplicas());
+        assertEquals("First", other.get(key).getName());
+        assertEquals(1000, other.get(key).getLastModified().getTime());
+
+        // The copies are of an older version once the Conference changes.
+        new CacheVersions().bump(ImmutableList.of(key));
+        other = new LocalCacheConferenceRepository(backend, new CacheVersions(0),
+                hotConferences, hotQueries, new HotConferenceReplicas());
+        assertNull(other.get(key));
+    }
+
+    @Test
+    public void testHotConferencesAreCheckedOncePerHotWindow() throws Exception {
+        HotKeys hotConferences = new HotKeys("testConferences", 1);
+        repository = new LocalCacheConferenceRepository(backend, new CacheVersions(0, 60 * 1000),
+                hotConferences, new HotKeys("testQueries", 1), new HotConferenceReplicas());
+        Conference hot = newConference("Hot");
+        Conference cold = new Conference(2L, "organizer",
+                new ConferenceForm("Cold", null, null, null, null, null, 10));
+        backend.save(hot);
+        backend.save(cold);
+        Key<Conference> hotKey = Key.create(hot.getWebsafeKey());
+        Key<Conference> coldKey = Key.create(cold.getWebsafeKey());
+        for (int i = 0; i < 100; i++) {
+            hotConferences.record(hotKey.getString());
+        }
+        hotConferences.refresh();
+        repository.getAll(ImmutableList.of(hotKey, coldKey));
+
+        // Both changed by another instance, which bumps the versions.
+        backend.save(newConference("Renamed"));
+        backend.save(new Conference(2L, "organizer",
+                new ConferenceForm("Recolored", null, null, null, null, null, 10)));
+        new CacheVersions().bump(ImmutableList.of(hotKey, coldKey));
+        // The cold Conference is checked again right away, the hot one within the hot window.
+        assertEquals("Recolored", repository.get(coldKey).getName());
+        assertEquals("Hot", repository.get(hotKey).getName());
+    }
+
+    @Test
+    public void testReadsReturnCopies() throws Exception {
+        Conference conference = newConference("First");
+        repository.save(conference);
+        Key<Conference> key = Key.create(conference.getWebsafeKey());
+        repository.query(new ConferenceQueryForm());
+
+        // Changing what a read returned does not change what the next read gets.
+        repository.get(key).bookSeats(10);
+        repository.query(new ConferenceQueryForm()).get(0).bookSeats(10);
+        assertEquals(10, repository.get(key).getSeatsAvailable());
+        assertEquals(10, repository.query(new ConferenceQueryForm()).get(0).getSeatsAvailable());
+        assertNotSame(repository.get(key), repository.get(key));
+    }
+
+    @Test
+    public void testStrongReadsBypassCache() throws Exception {
+        Conference conference = newConference("First");
+        repository.save(conference);
+        Key<Conference> key = Key.create(conference.getWebsafeKey());
+        repository.get(key);
+        repository.query(new ConferenceQueryForm());
+
+        backend.save(newConference("Renamed"));
+        ReadPolicy.enter(ReadPolicy.STRONG);
+        assertEquals("Renamed", repository.get(key).getName());
+        backend.delete(key);
+        assertTrue(repository.query(new ConferenceQueryForm()).isEmpty());
+    }
+
+    @Test
+    public void testWritesEvict() throws Exception {
+        Conference conference = newConference("First");
+        repository.save(conference);
+        Key<Conference> key = Key.create(conference.getWebsafeKey());
+        repository.get(key);
+        repository.query(new ConferenceQueryForm());
+
+        repository.save(newConference("Renamed"));
+        assertEquals("Renamed", repository.get(key).getName());
+        repository.delete(key);
+        assertNull(repository.get(key));
+        assertTrue(repository.query(new ConferenceQueryForm()).isEmpty());
+    }
+}
@@ -0,0 +1,61 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for ReadPolicy.
+ */
+public class ReadPolicyTest {
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty("conference.readPolicy.getConference");
+        ReadPolicy.exit(null);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        assertSame(ReadPolicy.STRONG, ReadPolicy.parse("STRONG"));
+        assertSame(ReadPolicy.EVENTUAL, ReadPolicy.parse("EVENTUAL"));
+        ReadPolicy cached = ReadPolicy.parse("CACHED:5000");
+        assertEquals(ReadPolicy.Tier.CACHED, cached.getTier());
+        assertEquals(5000, cached.getMaxStalenessMillis());
+        assertEquals("CACHED; max-staleness=5000", cached.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseCachedWithoutBudget() throws Exception {
+        ReadPolicy.parse("CACHED");
+    }
+
+    @Test
+    public void testForEndpoint() throws Exception {
+        assertEquals(ReadPolicy.Tier.CACHED, ReadPolicy.forEndpoint("getConference").getTier());
+        assertSame(ReadPolicy.STRONG, ReadPolicy.forEndpoint("registerForConference"));
+        System.setProperty("conference.readPolicy.getConference", "STRONG");
+        assertSame(ReadPolicy.STRONG, ReadPolicy.forEndpoint("getConference"));
+    }
+
+    @Test
+    public void testEnterAndExit() throws Exception {
+        assertSame(ReadPolicy.STRONG, ReadPolicy.current());
+        ReadPolicy outer = ReadPolicy.enter(ReadPolicy.EVENTUAL);
+        ReadPolicy inner = ReadPolicy.enter(ReadPolicy.cached(1000));
+        assertEquals(ReadPolicy.Tier.CACHED, ReadPolicy.current().getTier());
+        ReadPolicy.exit(inner);
+        assertSame(ReadPolicy.EVENTUAL, ReadPolicy.current());
+        ReadPolicy.exit(outer);
+        assertSame(ReadPolicy.STRONG, ReadPolicy.current());
+    }
+
+    @Test
+    public void testAllowsCachedAt() throws Exception {
+        long now = System.currentTimeMillis();
+        assertTrue(ReadPolicy.cached(1000).allowsCachedAt(now - 500));
+        assertFalse(ReadPolicy.cached(1000).allowsCachedAt(now - 5000));
+        assertFalse(ReadPolicy.EVENTUAL.allowsCachedAt(now));
+    }
+}
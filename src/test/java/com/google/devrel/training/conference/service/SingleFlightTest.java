@@ -0,0 +1,193 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Function;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for SingleFlight.
+ */
+public class SingleFlightTest {
+
+    private static final int CALLERS = 5;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A load that blocks until released, counting how often it runs.
+     */
+    private static class BlockingLoader implements SingleFlight.Loader<String, IOException> {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private final AtomicInteger runs = new AtomicInteger();
+
+        private final boolean fail;
+
+        private BlockingLoader(boolean fail) {
+            this.fail = fail;
+        }
+
+        @Override
+        public String load() throws IOException {
+            runs.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (fail) {
+                throw new IOException("Load failed.");
+            }
+            return "value";
+        }
+    }
+
+    private List<Future<String>> submitCallers(final SingleFlight<String, String> singleFlight,
+                                               final BlockingLoader loader) throws Exception {
+        List<Future<String>> results = new ArrayList<>();
+        results.add(executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return singleFlight.execute("key", loader);
+            }
+        }));
+        assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < CALLERS; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return singleFlight.execute("key", loader);
+                }
+            }));
+        }
+        return results;
+    }
+
+    private void awaitCoalesced(SingleFlight<?, ?> singleFlight, int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (singleFlight.getCoalesced() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, singleFlight.getCoalesced());
+    }
+
+    @Test
+    public void testConcurrentCallsShareOneLoad() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("shared", 5000);
+        BlockingLoader loader = new BlockingLoader(false);
+        List<Future<String>> results = submitCallers(singleFlight, loader);
+        awaitCoalesced(singleFlight, CALLERS - 1);
+        loader.release.countDown();
+        for (Future<String> result : results) {
+            assertEquals("value", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loader.runs.get());
+        assertEquals(1, singleFlight.getLoads());
+    }
+
+    @Test
+    public void testWaitingCallersGetCopies() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("copied", 5000,
+                new Function<String, String>() {
+            @Override
+            public String apply(String value) {
+                return new String(value);
+            }
+        });
+        BlockingLoader loader = new BlockingLoader(false);
+        List<Future<String>> results = submitCallers(singleFlight, loader);
+        awaitCoalesced(singleFlight, CALLERS - 1);
+        loader.release.countDown();
+        // The leader keeps the loaded value, and every other caller has its own copy.
+        assertSame("value", results.get(0).get(5, TimeUnit.SECONDS));
+        Set<String> copies = Collections.newSetFromMap(new IdentityHashMap<String, Boolean>());
+        for (Future<String> result : results.subList(1, CALLERS)) {
+            String copy = result.get(5, TimeUnit.SECONDS);
+            assertEquals("value", copy);
+            assertNotSame("value", copy);
+            copies.add(copy);
+        }
+        assertEquals(CALLERS - 1, copies.size());
+    }
+
+    @Test
+    public void testFailureIsPropagatedToAllCallers() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("failing", 5000);
+        BlockingLoader loader = new BlockingLoader(true);
+        List<Future<String>> results = submitCallers(singleFlight, loader);
+        awaitCoalesced(singleFlight, CALLERS - 1);
+        loader.release.countDown();
+        for (Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("The failure of the shared load should be rethrown.");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        assertEquals(1, loader.runs.get());
+    }
+
+    @Test
+    public void testWaitingIsBounded() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>("bounded", 10);
+        final BlockingLoader stuckLoader = new BlockingLoader(false);
+        Future<String> stuck = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return singleFlight.execute("key", stuckLoader);
+            }
+        });
+        assertTrue(stuckLoader.started.await(5, TimeUnit.SECONDS));
+        // The shared load never completes, so the caller runs its own.
+        BlockingLoader loader = new BlockingLoader(false);
+        loader.release.countDown();
+        assertEquals("value", singleFlight.execute("key", loader));
+        assertEquals(1, singleFlight.getTimeouts());
+        stuckLoader.release.countDown();
+        assertEquals("value", stuck.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCompletedLoadIsNotReused() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("fresh", 5000);
+        BlockingLoader loader = new BlockingLoader(false);
+        loader.release.countDown();
+        singleFlight.execute("key", loader);
+        singleFlight.execute("key", loader);
+        assertEquals(2, loader.runs.get());
+    }
+}
@@ -0,0 +1,144 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+import com.googlecode.objectify.Key;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Tests for SnapshotConferenceRepository.
+ */
+public class SnapshotConferenceRepositoryTest {
+
+    /**
+     * The helper here intentionally applies all jobs, since the changes are found by a global
+     * query.
+     */
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    private CatalogSnapshotStore store;
+
+    private SnapshotConferenceRepository repository;
+
+    private ReadPolicy previous;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        // Without a settle window, the changes start right at the snapshot.
+        ConferenceSyncService conferenceSyncService = new ConferenceSyncService(0);
+        store = new CatalogSnapshotStore(conferenceSyncService);
+        // Refreshes on every read.
+        repository = new SnapshotConferenceRepository(new ObjectifyConferenceRepository(),
+                store, conferenceSyncService, 0);
+        previous = ReadPolicy.enter(ReadPolicy.EVENTUAL);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ReadPolicy.exit(previous);
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static Conference saveConference(long id, String name) {
+        Conference conference = new Conference(id, "organizer",
+                new ConferenceForm(name, null, null, null, null, null, 10));
+        ofy().save().entity(conference).now();
+        return conference;
+    }
+
+    @Test
+    public void testReadsFromSnapshot() throws Exception {
+        Conference conference = saveConference(1L, "First");
+        store.build();
+        // Deleted behind the snapshot's back, so only the snapshot can still return it.
+        ofy().delete().entity(conference).now();
+        Key<Conference> key = Key.create(conference.getWebsafeKey());
+        assertEquals("First", repository.get(key).getName());
+        assertEquals(1, repository.query(new ConferenceQueryForm()).size());
+    }
+
+    @Test
+    public void testStrongReadsSkipSnapshot() throws Exception {
+        Conference conference = saveConference(1L, "First");
+        store.build();
+        ofy().delete().entity(conference).now();
+        Key<Conference> key = Key.create(conference.getWebsafeKey());
+        ReadPolicy.enter(ReadPolicy.cached(60 * 1000));
+        assertNotNull(repository.get(key));
+
+        // Strong reads see the delete the snapshot does not know about.
+        ReadPolicy.enter(ReadPolicy.STRONG);
+        assertNull(repository.get(key));
+        assertTrue(repository.getAll(ImmutableList.of(key)).isEmpty());
+        assertTrue(repository.query(new ConferenceQueryForm()).isEmpty());
+    }
+
+    @Test
+    public void testAppliesChangesSinceSnapshot() throws Exception {
+        Conference first = saveConference(1L, "First");
+        store.build();
+        Thread.sleep(5);
+        first.bookSeats(4);
+        ofy().save().entity(first).now();
+        Conference second = saveConference(2L, "Second");
+
+        Key<Conference> firstKey = Key.create(first.getWebsafeKey());
+        Key<Conference> secondKey = Key.create(second.getWebsafeKey());
+        assertEquals(6, repository.get(firstKey).getSeatsAvailable());
+        Map<Key<Conference>, Conference> conferences =
+                repository.getAll(ImmutableList.of(secondKey, firstKey));
+        assertEquals(ImmutableList.of(secondKey, firstKey),
+                ImmutableList.copyOf(conferences.keySet()));
+        assertEquals(2, repository.query(new ConferenceQueryForm()).size());
+    }
+
+    @Test
+    public void testFacetQueriesMatchScans() throws Exception {
+        saveConference(1L, "First");
+        Conference london = new Conference(2L, "organizer", new ConferenceForm("London", null,
+                ImmutableList.of("Java"), "London", null, null, 10));
+        ofy().save().entity(london).now();
+        store.build();
+        Thread.sleep(5);
+        // Moved out of London since the snapshot, so only the change matches.
+        london.updateWithConferenceForm(new ConferenceForm("London", null,
+                ImmutableList.of("Java"), "Paris", null, null, 10));
+        ofy().save().entity(london).now();
+
+        assertTrue(repository.query(new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, Operator.EQ, "London"))).isEmpty());
+        assertEquals(1, repository.query(new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, ImmutableList.of("London", "Paris")))).size());
+        assertEquals(2, repository.query(new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, Operator.NE, "Tokyo"))).size());
+        assertEquals(1, repository.query(new ConferenceQueryForm()
+                .filter(new Filter(Field.TOPIC, Operator.EQ, "Java"))
+                .filter(new Filter(Field.CITY, Operator.EQ, "Paris"))).size());
+    }
+
+    @Test
+    public void testFallsBackWithoutSnapshot() throws Exception {
+        Conference conference = saveConference(1L, "First");
+        assertEquals("First",
+                repository.get(Key.<Conference>create(conference.getWebsafeKey())).getName());
+    }
+}
@@ -0,0 +1,126 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.service.TransactionRunner.RetryPolicy;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+
+/**
+ * Tests for TransactionRunner.
+ */
+public class TransactionRunnerTest {
+
+    private Key<Conference> conferenceKey;
+
+    private TransactionStats stats;
+
+    private TransactionRunner transactionRunner;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100));
+
+    /**
+     * A work that fails with contention a given number of times before it succeeds.
+     */
+    private static class ContendedWork implements Work<String> {
+
+        private int failures;
+
+        private int runs;
+
+        private ContendedWork(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public String run() {
+            runs++;
+            if (runs <= failures) {
+                throw new ConcurrentModificationException("Too much contention");
+            }
+            return "done";
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        // Referring OfyService registers the entities before the key is created.
+        ofy();
+        conferenceKey = Key.create(Key.create(Profile.class, "123456789"), Conference.class, 1L);
+        stats = new TransactionStats();
+        transactionRunner = new TransactionRunner(stats) {
+            @Override
+            protected RetryPolicy getPolicy(String endpoint) {
+                return new RetryPolicy(3, 1, 4, 10000);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testRetriesContention() throws Exception {
+        ContendedWork work = new ContendedWork(2);
+        assertEquals("done", transactionRunner.run("endpoint", conferenceKey, work));
+        assertEquals(3, work.runs);
+        TransactionStats.Counters counters = stats.getByEndpoint().get("endpoint");
+        assertEquals(1, counters.getTransactions());
+        assertEquals(3, counters.getAttempts());
+        assertEquals(2, counters.getRetries());
+        assertEquals(2, counters.getContentions());
+        assertEquals(0, counters.getFailures());
+        assertEquals(3, stats.getByKind().get("Conference").getAttempts());
+        assertEquals(Long.valueOf(2),
+                stats.getContentionsByGroup().get(conferenceKey.getString()));
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        ContendedWork work = new ContendedWork(5);
+        try {
+            transactionRunner.run("endpoint", conferenceKey, work);
+            fail("The runner should give up after 3 attempts.");
+        } catch (ConcurrentModificationException e) {
+            // Expected.
+        }
+        assertEquals(3, work.runs);
+        assertEquals(1, stats.getByEndpoint().get("endpoint").getFailures());
+    }
+
+    @Test
+    public void testDoesNotRetryFatalFailures() throws Exception {
+        final int[] runs = {0};
+        try {
+            transactionRunner.run("endpoint", conferenceKey, new Work<String>() {
+                @Override
+                public String run() {
+                    runs[0]++;
+                    throw new IllegalArgumentException("Bad input");
+                }
+            });
+            fail("The runner should rethrow the IllegalArgumentException.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        assertEquals(1, runs[0]);
+        assertEquals(0, stats.getByEndpoint().get("endpoint").getRetries());
+    }
+}
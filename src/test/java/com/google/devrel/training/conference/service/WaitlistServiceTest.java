@@ -0,0 +1,198 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo.TaskStateInfo;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+import com.googlecode.objectify.Key;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Tests for WaitlistService.
+ */
+public class WaitlistServiceTest {
+
+    private static final String NAME = "GCP Live";
+
+    private User organizer;
+
+    private User waitingUser;
+
+    private ConferenceApi conferenceApi;
+
+    private WaitlistService waitlistService;
+
+    /**
+     * The helper here intentionally applies all jobs, since the promotion uses a global query.
+     */
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy(), new LocalTaskQueueTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        organizer = new User("organizer@example.com", "gmail.com", "123456789");
+        waitingUser = new User("waiting@example.com", "gmail.com", "987654321");
+        conferenceApi = new ConferenceApi();
+        waitlistService = new WaitlistService();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private Conference createConference(int maxAttendees) throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(NAME, null,
+                ImmutableList.of("Cloud"), null, null, null, maxAttendees);
+        return conferenceApi.createConference(organizer, conferenceForm, null);
+    }
+
+    private boolean isWaitlisted(User user, String websafeConferenceKey) {
+        return ofy().load().key(WaitlistEntry.key(user.getUserId(), websafeConferenceKey))
+                .now() != null;
+    }
+
+    @Test
+    public void testFullConferenceWaitlistsUser() throws Exception {
+        Conference conference = createConference(1);
+        conferenceApi.registerForConference(organizer, conference.getWebsafeKey(), null);
+        try {
+            conferenceApi.registerForConference(waitingUser, conference.getWebsafeKey(), null);
+            fail("Registering for a full conference should throw a ConflictException.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        assertTrue("The user should be on the waitlist.",
+                isWaitlisted(waitingUser, conference.getWebsafeKey()));
+        // A retry is answered from the waitlist entry.
+        try {
+            conferenceApi.registerForConference(waitingUser, conference.getWebsafeKey(), null);
+            fail("Retrying a waitlisted registration should throw a ConflictException.");
+        } catch (ConflictException e) {
+            assertEquals("You are already on the waitlist for this conference.",
+                    e.getMessage());
+        }
+    }
+
+    @Test
+    public void testUnregisterPromotesWaitlistedUser() throws Exception {
+        Conference conference = createConference(1);
+        String websafeKey = conference.getWebsafeKey();
+        conferenceApi.registerForConference(organizer, websafeKey, null);
+        try {
+            conferenceApi.registerForConference(waitingUser, websafeKey, null);
+        } catch (ConflictException e) {
+            // Expected, the user is waitlisted.
+        }
+        conferenceApi.unregisterFromConference(organizer, websafeKey);
+        assertEquals(1, waitlistService.promote(websafeKey));
+
+        ofy().clear();
+        Profile profile = ofy().load().key(
+                Key.create(Profile.class, waitingUser.getUserId())).now();
+        assertTrue("The waitlisted user should be registered.",
+                profile.getConferenceKeysToAttend().contains(websafeKey));
+        assertFalse("The waitlist entry should be removed.", isWaitlisted(waitingUser, websafeKey));
+        assertEquals(0, conferenceApi.getConference(websafeKey).getSeatsAvailable());
+    }
+
+    @Test
+    public void testPromotionStopsWhenFull() throws Exception {
+        Conference conference = createConference(0);
+        String websafeKey = conference.getWebsafeKey();
+        try {
+            conferenceApi.registerForConference(waitingUser, websafeKey, null);
+        } catch (ConflictException e) {
+            // Expected, the user is waitlisted.
+        }
+        assertEquals(0, waitlistService.promote(websafeKey));
+        assertTrue("The user should stay on the waitlist.", isWaitlisted(waitingUser, websafeKey));
+    }
+
+    @Test
+    public void testUnregisterLeavesWaitlist() throws Exception {
+        Conference conference = createConference(0);
+        String websafeKey = conference.getWebsafeKey();
+        try {
+            conferenceApi.registerForConference(waitingUser, websafeKey, null);
+        } catch (ConflictException e) {
+            // Expected, the user is waitlisted.
+        }
+        assertTrue(conferenceApi.unregisterFromConference(waitingUser, websafeKey).getResult());
+        assertFalse("The user should have left the waitlist.",
+                isWaitlisted(waitingUser, websafeKey));
+    }
+
+    @Test
+    public void testNewcomersQueueBehindWaitlist() throws Exception {
+        Conference conference = createConference(1);
+        String websafeKey = conference.getWebsafeKey();
+        conferenceApi.registerForConference(organizer, websafeKey, null);
+        try {
+            conferenceApi.registerForConference(waitingUser, websafeKey, null);
+        } catch (ConflictException e) {
+            // Expected, the user is waitlisted.
+        }
+        // The seat is free, but the promotion has not run yet.
+        conferenceApi.unregisterFromConference(organizer, websafeKey);
+        User newcomer = new User("newcomer@example.com", "gmail.com", "555555555");
+        try {
+            conferenceApi.registerForConference(newcomer, websafeKey, null);
+            fail("A newcomer should not take the seat of a waiting user.");
+        } catch (ConflictException e) {
+            assertEquals("Other users are waiting for the seats. You have been added to the "
+                    + "waitlist.", e.getMessage());
+        }
+        assertEquals(2, loadConference(websafeKey).getWaitlisted());
+
+        assertEquals(1, waitlistService.promote(websafeKey));
+        ofy().clear();
+        assertTrue(ofy().load().key(Key.create(Profile.class, waitingUser.getUserId())).now()
+                .getConferenceKeysToAttend().contains(websafeKey));
+        assertTrue("The newcomer should still wait.", isWaitlisted(newcomer, websafeKey));
+        assertEquals(1, loadConference(websafeKey).getWaitlisted());
+    }
+
+    @Test
+    public void testPromotionLooksAgainWhenQueryLags() throws Exception {
+        Conference conference = createConference(1);
+        String websafeKey = conference.getWebsafeKey();
+        // Counted, but not seen by the query yet.
+        conference = loadConference(websafeKey);
+        conference.addToWaitlist(1);
+        ofy().save().entity(conference).now();
+
+        assertEquals(0, waitlistService.promote(websafeKey));
+        List<TaskStateInfo> tasks = LocalTaskQueueTestConfig.getLocalTaskQueue()
+                .getQueueStateInfo().get("default").getTaskInfo();
+        boolean scheduled = false;
+        for (TaskStateInfo task : tasks) {
+            scheduled |= task.getUrl().equals("/tasks/promote_waitlist");
+        }
+        assertTrue("The promotion should be scheduled again.", scheduled);
+    }
+
+    private static Conference loadConference(String websafeKey) {
+        ofy().clear();
+        return ofy().load().key(Key.<Conference>create(websafeKey)).now();
+    }
+}
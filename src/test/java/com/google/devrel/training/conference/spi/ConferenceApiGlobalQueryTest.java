@@ -129,6 +129,18 @@ public class ConferenceApiGlobalQueryTest {
         assertEquals(conference2, conferences.get(2));
     }
 
+    @Test
+    public void testWarmUp() throws Exception {
+        ConferenceApiWarmup.reset();
+        assertFalse(ConferenceApiWarmup.isReady());
+        ConferenceApiWarmup.warmUp();
+        assertTrue(ConferenceApiWarmup.isReady());
+        // A second warmup does nothing.
+        long warmupMillis = ConferenceApiWarmup.getWarmupMillis();
+        ConferenceApiWarmup.warmUp();
+        assertEquals(warmupMillis, ConferenceApiWarmup.getWarmupMillis());
+    }
+
     @Test
     public void testCityQuery() throws Exception {
         // A query only specifies the city.
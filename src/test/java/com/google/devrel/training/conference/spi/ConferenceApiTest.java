@@ -3,15 +3,25 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
+import com.google.api.server.spi.response.BadRequestException;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.NotFoundException;
 import com.google.api.server.spi.response.UnauthorizedException;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Bootstrap;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceListing;
+import com.google.devrel.training.conference.domain.ConferenceLookup;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatAvailability;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceKeysForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
 import com.googlecode.objectify.Key;
@@ -182,7 +192,7 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         // Check the return value.
         assertEquals(NAME, conference.getName());
         assertEquals(DESCRIPTION, conference.getDescription());
@@ -214,7 +224,7 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
 
         List<Conference> conferencesCreated = conferenceApi.getConferencesCreated(user);
         assertEquals(1, conferencesCreated.size());
@@ -234,7 +244,7 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         // Check the return value.
         assertEquals(NAME, conference.getName());
         assertEquals(DESCRIPTION, conference.getDescription());
@@ -284,7 +294,7 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         conference = conferenceApi.getConference(conference.getWebsafeKey());
         // Check the return value.
         assertEquals(NAME, conference.getName());
@@ -299,6 +309,86 @@ public class ConferenceApiTest {
         assertEquals(MONTH, conference.getMonth());
     }
 
+    @Test
+    public void testGetConferences() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference first = conferenceApi.createConference(user, conferenceForm, null);
+        Conference second = conferenceApi.createConference(user, conferenceForm, null);
+        String missingKey = Key.create(Key.create(Profile.class, USER_ID), Conference.class, 999L)
+                .getString();
+        String profileKey = Key.create(Profile.class, USER_ID).getString();
+        List<ConferenceLookup> lookups = conferenceApi.getConferences(new ConferenceKeysForm(
+                ImmutableList.of(second.getWebsafeKey(), missingKey, "invalid", profileKey,
+                        first.getWebsafeKey())));
+        // The lookups come in the order of the keys.
+        assertEquals(5, lookups.size());
+        assertEquals(ConferenceLookup.Status.FOUND, lookups.get(0).getStatus());
+        assertEquals(second.getId(), lookups.get(0).getConference().getId());
+        assertEquals(ConferenceLookup.Status.NOT_FOUND, lookups.get(1).getStatus());
+        assertEquals(missingKey, lookups.get(1).getWebsafeConferenceKey());
+        assertNull(lookups.get(1).getConference());
+        assertEquals(ConferenceLookup.Status.INVALID_KEY, lookups.get(2).getStatus());
+        assertEquals(ConferenceLookup.Status.INVALID_KEY, lookups.get(3).getStatus());
+        assertEquals(ConferenceLookup.Status.FOUND, lookups.get(4).getStatus());
+        assertEquals(first.getId(), lookups.get(4).getConference().getId());
+    }
+
+    @Test
+    public void testGetSeatAvailability() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        conferenceApi.registerForConference(user, conference.getWebsafeKey(), null);
+        String missingKey = Key.create(Key.create(Profile.class, USER_ID), Conference.class, 999L)
+                .getString();
+        List<SeatAvailability> availabilities = conferenceApi.getSeatAvailability(
+                new ConferenceKeysForm(ImmutableList.of(
+                        conference.getWebsafeKey(), missingKey, "invalid")));
+        assertEquals(3, availabilities.size());
+        assertEquals(ConferenceLookup.Status.FOUND, availabilities.get(0).getStatus());
+        assertEquals(CAP - 1, (int) availabilities.get(0).getSeatsAvailable());
+        assertEquals(ConferenceLookup.Status.NOT_FOUND, availabilities.get(1).getStatus());
+        assertNull(availabilities.get(1).getSeatsAvailable());
+        assertEquals(ConferenceLookup.Status.INVALID_KEY, availabilities.get(2).getStatus());
+
+        // Without a cached counter, the seats are read from the index. Getting the Conference
+        // applies the registration, so that the index has caught up with it.
+        MemcacheServiceFactory.getMemcacheService("seatsAvailable").clearAll();
+        DatastoreServiceFactory.getDatastoreService().get(
+                Key.<Conference>create(conference.getWebsafeKey()).getRaw());
+        availabilities = conferenceApi.getSeatAvailability(
+                new ConferenceKeysForm(ImmutableList.of(conference.getWebsafeKey())));
+        assertEquals(ConferenceLookup.Status.FOUND, availabilities.get(0).getStatus());
+        assertEquals(CAP - 1, (int) availabilities.get(0).getSeatsAvailable());
+    }
+
+    @Test
+    public void testGetConferenceListing() throws Exception {
+        ConferenceListing listing = conferenceApi.getConferenceListing("CITY", "Nowhere", null);
+        assertEquals(0, listing.getTotalCount());
+        assertTrue(listing.getConferences().isEmpty());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testGetConferenceListingWithInvalidFacet() throws Exception {
+        conferenceApi.getConferenceListing("COUNTRY", "Japan", null);
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testGetConferenceListingWithMissingPage() throws Exception {
+        conferenceApi.getConferenceListing("CITY", "Nowhere", 1);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testGetConferencesWithTooManyKeys() throws Exception {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i <= ConferenceApi.MAX_BATCH_KEYS; i++) {
+            keys.add("key" + i);
+        }
+        conferenceApi.getConferences(new ConferenceKeysForm(keys));
+    }
+
     @Test
     public void testRegistrations() throws Exception {
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
@@ -310,10 +400,10 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         // Registration
         Boolean result = conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
+                user, conference.getWebsafeKey(), null).getResult();
         conference = conferenceApi.getConference(conference.getWebsafeKey());
         Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertTrue("registerForConference should succeed.", result);
@@ -344,9 +434,9 @@ public class ConferenceApiTest {
         // Create a conference as the remaining seats is zero.
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, 0);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
+                user, conference.getWebsafeKey(), null).getResult();
     }
 
     @Test(expected = ConflictException.class)
@@ -360,10 +450,10 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         // Registration
         Boolean result = conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
+                user, conference.getWebsafeKey(), null).getResult();
         conference = conferenceApi.getConference(conference.getWebsafeKey());
         Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertTrue("The first registration should succeed.", result);
@@ -373,7 +463,7 @@ public class ConferenceApiTest {
 
         // The user has already registered for the conference. This should throw an ForbiddenException.
         conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
+                user, conference.getWebsafeKey(), null).getResult();
     }
 
     @Test(expected = NotFoundException.class)
@@ -393,18 +483,75 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
 
         // Should be 0 result.
         Collection<Conference> conferenceToAttend = conferenceApi.getConferencesToAttend(user);
         assertEquals(0, conferenceToAttend.size());
 
         // Registration
-        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        conferenceApi.registerForConference(user, conference.getWebsafeKey(), null);
         conference = conferenceApi.getConference(conference.getWebsafeKey());
         conferenceToAttend = conferenceApi.getConferencesToAttend(user);
         assertEquals(1, conferenceToAttend.size());
         assertTrue("The result should contain the conference.",
                 conferenceToAttend.contains(conference));
     }
+
+    @Test
+    public void testGetBootstrap() throws Exception {
+        // Without a user, only the announcement is returned.
+        Bootstrap bootstrap = conferenceApi.getBootstrap(null, null);
+        assertNull(bootstrap.getProfile());
+        assertTrue(bootstrap.getConferencesToAttend().isEmpty());
+        assertNull(bootstrap.getConference());
+
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        conferenceApi.registerForConference(user, conference.getWebsafeKey(), null);
+        MemcacheServiceFactory.getMemcacheService().put(
+                Constants.MEMCACHE_ANNOUNCEMENTS_KEY, "Last chance!");
+
+        bootstrap = conferenceApi.getBootstrap(user, conference.getWebsafeKey());
+        assertEquals(USER_ID, bootstrap.getProfile().getUserId());
+        assertEquals("Last chance!", bootstrap.getAnnouncement().getMessage());
+        assertEquals(1, bootstrap.getConferencesToAttend().size());
+        assertEquals(conference.getId(), bootstrap.getConferencesToAttend().get(0).getId());
+        assertEquals(conference.getId(), bootstrap.getConference().getId());
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testGetBootstrapWithMissingConference() throws Exception {
+        conferenceApi.getBootstrap(user,
+                Key.create(Key.create(Profile.class, USER_ID), Conference.class, 99L).getString());
+    }
+
+    @Test
+    public void testCreateConferenceWithIdempotencyKey() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, "request-1");
+        // The replayed request returns the same Conference instead of creating another one.
+        Conference replayed = conferenceApi.createConference(user, conferenceForm, "request-1");
+        assertEquals(conference.getWebsafeKey(), replayed.getWebsafeKey());
+        assertEquals(1, conferenceApi.getConferencesCreated(user).size());
+        // A different key creates a new Conference.
+        conferenceApi.createConference(user, conferenceForm, "request-2");
+        assertEquals(2, conferenceApi.getConferencesCreated(user).size());
+    }
+
+    @Test
+    public void testRegistrationWithIdempotencyKey() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        assertTrue(conferenceApi.registerForConference(
+                user, conference.getWebsafeKey(), "request-1").getResult());
+        // The replayed request returns the first outcome instead of a ConflictException.
+        assertTrue(conferenceApi.registerForConference(
+                user, conference.getWebsafeKey(), "request-1").getResult());
+        conference = conferenceApi.getConference(conference.getWebsafeKey());
+        assertEquals(CAP - 1, conference.getSeatsAvailable());
+    }
 }